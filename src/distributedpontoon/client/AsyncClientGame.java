@@ -0,0 +1,405 @@
+package distributedpontoon.client;
+
+import distributedpontoon.shared.Card;
+import distributedpontoon.shared.Hand;
+import distributedpontoon.shared.IClientGame;
+import distributedpontoon.shared.PontoonRules;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous way to play a single hand of Pontoon. Every action returns a
+ * {@link GameFuture} for its result instead of waiting for the server or
+ * calling back into an {@link IPlayer}, so hands can be composed by adding
+ * {@link GameFuture.Listener}s and the caller never has to block.
+ * <p>
+ * Only one action can be waiting at a time, matching the turn by turn flow of
+ * the game. Starting another action before the last one completes gives a
+ * failed {@link GameFuture}. Games created with a {@link NioTransport} share
+ * its selector thread, so one thread can drive any number of games.
+ *
+ * @author 6266215
+ * @version 1.3
+ * @since 2015-03-11
+ */
+public class AsyncClientGame
+{
+    /** The {@link Executor} that runs a blocking connection, or null. */
+    private final Executor executor;
+    /** The game that holds the connection to the server. */
+    private final IClientGame game;
+    /** The bet placed on the hand. */
+    private final int bet;
+    /** The action waiting for the server to join the game. */
+    private GameFuture<Integer> joining;
+    /** The action waiting for the first two cards. */
+    private GameFuture<Hand> dealing;
+    /** The action waiting for a twisted card. */
+    private GameFuture<Card> twisting;
+    /** The result of the hand, completed when the hand is settled. */
+    private final GameFuture<Settlement> result;
+    /** Set to true once a stick or bust has been sent. */
+    private boolean finished;
+
+    /**
+     * The outcome of a settled hand.
+     *
+     * @since 1.0
+     */
+    public static final class Settlement
+    {
+        /** Set to true if the player won the hand. */
+        public final boolean PlayerWin;
+        /** Set to true if the player won with a pontoon. */
+        public final boolean Pontoon;
+        /** The players final {@link Hand}. */
+        public final Hand PlayerHand;
+        /** The dealers final {@link Hand}. */
+        public final Hand DealerHand;
+        /** The credits added back to the players balance, as given by
+         * {@link PontoonRules#playerReturn(boolean, boolean, int)}. The bet
+         * was taken when the hand started, so this includes the stake, and is
+         * 0 if the hand was lost. */
+        public final int Return;
+
+        /**
+         * Creates a new {@link Settlement}.
+         *
+         * @param playerWin Set to true if the player won.
+         * @param pontoon Set to true if the player won with a pontoon.
+         * @param playerHand The players final {@link Hand}.
+         * @param dealerHand The dealers final {@link Hand}.
+         * @param bet The bet placed on the hand.
+         * @since 1.0
+         */
+        Settlement(boolean playerWin, boolean pontoon, Hand playerHand,
+                Hand dealerHand, int bet)
+        {
+            this.PlayerWin = playerWin;
+            this.Pontoon = pontoon;
+            this.PlayerHand = playerHand;
+            this.DealerHand = dealerHand;
+            this.Return = PontoonRules.playerReturn(playerWin, pontoon, bet);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s (%d) against %d, return %d",
+                    PlayerWin ? (Pontoon ? "Pontoon" : "Win") : "Loss",
+                    PlayerHand.total(), DealerHand.total(), Return);
+        }
+    }
+
+    /**
+     * Creates a new {@link AsyncClientGame} for a single player game on the
+     * specified server. Nothing is sent until {@link
+     * AsyncClientGame#connect()} is called.
+     *
+     * @param hostName The name or IP address of the server.
+     * @param port The port of the server.
+     * @param bet The bet to place on the hand.
+     * @param executor The {@link Executor} used to read from the server.
+     * @throws IllegalArgumentException Thrown if the port is not a valid TCP
+     * port.
+     * @since 1.0
+     */
+    public AsyncClientGame(String hostName, int port, int bet,
+            Executor executor) throws IllegalArgumentException
+    {
+        this.executor = executor;
+        this.bet = bet;
+        this.game = new ClientGame(new Driver(), bet, hostName, port);
+        this.result = new GameFuture<>();
+        this.finished = false;
+    }
+
+    /**
+     * Creates a new {@link AsyncClientGame} for a single player game on the
+     * specified server, run without a thread of its own on a {@link
+     * NioTransport}. Listeners are called on the selector thread.
+     *
+     * @param hostName The name or IP address of the server.
+     * @param port The port of the server.
+     * @param bet The bet to place on the hand.
+     * @param transport The {@link NioTransport} to connect through.
+     * @throws IllegalArgumentException Thrown if the port is not a valid TCP
+     * port.
+     * @since 1.1
+     */
+    public AsyncClientGame(String hostName, int port, int bet,
+            NioTransport transport) throws IllegalArgumentException
+    {
+        this.executor = null;
+        this.bet = bet;
+        this.game = new NioClientGame(transport, new Driver(), bet, hostName,
+                port);
+        this.result = new GameFuture<>();
+        this.finished = false;
+    }
+
+    /**
+     * Connects to the server and joins a new game.
+     *
+     * @return A {@link GameFuture} for the ID of the game joined.
+     * @since 1.0
+     */
+    public synchronized GameFuture<Integer> connect()
+    {
+        if (joining != null)
+            return GameFuture.failedWith(
+                    new IllegalStateException("Already connected."));
+        joining = new GameFuture<>();
+        GameFuture<Integer> future = joining;
+        if (executor == null) {
+            game.run(); // Only starts the connection, nothing blocks.
+            return future;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    game.run();
+                } finally {
+                    closed();
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Places the bet and asks for the first two cards.
+     *
+     * @return A {@link GameFuture} for the players {@link Hand}, completed
+     * once the player can make their first move.
+     * @since 1.0
+     */
+    public GameFuture<Hand> startGame()
+    {
+        GameFuture<Hand> future;
+        synchronized (this) {
+            if (joining == null || !joining.isDone() || dealing != null)
+                return GameFuture.failedWith(new IllegalStateException(
+                        "Hands can only be started once after joining."));
+            dealing = new GameFuture<>();
+            future = dealing;
+        }
+        game.startGame();
+        return future;
+    }
+
+    /**
+     * Asks for another {@link Card}. If the card takes the hand bust, the
+     * hand is settled straight after the returned {@link GameFuture}
+     * completes.
+     *
+     * @return A {@link GameFuture} for the {@link Card} dealt.
+     * @since 1.0
+     */
+    public GameFuture<Card> twist()
+    {
+        GameFuture<Card> future;
+        synchronized (this) {
+            if (!canAct())
+                return GameFuture.failedWith(new IllegalStateException(
+                        "It is not the players turn."));
+            twisting = new GameFuture<>();
+            future = twisting;
+        }
+        game.twist();
+        return future;
+    }
+
+    /**
+     * Sticks with the current {@link Hand}.
+     *
+     * @return A {@link GameFuture} for the {@link Settlement} of the hand.
+     * @since 1.0
+     */
+    public GameFuture<Settlement> stand()
+    {
+        synchronized (this) {
+            if (!canAct())
+                return GameFuture.failedWith(new IllegalStateException(
+                        "It is not the players turn."));
+            finished = true;
+        }
+        game.stand();
+        return result;
+    }
+
+    /**
+     * Gets the {@link Settlement} of the hand, however it ends.
+     *
+     * @return A {@link GameFuture} for the {@link Settlement}.
+     * @since 1.0
+     */
+    public GameFuture<Settlement> getResult() { return result; }
+
+    /**
+     * Gets the players current {@link Hand}.
+     *
+     * @return The {@link Hand}, empty until the cards are dealt.
+     * @since 1.0
+     */
+    public Hand getHand() { return game.getHand(); }
+
+    /**
+     * Gets the bet placed on the hand.
+     *
+     * @return The bet as an int.
+     * @since 1.0
+     */
+    public int getBet() { return bet; }
+
+    /**
+     * Checks whether the player can make a move.
+     *
+     * @return Returns true if the cards have been dealt, no other action is
+     * waiting and the player has not stuck or gone bust.
+     * @since 1.0
+     */
+    private boolean canAct()
+    {
+        return dealing != null && dealing.isDone() && !finished
+                && (twisting == null || twisting.isDone());
+    }
+
+    /**
+     * Fails every action still waiting once the connection has closed.
+     *
+     * @since 1.0
+     */
+    private void closed()
+    {
+        IOException ex = new IOException("Connection to the game closed.");
+        GameFuture<?>[] waiting;
+        synchronized (this) {
+            waiting = new GameFuture<?>[] {joining, dealing, twisting};
+        }
+        for (GameFuture<?> f : waiting) {
+            if (f != null) f.fail(ex);
+        }
+        result.fail(ex);
+    }
+
+    /**
+     * Turns the callbacks from the {@link ClientGame} into completed {@link
+     * GameFuture}s. Every callback arrives on the thread reading from the
+     * server.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    private class Driver extends IPlayer
+    {
+        /**
+         * Creates a new {@link Driver}.
+         *
+         * @since 1.0
+         */
+        Driver()
+        {
+            this.balance = Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void gameJoined(IClientGame joined)
+        {
+            GameFuture<Integer> future;
+            synchronized (AsyncClientGame.this) { future = joining; }
+            future.complete(joined.getGameID());
+        }
+
+        @Override
+        public void betRejected(IClientGame game, int largestBet)
+        {
+            GameFuture<Hand> deal;
+            synchronized (AsyncClientGame.this) { deal = dealing; }
+            if (deal != null)
+                deal.fail(new IllegalStateException(String.format("The bank "
+                        + "can only cover bets up to %d.", largestBet)));
+        }
+
+        @Override
+        public void play(IClientGame caller)
+        {
+            GameFuture<Hand> deal;
+            GameFuture<Card> card;
+            synchronized (AsyncClientGame.this) {
+                deal = dealing;
+                card = twisting;
+            }
+            // The first turn finishes the deal, later turns finish a twist.
+            if (deal != null && !deal.isDone())
+                deal.complete(caller.getHand());
+            else if (card != null && !card.isDone())
+                card.complete(lastCard(caller.getHand()));
+        }
+
+        @Override
+        public void playerWin(IClientGame won, boolean pontoon)
+        {
+            settle(won, true, pontoon);
+        }
+
+        @Override
+        public void dealerWin(IClientGame lost) { settle(lost, false, false); }
+
+        /**
+         * Settles the hand, finishing a twist that went bust first.
+         *
+         * @param settled The {@link IClientGame} that has ended.
+         * @param win Set to true if the player won.
+         * @param pontoon Set to true if the player won with a pontoon.
+         * @since 1.0
+         */
+        private void settle(IClientGame settled, boolean win, boolean pontoon)
+        {
+            GameFuture<Card> card;
+            synchronized (AsyncClientGame.this) {
+                card = twisting;
+                finished = true;
+            }
+            Hand hand = settled.getHand();
+            if (card != null && !card.isDone())
+                card.complete(lastCard(hand));
+            result.complete(new Settlement(win, pontoon, hand,
+                    settled.getDealerHand(), bet));
+        }
+
+        /**
+         * Gets the last {@link Card} added to a {@link Hand}.
+         *
+         * @param hand The {@link Hand} to look at.
+         * @return The last {@link Card}, or null if the hand is empty.
+         * @since 1.0
+         */
+        private Card lastCard(Hand hand)
+        {
+            List<Card> cards = hand.getCards();
+            return cards.isEmpty() ? null : cards.get(cards.size() - 1);
+        }
+
+        @Override
+        public void init() {}
+
+        @Override
+        public void setPlayerID(IClientGame joined, int id) {}
+
+        @Override
+        public void reigsterGame(IClientGame joined) {}
+
+        @Override
+        public boolean isPlaying() { return !result.isDone(); }
+
+        @Override
+        public void startGame() {}
+
+        @Override
+        public void leaveGame(IClientGame left) { closed(); }
+    }
+}
@@ -16,7 +16,7 @@ import java.util.Set;
  * being used.
  * 
  * @author 6266215
- * @version 1.3
+ * @version 1.4
  * @since 2015-02-08
  */
 public class CLIPlayer extends HumanPlayer 
@@ -59,6 +59,7 @@ public class CLIPlayer extends HumanPlayer
                 case "servers":
                     // Let the user pick from a list of known servers.
                     Set<Triple<String, Integer, Integer>> svrs = findServers();
+                    if (svrs == null) break; // Already reported.
                     Triple<String, Integer, Integer>[] servers 
                             = svrs.toArray(new Triple[svrs.size()]);
                     if (servers.length == 0) {
@@ -1,5 +1,6 @@
 package distributedpontoon.client;
 
+import distributedpontoon.shared.DirectoryEndpoints;
 import distributedpontoon.shared.PontoonLogger;
 import java.io.IOException;
 import java.util.Scanner;
@@ -9,7 +10,7 @@ import java.util.Scanner;
  *  the {@link CLIPlayer}, {@link GUIPlayer} and {@link RoboPlayer} clients.
  * 
  * @author 6266215
- * @version 1.1
+ * @version 1.3
  * @since 2015-02-20
  */
 public class Client
@@ -17,8 +18,13 @@ public class Client
     /** The maximum number of games the {@link RoboPlayer} should play against 
      a single server. */
     public static int MAX_GAMES = 5;
-    public static String DIR_HOSTNAME = "localhost";
-    public static int DIR_PORT = 55552;
+    /** The replicas of the directory server, replaced whole when changed. */
+    public static DirectoryEndpoints DIRECTORIES = new DirectoryEndpoints(
+            "localhost", DirectoryEndpoints.DEFAULT_PORT);
+    /** The tactic each {@link RoboPlayer} should play with. */
+    public static RoboPlayer.Tactic ROBO_TACTIC = RoboPlayer.Tactic.THRESHOLD;
+    /** Set to true to run robot games on the shared {@link NioTransport}. */
+    public static boolean USE_NIO = false;
     
     public static void main(String[] args)
     {        
@@ -40,21 +46,29 @@ public class Client
                         i--;
                     }
                     break;
+                case "--robo-tactic":
+                    try {
+                        Client.ROBO_TACTIC = RoboPlayer.Tactic.valueOf(
+                                args[++i].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.err.println("robo-tactic only accepts "
+                                + "'threshold' or 'table'!");
+                    }
+                    break;
+                case "--nio":
+                    System.out.println("Using non-blocking connections...");
+                    Client.USE_NIO = true;
+                    break;
                 case "--no-file":
                     System.out.println("Disabling logging to file...");
                     PontoonLogger.fileLog = false;
                     break;
                 case "--dir-server":
-                    String[] parts = args[++i].split(":");
-                    if (parts.length == 1) {
-                        Client.DIR_HOSTNAME = parts[0];
-                    } else {
-                        try {
-                            Client.DIR_HOSTNAME = parts[0];
-                            Client.DIR_PORT = Integer.parseInt(parts[1]);
-                        } catch (NumberFormatException nfEx) {
-                            System.err.println("Port value must be a number.");
-                        }
+                    try {
+                        Client.DIRECTORIES = 
+                                DirectoryEndpoints.parse(args[++i]);
+                    } catch (IllegalArgumentException argEx) {
+                        System.err.println(argEx.getMessage());
                     }
                     break;
                 case "-v":
@@ -111,7 +125,7 @@ public class Client
                     }
                     if (num > 0) {
                         for (int i = 0; i < num; i++) {
-                            player = new RoboPlayer();
+                            player = new RoboPlayer(Client.ROBO_TACTIC);
                             player.init();
                             player.startGame();
                         }
@@ -125,8 +139,16 @@ public class Client
                 default:
                     System.err.printf("Unknown client type '%s'!%n", run);
             }
-            if (player != null)
-                while (player.isPlaying()) {}
+            // Wait for the player to finish without spinning a core.
+            if (player != null) {
+                while (player.isPlaying()) {
+                    try {
+                        Thread.sleep(250);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
         }
         
         try {
@@ -150,8 +172,13 @@ public class Client
         sb.append("\tCommand [options] (Short) - Action\n");
         sb.append("\t--max-games [games] - Specifies the maximum number of "
                 + "times the roboplayer should play on a server.\n");
-        sb.append("\t--dir-server [hostname:port] - Sets the directory server "
-                + "to connect to. If no port is specific, port 55552 is used.");
+        sb.append("\t--robo-tactic [threshold|table] - Sets how the "
+                + "roboplayer decides to twist or stick.\n");
+        sb.append("\t--nio - Runs every roboplayer game on one non-blocking "
+                + "thread.\n");
+        sb.append("\t--dir-server [hostname:port,...] - Sets the directory "
+                + "server to connect to, or a comma separated list of its "
+                + "replicas. If no port is specific, port 55552 is used.");
         sb.append("\t--no-file - Prevents logging to a file.\n");
         sb.append("\t--verbose (-v) - Prints extra detail to the console.");
         sb.append("\t--help (-h) - Displays this help message.\n");
@@ -6,6 +6,7 @@ import distributedpontoon.shared.IClientGame;
 import distributedpontoon.shared.IGame;
 import distributedpontoon.shared.IServerGame;
 import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.PontoonRules;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -22,7 +23,7 @@ import java.util.logging.Level;
  * IPlayer}s in a game.
  * 
  * @author 6266215
- * @version 1.2
+ * @version 1.4
  * @since 2015-02-16
  */
 public class ClientGame extends IClientGame
@@ -422,6 +423,7 @@ public class ClientGame extends IClientGame
                         player.setPlayerID(this, input.readInt());
                         gameID = input.readInt();
                         gameMessage("Connected!");
+                        player.gameJoined(this);
                         break;
                     case GAME_INITIALISE:
                         // Accept the first two cards the dealer sends.
@@ -429,6 +431,7 @@ public class ClientGame extends IClientGame
                         Card cardTwo = (Card)input.readObject();
                         hand.addCard(cardOne);
                         hand.addCard(cardTwo);
+                        player.gameInitialised(this);
                         ready();
                         break;
                     case CARD_TRANSFER:
@@ -450,17 +453,23 @@ public class ClientGame extends IClientGame
                         gameMessage(Level.FINE, "Dealer hand:%n%s", dealerHand);
                         if (winner == PLAYER_WIN) {
                             boolean pontoon = input.readBoolean();
-                            if (pontoon) {
-                                player.adjustBalance((int)(bet*1.5f));
-                            } else {
-                                player.adjustBalance(bet);
-                            }
+                            player.adjustBalance(PontoonRules.playerReturn(
+                                    PLAYER_WIN, pontoon, bet));
                             player.playerWin(this, pontoon);
                         } else {
                             player.dealerWin(this);
                         }
                         disconnect();
                         break;
+                    case BET_REJECTED:
+                        // The server cannot cover the bet, so take it back.
+                        int largest = input.readInt();
+                        gameMessage("Bet of %d rejected, the bank can cover "
+                                + "up to %d.", bet, largest);
+                        player.adjustBalance(bet);
+                        player.betRejected(this, largest);
+                        disconnect();
+                        break;
                     default:
                         gameError("Clients do not handle this type of "
                                 + "message (%s)%n", msg);
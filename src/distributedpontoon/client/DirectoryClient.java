@@ -0,0 +1,374 @@
+package distributedpontoon.client;
+
+import distributedpontoon.directoryservice.DirectoryQuery;
+import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.directoryservice.ServerRegistry;
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Triple;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Keeps a local copy of the games known to a {@link DirectoryService}. After
+ * the first request only the changes since the last one are fetched, so
+ * asking again costs little while nothing changes. A client can also wait for
+ * the next change with {@link DirectoryClient#watch(long)} rather than
+ * asking repeatedly. Clients that only want some games can ask for them with
+ * a {@link DirectoryQuery}, which bypasses the local copy, and clients about
+ * to start games can ask where to start them with {@link 
+ * DirectoryClient#place(int, long)}.
+ * <p>
+ * The directory may be run as several replicas. Each request goes to the
+ * replica that answered last, and is tried on the next if that replica cannot
+ * be reached or fails to answer, so losing a replica is not noticed. Each
+ * replica has its own epoch, so moving to another fetches every game once.
+ *
+ * @author 6266215
+ * @version 1.4
+ * @since 2015-03-15
+ */
+public class DirectoryClient
+{
+    /** The time allowed to connect to the directory in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 2000;
+    /** The time allowed for the directory to reply in milliseconds, on top of
+     * any time it was asked to wait. */
+    private static final int REPLY_TIMEOUT = 5000;
+
+    /**
+     * A single request and reply with the directory, which can be tried
+     * again on another replica.
+     *
+     * @param <T> The type of the reply.
+     * @since 1.3
+     */
+    private static interface Exchange<T>
+    {
+        /**
+         * Sends the request and reads the reply.
+         *
+         * @param output The stream to the directory.
+         * @param socket The connection, to read the reply from once the
+         * request is sent.
+         * @return The reply.
+         * @throws IOException Thrown if the directory failed to answer.
+         * @throws ClassNotFoundException Thrown if the reply could not be
+         * read.
+         * @since 1.3
+         */
+        T run(ObjectOutputStream output, Socket socket) throws IOException,
+                ClassNotFoundException;
+    }
+
+    /** The replicas of the directory server. */
+    private final DirectoryEndpoints directories;
+    /** The games known, as host name, port and game ID {@link Triple}s. */
+    private final HashSet<Triple<String, Integer, Integer>> servers;
+    /** The epoch of the directory the copy came from. */
+    private long epoch;
+    /** The version of the directory the copy is at, -1 if never fetched. */
+    private long version;
+
+    /**
+     * Creates a new, empty {@link DirectoryClient}. Nothing is fetched until
+     * it is asked for.
+     *
+     * @param hostName The host name of the directory server.
+     * @param port The port of the directory server.
+     * @since 1.0
+     */
+    public DirectoryClient(String hostName, int port)
+    {
+        this(new DirectoryEndpoints(hostName, port));
+    }
+
+    /**
+     * Creates a new, empty {@link DirectoryClient} for a directory run as 
+     * several replicas. Nothing is fetched until it is asked for.
+     *
+     * @param directories The replicas of the directory server.
+     * @since 1.3
+     */
+    public DirectoryClient(DirectoryEndpoints directories)
+    {
+        this.directories = directories;
+        this.servers = new HashSet<>();
+        this.epoch = 0;
+        this.version = -1;
+    }
+
+    /**
+     * Gets the replicas of the directory server.
+     *
+     * @return The {@link DirectoryEndpoints} in use.
+     * @since 1.3
+     */
+    public DirectoryEndpoints getDirectories() { return directories; }
+
+    /**
+     * Gets the version of the directory the local copy is at.
+     *
+     * @return The version, or -1 if nothing has been fetched.
+     * @since 1.0
+     */
+    public synchronized long getVersion() { return version; }
+
+    /**
+     * Gets the local copy of the known games without contacting the
+     * directory.
+     *
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @since 1.0
+     */
+    public synchronized HashSet<Triple<String, Integer, Integer>> getServers()
+    {
+        return new HashSet<>(servers);
+    }
+
+    /**
+     * Brings the local copy up to date with the directory.
+     *
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if the directory could not be reached.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> refresh()
+            throws IOException
+    {
+        request(MessageType.QUERY_CHANGES, 0);
+        return getServers();
+    }
+
+    /**
+     * Waits until the directory changes, then brings the local copy up to
+     * date. Returns straight away if the copy is already behind.
+     *
+     * @param wait The longest time to wait in milliseconds. The directory may
+     * answer sooner.
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if the directory could not be reached.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> watch(long wait)
+            throws IOException
+    {
+        request(MessageType.WATCH_SERVERS, wait);
+        return getServers();
+    }
+
+    /**
+     * Asks the directory for only the games that match a query. The local 
+     * copy is not used or changed.
+     *
+     * @param query The {@link DirectoryQuery} to match.
+     * @return A {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if the directory could not be reached.
+     * @since 1.1
+     */
+    public HashSet<Triple<String, Integer, Integer>> query(
+            final DirectoryQuery query) throws IOException
+    {
+        return exchange(0, 
+                new Exchange<HashSet<Triple<String, Integer, Integer>>>() {
+            @Override
+            public HashSet<Triple<String, Integer, Integer>> run(
+                    ObjectOutputStream output, Socket socket)
+                    throws IOException, ClassNotFoundException
+            {
+                output.writeObject(MessageType.QUERY_FILTERED);
+                output.writeObject(query);
+                output.flush();
+                ObjectInputStream input = expect(socket, 
+                        MessageType.QUERY_FILTERED);
+                return cast(input.readObject());
+            }
+        });
+    }
+
+    /**
+     * Asks the directory which servers to start new single player games on, 
+     * picked so that no server takes more than its share.
+     *
+     * @param count The number of games to start.
+     * @param headroom The fewest free credits a server must have to cover a 
+     * single game.
+     * @return A {@link List} of host name, port and game ID {@link Triple}s, 
+     * one for each game, which may name the same server more than once. 
+     * Empty if no server can take a game.
+     * @throws IOException Thrown if the directory could not be reached.
+     * @since 1.2
+     */
+    public List<Triple<String, Integer, Integer>> place(final int count, 
+            final long headroom) throws IOException
+    {
+        return exchange(0, 
+                new Exchange<List<Triple<String, Integer, Integer>>>() {
+            @Override
+            public List<Triple<String, Integer, Integer>> run(
+                    ObjectOutputStream output, Socket socket)
+                    throws IOException, ClassNotFoundException
+            {
+                output.writeObject(MessageType.QUERY_PLACEMENT);
+                output.writeInt(count);
+                output.writeLong(headroom);
+                output.flush();
+                ObjectInputStream input = expect(socket, 
+                        MessageType.QUERY_PLACEMENT);
+                return cast(input.readObject());
+            }
+        });
+    }
+
+    /**
+     * Sends the epoch and version of the local copy to the directory, and
+     * applies whatever it sends back.
+     *
+     * @param type Either {@link MessageType#QUERY_CHANGES} or {@link
+     * MessageType#WATCH_SERVERS}.
+     * @param wait The longest time the directory should wait for a change.
+     * @throws IOException Thrown if the directory could not be reached or
+     * sent something unexpected.
+     * @since 1.0
+     */
+    private void request(final MessageType type, final long wait) 
+            throws IOException
+    {
+        exchange(wait, new Exchange<Void>() {
+            @Override
+            public Void run(ObjectOutputStream output, Socket socket)
+                    throws IOException, ClassNotFoundException
+            {
+                long knownEpoch, knownVersion;
+                synchronized (DirectoryClient.this) {
+                    knownEpoch = epoch;
+                    knownVersion = version;
+                }
+                output.writeObject(type);
+                output.writeLong(knownEpoch);
+                output.writeLong(knownVersion);
+                if (type == MessageType.WATCH_SERVERS)
+                    output.writeLong(wait);
+                output.flush();
+                ObjectInputStream input = expect(socket, type);
+                long newEpoch = input.readLong();
+                long newVersion = input.readLong();
+                boolean full = input.readBoolean();
+                Object contents = input.readObject();
+                apply(newEpoch, newVersion, full, contents);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs a single request on the replica that answered last, moving on to
+     * the next replica each time one fails until every replica has been
+     * tried.
+     *
+     * @param <T> The type of the reply.
+     * @param wait Any time the directory was asked to wait before answering,
+     * in milliseconds.
+     * @param exchange The {@link Exchange} to run.
+     * @return The reply.
+     * @throws IOException Thrown if no replica answered, holding the reason
+     * the last one failed.
+     * @since 1.3
+     */
+    private <T> T exchange(long wait, Exchange<T> exchange) throws IOException
+    {
+        for (int tries = 1; ; tries++) {
+            // Connecting already tries every replica, so only a replica that
+            // connects but fails to answer is tried again.
+            Socket socket = directories.connect(CONNECT_TIMEOUT);
+            try {
+                socket.setSoTimeout((int)Math.min(Integer.MAX_VALUE,
+                        REPLY_TIMEOUT + Math.max(0, wait)));
+                return exchange.run(
+                        new ObjectOutputStream(socket.getOutputStream()),
+                        socket);
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Unexpected reply from directory.", ex);
+            } catch (IOException ioEx) {
+                directories.failed();
+                if (tries >= directories.size()) throw ioEx;
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the start of a reply and checks it answers the request sent.
+     *
+     * @param socket The connection to the directory.
+     * @param type The type of request sent.
+     * @return The stream to read the rest of the reply from.
+     * @throws IOException Thrown if the reply could not be read or answers
+     * another request.
+     * @throws ClassNotFoundException Thrown if the reply could not be read.
+     * @since 1.3
+     */
+    private static ObjectInputStream expect(Socket socket, MessageType type)
+            throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream input =
+                new ObjectInputStream(socket.getInputStream());
+        if ((MessageType)input.readObject() != type)
+            throw new IOException("Unexpected reply from directory.");
+        return input;
+    }
+
+    /**
+     * Casts an object read from the directory to the type it was sent as.
+     * Only the class is checked, by the caller, so a reply of the wrong class
+     * still fails with a {@link ClassCastException}, but its contents are
+     * not checked until they are used.
+     *
+     * @param <T> The type the object was sent as.
+     * @param contents The object read.
+     * @return The object as a T.
+     * @since 1.4
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object contents) { return (T)contents; }
+
+    /**
+     * Applies a reply from the directory to the local copy. Replies older
+     * than the copy, which can happen when several requests overlap, are
+     * ignored.
+     *
+     * @param newEpoch The epoch of the directory.
+     * @param newVersion The version of the directory.
+     * @param full True if the contents is every game, false if it is a list
+     * of changes.
+     * @param contents Either a set of games or a list of changes.
+     * @since 1.0
+     */
+    private synchronized void apply(long newEpoch, long newVersion,
+            boolean full, Object contents)
+    {
+        if (full) {
+            if (newEpoch == epoch && newVersion <= version) return;
+            servers.clear();
+            HashSet<Triple<String, Integer, Integer>> games = cast(contents);
+            servers.addAll(games);
+        } else {
+            if (newEpoch != epoch) return; // From before a restart.
+            List<ServerRegistry.Change> changes = cast(contents);
+            for (ServerRegistry.Change c : changes)
+                if (c.Version > version) c.applyTo(servers);
+            if (newVersion <= version) return;
+        }
+        epoch = newEpoch;
+        version = newVersion;
+    }
+}
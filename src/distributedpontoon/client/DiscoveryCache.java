@@ -0,0 +1,280 @@
+package distributedpontoon.client;
+
+import distributedpontoon.directoryservice.DirectoryQuery;
+import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.shared.Triple;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the answers to recent lookups of the {@link DirectoryService}, so the
+ * players of a process can look for servers as often as they like without
+ * each lookup going to the directory. Answers younger than the time to live
+ * are given straight back. Older answers are still given straight back, but
+ * start a refresh in the background so the next lookup has a new one. Only
+ * answers too old to be of use, or lookups never made before, wait for the
+ * directory.
+ * <p>
+ * However many players look up the same thing at once, only one request goes
+ * to the directory, and every player waiting is given its answer. If a
+ * background refresh fails the old answer is kept until it is too old to use.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class DiscoveryCache
+{
+    /** The default time an answer is used without refreshing, in
+     * milliseconds. */
+    public static final long DEFAULT_TTL = 2000;
+    /** The default time an answer can still be used while it is refreshed,
+     * in milliseconds. */
+    public static final long DEFAULT_MAX_STALE = 30000;
+    /** The key used for a lookup of every game. */
+    private static final String ALL = "*";
+
+    /**
+     * The last answer to a single lookup, and the request for a new one if
+     * one is running.
+     *
+     * @since 1.0
+     */
+    private static final class Slot
+    {
+        /** The last answer, or null if there has not been one. */
+        Set<Triple<String, Integer, Integer>> value;
+        /** The time the last answer arrived, from {@link System#nanoTime()}. */
+        long fetched;
+        /** The request running for a new answer, or null if none is. */
+        FutureTask<Set<Triple<String, Integer, Integer>>> running;
+    }
+
+    /** The directory lookups are sent to. */
+    private final DirectoryClient directory;
+    /** The time an answer is used without refreshing, in nanoseconds. */
+    private final long ttl;
+    /** The time an answer can still be used while refreshing, in
+     * nanoseconds. */
+    private final long maxStale;
+    /** The last answer to each lookup, by the query made. */
+    private final Map<String, Slot> slots;
+    /** The thread running background refreshes. */
+    private final ThreadPoolExecutor refresher;
+
+    /**
+     * Creates a new, empty {@link DiscoveryCache} with the default times.
+     *
+     * @param directory The {@link DirectoryClient} to send lookups to.
+     * @since 1.0
+     */
+    public DiscoveryCache(DirectoryClient directory)
+    {
+        this(directory, DEFAULT_TTL, DEFAULT_MAX_STALE);
+    }
+
+    /**
+     * Creates a new, empty {@link DiscoveryCache}.
+     *
+     * @param directory The {@link DirectoryClient} to send lookups to.
+     * @param ttl The time an answer is used without refreshing, in
+     * milliseconds.
+     * @param maxStale The time an answer can still be used while it is
+     * refreshed, in milliseconds. Must be at least the time to live.
+     * @throws IllegalArgumentException Thrown if either time is negative, or
+     * the time to live is longer than the time an answer can be used for.
+     * @since 1.0
+     */
+    public DiscoveryCache(DirectoryClient directory, long ttl, long maxStale)
+            throws IllegalArgumentException
+    {
+        if (ttl < 0 || maxStale < ttl) {
+            throw new IllegalArgumentException(
+                    "Cache times must not be negative, and answers must be "
+                    + "usable for at least their time to live."
+            );
+        }
+        this.directory = directory;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxStale = TimeUnit.MILLISECONDS.toNanos(maxStale);
+        this.slots = new HashMap<>();
+        // A single daemon thread, which stops while there is nothing to do.
+        this.refresher = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Discovery refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the {@link DirectoryClient} lookups are sent to.
+     *
+     * @return The {@link DirectoryClient} in use.
+     * @since 1.0
+     */
+    public DirectoryClient getDirectory() { return directory; }
+
+    /**
+     * Looks up every game known to the directory.
+     *
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if there was no answer young enough to use
+     * and the directory could not be reached.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> lookup()
+            throws IOException
+    {
+        return lookup(ALL, new Callable<Set<Triple<String, Integer, Integer>>>() {
+            @Override
+            public Set<Triple<String, Integer, Integer>> call()
+                    throws IOException
+            {
+                return directory.refresh();
+            }
+        });
+    }
+
+    /**
+     * Looks up only the games that match a query. Queries that print the
+     * same are treated as the same lookup.
+     *
+     * @param query The {@link DirectoryQuery} to match.
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if there was no answer young enough to use
+     * and the directory could not be reached.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> lookup(
+            final DirectoryQuery query) throws IOException
+    {
+        return lookup(query.toString(),
+                new Callable<Set<Triple<String, Integer, Integer>>>() {
+            @Override
+            public Set<Triple<String, Integer, Integer>> call()
+                    throws IOException
+            {
+                return directory.query(query);
+            }
+        });
+    }
+
+    /**
+     * Forgets every answer, so the next lookups go to the directory. For
+     * when a server that was listed could not be reached.
+     *
+     * @since 1.0
+     */
+    public synchronized void invalidate()
+    {
+        for (Slot slot : slots.values())
+            slot.value = null;
+    }
+
+    /**
+     * Gives the answer to a lookup from the cache if it is young enough,
+     * otherwise waits for the request already running for it or starts one.
+     *
+     * @param key The lookup being made.
+     * @param fetch Fetches a new answer from the directory.
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @throws IOException Thrown if the directory could not be reached.
+     * @since 1.0
+     */
+    private HashSet<Triple<String, Integer, Integer>> lookup(String key,
+            Callable<Set<Triple<String, Integer, Integer>>> fetch)
+            throws IOException
+    {
+        FutureTask<Set<Triple<String, Integer, Integer>>> wait;
+        boolean leader = false;
+        synchronized (this) {
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                slot = new Slot();
+                slots.put(key, slot);
+            }
+            long age = System.nanoTime() - slot.fetched;
+            if (slot.value != null && age < maxStale) {
+                if (age >= ttl && slot.running == null) {
+                    slot.running = request(slot, fetch);
+                    refresher.execute(slot.running);
+                }
+                return new HashSet<>(slot.value);
+            }
+            if (slot.running == null) {
+                // Nothing to give back, so this lookup fetches the answer
+                // itself and any others made meanwhile wait for it.
+                slot.running = request(slot, fetch);
+                leader = true;
+            }
+            wait = slot.running;
+        }
+        if (leader) wait.run();
+        try {
+            return new HashSet<>(wait.get());
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the directory.",
+                    intEx);
+        } catch (ExecutionException exEx) {
+            Throwable cause = exEx.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            throw new IOException("Could not look up servers.", cause);
+        }
+    }
+
+    /**
+     * Creates a request for a new answer, which stores the answer once it
+     * arrives.
+     *
+     * @param slot The {@link Slot} to store the answer in.
+     * @param fetch Fetches the answer from the directory.
+     * @return A new {@link FutureTask} to run.
+     * @since 1.0
+     */
+    private FutureTask<Set<Triple<String, Integer, Integer>>> request(
+            final Slot slot,
+            final Callable<Set<Triple<String, Integer, Integer>>> fetch)
+    {
+        return new FutureTask<>(
+                new Callable<Set<Triple<String, Integer, Integer>>>() {
+            @Override
+            public Set<Triple<String, Integer, Integer>> call()
+                    throws Exception
+            {
+                try {
+                    Set<Triple<String, Integer, Integer>> value = fetch.call();
+                    synchronized (DiscoveryCache.this) {
+                        slot.value = value;
+                        slot.fetched = System.nanoTime();
+                    }
+                    return value;
+                } finally {
+                    // A failed refresh leaves the old answer in place.
+                    synchronized (DiscoveryCache.this) {
+                        slot.running = null;
+                    }
+                }
+            }
+        });
+    }
+}
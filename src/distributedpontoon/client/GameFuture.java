@@ -0,0 +1,218 @@
+package distributedpontoon.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an action in an {@link AsyncClientGame}. The result is
+ * set once, by the thread handling the game, and {@link Listener}s added to
+ * the {@link GameFuture} are told as soon as it is. Listeners let callers
+ * chain the next move of a hand without holding a thread while they wait.
+ *
+ * @param <T> The type of the result.
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-11
+ */
+public class GameFuture<T> implements Future<T>
+{
+    /**
+     * Receives the result of a {@link GameFuture}. Listeners are called on the
+     * thread handling the game, so they must not block.
+     *
+     * @param <T> The type of the result.
+     * @since 1.0
+     */
+    public interface Listener<T>
+    {
+        /**
+         * Called when the action completes successfully.
+         *
+         * @param result The result of the action.
+         * @since 1.0
+         */
+        void completed(T result);
+
+        /**
+         * Called when the action fails or is cancelled.
+         *
+         * @param cause The reason the action failed.
+         * @since 1.0
+         */
+        void failed(Throwable cause);
+    }
+
+    /** The listeners waiting for the result, null once they are told. */
+    private List<Listener<T>> listeners;
+    /** The result of the action. */
+    private T result;
+    /** The reason the action failed, null if it has not failed. */
+    private Throwable cause;
+    /** Set to true once the action has completed or failed. */
+    private boolean done;
+
+    /**
+     * Creates a new incomplete {@link GameFuture}.
+     *
+     * @since 1.0
+     */
+    public GameFuture()
+    {
+        this.listeners = new ArrayList<>();
+        this.done = false;
+    }
+
+    /**
+     * Creates a {@link GameFuture} that has already failed.
+     *
+     * @param <T> The type of the result.
+     * @param cause The reason the action failed.
+     * @return The failed {@link GameFuture}.
+     * @since 1.0
+     */
+    public static <T> GameFuture<T> failedWith(Throwable cause)
+    {
+        GameFuture<T> future = new GameFuture<>();
+        future.fail(cause);
+        return future;
+    }
+
+    /**
+     * Completes this {@link GameFuture} with a result and tells every
+     * listener. Does nothing if it has already completed.
+     *
+     * @param value The result of the action.
+     * @return Returns true if this call completed the {@link GameFuture}.
+     * @since 1.0
+     */
+    public boolean complete(T value)
+    {
+        List<Listener<T>> toTell;
+        synchronized (this) {
+            if (done) return false;
+            result = value;
+            done = true;
+            toTell = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Listener<T> l : toTell)
+            l.completed(value);
+        return true;
+    }
+
+    /**
+     * Fails this {@link GameFuture} and tells every listener. Does nothing if
+     * it has already completed.
+     *
+     * @param reason The reason the action failed.
+     * @return Returns true if this call completed the {@link GameFuture}.
+     * @since 1.0
+     */
+    public boolean fail(Throwable reason)
+    {
+        List<Listener<T>> toTell;
+        synchronized (this) {
+            if (done) return false;
+            cause = reason;
+            done = true;
+            toTell = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Listener<T> l : toTell)
+            l.failed(reason);
+        return true;
+    }
+
+    /**
+     * Adds a {@link Listener} to be told the result. If the result is already
+     * known the listener is told straight away on the calling thread.
+     *
+     * @param listener The {@link Listener} to add.
+     * @return This {@link GameFuture}, so listeners can be chained.
+     * @since 1.0
+     */
+    public GameFuture<T> then(Listener<T> listener)
+    {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        if (cause != null)
+            listener.failed(cause);
+        else
+            listener.completed(result);
+        return this;
+    }
+
+    /**
+     * Cancels the action. The move may already have been sent to the server,
+     * so this only stops callers waiting for it.
+     *
+     * @param mayInterruptIfRunning Ignored, nothing is interrupted.
+     * @return Returns true if this call cancelled the {@link GameFuture}.
+     * @since 1.0
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return fail(new CancellationException("Action cancelled."));
+    }
+
+    @Override
+    public synchronized boolean isCancelled()
+    {
+        return cause instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() { return done; }
+
+    @Override
+    public synchronized T get()
+            throws InterruptedException, ExecutionException
+    {
+        while (!done)
+            wait();
+        return report();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long left = end - System.nanoTime();
+            if (left <= 0)
+                throw new TimeoutException("Action did not complete in time.");
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return report();
+    }
+
+    /**
+     * Gets the result of a completed {@link GameFuture}, or throws the reason
+     * it failed.
+     *
+     * @return The result of the action.
+     * @throws ExecutionException Thrown if the action failed.
+     * @since 1.0
+     */
+    private T report() throws ExecutionException
+    {
+        if (cause instanceof CancellationException)
+            throw (CancellationException)cause;
+        if (cause != null)
+            throw new ExecutionException(cause);
+        return result;
+    }
+}
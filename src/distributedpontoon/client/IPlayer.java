@@ -1,17 +1,16 @@
 package distributedpontoon.client;
 
+import distributedpontoon.directoryservice.DirectoryQuery;
 import distributedpontoon.directoryservice.DirectoryService;
 import distributedpontoon.server.Server;
+import distributedpontoon.shared.DirectoryEndpoints;
 import distributedpontoon.shared.IClientGame;
 import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.PontoonRules;
 import distributedpontoon.shared.Triple;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.InetAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -19,11 +18,14 @@ import java.util.Set;
  * would need to call.
  * 
  * @author 6266215
- * @version 1.3
+ * @version 1.9
  * @since 2015-02-09
  */
 public abstract class IPlayer
 {   
+    /** The lookups of the directory shared by every player in this process, 
+     * or null until servers are first looked for. */
+    private static DiscoveryCache discovery;
     /** The remaining credits this {@link IPlayer} can bet with.  */
     protected int balance;
     /** Indicates whether or not this {@link IPlayer} is still playing. */
@@ -41,40 +43,100 @@ public abstract class IPlayer
      * Attempts to connect to the specified {@link DirectoryService} to let this
      *  {@link IPlayer} find any active {@link Server}s.
      * 
+     * Recent answers are shared by every player in this process, and only the
+     *  changes since the last look are fetched.
+     * 
      * @return A {@link Set} of unique host name-port number {@link Triple}s. 
      * This can be empty.
      * @since 1.3
      */
     public Set<Triple<String, Integer, Integer>> findServers()
     {
-        Set<Triple<String, Integer, Integer>> servers = new HashSet<>();
-        String serverName = Client.DIR_HOSTNAME;
-        int directoryPort = Client.DIR_PORT;
-        Socket directorySocket;
+        DirectoryEndpoints serverName = Client.DIRECTORIES;
         try {
-            InetAddress address = InetAddress.getByName(serverName);
-            directorySocket = new Socket(address, directoryPort);
-            ObjectOutputStream output = 
-                    new ObjectOutputStream(directorySocket.getOutputStream());
-            
-            output.writeObject(MessageType.QUERY_SERVERS);
-            output.flush();
-            ObjectInputStream input = 
-                    new ObjectInputStream(directorySocket.getInputStream());
-            MessageType reply = (MessageType)input.readObject();
-            if (reply == MessageType.QUERY_SERVERS) {
-                servers = (HashSet)input.readObject();
-            }
+            return getDiscovery().lookup();
         } catch (UnknownHostException hostEx) {
             System.err.printf("Directory server not found, host '%s' may not "
                     + "exist.", serverName);
             return null;
-        } catch (IOException | ClassNotFoundException ex) {
+        } catch (IOException ioEx) {
+            System.err.println("Could not contact directory server. No servers"
+                    + " found.");
+            return null;
+        }
+    }
+    
+    /**
+     * Asks the {@link DirectoryService} for only the {@link Server}s or games 
+     * that match a query. Recent answers are shared as with {@link 
+     * IPlayer#findServers()}.
+     * 
+     * @param query The {@link DirectoryQuery} to match.
+     * @return A {@link Set} of unique host name-port number {@link Triple}s, 
+     * or null if the directory could not be reached.
+     * @since 1.6
+     */
+    public Set<Triple<String, Integer, Integer>> findServers(
+            DirectoryQuery query)
+    {
+        try {
+            return getDiscovery().lookup(query);
+        } catch (IOException ioEx) {
             System.err.println("Could not contact directory server. No servers"
                     + " found.");
             return null;
         }
-        return servers;
+    }
+    
+    /**
+     * Asks the {@link DirectoryService} which {@link Server}s to start new 
+     * single player games on, so games go to the servers with the least load 
+     * and with enough credits to cover the bet.
+     * 
+     * @param count The number of games to start.
+     * @param bet The bet that will be placed in each game.
+     * @return A {@link List} of host name-port number {@link Triple}s, one 
+     * for each game, or null if the directory could not be reached.
+     * @since 1.7
+     */
+    public List<Triple<String, Integer, Integer>> placeGames(int count, 
+            int bet)
+    {
+        try {
+            return getDirectory().place(count, PontoonRules.maxPayout(bet));
+        } catch (IOException ioEx) {
+            System.err.println("Could not contact directory server. No games"
+                    + " placed.");
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the copy of the directory shared by every player, starting a new 
+     * one if the directory server has been changed.
+     * 
+     * @return The shared {@link DirectoryClient}.
+     * @since 1.6
+     */
+    protected static DirectoryClient getDirectory()
+    {
+        return getDiscovery().getDirectory();
+    }
+    
+    /**
+     * Gets the lookups of the directory shared by every player, starting 
+     * afresh if the directory server has been changed.
+     * 
+     * @return The shared {@link DiscoveryCache}.
+     * @since 1.9
+     */
+    protected static synchronized DiscoveryCache getDiscovery()
+    {
+        if (discovery == null || discovery.getDirectory().getDirectories() 
+                != Client.DIRECTORIES)
+            discovery = new DiscoveryCache(
+                    new DirectoryClient(Client.DIRECTORIES));
+        return discovery;
     }
     
     /**
@@ -113,6 +175,38 @@ public abstract class IPlayer
      */
     public abstract void startGame();
     
+    /**
+     * Called by {@link IClientGame} instances once the server has acknowledged 
+     * the player joining, at which point the game can be started. Does nothing 
+     * unless overridden.
+     * 
+     * @param game The {@link IClientGame} that has been joined.
+     * @since 1.4
+     */
+    public void gameJoined(IClientGame game) {}
+    
+    /**
+     * Called by {@link IClientGame} instances when the first two {@link 
+     * distributedpontoon.shared.Card}s of a hand have been dealt. Does nothing 
+     * unless overridden.
+     * 
+     * @param game The {@link IClientGame} that has been dealt to.
+     * @since 1.4
+     */
+    public void gameInitialised(IClientGame game) {}
+    
+    /**
+     * Called by {@link IClientGame} instances when the server will not accept 
+     * a bet because its bank cannot cover it. The bet has already been 
+     * returned to the balance and the game is left straight after. Does 
+     * nothing unless overridden.
+     * 
+     * @param game The {@link IClientGame} that rejected the bet.
+     * @param largestBet The largest bet the server could accept.
+     * @since 1.5
+     */
+    public void betRejected(IClientGame game, int largestBet) {}
+    
     /**
      * Called by {@link IClientGame} instances to get the player to perform an 
      * action. {@link IClientGame} instances will call this when they receive a 
@@ -0,0 +1,645 @@
+package distributedpontoon.client;
+
+import distributedpontoon.directoryservice.DirectoryQuery;
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.shared.IClientGame;
+import distributedpontoon.shared.LatencyHistogram;
+import distributedpontoon.shared.PontoonLogger;
+import distributedpontoon.shared.Triple;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates load against single player Pontoon servers using large numbers of
+ * virtual players. Virtual players are not threads, each hand they play is a
+ * task run on a small fixed pool, while a single scheduler thread decides when
+ * hands start. Load can be an open arrival rate of hands per second, or a
+ * closed number of virtual players that each start a new hand after a think
+ * time.
+ * <p>
+ * Every latency is measured from when a hand was meant to start rather than
+ * when a pool thread picked it up, so a saturated pool shows up in the
+ * results instead of hiding it. With a {@link NioTransport} the pool only
+ * starts connections and every hand in play shares the selector thread.
+ *
+ * @author 6266215
+ * @version 1.4
+ * @since 2015-03-10
+ */
+public class LoadGenerator
+{
+    /** The bet placed by each virtual player. */
+    public static final int DEFAULT_BET = 50;
+
+    /** The servers hands are played against, as host-port-game triples. */
+    private final List<Triple<String, Integer, Integer>> targets;
+    /** The pool hands are played on. */
+    private final ExecutorService workers;
+    /** The transport hands are played over, or null to block a thread. */
+    private final NioTransport transport;
+    /** The thread that starts hands when they are due. */
+    private final ScheduledExecutorService scheduler;
+    /** The score virtual players stick at. */
+    private final int threshold;
+    /** The bet placed on each hand. */
+    private final int bet;
+    /** The time from a hand being due to the server accepting the player. */
+    private final LatencyHistogram join;
+    /** The time from asking to play to receiving the first two cards. */
+    private final LatencyHistogram firstCard;
+    /** The time from each player action to being asked for the next. */
+    private final LatencyHistogram turn;
+    /** The time from a hand being due to its result arriving. */
+    private final LatencyHistogram hand;
+    /** The number of hands that finished with a result. */
+    private final AtomicLong completed;
+    /** The number of hands that ended without a result. */
+    private final AtomicLong failed;
+    /** The number of hands whose bet the server could not cover. */
+    private final AtomicLong rejected;
+    /** The number of hands still queued when the run ended. */
+    private final AtomicLong skipped;
+    /** The number of hands being played. */
+    private final AtomicInteger inPlay;
+    /** The number of hands started, used to spread them over the targets. */
+    private final AtomicInteger started;
+    /** Set to false to stop new hands starting. */
+    private volatile boolean running;
+
+    /**
+     * Creates a new {@link LoadGenerator} that plays each hand on a blocked
+     * pool thread.
+     *
+     * @param targets The servers to play against, must not be empty.
+     * @param threads The number of hands that can be in play at once.
+     * @param threshold The score virtual players stick at.
+     * @param bet The bet placed on each hand.
+     * @throws IllegalArgumentException Thrown if there are no targets or the
+     * thread count or bet is not positive.
+     * @since 1.0
+     */
+    public LoadGenerator(List<Triple<String, Integer, Integer>> targets,
+            int threads, int threshold, int bet)
+            throws IllegalArgumentException
+    {
+        this(targets, threads, threshold, bet, null);
+    }
+
+    /**
+     * Creates a new {@link LoadGenerator}.
+     *
+     * @param targets The servers to play against, must not be empty.
+     * @param threads The number of threads used to start hands.
+     * @param threshold The score virtual players stick at.
+     * @param bet The bet placed on each hand.
+     * @param transport The {@link NioTransport} to play hands over, or null
+     * to play each hand on a blocked pool thread.
+     * @throws IllegalArgumentException Thrown if there are no targets or the
+     * thread count or bet is not positive.
+     * @since 1.1
+     */
+    public LoadGenerator(List<Triple<String, Integer, Integer>> targets,
+            int threads, int threshold, int bet, NioTransport transport)
+            throws IllegalArgumentException
+    {
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "At least one server is needed to generate load."
+            );
+        }
+        if (threads <= 0 || bet <= 0) {
+            throw new IllegalArgumentException(
+                    "Threads and bet must be greater than zero."
+            );
+        }
+        this.targets = new ArrayList<>(targets);
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.transport = transport;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.threshold = threshold;
+        this.bet = bet;
+        this.join = new LatencyHistogram("Join");
+        this.firstCard = new LatencyHistogram("First card");
+        this.turn = new LatencyHistogram("Turn");
+        this.hand = new LatencyHistogram("Full hand");
+        this.completed = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.inPlay = new AtomicInteger();
+        this.started = new AtomicInteger();
+        this.running = false;
+    }
+
+    /**
+     * Starts hands at a fixed rate for the specified time, then waits for the
+     * hands in play to finish.
+     *
+     * @param handsPerSecond The number of hands to start each second.
+     * @param seconds How long to generate load for.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     * @since 1.0
+     */
+    public void runRate(double handsPerSecond, long seconds)
+            throws InterruptedException
+    {
+        final long period = Math.max(1, (long)(1e9 / handsPerSecond));
+        final long start = System.nanoTime();
+        running = true;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            private long next = start;
+
+            @Override
+            public void run()
+            {
+                // Catch up on any arrivals missed while the thread was late.
+                long now = System.nanoTime();
+                while (running && next <= now) {
+                    submit(new VirtualPlayer(next));
+                    next += period;
+                }
+            }
+        }, 0, period, TimeUnit.NANOSECONDS);
+        finish(seconds);
+    }
+
+    /**
+     * Keeps the specified number of virtual players playing for the specified
+     * time, then waits for the hands in play to finish. Each player starts a
+     * new hand after the think time once their last hand ends.
+     *
+     * @param players The number of virtual players.
+     * @param thinkMillis The pause between a players hands in milliseconds.
+     * @param seconds How long to generate load for.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     * @since 1.0
+     */
+    public void runPlayers(int players, long thinkMillis, long seconds)
+            throws InterruptedException
+    {
+        running = true;
+        long think = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        for (int i = 0; i < players; i++) {
+            // Spread the first hands over one think time to avoid a spike.
+            long delay = players > 1 ? think * i / players : 0;
+            schedule(delay, think);
+        }
+        finish(seconds);
+    }
+
+    /**
+     * Schedules a hand for a virtual player in closed mode.
+     *
+     * @param delay The time until the hand is due in nanoseconds.
+     * @param think The pause before the following hand in nanoseconds.
+     * @since 1.0
+     */
+    private void schedule(long delay, final long think)
+    {
+        if (!running) return;
+        final long due = System.nanoTime() + delay;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    submit(new VirtualPlayer(due) {
+                        @Override
+                        protected void done() { schedule(think, think); }
+                    });
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException stopped) {
+            // The run has ended, no more hands are needed.
+        }
+    }
+
+    /**
+     * Queues a hand to be played on the worker pool.
+     *
+     * @param player The {@link VirtualPlayer} playing the hand.
+     * @since 1.0
+     */
+    private void submit(final VirtualPlayer player)
+    {
+        int i = (started.getAndIncrement() & Integer.MAX_VALUE)
+                % targets.size();
+        Triple<String, Integer, Integer> target = targets.get(i);
+        final IClientGame game = transport == null
+                ? new ClientGame(player, bet, target.One, target.Two)
+                : new NioClientGame(transport, player, bet, target.One,
+                        target.Two);
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    if (running)
+                        player.playHand(game, threshold);
+                    else
+                        skipped.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException stopped) {
+            // The run has ended, no more hands are needed.
+        }
+    }
+
+    /**
+     * Lets load run for the specified time, then stops starting hands and
+     * waits up to 30 seconds for those in play to end. Hands still waiting for
+     * a thread are dropped.
+     *
+     * @param seconds How long to generate load for.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     * @since 1.0
+     */
+    private void finish(long seconds) throws InterruptedException
+    {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running = false;
+        scheduler.shutdownNow();
+        workers.shutdown();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS))
+            workers.shutdownNow();
+        // Non-blocking hands are still in play after their task returns.
+        while (inPlay.get() > 0 && System.nanoTime() < end)
+            Thread.sleep(10);
+    }
+
+    /**
+     * Creates a report of the hands played and the latencies recorded.
+     *
+     * @param seconds The time load was generated for, used for throughput.
+     * @return A String containing the report.
+     * @since 1.0
+     */
+    public String report(long seconds)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Pontoon Load Report%n"));
+        sb.append(String.format("Servers: %d, bet: %d, stick at: %d%n",
+                targets.size(), bet, threshold));
+        sb.append(String.format("Hands completed: %d, rejected: %d, failed: "
+                + "%d, not started: %d%n", completed.get(), rejected.get(),
+                failed.get(), skipped.get()));
+        sb.append(String.format("Throughput: %.1f hands per second%n",
+                (double)completed.get() / Math.max(1, seconds)));
+        for (LatencyHistogram h : new LatencyHistogram[] {
+                join, firstCard, turn, hand}) {
+            sb.append(String.format("%s%n", h));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A player that plays a single hand for the {@link LoadGenerator} and
+     * records how long each step takes. Every callback for a hand comes from
+     * one thread at a time, either the pool thread or the selector thread,
+     * so no locking is needed.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    private class VirtualPlayer extends IPlayer
+    {
+        /** The time this hand was meant to start. */
+        private final long due;
+        /** The score to stick at. */
+        private int stickAt;
+        /** The time the last message was sent to the server. */
+        private long lastAction;
+        /** Set to true once a result has arrived. */
+        private boolean finished;
+        /** Set to true if the server would not cover the bet. */
+        private boolean refused;
+        /** Set to true once the hand has been counted. */
+        private boolean ended;
+
+        /**
+         * Creates a new {@link VirtualPlayer}.
+         *
+         * @param due The time the hand was meant to start from {@link
+         * System#nanoTime()}.
+         * @since 1.0
+         */
+        VirtualPlayer(long due)
+        {
+            this.due = due;
+            this.balance = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Plays a hand. A {@link ClientGame} plays to the end on the calling
+         * thread, a {@link NioClientGame} returns once it has connected.
+         *
+         * @param game The {@link IClientGame} to play.
+         * @param stickAt The score to stick at.
+         * @since 1.0
+         */
+        void playHand(IClientGame game, int stickAt)
+        {
+            this.stickAt = stickAt;
+            this.playing = true;
+            inPlay.incrementAndGet();
+            try {
+                game.run();
+            } finally {
+                if (game instanceof ClientGame) end();
+            }
+        }
+
+        /**
+         * Counts the hand once it has ended, whatever the outcome.
+         *
+         * @since 1.1
+         */
+        private synchronized void end()
+        {
+            if (ended) return;
+            ended = true;
+            playing = false;
+            if (finished) {
+                completed.incrementAndGet();
+                hand.recordNanos(System.nanoTime() - due);
+            } else if (refused) {
+                rejected.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            inPlay.decrementAndGet();
+            done();
+        }
+
+        /**
+         * Called once the hand has ended, whatever the outcome. Players that
+         * keep playing override this to schedule their next hand.
+         *
+         * @since 1.0
+         */
+        protected void done() {}
+
+        @Override
+        public void init() {}
+
+        @Override
+        public void setPlayerID(IClientGame game, int id) {}
+
+        @Override
+        public void reigsterGame(IClientGame game) {}
+
+        @Override
+        public boolean isPlaying() { return playing; }
+
+        @Override
+        public void startGame() {}
+
+        @Override
+        public void gameJoined(IClientGame game)
+        {
+            lastAction = System.nanoTime();
+            join.recordNanos(lastAction - due);
+            game.startGame();
+        }
+
+        @Override
+        public void gameInitialised(IClientGame game)
+        {
+            long now = System.nanoTime();
+            firstCard.recordNanos(now - lastAction);
+            lastAction = now;
+        }
+
+        @Override
+        public void betRejected(IClientGame game, int largestBet)
+        {
+            refused = true;
+        }
+
+        @Override
+        public void play(IClientGame caller)
+        {
+            long now = System.nanoTime();
+            turn.recordNanos(now - lastAction);
+            lastAction = now;
+            if (caller.getHand().total() < stickAt)
+                caller.twist();
+            else
+                caller.stand();
+        }
+
+        @Override
+        public void playerWin(IClientGame game, boolean pontoon)
+        {
+            finished = true;
+        }
+
+        @Override
+        public void dealerWin(IClientGame game) { finished = true; }
+
+        @Override
+        public void leaveGame(IClientGame game) { end(); }
+    }
+
+    /**
+     * Runs a load test from the command line and prints the report.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args)
+    {
+        double rate = 0;
+        int players = 0;
+        long think = 1000;
+        long seconds = 60;
+        int threads = 32;
+        int threshold = 15;
+        int bet = DEFAULT_BET;
+        boolean nio = false;
+        String reportFile = null;
+        List<Triple<String, Integer, Integer>> targets = new ArrayList<>();
+        /* handle the command line parameters if any were passed. */
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rate":
+                        rate = Double.parseDouble(args[++i]);
+                        break;
+                    case "--players":
+                        players = Integer.parseInt(args[++i]);
+                        break;
+                    case "--think":
+                        think = Long.parseLong(args[++i]);
+                        break;
+                    case "--duration":
+                        seconds = Long.parseLong(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threshold":
+                        threshold = Integer.parseInt(args[++i]);
+                        break;
+                    case "--bet":
+                        bet = Integer.parseInt(args[++i]);
+                        break;
+                    case "--server":
+                        String[] parts = args[++i].split(":");
+                        targets.add(new Triple<>(parts[0],
+                                Integer.parseInt(parts[1]), -1));
+                        break;
+                    case "--dir-server":
+                        Client.DIRECTORIES = 
+                                DirectoryEndpoints.parse(args[++i]);
+                        break;
+                    case "--nio":
+                        nio = true;
+                        break;
+                    case "--report":
+                        reportFile = args[++i];
+                        break;
+                    case "-v":
+                    case "--verbose":
+                        PontoonLogger.verbose = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(helpMessage());
+                        return;
+                    default:
+                        System.err.printf("Unknown argument '%s'%n", args[i]);
+                }
+            }
+        } catch (IllegalArgumentException 
+                | ArrayIndexOutOfBoundsException ex) {
+            System.err.println("Argument values must be numbers, servers must "
+                    + "be given as hostname:port.");
+            return;
+        }
+        if ((rate > 0) == (players > 0)) {
+            System.err.println("Specify either --rate or --players.");
+            return;
+        }
+
+        PontoonLogger.fileLog = false;
+        try {
+            PontoonLogger.setup("loadgen");
+        } catch (IOException ex) {
+            System.err.printf("Error setting up logging. Reason%n%s",
+                    ex.getMessage());
+        }
+        // Thousands of hands a second would flood the console otherwise.
+        if (!PontoonLogger.verbose)
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).setLevel(
+                    Level.WARNING);
+
+        if (targets.isEmpty()) {
+            Set<Triple<String, Integer, Integer>> found =
+                    new RoboPlayer().findServers(DirectoryQuery.servers());
+            if (found != null) {
+                for (Triple<String, Integer, Integer> server : found) {
+                    if (server.Three < 0) targets.add(server); // SP only.
+                }
+            }
+        }
+
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(targets, threads, threshold, bet,
+                    nio ? NioTransport.getDefault() : null);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        try {
+            if (rate > 0) {
+                System.out.printf("Starting %.1f hands per second against %d "
+                        + "server(s) for %ds...%n", rate, targets.size(),
+                        seconds);
+                generator.runRate(rate, seconds);
+            } else {
+                System.out.printf("Starting %d players against %d server(s) "
+                        + "for %ds...%n", players, targets.size(), seconds);
+                generator.runPlayers(players, think, seconds);
+            }
+        } catch (InterruptedException intEx) {
+            System.err.println("Load generation interrupted.");
+        }
+
+        String report = generator.report(seconds);
+        System.out.print(report);
+        if (reportFile != null) {
+            PrintWriter out = null;
+            try {
+                out = new PrintWriter(new OutputStreamWriter(
+                        new FileOutputStream(reportFile),
+                        StandardCharsets.UTF_8));
+                out.print(report);
+                System.out.printf("Report written to %s.%n", reportFile);
+            } catch (IOException ioEx) {
+                System.err.printf("Could not write report. Reason:%n%s%n",
+                        ioEx.getMessage());
+            } finally {
+                if (out != null)
+                    out.close();
+            }
+        }
+
+        try {
+            PontoonLogger.close();
+        } catch (IOException ex) {
+            System.err.printf("Failed to close logger. Reason:%n%s",
+                    ex.getMessage());
+        }
+    }
+
+    /**
+     * Creates a help message for the {@link LoadGenerator} command line
+     * arguments.
+     *
+     * @return A String containing the help message.
+     * @since 1.0
+     */
+    private static String helpMessage()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Pontoon Load Generator Help:\n");
+        sb.append("\tCommand [options] (Short) - Action\n");
+        sb.append("\t--rate [hands] - Starts this many hands per second.\n");
+        sb.append("\t--players [players] - Keeps this many players playing.\n");
+        sb.append("\t--think [ms] - The pause between a players hands.\n");
+        sb.append("\t--duration [seconds] - How long to generate load for.\n");
+        sb.append("\t--threads [threads] - The number of hands in play at "
+                + "once.\n");
+        sb.append("\t--threshold [score] - The score players stick at.\n");
+        sb.append("\t--bet [credits] - The bet placed on each hand.\n");
+        sb.append("\t--server [hostname:port] - A server to play against, "
+                + "can be repeated. Servers are found through the directory "
+                + "server if none are given.\n");
+        sb.append("\t--dir-server [hostname:port,...] - Sets the directory "
+                + "server, or a comma separated list of its replicas.\n");
+        sb.append("\t--nio - Plays every hand on one non-blocking thread.\n");
+        sb.append("\t--report [file] - Writes the report to a file.\n");
+        sb.append("\t--verbose (-v) - Logs every game message.\n");
+        sb.append("\t--help (-h) - Displays this help message.\n");
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,439 @@
+package distributedpontoon.client;
+
+import distributedpontoon.shared.Card;
+import distributedpontoon.shared.Hand;
+import distributedpontoon.shared.IClientGame;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.PontoonRules;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.logging.Level;
+
+/**
+ * A client-side game of Pontoon that runs over a shared {@link NioTransport}
+ * instead of a thread of its own. It speaks exactly the same protocol as
+ * {@link ClientGame} and calls the {@link IPlayer} in the same way, but every
+ * call comes from the selector thread, so players using it must never block
+ * while making a move.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-12
+ */
+public class NioClientGame extends IClientGame implements NioConnection.Handler
+{
+    /** The transport the connection runs on. */
+    private final NioTransport transport;
+    /** The host name or IP address to connect to. */
+    private final String serverName;
+    /** The port to connect to. */
+    private final int port;
+    /** An {@link IPlayer} to request moves from. */
+    private final IPlayer player;
+    /** The connection to the server, null until connected. */
+    private volatile NioConnection connection;
+    /** The {@link Hand} for the player. */
+    private Hand hand;
+    /** The {@link Hand} for the dealer. */
+    private Hand dealerHand;
+    /** The current bet for this game. */
+    private int bet;
+
+    /**
+     * Creates a new {@link NioClientGame} for the specified server.
+     *
+     * @param transport The {@link NioTransport} to connect through.
+     * @param player The {@link IPlayer} that will play this game.
+     * @param bet The bet the {@link IPlayer} has made on this game.
+     * @param hostName The name or IP address of the server.
+     * @param port The port of the server.
+     * @throws IllegalArgumentException Thrown if the provided port number is
+     * not a valid TCP port.
+     * @since 1.0
+     */
+    public NioClientGame(NioTransport transport, IPlayer player, int bet,
+            String hostName, int port) throws IllegalArgumentException
+    {
+        if (port < 0 || port > 65536) {
+            throw new IllegalArgumentException(
+                    "Port number must be between 0 and 65536"
+            );
+        }
+
+        this.gameID = -1;
+        this.transport = transport;
+        this.serverName = hostName;
+        this.port = port;
+        this.player = player;
+        this.bet = bet;
+        this.hand = new Hand();
+        this.dealerHand = new Hand();
+    }
+
+    /**
+     * Sets the bet for this game, limited to the players current balance.
+     *
+     * @param newBet The new bet to use as an int.
+     * @throws IllegalArgumentException Thrown if the new bet is zero or lower.
+     * @since 1.0
+     */
+    @Override
+    public void setBet(int newBet) throws IllegalArgumentException
+    {
+        if (newBet <= 0) {
+            throw new IllegalArgumentException(
+                    "The provided bet cannot be zero or lower."
+            );
+        }
+        bet = Math.min(newBet, player.getBalance());
+    }
+
+    /**
+     * Gets the current bet for this game.
+     *
+     * @return The current bet as an int.
+     * @since 1.0
+     */
+    @Override
+    public int getBet() { return bet; }
+
+    /**
+     * Gets the {@link Hand} for the playing {@link IPlayer}.
+     *
+     * @return A {@link Hand} object that may contain no {@link Card}s.
+     * @since 1.0
+     */
+    @Override
+    public synchronized Hand getHand() { return hand; }
+
+    /**
+     * Gets the {@link Hand} from the dealer, empty until the game has ended.
+     *
+     * @return A {@link Hand} object that may be empty.
+     * @since 1.0
+     */
+    @Override
+    public synchronized Hand getDealerHand() { return dealerHand; }
+
+    /**
+     * Checks to see if this game has an open connection.
+     *
+     * @return Returns true if the connection is open, false otherwise.
+     * @since 1.0
+     */
+    @Override
+    public boolean isConnected()
+    {
+        NioConnection c = connection;
+        return c != null && c.isOpen();
+    }
+
+    /**
+     * Starts connecting to the server and queues the join request. Returns
+     * straight away, the {@link IPlayer} is told once the server replies.
+     *
+     * @return Returns true if the connection could be started, false
+     * otherwise.
+     * @since 1.0
+     */
+    @Override
+    public boolean connect()
+    {
+        gameMessage(Level.FINER, "Attempting to connect to game...");
+        NioConnection c = null;
+        try {
+            c = transport.open(serverName, port, this);
+            connection = c;
+            if (gameID < 0) // Tell the server what kind of game this is.
+                c.sendJoin(MessageType.CLIENT_JOIN_SP);
+            else
+                c.sendJoin(MessageType.CLIENT_JOIN_MP, gameID);
+        } catch (IOException ioEx) {
+            gameError(ioEx.getMessage());
+            // The caller leaves the game, so the connection closes quietly.
+            if (c != null) c.discard();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tells the server the player is leaving and closes the connection once
+     * the message has been written.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void disconnect()
+    {
+        gameMessage(Level.FINER, "Disconnecting from game.");
+        NioConnection c = connection;
+        if (c == null) return;
+        try {
+            c.send(MessageType.CLIENT_DISCONNECT);
+        } catch (IOException ioEx) {
+            gameMessage(Level.FINER, "Server has already closed this "
+                    + "connection.");
+        }
+        c.close();
+    }
+
+    /**
+     * Places the bet and tells the server the player is ready to play.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void startGame()
+    {
+        synchronized (this) {
+            hand = new Hand();
+        }
+        player.adjustBalance(-bet);
+        send("Error starting game:%n%s", MessageType.CLIENT_READY, bet);
+    }
+
+    /**
+     * Tells the server that the player is ready to take their turn.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void ready()
+    {
+        send("%s", MessageType.PLAYER_READY);
+    }
+
+    /**
+     * Tells the server that the player wants another {@link Card}.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void twist()
+    {
+        send("%s", MessageType.TURN_RESPONSE, PlayerAction.PLAYER_TWIST);
+    }
+
+    /**
+     * Tells the server that the player does not want any more {@link Card}s.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void stand()
+    {
+        send("%s", MessageType.TURN_RESPONSE, PlayerAction.PLAYER_STICK,
+                getHand());
+    }
+
+    /**
+     * Tells the server that the player has gone bust.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void bust()
+    {
+        send("%s", MessageType.TURN_RESPONSE, PlayerAction.PLAYER_BUST,
+                getHand());
+    }
+
+    /**
+     * Queues a message to the server, logging an error if it cannot be sent.
+     *
+     * @param error The error format, given the reason as its only argument.
+     * @param type The {@link MessageType} to send.
+     * @param contents The contents that follow the message.
+     * @since 1.0
+     */
+    private void send(String error, MessageType type, Object... contents)
+    {
+        NioConnection c = connection;
+        if (c == null) {
+            gameError(error, "Game not connected.");
+            return;
+        }
+        try {
+            c.send(type, contents);
+        } catch (IOException ioEx) {
+            gameError(error, ioEx.getMessage());
+        }
+    }
+
+    /**
+     * Adds a dealt {@link Card} to the {@link Hand}, playing Aces low if they
+     * would go bust, and tells the server if the hand is still bust.
+     *
+     * @param card The new {@link Card}.
+     * @since 1.0
+     */
+    private void acceptCard(Card card)
+    {
+        synchronized (this) {
+            hand.addCard(card);
+        }
+        for (Card c : hand.getCards()) {
+            if (c.Rank == Card.CardRank.ACE && c.isAceHigh()
+                    && hand.total() > PontoonRules.TWENTY_ONE)
+                c.setAceHigh(false);
+        }
+        if (hand.total() > PontoonRules.TWENTY_ONE) {
+            gameMessage(Level.INFO, "Hard total is bust (%d).", hand.total());
+            bust();
+        }
+    }
+
+    /**
+     * Starts connecting to the game. No thread is needed, so this returns as
+     * soon as the connection has been started.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        if (!connect()) {
+            gameError("Could not connect to game.");
+            player.leaveGame(this);
+        }
+    }
+
+    /**
+     * Logs that the connection to the server has been made.
+     *
+     * @param c The {@link NioConnection} that connected.
+     * @since 1.0
+     */
+    @Override
+    public void connected(NioConnection c)
+    {
+        gameMessage(Level.FINER, "Connection established.");
+    }
+
+    /**
+     * Reads the contents of the messages a server sends to a client.
+     *
+     * @param type The {@link MessageType} of the message.
+     * @param in The stream to read the contents from.
+     * @return The contents of the message.
+     * @throws IOException Thrown if the contents cannot be read.
+     * @throws ClassNotFoundException Thrown if a sent class is unknown.
+     * @since 1.0
+     */
+    @Override
+    public Object[] readContents(MessageType type, ObjectInputStream in)
+            throws IOException, ClassNotFoundException
+    {
+        switch (type) {
+            case JOIN_ACKNOWLEDGE:
+                return new Object[] {in.readInt(), in.readInt()};
+            case GAME_INITIALISE:
+                return new Object[] {in.readObject(), in.readObject()};
+            case CARD_TRANSFER:
+                return new Object[] {in.readObject()};
+            case GAME_RESULT:
+                boolean winner = in.readBoolean();
+                Hand dealer = (Hand)in.readObject();
+                boolean pontoon = winner == PLAYER_WIN && in.readBoolean();
+                return new Object[] {winner, dealer, pontoon};
+            case BET_REJECTED:
+                return new Object[] {in.readInt()};
+            default:
+                return new Object[0];
+        }
+    }
+
+    /**
+     * Handles a message from the server in the same way as {@link
+     * ClientGame#run()}.
+     *
+     * @param type The {@link MessageType} of the message.
+     * @param contents The contents of the message.
+     * @since 1.0
+     */
+    @Override
+    public void received(MessageType type, Object[] contents)
+    {
+        switch (type) {
+            case JOIN_ACKNOWLEDGE:
+                player.setPlayerID(this, (Integer)contents[0]);
+                gameID = (Integer)contents[1];
+                gameMessage("Connected!");
+                player.gameJoined(this);
+                break;
+            case GAME_INITIALISE:
+                synchronized (this) {
+                    hand.addCard((Card)contents[0]);
+                    hand.addCard((Card)contents[1]);
+                }
+                player.gameInitialised(this);
+                ready();
+                break;
+            case CARD_TRANSFER:
+                acceptCard((Card)contents[0]);
+                ready();
+                break;
+            case TURN_NOTIFY:
+                player.play(this);
+                break;
+            case GAME_RESULT:
+                gameMessage(Level.FINE, "Game over!");
+                boolean winner = (Boolean)contents[0];
+                boolean pontoon = (Boolean)contents[2];
+                synchronized (this) {
+                    dealerHand = (Hand)contents[1];
+                }
+                if (winner == PLAYER_WIN) {
+                    player.adjustBalance(PontoonRules.playerReturn(
+                            PLAYER_WIN, pontoon, bet));
+                    player.playerWin(this, pontoon);
+                } else {
+                    player.dealerWin(this);
+                }
+                disconnect();
+                break;
+            case BET_REJECTED:
+                int largest = (Integer)contents[0];
+                gameMessage("Bet of %d rejected, the bank can cover up to %d.",
+                        bet, largest);
+                player.adjustBalance(bet);
+                player.betRejected(this, largest);
+                disconnect();
+                break;
+            default:
+                gameError("Clients do not handle this type of message (%s)%n",
+                        type);
+        }
+    }
+
+    /**
+     * Removes this game from the {@link IPlayer} once the connection closes.
+     *
+     * @param cause The reason the connection closed, or null if it closed
+     * normally.
+     * @since 1.0
+     */
+    @Override
+    public void closed(IOException cause)
+    {
+        if (cause != null)
+            gameError("Connection lost. Reason:%n%s", cause.getMessage());
+        player.leaveGame(this);
+        this.gameID = -1;
+    }
+
+    /**
+     * Gets some details about this {@link NioClientGame}.
+     *
+     * @return A String containing details about this game.
+     * @since 1.0
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("Non-blocking client-side game - %d "
+                + "(Connected: %s)", gameID, (isConnected() ? "YES" : "NO"));
+    }
+}
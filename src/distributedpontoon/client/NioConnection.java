@@ -0,0 +1,515 @@
+package distributedpontoon.client;
+
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A single non-blocking game connection managed by a {@link NioTransport}.
+ * Messages are written with the same object stream format the blocking
+ * {@link ClientGame} uses, so servers cannot tell the two apart.
+ * <p>
+ * An object stream cannot be paused part way through a message, so the bytes
+ * received are kept and decoded again from the start whenever more arrives.
+ * Messages that have already been handled are skipped and a message cut short
+ * by the end of the data is left until the rest arrives. Servers reset their
+ * stream after every message, so once a message is followed by a reset
+ * nothing after it can refer back to it, and everything before the reset is
+ * dropped. Only the message still arriving is ever decoded twice.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-12
+ */
+public class NioConnection
+{
+    /**
+     * Receives the events of a {@link NioConnection}. Every method is called
+     * on the selector thread, so none of them may block.
+     *
+     * @since 1.0
+     */
+    public interface Handler
+    {
+        /**
+         * Called once the connection to the server has been made.
+         *
+         * @param connection The {@link NioConnection} that connected.
+         * @since 1.0
+         */
+        void connected(NioConnection connection);
+
+        /**
+         * Reads the contents that follow a message. Called again for the
+         * same message if its data arrives in parts, so it must not change
+         * any state.
+         *
+         * @param type The {@link MessageType} of the message.
+         * @param in The stream to read the contents from.
+         * @return The contents of the message.
+         * @throws IOException Thrown if the contents cannot be read.
+         * @throws ClassNotFoundException Thrown if a sent class is unknown.
+         * @since 1.0
+         */
+        Object[] readContents(MessageType type, ObjectInputStream in)
+                throws IOException, ClassNotFoundException;
+
+        /**
+         * Called once for each complete message received.
+         *
+         * @param type The {@link MessageType} of the message.
+         * @param contents The contents read by {@link
+         * Handler#readContents(MessageType, ObjectInputStream)}.
+         * @since 1.0
+         */
+        void received(MessageType type, Object[] contents);
+
+        /**
+         * Called once when the connection closes.
+         *
+         * @param cause The reason the connection closed, or null if it was
+         * closed normally.
+         * @since 1.0
+         */
+        void closed(IOException cause);
+    }
+
+    /** The length of the header that starts an object stream. */
+    private static final int HEADER_SIZE = 4;
+    /** The byte an object stream writes when it is reset. */
+    private static final byte TC_RESET = ObjectStreamConstants.TC_RESET;
+
+    /**
+     * The data received so far, which notes when it is asked for more bytes
+     * than it holds.
+     *
+     * @since 1.2
+     */
+    private static final class Received extends ByteArrayInputStream
+    {
+        /** Set to true once a read has run past the end of the data. */
+        private boolean underflow;
+
+        /**
+         * Creates a new stream over the data received.
+         *
+         * @param buf The bytes received.
+         * @param length The number of bytes received.
+         * @since 1.2
+         */
+        Received(byte[] buf, int length) { super(buf, 0, length); }
+
+        /**
+         * Checks if a read has run past the end of the data.
+         *
+         * @return Returns true if the data ran out part way through a read.
+         * @since 1.2
+         */
+        boolean isUnderflow() { return underflow; }
+
+        /**
+         * Gets the number of bytes read so far.
+         *
+         * @return The position in the data as an int.
+         * @since 1.2
+         */
+        int position() { return pos; }
+
+        /**
+         * Reads a byte, noting if there are none left.
+         *
+         * @return The byte, or -1 at the end of the data.
+         * @since 1.2
+         */
+        @Override
+        public synchronized int read()
+        {
+            int b = super.read();
+            if (b < 0) underflow = true;
+            return b;
+        }
+
+        /**
+         * Reads bytes, noting if there are fewer left than asked for.
+         *
+         * @param b The array to read into.
+         * @param off The index to start from.
+         * @param len The number of bytes wanted.
+         * @return The number of bytes read, or -1 at the end of the data.
+         * @since 1.2
+         */
+        @Override
+        public synchronized int read(byte[] b, int off, int len)
+        {
+            int n = super.read(b, off, len);
+            if (n < len) underflow = true;
+            return n;
+        }
+
+        /**
+         * Skips bytes, noting if there are fewer left than asked for.
+         *
+         * @param n The number of bytes to skip.
+         * @return The number of bytes skipped.
+         * @since 1.2
+         */
+        @Override
+        public synchronized long skip(long n)
+        {
+            long skipped = super.skip(n);
+            if (skipped < n) underflow = true;
+            return skipped;
+        }
+    }
+
+    /** The {@link NioTransport} managing this connection. */
+    private final NioTransport transport;
+    /** The channel to the server. */
+    private final SocketChannel channel;
+    /** The {@link Handler} told about events on this connection. */
+    private final Handler handler;
+    /** The key for the channel, set by the selector thread. */
+    private SelectionKey key;
+    /** Encoded messages waiting to be written. */
+    private final ArrayDeque<ByteBuffer> writes;
+    /** Collects the bytes written by the output stream. */
+    private final ByteArrayOutputStream encoded;
+    /** The object stream messages are encoded with. */
+    private ObjectOutputStream output;
+    /** Every byte received so far. */
+    private byte[] received;
+    /** The number of bytes received so far. */
+    private int length;
+    /** The number of messages already passed to the {@link Handler}. */
+    private int handled;
+    /** Set to true once the connection should close after its writes. */
+    private boolean closing;
+    /** Set to true once the connection has closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new {@link NioConnection}.
+     *
+     * @param transport The {@link NioTransport} managing the connection.
+     * @param channel The non-blocking channel to the server.
+     * @param handler The {@link Handler} for the connection.
+     * @since 1.0
+     */
+    NioConnection(NioTransport transport, SocketChannel channel,
+            Handler handler)
+    {
+        this.transport = transport;
+        this.channel = channel;
+        this.handler = handler;
+        this.writes = new ArrayDeque<>();
+        this.encoded = new ByteArrayOutputStream();
+        this.received = new byte[1024];
+        this.length = 0;
+        this.handled = 0;
+    }
+
+    /**
+     * Queues a message to be sent. Integer and Boolean contents are written as
+     * primitives, everything else is written as an object.
+     *
+     * @param type The {@link MessageType} to send.
+     * @param contents The contents that follow the message.
+     * @throws IOException Thrown if the message cannot be encoded or the
+     * connection is closed.
+     * @since 1.0
+     */
+    public void send(MessageType type, Object... contents) throws IOException
+    {
+        synchronized (this) {
+            if (closed || closing)
+                throw new IOException("Connection is closed.");
+            if (output == null)
+                output = new ObjectOutputStream(encoded);
+            output.writeObject(type);
+            for (Object o : contents) {
+                if (o instanceof Integer)
+                    output.writeInt((Integer)o);
+                else if (o instanceof Boolean)
+                    output.writeBoolean((Boolean)o);
+                else
+                    output.writeObject(o);
+            }
+            queueEncoded();
+        }
+        transport.changed(this);
+    }
+
+    /**
+     * Queues the join request on a stream of its own and starts a new object
+     * stream for the following messages, as servers read the join request
+     * with a different stream to the rest of the game. Both are queued
+     * together, as a reply to the join can arrive and be answered before a
+     * separate call to start the new stream.
+     *
+     * @param type The {@link MessageType} of the join request.
+     * @param contents The contents that follow the join request.
+     * @throws IOException Thrown if the request cannot be encoded or the
+     * connection is closed.
+     * @since 1.1
+     */
+    public void sendJoin(MessageType type, Object... contents)
+            throws IOException
+    {
+        synchronized (this) {
+            send(type, contents);
+            output = new ObjectOutputStream(encoded);
+            queueEncoded();
+        }
+        transport.changed(this);
+    }
+
+    /**
+     * Moves any encoded bytes onto the write queue.
+     *
+     * @throws IOException Thrown if the stream cannot be flushed.
+     * @since 1.0
+     */
+    private void queueEncoded() throws IOException
+    {
+        output.flush();
+        writes.add(ByteBuffer.wrap(encoded.toByteArray()));
+        encoded.reset();
+    }
+
+    /**
+     * Closes the connection once every queued message has been written.
+     *
+     * @since 1.0
+     */
+    public void close()
+    {
+        synchronized (this) {
+            if (closed) return;
+            closing = true;
+        }
+        transport.changed(this);
+    }
+
+    /**
+     * Checks if the connection is open.
+     *
+     * @return Returns true until the connection closes.
+     * @since 1.0
+     */
+    public synchronized boolean isOpen() { return !closed; }
+
+    /**
+     * Checks if messages should still be passed to the {@link Handler}.
+     *
+     * @return Returns false once the connection is closing or closed.
+     * @since 1.0
+     */
+    private synchronized boolean isReceiving() { return !closed && !closing; }
+
+    /**
+     * Gets the channel to the server.
+     *
+     * @return The {@link SocketChannel}.
+     * @since 1.0
+     */
+    SocketChannel getChannel() { return channel; }
+
+    /**
+     * Gets the key for the channel.
+     *
+     * @return The {@link SelectionKey}, or null if not yet registered.
+     * @since 1.0
+     */
+    SelectionKey getKey() { return key; }
+
+    /**
+     * Sets the key for the channel once it is registered.
+     *
+     * @param key The {@link SelectionKey} for the channel.
+     * @since 1.0
+     */
+    void setKey(SelectionKey key) { this.key = key; }
+
+    /**
+     * Makes the key wait for writes if any are queued, and closes the
+     * connection if it is closing and has nothing left to write.
+     *
+     * @since 1.0
+     */
+    void updateInterest()
+    {
+        if (!channel.isConnected()) return; // Still waiting to connect.
+        boolean pending;
+        boolean finish;
+        synchronized (this) {
+            pending = !writes.isEmpty();
+            finish = closing && !pending;
+        }
+        if (finish) {
+            close(null);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ
+                | (pending ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Finishes connecting to the server.
+     *
+     * @throws IOException Thrown if the connection fails.
+     * @since 1.0
+     */
+    void finishConnect() throws IOException
+    {
+        if (!channel.finishConnect()) return;
+        key.interestOps(SelectionKey.OP_READ);
+        handler.connected(this);
+        updateInterest();
+    }
+
+    /**
+     * Writes as many queued messages as the channel will take.
+     *
+     * @throws IOException Thrown if the channel cannot be written to.
+     * @since 1.0
+     */
+    void write() throws IOException
+    {
+        synchronized (this) {
+            while (!writes.isEmpty()) {
+                ByteBuffer next = writes.peek();
+                channel.write(next);
+                if (next.hasRemaining()) return; // The socket buffer is full.
+                writes.poll();
+            }
+        }
+        updateInterest();
+    }
+
+    /**
+     * Reads any data that has arrived and hands each new complete message to
+     * the {@link Handler}.
+     *
+     * @throws IOException Thrown if the channel cannot be read or the data is
+     * not a valid message.
+     * @since 1.0
+     */
+    void read() throws IOException
+    {
+        int count;
+        boolean more = false;
+        ByteBuffer buffer = transport.getReadBuffer();
+        buffer.clear();
+        while ((count = channel.read(buffer)) > 0) {
+            buffer.flip();
+            if (length + count > received.length)
+                received = Arrays.copyOf(received,
+                        Math.max(received.length * 2, length + count));
+            buffer.get(received, length, count);
+            length += count;
+            buffer.clear();
+            more = true;
+        }
+        if (more) decode();
+        if (count < 0) close(null); // The server closed the connection.
+    }
+
+    /**
+     * Decodes the data received so far, passes on any new messages and
+     * drops the messages that are no longer needed.
+     *
+     * @throws IOException Thrown if the data is not a valid message.
+     * @since 1.0
+     */
+    private void decode() throws IOException
+    {
+        int index = 0;
+        int cut = 0;
+        int cutIndex = 0;
+        Received data = new Received(received, length);
+        try {
+            ObjectInputStream in = new ObjectInputStream(data);
+            while (isReceiving()) {
+                MessageType type = (MessageType)in.readObject();
+                Object[] contents = handler.readContents(type, in);
+                if (index++ >= handled) {
+                    handled++;
+                    handler.received(type, contents);
+                }
+                int end = data.position();
+                if (end < length && received[end] == TC_RESET) {
+                    cut = end;
+                    cutIndex = index;
+                }
+            }
+        } catch (IOException ioEx) {
+            // Running out of data means the rest of the message is still to
+            // arrive, anything else is a broken stream.
+            if (!(ioEx instanceof EOFException) && !data.isUnderflow())
+                throw ioEx;
+        } catch (ClassNotFoundException | ClassCastException badEx) {
+            throw new IOException("Invalid message received.", badEx);
+        }
+        if (cut > 0) {
+            // Keep the stream header, then carry on from the reset.
+            System.arraycopy(received, cut, received, HEADER_SIZE,
+                    length - cut);
+            length = HEADER_SIZE + (length - cut);
+            handled -= cutIndex;
+        }
+    }
+
+    /**
+     * Closes the connection straight away and tells the {@link Handler}.
+     *
+     * @param cause The reason for closing, or null if closing normally.
+     * @since 1.0
+     */
+    void close(IOException cause)
+    {
+        if (shut()) handler.closed(cause);
+    }
+
+    /**
+     * Closes the connection straight away without telling the {@link
+     * Handler}, for a connection its owner has already given up on. Safe to
+     * call from any thread.
+     *
+     * @since 1.2
+     */
+    void discard() { shut(); }
+
+    /**
+     * Closes the channel and drops any queued writes.
+     *
+     * @return Returns true if this call closed the connection, false if it
+     * was already closed.
+     * @since 1.2
+     */
+    private boolean shut()
+    {
+        synchronized (this) {
+            if (closed) return false;
+            closed = true;
+            writes.clear();
+        }
+        SelectionKey k = key;
+        if (k != null) k.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Already closing, nothing else can be done.
+        }
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+package distributedpontoon.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multiplexes every non-blocking game connection in the process over a single
+ * {@link Selector} and thread. Connections are opened through {@link
+ * NioTransport#open(String, int, NioConnection.Handler)} and all of their
+ * reads, writes and callbacks happen on the selector thread, so a client can
+ * play thousands of games without a thread for each one.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-12
+ */
+public class NioTransport implements Runnable
+{
+    /** The transport shared by the whole process. */
+    private static NioTransport DEFAULT;
+
+    /** The size of the buffer each read uses. */
+    private static final int READ_SIZE = 8192;
+
+    /** The {@link Selector} watching every connection. */
+    private final Selector selector;
+    /** The buffer connections read into, only touched by the selector
+     * thread. */
+    private final ByteBuffer readBuffer;
+    /** Connections waiting to be registered or have their interest updated. */
+    private final Queue<NioConnection> changes;
+    /** The global logger to log details from the transport. */
+    private final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new {@link NioTransport}. The transport does nothing until
+     * {@link NioTransport#run()} is started on a thread.
+     *
+     * @throws IOException Thrown if the {@link Selector} cannot be opened.
+     * @since 1.0
+     */
+    public NioTransport() throws IOException
+    {
+        this.selector = Selector.open();
+        this.changes = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocateDirect(READ_SIZE);
+    }
+
+    /**
+     * Gets the {@link NioTransport} shared by the whole process, starting its
+     * selector thread the first time it is used.
+     *
+     * @return The shared {@link NioTransport}.
+     * @throws IOException Thrown if the {@link Selector} cannot be opened.
+     * @since 1.0
+     */
+    public static synchronized NioTransport getDefault() throws IOException
+    {
+        if (DEFAULT == null) {
+            DEFAULT = new NioTransport();
+            Thread t = new Thread(DEFAULT, "Pontoon NIO");
+            t.setDaemon(true);
+            t.start();
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * Starts a non-blocking connection to the specified server. The handler
+     * is told once the connection is made.
+     *
+     * @param hostName The name or IP address of the server.
+     * @param port The port of the server.
+     * @param handler The {@link NioConnection.Handler} for the connection.
+     * @return The new {@link NioConnection}, messages can be queued on it
+     * straight away.
+     * @throws IOException Thrown if the connection cannot be started.
+     * @since 1.0
+     */
+    public NioConnection open(String hostName, int port,
+            NioConnection.Handler handler) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(new InetSocketAddress(hostName, port));
+        } catch (IOException ioEx) {
+            channel.close();
+            throw ioEx;
+        }
+        NioConnection connection = new NioConnection(this, channel, handler);
+        changed(connection);
+        return connection;
+    }
+
+    /**
+     * Gets the buffer connections on this transport read into. Only the
+     * selector thread may use it.
+     *
+     * @return The {@link ByteBuffer} for reads.
+     * @since 1.1
+     */
+    ByteBuffer getReadBuffer() { return readBuffer; }
+
+    /**
+     * Queues a connection to have its registration brought up to date on the
+     * selector thread.
+     *
+     * @param connection The {@link NioConnection} that has changed.
+     * @since 1.0
+     */
+    void changed(NioConnection connection)
+    {
+        changes.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers new connections and updates what each changed connection is
+     * waiting for.
+     *
+     * @since 1.0
+     */
+    private void applyChanges()
+    {
+        NioConnection connection;
+        while ((connection = changes.poll()) != null) {
+            SelectionKey key = connection.getKey();
+            try {
+                if (key == null) {
+                    connection.setKey(connection.getChannel().register(
+                            selector, SelectionKey.OP_CONNECT, connection));
+                } else if (key.isValid()) {
+                    connection.updateInterest();
+                }
+            } catch (ClosedChannelException closed) {
+                connection.close(closed);
+            }
+        }
+    }
+
+    /**
+     * Waits for connections to become ready and hands each ready connection
+     * to its {@link NioConnection}.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+            } catch (IOException ioEx) {
+                logger.log(Level.SEVERE, "NIO selector failed. Reason:\n{0}",
+                        ioEx.getMessage());
+                return;
+            }
+            applyChanges();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection connection = (NioConnection)key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable())
+                        connection.finishConnect();
+                    if (key.isValid() && key.isReadable())
+                        connection.read();
+                    if (key.isValid() && key.isWritable())
+                        connection.write();
+                } catch (IOException ioEx) {
+                    connection.close(ioEx);
+                } catch (RuntimeException rtEx) {
+                    // A failing handler must not stop the other connections.
+                    logger.log(Level.WARNING, "NIO handler failed. Reason:\n"
+                            + "{0}", rtEx);
+                    connection.close(new IOException(rtEx));
+                }
+            }
+        }
+    }
+}
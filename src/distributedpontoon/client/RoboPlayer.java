@@ -1,10 +1,15 @@
 package distributedpontoon.client;
 
+import distributedpontoon.directoryservice.DirectoryQuery;
 import distributedpontoon.shared.Card;
 import distributedpontoon.shared.Hand;
 import distributedpontoon.shared.IClientGame;
+import distributedpontoon.shared.PontoonRules;
 import distributedpontoon.shared.Triple;
+import distributedpontoon.simulation.StrategyTable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,23 +18,40 @@ import java.util.logging.Logger;
 
 /**
  * An automated Pontoon player. This player will use the same tactic each game, 
- * calling {@link IClientGame#twist()} as long as the current value of the 
- * {@link Hand} is below a randomised threshold value (1 to 21 inclusive).
+ * either calling {@link IClientGame#twist()} as long as the current value of 
+ * the {@link Hand} is below a randomised threshold value (1 to 21 inclusive), 
+ * or looking up each move in the precomputed {@link StrategyTable}.
  * 
  * @author 6266215
- * @version 1.1
+ * @version 1.6
  * @since 2015-02-18
  */
 public class RoboPlayer extends IPlayer
 {
+    /** The tactics a {@link RoboPlayer} can play with. */
+    public enum Tactic
+    {
+        /** Twist while the hand is below a random threshold. */
+        THRESHOLD,
+        /** Play the best move from the precomputed {@link StrategyTable}. */
+        TABLE
+    }
+    
+    /** The bet placed in every game. */
+    private static final int BET = 50;
     /** The total number of {@link RoboPlayer}s started. */
     private static int robotCount;
     /** This {@link RoboPlayer}s unique ID. */
     private int robotID;
     /** The threshold for twisting for this {@link RoboPlayer}. */
     private final int threshold;
+    /** The strategy table used to play, null when using the threshold. */
+    private final StrategyTable table;
     /** A mapping of {@link IClientGame}s to their executing {@link Thread}s. */
     private final ConcurrentHashMap<IClientGame, Thread> games;
+    /** Stands in for the thread of a game run on the shared {@link 
+     * NioTransport}, which has none of its own. Never started. */
+    private static final Thread NO_THREAD = new Thread();
     /** A mapping of {@link IClientGame}s to the player ID for each game. */
     private final ConcurrentHashMap<IClientGame, Integer> playerIDs;
     /** The global logger to log details from the RoboPlayer. */
@@ -42,12 +64,36 @@ public class RoboPlayer extends IPlayer
      * @since 1.0
      */
     public RoboPlayer()
+    {
+        this(Tactic.THRESHOLD);
+    }
+    
+    /**
+     * Creates a new {@link RoboPlayer} using the specified {@link Tactic} and 
+     * no games assigned. If the strategy table cannot be loaded the player 
+     * falls back to a randomised threshold.
+     * 
+     * @param tactic The {@link Tactic} to play with.
+     * @since 1.2
+     */
+    public RoboPlayer(Tactic tactic)
     {
         synchronized(RoboPlayer.class) {
             this.robotID = ++RoboPlayer.robotCount;
         }
         Random randomiser = new Random();
         this.threshold = randomiser.nextInt(21);
+        StrategyTable loaded = null;
+        if (tactic == Tactic.TABLE) {
+            try {
+                loaded = StrategyTable.getDefault();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "ROBO {0} : Strategy table not "
+                        + "loaded, using threshold. Reason:\n{1}", 
+                        new Object[]{robotID, ex.getMessage()});
+            }
+        }
+        this.table = loaded;
         this.games = new ConcurrentHashMap<>();
         this.playerIDs = new ConcurrentHashMap<>();
         this.balance = Integer.MAX_VALUE;
@@ -55,26 +101,53 @@ public class RoboPlayer extends IPlayer
     
     /**
      * Gathers a list of known servers and games from the directory server, then
-     *  attempts to connect to each single player capable server.
+     *  starts {@link Client#MAX_GAMES} games for each single player capable 
+     * server. The directory picks the server for each game by load, so busy 
+     * servers take fewer, and if it cannot the games are shared out evenly.
      * 
      * @since 1.0
      */
     @Override
     public void init()
     {
-        logger.log(Level.INFO, "ROBO {1} : Threshold {0} - started.", 
-                new Object[]{threshold, robotID});
+        if (table != null) {
+            logger.log(Level.INFO, "ROBO {0} : Strategy table - started.", 
+                    robotID);
+        } else {
+            logger.log(Level.INFO, "ROBO {1} : Threshold {0} - started.", 
+                    new Object[]{threshold, robotID});
+        }
         logger.log(Level.INFO, "ROBO {1} : Joining {0} game(s) per server.", 
                 new Object[]{Client.MAX_GAMES, robotID});
-        Set<Triple<String, Integer, Integer>> servers = findServers();
+        Set<Triple<String, Integer, Integer>> servers = 
+                findServers(DirectoryQuery.servers());
         if (servers == null || servers.isEmpty()) return;
-        for (Triple server : servers) {
-            String address = (String)server.One;
-            int tmpPort = (int)server.Two;
-            if ((int)server.Three >= 0) continue; // Ignore MP games.
-            for (int i = 0; i < Client.MAX_GAMES; i++) {
-                IClientGame game = new ClientGame(this, 50, address, tmpPort);
-                game.setGameID((int)server.Three);
+        List<Triple<String, Integer, Integer>> singlePlayer = new ArrayList<>();
+        for (Triple<String, Integer, Integer> server : servers) {
+            if (server.Three < 0) singlePlayer.add(server); // Ignore MP games.
+        }
+        List<Triple<String, Integer, Integer>> placed = 
+                placeGames(Client.MAX_GAMES * singlePlayer.size(), BET);
+        if (placed == null) {
+            // The directory could not place them, so share them out evenly.
+            placed = new ArrayList<>();
+            for (Triple<String, Integer, Integer> server : singlePlayer) {
+                for (int i = 0; i < Client.MAX_GAMES; i++)
+                    placed.add(server);
+            }
+        } else if (placed.isEmpty()) {
+            logger.log(Level.WARNING, "ROBO {0} : No server can cover a bet "
+                    + "of {1}.", new Object[]{robotID, BET});
+        }
+        for (Triple<String, Integer, Integer> server : placed) {
+            IClientGame game = createGame(server.One, server.Two);
+            if (game == null) return;
+            game.setGameID(server.Three);
+            if (Client.USE_NIO) {
+                // Runs on the shared transport, so only starts connecting.
+                games.put(game, NO_THREAD);
+                game.run();
+            } else {
                 Thread t = new Thread(game);
                 t.start();
                 games.put(game, t);
@@ -88,6 +161,31 @@ public class RoboPlayer extends IPlayer
         }
     }
 
+    /**
+     * Creates a game against the specified server, using the shared {@link 
+     * NioTransport} if {@link Client#USE_NIO} is set.
+     * 
+     * @param address The host name of the server.
+     * @param port The port of the server.
+     * @return The new {@link IClientGame}, or null if the transport could not 
+     * be started.
+     * @since 1.2
+     */
+    private IClientGame createGame(String address, int port)
+    {
+        if (!Client.USE_NIO)
+            return new ClientGame(this, BET, address, port);
+        try {
+            return new NioClientGame(NioTransport.getDefault(), this, BET, 
+                    address, port);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "ROBO {0} : Could not start non-blocking"
+                    + " transport. Reason:\n{1}", 
+                    new Object[]{robotID, ex.getMessage()});
+            return null;
+        }
+    }
+    
     /**
      * Sets the player ID for the specified game to the specified int.
      * 
@@ -158,7 +256,8 @@ public class RoboPlayer extends IPlayer
     /**
      * The specified {@link IClientGame} calls this when it needs input from 
      * this {@link RoboPlayer}. The {@link RoboPlayer} will always call {@link 
-     * IClientGame#twist()} until their hand has a value over their threshold.
+     * IClientGame#twist()} until their hand has a value over their threshold, 
+     * or until the {@link StrategyTable} says to stick.
      * 
      * @param caller The {@link IClientGame} that needs a move from this player.
      * @since 1.0
@@ -167,15 +266,21 @@ public class RoboPlayer extends IPlayer
     public void play(IClientGame caller)
     {
         if (caller == null) return;
-        if (caller.getHand().total() < threshold) {
+        if (table != null) {
+            playTable(caller);
+            return;
+        }
+        // The simulated ThresholdStrategy copies this rule exactly, so keep 
+        // both on the shared PontoonRules checks.
+        if (PontoonRules.thresholdTwist(caller.getHand().total(), threshold)) {
             caller.twist();
             Hand hand = caller.getHand();
             // Attempt to make Aces high if it will help the score.
             for (Card card : hand.getCards()) {
                 if (card.Rank == Card.CardRank.ACE
                         && !card.isAceHigh()
-                        && (hand.total() + 10) <= 21) {
-                    card.setAceHigh(!card.isAceHigh());
+                        && PontoonRules.raiseAce(hand.total())) {
+                    card.setAceHigh(true);
                 }
             }
         } else {
@@ -183,6 +288,35 @@ public class RoboPlayer extends IPlayer
         }
     }
     
+    /**
+     * Makes a move using the {@link StrategyTable}. The table assumes an Ace 
+     * is played high whenever it does not cause a bust, so the Aces are set to 
+     * match before sticking.
+     * 
+     * @param caller The {@link IClientGame} that needs a move from this player.
+     * @since 1.2
+     */
+    private void playTable(IClientGame caller)
+    {
+        Hand hand = caller.getHand();
+        if (table.twist(hand)) {
+            caller.twist();
+            return;
+        }
+        // Play every Ace low, then raise one if it does not cause a bust.
+        for (Card card : hand.getCards()) {
+            if (card.Rank == Card.CardRank.ACE)
+                card.setAceHigh(false);
+        }
+        for (Card card : hand.getCards()) {
+            if (card.Rank == Card.CardRank.ACE && (hand.total() + 10) <= 21) {
+                card.setAceHigh(true);
+                break;
+            }
+        }
+        caller.stand();
+    }
+    
     /**
      * Prints the details of this {@link RoboPlayer}s win to standard output.
      * 
@@ -230,7 +364,7 @@ public class RoboPlayer extends IPlayer
         if (game == null) return;
         try {
             Thread t = games.get(game);
-            t.join(1000);
+            if (t != null && t != NO_THREAD) t.join(1000);
         } catch (InterruptedException ex) {
             game.gameError("Failed to stop game safely. Reason%n%s", 
                     ex.getMessage());
@@ -0,0 +1,173 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.MultiPlayerGame;
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.Serializable;
+
+/**
+ * Describes the games a client wants from a {@link DirectoryService}, so it
+ * is only sent those rather than every game to sort through itself. Sent with
+ * {@link MessageType#QUERY_FILTERED}, and matched against the games the
+ * directory knows.
+ * <p>
+ * A query asks for either {@link Server}s, listed by their new single player
+ * (-1) and multi-player (0) games, or open {@link MultiPlayerGame} tables.
+ * Tables can be narrowed down further to those with a free seat or with a
+ * minimum bet in a range. Tables that have not reported their details never
+ * match these.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class DirectoryQuery implements Serializable
+{
+    /** Serialisation ID. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of game a {@link DirectoryQuery} can ask for.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    public static enum Target
+    {
+        /** Every game, as {@link MessageType#QUERY_SERVERS} gives. */
+        ALL,
+        /** Only the new single and multi-player games of each server. */
+        SERVERS,
+        /** Only multi-player tables waiting for players. */
+        TABLES;
+    }
+
+    /** The kind of game wanted. */
+    private final Target target;
+    /** Set to true to only match tables with a free seat. */
+    private boolean freeSeat;
+    /** The smallest minimum bet a table can have to match. */
+    private int lowestBet;
+    /** The largest minimum bet a table can have to match. */
+    private int highestBet;
+
+    /**
+     * Creates a new {@link DirectoryQuery} for a kind of game.
+     *
+     * @param target The {@link Target} kind of game.
+     * @since 1.0
+     */
+    public DirectoryQuery(Target target)
+    {
+        this.target = target;
+        this.freeSeat = false;
+        this.lowestBet = Integer.MIN_VALUE;
+        this.highestBet = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a query for the new games of every server.
+     *
+     * @return A new {@link DirectoryQuery}.
+     * @since 1.0
+     */
+    public static DirectoryQuery servers()
+    {
+        return new DirectoryQuery(Target.SERVERS);
+    }
+
+    /**
+     * Creates a query for every multi-player table waiting for players.
+     *
+     * @return A new {@link DirectoryQuery}.
+     * @since 1.0
+     */
+    public static DirectoryQuery tables()
+    {
+        return new DirectoryQuery(Target.TABLES);
+    }
+
+    /**
+     * Only matches tables with at least one free seat.
+     *
+     * @return This {@link DirectoryQuery}.
+     * @since 1.0
+     */
+    public DirectoryQuery withFreeSeat()
+    {
+        this.freeSeat = true;
+        return this;
+    }
+
+    /**
+     * Only matches tables whose minimum bet is within a range.
+     *
+     * @param lowest The smallest minimum bet to match.
+     * @param highest The largest minimum bet to match, for example the most
+     * a player can afford.
+     * @return This {@link DirectoryQuery}.
+     * @throws IllegalArgumentException Thrown if the range is empty.
+     * @since 1.0
+     */
+    public DirectoryQuery withMinimumBet(int lowest, int highest)
+            throws IllegalArgumentException
+    {
+        if (lowest > highest) {
+            throw new IllegalArgumentException(
+                    "The lowest bet cannot be above the highest."
+            );
+        }
+        this.lowestBet = lowest;
+        this.highestBet = highest;
+        return this;
+    }
+
+    /**
+     * Checks whether this query asks for anything only known from a tables
+     * details.
+     *
+     * @return Returns true if table details are needed to match.
+     * @since 1.0
+     */
+    private boolean needsDetails()
+    {
+        return freeSeat || lowestBet != Integer.MIN_VALUE
+                || highestBet != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether a single game matches this query.
+     *
+     * @param gameID The ID of the game.
+     * @param table The details of the table, or null if none are known.
+     * @return Returns true if the game matches.
+     * @since 1.0
+     */
+    public boolean matches(int gameID, ServerRegistry.Table table)
+    {
+        switch (target) {
+            case SERVERS:
+                return gameID <= 0;
+            case TABLES:
+                if (gameID <= 0) return false;
+                if (!needsDetails()) return true;
+                if (table == null) return false;
+                if (freeSeat && !table.hasFreeSeat()) return false;
+                return table.MinimumBet >= lowestBet
+                        && table.MinimumBet <= highestBet;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(target.toString());
+        if (freeSeat) sb.append(", free seat");
+        if (lowestBet != Integer.MIN_VALUE || highestBet != Integer.MAX_VALUE)
+            sb.append(String.format(", minimum bet %d-%d", lowestBet,
+                    highestBet));
+        return sb.toString();
+    }
+}
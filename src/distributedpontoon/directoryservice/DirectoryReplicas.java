@@ -0,0 +1,294 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
+import distributedpontoon.shared.Triple;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Keeps the other replicas of a {@link DirectoryService} in step with this
+ * one. Every change a {@link Server} sends to this replica is passed on to
+ * the others with {@link MessageType#REPLICATE}, and changes passed on by
+ * another replica are not passed on again. A new replica copies the servers
+ * already known from the first other replica that answers.
+ * <p>
+ * Each replica has its own queue and thread, so a replica that is down never
+ * holds up the others. Changes are sent in order and in batches, and a batch
+ * that fails is retried, waiting longer after each failure. If a replica is
+ * down for long enough that its queue fills, the oldest changes are dropped,
+ * and the heartbeats every server keeps sending list the servers again.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class DirectoryReplicas
+{
+    /** The most changes waiting for a single replica. */
+    public static final int MAX_QUEUED = 4096;
+    /** The most changes sent in a single batch. */
+    private static final int BATCH_SIZE = 256;
+    /** The time allowed to connect to a replica in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 1000;
+    /** The time allowed for a replica to answer in milliseconds. */
+    private static final int REPLY_TIMEOUT = 5000;
+    /** The first wait before retrying a replica in milliseconds. */
+    private static final long MIN_BACKOFF = 500;
+    /** The longest wait before retrying a replica in milliseconds. */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * The changes waiting to be sent to a single other replica, and the
+     * thread sending them.
+     *
+     * @since 1.0
+     */
+    private static final class Replica implements Runnable
+    {
+        /** The host name of the replica. */
+        final String Host;
+        /** The port of the replica. */
+        final int Port;
+        /** The changes waiting to be sent, oldest first. */
+        final LinkedBlockingDeque<DirectoryUpdate> Queue;
+        /** Keeps this {@link Replica} sending. */
+        volatile boolean running;
+        /** The thread sending changes, or null if not started. */
+        Thread thread;
+        /** Set once sending has failed, so repeated failures are only
+         * logged once. */
+        boolean failing;
+        /** Set once changes have been dropped, so they are only logged
+         * once. */
+        volatile boolean dropping;
+
+        /**
+         * Creates a new {@link Replica}.
+         *
+         * @param host The host name of the replica.
+         * @param port The port of the replica.
+         * @since 1.0
+         */
+        Replica(String host, int port)
+        {
+            this.Host = host;
+            this.Port = port;
+            this.Queue = new LinkedBlockingDeque<>(MAX_QUEUED);
+            this.running = true;
+            this.thread = null;
+            this.failing = false;
+            this.dropping = false;
+        }
+
+        /**
+         * Adds a change to the queue, dropping the oldest if it is full.
+         *
+         * @param update The {@link DirectoryUpdate} to send.
+         * @since 1.0
+         */
+        void add(DirectoryUpdate update)
+        {
+            while (!Queue.offerLast(update)) {
+                Queue.pollFirst();
+                if (!dropping)
+                    System.err.printf("Replica %s:%d is too far behind, "
+                            + "dropping changes.%n", Host, Port);
+                dropping = true;
+            }
+        }
+
+        /**
+         * Sends batches of changes until stopped.
+         *
+         * @since 1.0
+         */
+        @Override
+        public void run()
+        {
+            long backoff = MIN_BACKOFF;
+            ArrayList<DirectoryUpdate> batch = new ArrayList<>();
+            while (running) {
+                try {
+                    batch.add(Queue.takeFirst());
+                } catch (InterruptedException intEx) {
+                    continue; // Check whether to stop.
+                }
+                Queue.drainTo(batch, BATCH_SIZE - 1);
+                try {
+                    send(batch);
+                    if (failing)
+                        System.out.printf("Replica %s:%d reachable again.%n",
+                                Host, Port);
+                    failing = false;
+                    dropping = false;
+                    backoff = MIN_BACKOFF;
+                    batch.clear();
+                } catch (IOException ioEx) {
+                    if (!failing)
+                        System.err.printf("Could not reach replica %s:%d. "
+                                + "Reason:%n\t%s%n", Host, Port,
+                                ioEx.getMessage());
+                    failing = true;
+                    // Put the batch back in order, then wait to retry.
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        if (!Queue.offerFirst(batch.get(i))) break;
+                    }
+                    batch.clear();
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException intEx) {
+                        // Check whether to stop.
+                    }
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+            }
+        }
+
+        /**
+         * Sends a single batch of changes.
+         *
+         * @param batch The changes to send, oldest first.
+         * @throws IOException Thrown if the replica could not be reached.
+         * @since 1.0
+         */
+        private void send(ArrayList<DirectoryUpdate> batch) throws IOException
+        {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(Host, Port),
+                        CONNECT_TIMEOUT);
+                socket.setSoTimeout(REPLY_TIMEOUT);
+                ObjectOutputStream output =
+                        new ObjectOutputStream(socket.getOutputStream());
+                output.writeObject(MessageType.REPLICATE);
+                output.writeObject(batch);
+                output.flush();
+                // Wait for the replica to apply the batch before moving on.
+                ObjectInputStream input =
+                        new ObjectInputStream(socket.getInputStream());
+                if ((MessageType)input.readObject() != MessageType.REPLICATE)
+                    throw new IOException("Unexpected reply from replica.");
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Unexpected reply from replica.", ex);
+            }
+        }
+    }
+
+    /** The other replicas. */
+    private final List<Replica> replicas;
+
+    /**
+     * Creates a new {@link DirectoryReplicas}. Nothing is sent until {@link
+     * DirectoryReplicas#start()} is called.
+     *
+     * @param peers The host name and port of every other replica.
+     * @since 1.0
+     */
+    public DirectoryReplicas(Collection<Pair<String, Integer>> peers)
+    {
+        this.replicas = new ArrayList<>();
+        for (Pair<String, Integer> peer : peers)
+            replicas.add(new Replica(peer.Left, peer.Right));
+    }
+
+    /**
+     * Starts sending changes to every other replica in the background.
+     *
+     * @since 1.0
+     */
+    public void start()
+    {
+        for (Replica r : replicas) {
+            r.thread = new Thread(r, String.format("Replica %s:%d", r.Host,
+                    r.Port));
+            r.thread.setDaemon(true);
+            r.thread.start();
+        }
+    }
+
+    /**
+     * Stops sending changes. Any changes still waiting are dropped.
+     *
+     * @since 1.0
+     */
+    public void stop()
+    {
+        for (Replica r : replicas) {
+            r.running = false;
+            r.Queue.clear();
+            if (r.thread != null) r.thread.interrupt();
+        }
+    }
+
+    /**
+     * Passes a change on to every other replica. Returns straight away.
+     *
+     * @param update The {@link DirectoryUpdate} a server sent.
+     * @since 1.0
+     */
+    public void forward(DirectoryUpdate update)
+    {
+        for (Replica r : replicas)
+            r.add(update);
+    }
+
+    /**
+     * Fetches every game known to the first other replica that answers.
+     *
+     * @return A {@link HashSet} of host name, port and game ID {@link
+     * Triple}s, or null if no replica could be reached.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> fetch()
+    {
+        for (Replica r : replicas) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(r.Host, r.Port),
+                        CONNECT_TIMEOUT);
+                socket.setSoTimeout(REPLY_TIMEOUT);
+                ObjectOutputStream output =
+                        new ObjectOutputStream(socket.getOutputStream());
+                output.writeObject(MessageType.QUERY_SERVERS);
+                output.flush();
+                ObjectInputStream input =
+                        new ObjectInputStream(socket.getInputStream());
+                if ((MessageType)input.readObject() != MessageType.QUERY_SERVERS)
+                    continue;
+                return read(input);
+            } catch (IOException | ClassNotFoundException
+                    | ClassCastException ex) {
+                // Try the next replica.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads an object sent to the directory as the type it was sent as. Only
+     * the class is checked, by the caller, so the contents of a collection
+     * are not checked until they are used.
+     *
+     * @param <T> The type the object was sent as.
+     * @param input The stream to read from.
+     * @return The object read as a T.
+     * @throws IOException Thrown if the object could not be read.
+     * @throws ClassNotFoundException Thrown if the class of the object is not
+     * known.
+     * @since 1.1
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T read(ObjectInputStream input)
+            throws IOException, ClassNotFoundException
+    {
+        return (T)input.readObject();
+    }
+}
@@ -3,25 +3,58 @@ package distributedpontoon.directoryservice;
 import distributedpontoon.client.Client;
 import distributedpontoon.client.IPlayer;
 import distributedpontoon.server.Server;
+import distributedpontoon.shared.DirectoryEndpoints;
 import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
 import distributedpontoon.shared.Triple;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Launches and manages a new {@link DirectoryService} to be used by 
  * {@link Server}s and {@link IPlayer}s when looking for games of Pontoon to 
- * play.
+ * play. Requests are served by a fixed pool of worker threads, so the thread 
+ * accepting connections never waits on a client, and each request must 
+ * arrive within a time limit so a slow client only ever holds up one worker.
+ * Known servers are kept in a {@link ServerRegistry}, so requests never have 
+ * to wait on each other to read or change it. Servers keep their place by 
+ * sending heartbeats, and are removed by a {@link LeaseMonitor} once they 
+ * stop, unless polling them with a {@link ServerPoller} is asked for instead.
+ * Clients that already know an earlier version of the registry can ask for 
+ * only what has changed since, or wait on a {@link WatchList} until it does.
+ * Clients that only want some games can send a {@link DirectoryQuery}, and 
+ * clients starting games can ask {@link Placement} which servers to use, 
+ * picked by the load each server reports with its heartbeats. Several 
+ * replicas can run at once, each passing the changes servers send it on to 
+ * the others through {@link DirectoryReplicas}, so servers and clients can 
+ * use whichever replica answers. The registry is kept across restarts by a 
+ * {@link RegistrySnapshot}.
  * 
  * @author 6266215
- * @version 1.1
+ * @version 1.14
  */
 public class DirectoryService implements Runnable
 {
@@ -30,8 +63,16 @@ public class DirectoryService implements Runnable
      * per process.
      */
     private static DirectoryService INSTANCE;
-    /** Monitors the known servers and removes unresponsive ones. */
+    /** Polls the known servers and removes unresponsive ones, or null if 
+     * leases are used instead. */
     private ServerPoller monitor;
+    /** Removes servers that stop sending heartbeats, or null if servers are 
+     * polled instead. */
+    private LeaseMonitor leases;
+    /** The time a server is kept without a heartbeat in milliseconds. */
+    private long leaseTime;
+    /** Set to true to poll servers rather than expect heartbeats. */
+    private boolean polling;
     /** The TCP port to listen for connections on. */
     private final int port;
     /** The name/IP address of the host running this server. */
@@ -40,8 +81,53 @@ public class DirectoryService implements Runnable
     private ServerSocket server;
     /** A thread to run {@link DirectoryService} in the background. */
     private Thread serverThread;
-    /** A mapping of known host names to their ports. */
-    private Set<Triple<String, Integer, Integer>> knownHosts;
+    /** The known servers and the games they offer. */
+    private final ServerRegistry registry;
+    /** Requests waiting for the known servers to change. */
+    private WatchList watchers;
+    /** Picks servers for new games by load. */
+    private final Placement placement;
+    /** The host name and port of every other replica. */
+    private List<Pair<String, Integer>> peers;
+    /** Passes changes on to the other replicas, or null if there are none. */
+    private volatile DirectoryReplicas replicas;
+    /** The name of the snapshot file, or null to not keep the registry. */
+    private String snapshotName;
+    /** The time between snapshots in milliseconds. */
+    private long snapshotInterval;
+    /** Keeps the registry across restarts, or null if not kept. */
+    private RegistrySnapshot snapshot;
+    /** The default number of threads serving requests. */
+    public static final int DEFAULT_WORKERS = 16;
+    /** The most connections that can wait for a worker before new ones are 
+     * turned away. */
+    private static final int MAX_QUEUED = 1024;
+    /** The number of connections the operating system will hold before they 
+     * are accepted. */
+    private static final int BACKLOG = 1024;
+    /** The time a client has to send its request in milliseconds. */
+    private static final int REQUEST_TIMEOUT = 5000;
+    /** The most games placed by a single request. */
+    private static final int MAX_PLACEMENTS = 4096;
+    /** Set to true to print every request. */
+    public static boolean verbose = false;
+    /** The number of threads serving requests. */
+    private int workers;
+    /** The threads serving requests. */
+    private ThreadPoolExecutor pool;
+    /** The time allowed to connect to a server when pushing in milliseconds. 
+     */
+    private static final int PUSH_TIMEOUT = 1000;
+    /** Pushes the list of servers to every server in the background. */
+    private final ExecutorService notifier;
+    /** The list of servers last pushed, as host name and port pairs. */
+    private Set<Pair<String, Integer>> members;
+    /** Counts changes to the list of servers, so old pushes can be skipped. 
+     */
+    private final AtomicLong membersVersion;
+    
+    private static final Logger logger = 
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     
     /**
      * Creates a new {@link DirectoryService} that listens on port 55552.
@@ -54,7 +140,17 @@ public class DirectoryService implements Runnable
         this.hostName = "UNKNOWN";
         this.server = null;
         this.serverThread = null;
-        this.knownHosts = new HashSet<>();
+        this.registry = new ServerRegistry();
+        this.placement = new Placement(registry);
+        this.peers = Collections.emptyList();
+        this.snapshotName = null;
+        this.snapshotInterval = RegistrySnapshot.DEFAULT_INTERVAL;
+        this.workers = DEFAULT_WORKERS;
+        this.leaseTime = LeaseMonitor.DEFAULT_LEASE;
+        this.polling = false;
+        this.notifier = Executors.newSingleThreadExecutor();
+        this.members = new HashSet<>();
+        this.membersVersion = new AtomicLong();
     }
     
     /**
@@ -78,7 +174,17 @@ public class DirectoryService implements Runnable
         this.hostName = "UNKNOWN";
         this.server = null;
         this.serverThread = null;
-        this.knownHosts = new HashSet<>();
+        this.registry = new ServerRegistry();
+        this.placement = new Placement(registry);
+        this.peers = Collections.emptyList();
+        this.snapshotName = null;
+        this.snapshotInterval = RegistrySnapshot.DEFAULT_INTERVAL;
+        this.workers = DEFAULT_WORKERS;
+        this.leaseTime = LeaseMonitor.DEFAULT_LEASE;
+        this.polling = false;
+        this.notifier = Executors.newSingleThreadExecutor();
+        this.members = new HashSet<>();
+        this.membersVersion = new AtomicLong();
     }
     
     /**
@@ -112,6 +218,90 @@ public class DirectoryService implements Runnable
         return DirectoryService.INSTANCE;
     }
     
+    /**
+     * Sets the number of threads serving requests. Must be called before 
+     * {@link DirectoryService#init()}.
+     * 
+     * @param count The number of worker threads.
+     * @throws IllegalArgumentException Thrown if the count is not positive.
+     * @since 1.3
+     */
+    public void setWorkers(int count) throws IllegalArgumentException
+    {
+        if (count <= 0) {
+            throw new IllegalArgumentException(
+                    "There must be at least one worker."
+            );
+        }
+        this.workers = count;
+    }
+    
+    /**
+     * Sets how long servers are kept without sending a heartbeat. Must be 
+     * called before {@link DirectoryService#init()}.
+     * 
+     * @param millis The time a lease lasts in milliseconds.
+     * @throws IllegalArgumentException Thrown if the time is not positive.
+     * @since 1.5
+     */
+    public void setLeaseTime(long millis) throws IllegalArgumentException
+    {
+        if (millis <= 0) {
+            throw new IllegalArgumentException(
+                    "Leases must last longer than zero."
+            );
+        }
+        this.leaseTime = millis;
+    }
+    
+    /**
+     * Sets whether servers are polled to check they are still running, rather 
+     * than expected to send heartbeats. Must be called before {@link 
+     * DirectoryService#init()}.
+     * 
+     * @param poll Set to true to poll servers.
+     * @since 1.5
+     */
+    public void setPolling(boolean poll)
+    {
+        this.polling = poll;
+    }
+    
+    /**
+     * Sets the other replicas to keep in step with. Replicas listed that turn 
+     * out to be this one are ignored, so every replica can be given the same 
+     * list. Must be called before {@link DirectoryService#init()}.
+     * 
+     * @param peers The host name and port of every replica.
+     * @since 1.9
+     */
+    public void setPeers(List<Pair<String, Integer>> peers)
+    {
+        this.peers = new ArrayList<>(peers);
+    }
+    
+    /**
+     * Sets where the registry is kept between restarts. Must be called before 
+     * {@link DirectoryService#init()}.
+     * 
+     * @param name The name of the snapshot file without an extension, or null 
+     * to not keep the registry.
+     * @param millis The time between snapshots in milliseconds.
+     * @throws IllegalArgumentException Thrown if the time is not positive.
+     * @since 1.10
+     */
+    public void setSnapshot(String name, long millis) 
+            throws IllegalArgumentException
+    {
+        if (millis <= 0) {
+            throw new IllegalArgumentException(
+                    "The snapshot interval must be greater than zero."
+            );
+        }
+        this.snapshotName = name;
+        this.snapshotInterval = millis;
+    }
+    
     /**
      * Starts running this {@link Server} instance. Begins the server thread to 
      * allow it to listen for connections in the background.
@@ -122,22 +312,152 @@ public class DirectoryService implements Runnable
     {
         System.out.println("Starting directory server...");
         try {
-            server = new ServerSocket(port);
+            server = new ServerSocket(port, BACKLOG);
             hostName = InetAddress.getLocalHost().getHostName();
+            watchers = new WatchList(registry);
+            registry.setListener(new Runnable() {
+                @Override
+                public void run() { watchers.changed(); }
+            });
+            pool = new ThreadPoolExecutor(workers, workers, 0, 
+                    TimeUnit.MILLISECONDS, 
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUED), 
+                    new ThreadFactory() {
+                        private final AtomicInteger count = 
+                                new AtomicInteger();
+                        
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "Directory worker " 
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
             
             serverThread = new Thread(this);
             serverThread.start();
             System.out.println("Server started.");
-            monitor = new ServerPoller(this);
-            Thread monitorThread = new Thread(monitor);
+            Thread monitorThread;
+            if (polling) {
+                monitor = new ServerPoller(this);
+                monitorThread = new Thread(monitor);
+            } else {
+                leases = new LeaseMonitor(this, leaseTime);
+                monitorThread = new Thread(leases);
+            }
             monitorThread.start();
             System.out.println("Server monitor started.");
+            restoreSnapshot();
+            startReplicas();
         } catch (IOException ioEx) {
             System.out.printf("Error intiialising server. Reason:%n\t%s%n", 
                     ioEx.getMessage());
         }
     }
     
+    /**
+     * Restores the registry kept by an earlier run, checks the restored 
+     * servers in the background, and starts keeping the registry. Does 
+     * nothing if the registry is not kept.
+     * 
+     * @since 1.10
+     */
+    private void restoreSnapshot()
+    {
+        if (snapshotName == null) return;
+        snapshot = new RegistrySnapshot(this, snapshotName, snapshotInterval);
+        try {
+            long start = System.nanoTime();
+            List<ServerRegistry.Entry> restored = snapshot.restore();
+            if (!restored.isEmpty()) {
+                membersChanged();
+                System.out.printf("Restored %d server(s) from %s.snapshot in "
+                        + "%d ms.%n", restored.size(), snapshotName, 
+                        TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - start));
+                snapshot.revalidate(restored);
+            }
+        } catch (IOException ioEx) {
+            System.err.printf("Could not restore registry, starting empty. "
+                    + "Reason:%n\t%s%n", ioEx.getMessage());
+        }
+        snapshot.start();
+    }
+    
+    /**
+     * Marks a restored server as still running. It is then kept for as long 
+     * as it sends heartbeats, as if it had just registered.
+     * 
+     * @param hostName The name or IP address of the server as a String.
+     * @param port The port of the server as an int.
+     * @since 1.10
+     */
+    void confirmServer(String hostName, int port)
+    {
+        LeaseMonitor l = leases;
+        if (l != null) l.renew(hostName, port);
+    }
+    
+    /**
+     * Copies the servers known to another replica, then starts passing 
+     * changes on to the other replicas. Does nothing if there are none.
+     * 
+     * @since 1.9
+     */
+    private void startReplicas()
+    {
+        List<Pair<String, Integer>> others = new ArrayList<>();
+        for (Pair<String, Integer> peer : peers) {
+            if (!isSelf(peer)) others.add(peer);
+        }
+        if (others.isEmpty()) return;
+        DirectoryReplicas r = new DirectoryReplicas(others);
+        HashSet<Triple<String, Integer, Integer>> known = r.fetch();
+        if (known == null) {
+            System.out.println("No other replica reachable, starting empty.");
+        } else {
+            Set<Pair<String, Integer>> servers = new HashSet<>();
+            for (Triple<String, Integer, Integer> game : known) {
+                registry.registerGame(game.One, game.Two, game.Three);
+                servers.add(new Pair<>(game.One, game.Two));
+            }
+            // Copied servers are dropped unless they keep sending heartbeats.
+            if (leases != null) {
+                for (Pair<String, Integer> svr : servers)
+                    leases.renew(svr.Left, svr.Right);
+            }
+            membersChanged();
+            System.out.printf("Copied %d server(s) from another replica.%n", 
+                    servers.size());
+        }
+        r.start();
+        replicas = r;
+        System.out.printf("Replicating to %d other replica(s).%n", 
+                others.size());
+    }
+    
+    /**
+     * Checks whether a replica is this {@link DirectoryService}, by its port 
+     * and whether its host is an address of this machine.
+     * 
+     * @param peer The host name and port of the replica.
+     * @return Returns true if the replica is this one.
+     * @since 1.9
+     */
+    private boolean isSelf(Pair<String, Integer> peer)
+    {
+        if (peer.Right != server.getLocalPort()) return false;
+        try {
+            InetAddress address = InetAddress.getByName(peer.Left);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException ioEx) {
+            return false; // Unknown hosts cannot be this machine.
+        }
+    }
+    
     /**
      * Registers a new {@link Server} with this {@link DirectoryService}.
      * 
@@ -147,9 +467,17 @@ public class DirectoryService implements Runnable
      */
     public void addServer(String hostName, int port, int gameID)
     {
-        knownHosts.add(new Triple<>(hostName, port, gameID));
+        registry.registerGame(hostName, port, gameID);
     }
     
+    /**
+     * Gets the {@link ServerRegistry} holding the known servers.
+     * 
+     * @return The {@link ServerRegistry} of this {@link DirectoryService}.
+     * @since 1.4
+     */
+    public ServerRegistry getRegistry() { return registry; }
+    
     /**
      * Gets a {@link Set} of {@link Triple}s containing the details of known 
      * servers. The triple contains the following items;
@@ -159,12 +487,13 @@ public class DirectoryService implements Runnable
      *  <li>The game ID (-1 is a new SP game, 0 is a new MP game).</li>
      * </ol>
      * 
-     * @return A {@link Set} of the known servers.
+     * @return A {@link Set} of the known servers, which is shared and must 
+     * not be modified.
      * @since 1.1
      */
     public Set<Triple<String, Integer, Integer>> getKnownHosts() 
     { 
-        return knownHosts; 
+        return registry.getHosts(); 
     }
     
     /**
@@ -172,24 +501,95 @@ public class DirectoryService implements Runnable
      * 
      * @param hostName The name/ IP address of the server to remove as a String.
      * @param port The port of the server to remove as an int.
-     * @param gameID The unique ID of a game to remove, this is only counted if 
-     * greater than zero (0).
+     * @param gameID The unique ID of a game to remove, if greater than zero 
+     * (0), otherwise the whole server is removed.
      * @since 1.0
      */
     public void removeServer(String hostName, int port, int gameID)
     {
-        Triple toRemove = null;
-        for (Triple host : knownHosts) {
-            if (host.One.equals(hostName) && host.Two.equals(port))
+        if (gameID > 0) {
+            registry.unregisterGame(hostName, port, gameID);
+        } else {
+            registry.removeServer(hostName, port);
+            membersChanged();
+        }
+    }
+    
+    /**
+     * Renews the lease of a server, registering it again if it had been 
+     * removed, and stores the load it reported. When polling, the server is 
+     * only registered if it is not already known.
+     * 
+     * @param hostName The name or IP address of the server as a String.
+     * @param port The port of the server as an int.
+     * @param load The {@link ServerRegistry.Load} the server reported.
+     * @since 1.5
+     */
+    public void heartbeat(String hostName, int port, ServerRegistry.Load load)
+    {
+        LeaseMonitor l = leases;
+        // A new lease means the server is new or its last one ran out.
+        boolean missing = l != null ? l.renew(hostName, port)
+                : registry.get(hostName, port) == null;
+        if (missing) {
+            registry.registerServer(hostName, port);
+            membersChanged();
+            logger.log(Level.FINE, "Registered server {0}:{1} from "
+                    + "heartbeat.", new Object[] {hostName,
+                    Integer.toString(port)});
+        }
+        registry.updateLoad(hostName, port, load);
+        placement.loadReported(hostName, port);
+    }
+    
+    /**
+     * Checks whether the set of servers has changed and, if it has, pushes 
+     * the new set to every server in the background so servers never need to 
+     * ask for it. Adding or removing single games does not count as a change.
+     * 
+     * @since 1.2
+     */
+    private synchronized void membersChanged()
+    {
+        final Set<Pair<String, Integer>> current = registry.getMembers();
+        if (current.equals(members)) return;
+        members = current;
+        final long version = membersVersion.incrementAndGet();
+        notifier.execute(new Runnable() {
+            @Override
+            public void run()
             {
-                if (gameID > 0 && host.Three.equals(gameID)) {
-                    toRemove = host;
-                    break;
-                } else
-                    toRemove = host;
+                // A newer list is waiting, so only that one needs sending.
+                if (version != membersVersion.get()) return;
+                for (Pair<String, Integer> svr : current)
+                    pushMembers(svr, current);
             }
+        });
+    }
+    
+    /**
+     * Sends the list of servers to a single server. Failures are only logged, 
+     * as servers fetch the list themselves if they miss a push.
+     * 
+     * @param target The host name and port of the server to send to.
+     * @param servers The list of servers to send.
+     * @since 1.2
+     */
+    private void pushMembers(Pair<String, Integer> target, 
+            Set<Pair<String, Integer>> servers)
+    {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(target.Left, target.Right), 
+                    PUSH_TIMEOUT);
+            ObjectOutputStream output = 
+                    new ObjectOutputStream(socket.getOutputStream());
+            output.writeObject(MessageType.UPDATE_PEERS);
+            output.writeObject(servers);
+            output.flush();
+        } catch (IOException ioEx) {
+            System.err.printf("Could not push servers to %s:%d. Reason:%n\t%s"
+                    + "%n", target.Left, target.Right, ioEx.getMessage());
         }
-        if (toRemove != null) knownHosts.remove(toRemove);
     }
     
     /**
@@ -203,8 +603,14 @@ public class DirectoryService implements Runnable
         System.out.println("Shutting down server...");
         
         try {
-            monitor.kill();
+            if (monitor != null) monitor.kill();
+            if (leases != null) leases.kill();
+            if (replicas != null) replicas.stop();
+            if (snapshot != null) snapshot.close();
+            notifier.shutdown();
+            if (watchers != null) watchers.close();
             server.close();
+            pool.shutdown();
             serverThread.join();
             System.out.println("Server shut down.");
         } catch (IOException ioEx) {
@@ -215,10 +621,10 @@ public class DirectoryService implements Runnable
     }
 
     /**
-     * Listens for connections from {@link Server}s, and registers them based on
-     *  the message sent to this {@link DirectoryService}. Also listens for 
-     * connections from {@link Client}s, and sends lists of the known servers 
-     * to them.
+     * Listens for connections from {@link Server}s and {@link Client}s, and 
+     * hands each one to a worker thread. If every worker is busy and too many 
+     * connections are already waiting, the connection is closed straight 
+     * away rather than left to wait.
      * 
      * @since 1.0
      */
@@ -229,76 +635,274 @@ public class DirectoryService implements Runnable
                 server.getLocalPort());
         while (!server.isClosed())
         {
-            Socket socket;
+            final Socket socket;
             try {
                 socket = server.accept();
             } catch (IOException ioEx) {
-                System.out.printf(
-                        "Server could not connect to client. Reason:%n\t%s%n",
-                        ioEx.getMessage());
+                if (!server.isClosed())
+                    System.out.printf("Server could not connect to client. "
+                            + "Reason:%n\t%s%n", ioEx.getMessage());
                 continue;
             }
-            System.out.printf("Client %s connecting...%n", 
-                    socket.getInetAddress().getHostName());
             try {
-                ObjectOutputStream output = 
-                        new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream input = 
-                        new ObjectInputStream(socket.getInputStream());
-                
-                MessageType request = (MessageType)input.readObject();
-                String remoteName;
-                int remotePort, gameID;
-                switch (request) {
-                    case QUERY_SERVERS:
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() { handle(socket); }
+                });
+            } catch (RejectedExecutionException busyEx) {
+                System.err.printf("Too busy, turning away %s.%n", 
+                        socket.getInetAddress().getHostAddress());
+                closeQuietly(socket);
+            }
+        }
+    }
+    
+    /**
+     * Registers {@link Server}s based on the message sent to this {@link 
+     * DirectoryService}, or sends lists of the known servers to {@link 
+     * Client}s. Runs on a worker thread and closes the connection once done.
+     * 
+     * @param socket The connection to serve.
+     * @since 1.3
+     */
+    private void handle(Socket socket)
+    {
+        if (verbose)
+            System.out.printf("Client %s connecting...%n", 
+                    socket.getInetAddress().getHostAddress());
+        boolean held = false;
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            ObjectOutputStream output = 
+                    new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream input = 
+                    new ObjectInputStream(socket.getInputStream());
+
+            MessageType request = (MessageType)input.readObject();
+            long epoch, known;
+            switch (request) {
+                case QUERY_SERVERS:
+                    if (verbose)
                         System.out.println("Sending list of known hosts...");
-                        output.writeObject(MessageType.QUERY_SERVERS);
-                        output.writeObject(knownHosts);
+                    output.writeObject(MessageType.QUERY_SERVERS);
+                    // Snapshots never change, so no copy is needed.
+                    output.writeObject(registry.getHosts());
+                    output.flush();
+                    break;
+                case QUERY_CHANGES:
+                    epoch = input.readLong();
+                    known = input.readLong();
+                    writeDelta(output, MessageType.QUERY_CHANGES, 
+                            registry.changesSince(epoch, known));
+                    break;
+                case WATCH_SERVERS:
+                    epoch = input.readLong();
+                    known = input.readLong();
+                    long wait = input.readLong();
+                    ServerRegistry.Delta delta = 
+                            registry.changesSince(epoch, known);
+                    // Only wait if there is nothing to send yet.
+                    if (!delta.isFull() && delta.Changes.isEmpty())
+                        held = watchers.watch(socket, output, epoch, known, 
+                                wait);
+                    if (!held)
+                        writeDelta(output, MessageType.WATCH_SERVERS, delta);
+                    break;
+                case QUERY_FILTERED:
+                    DirectoryQuery query = (DirectoryQuery)input.readObject();
+                    if (verbose)
+                        System.out.printf("Sending hosts matching %s...%n", 
+                                query);
+                    output.writeObject(MessageType.QUERY_FILTERED);
+                    output.writeObject(registry.find(query));
+                    output.flush();
+                    break;
+                case QUERY_PLACEMENT:
+                    int count = input.readInt();
+                    long headroom = input.readLong();
+                    if (verbose)
+                        System.out.printf("Placing %d game(s) needing %d "
+                                + "credits...%n", count, headroom);
+                    output.writeObject(MessageType.QUERY_PLACEMENT);
+                    output.writeObject(placement.place(
+                            Math.max(0, Math.min(count, MAX_PLACEMENTS)), 
+                            headroom));
+                    output.flush();
+                    break;
+                case REGISTER_SERVER:
+                case HEARTBEAT:
+                case REGISTER_GAME:
+                case UPDATE_TABLE:
+                case UNREGISTER_GAME:
+                    DirectoryUpdate update = apply(DirectoryUpdate.read(
+                            request, input));
+                    if (request == MessageType.REGISTER_SERVER 
+                            && update.Node != null) {
+                        // Tell the server which node it was leased.
+                        output.writeObject(MessageType.REGISTER_SERVER);
+                        output.writeInt(update.Node);
                         output.flush();
-                        break;
-                    case REGISTER_SERVER:
-                        System.out.println("Registering server...");
-                        remoteName = input.readUTF();
-                        remotePort = input.readInt();
-                        addServer(remoteName, remotePort, -1);
-                        addServer(remoteName, remotePort, 0);
-                        System.out.printf("Registered server %s:%d%n", 
-                                remoteName, remotePort);
-                        break;
-                    case REGISTER_GAME:
-                        System.out.println("Registering game...");
-                        remoteName = input.readUTF();
-                        remotePort = input.readInt();
-                        gameID = input.readInt();
-                        addServer(remoteName, remotePort, gameID);
-                        System.out.printf("Registered game %s:%d - %d%n", 
-                                remoteName, remotePort, gameID);
-                        break;
-                    case UNREGISTER_GAME:
-                        System.out.println("Unregistering game...");
-                        remoteName = input.readUTF();
-                        remotePort = input.readInt();
-                        gameID = input.readInt();
-                        removeServer(remoteName, remotePort, gameID);
-                        System.out.printf("Unregistered game %s:%d - %d%n", 
-                                remoteName, remotePort, gameID);
-                        break;
-                    default:
-                        System.err.printf("Directory server does not support "
-                                + "message %s!%n", request);
-                }
-            } catch (IOException ioEx) {
-                System.err.printf("Error: %s%n", ioEx.getMessage());
-            } catch (ClassNotFoundException cnfEx) {
-                System.err.printf("Unknown object type recieved.%n%s%n",
-                        cnfEx.getMessage());
+                    }
+                    DirectoryReplicas r = replicas;
+                    if (r != null) r.forward(update);
+                    break;
+                case REPLICATE:
+                    // Already passed on by the replica that received them.
+                    List<DirectoryUpdate> updates = 
+                            DirectoryReplicas.read(input);
+                    for (DirectoryUpdate u : updates)
+                        apply(u);
+                    output.writeObject(MessageType.REPLICATE);
+                    output.flush();
+                    break;
+                default:
+                    System.err.printf("Directory server does not support "
+                            + "message %s!%n", request);
             }
+        } catch (IOException ioEx) {
+            System.err.printf("Error: %s%n", ioEx.getMessage());
+        } catch (ClassNotFoundException cnfEx) {
+            System.err.printf("Unknown object type recieved.%n%s%n",
+                    cnfEx.getMessage());
+        } finally {
+            if (!held) closeQuietly(socket);
+        }
+    }
+    
+    /**
+     * Applies a change sent by a server, either directly or passed on by 
+     * another replica.
+     * 
+     * @param update The {@link DirectoryUpdate} to apply.
+     * @return The {@link DirectoryUpdate} as applied, holding the node leased 
+     * if the server registered.
+     * @since 1.9
+     */
+    private DirectoryUpdate apply(DirectoryUpdate update)
+    {
+        String remoteName = update.Host;
+        int remotePort = update.Port;
+        switch (update.Type) {
+            case REGISTER_SERVER:
+                System.out.println("Registering server...");
+                if (leases != null)
+                    leases.renew(remoteName, remotePort);
+                registry.registerServer(remoteName, remotePort);
+                membersChanged();
+                System.out.printf("Registered server %s:%d%n", 
+                        remoteName, remotePort);
+                // Replicas are passed the node already leased, or -1 if 
+                // there was none free.
+                if (update.Node == null || update.Node < 0) break;
+                int node = registry.assignNode(remoteName, remotePort, 
+                        update.Node);
+                if (node != update.Node)
+                    System.out.printf("Node %d is taken, leased node %d to "
+                            + "%s:%d%n", update.Node, node, remoteName, 
+                            remotePort);
+                update = update.withNode(node);
+                break;
+            case HEARTBEAT:
+                heartbeat(remoteName, remotePort, update.Load);
+                if (update.Node != null && update.Node >= 0 
+                        && !registry.claimNode(remoteName, remotePort, 
+                                update.Node))
+                    logger.log(Level.WARNING, "Server {0}:{1} is using node "
+                            + "{2}, which is leased to another server.", 
+                            new Object[] {remoteName, 
+                            Integer.toString(remotePort), update.Node});
+                if (verbose)
+                    System.out.printf("Heartbeat from %s:%d (%s)%n",
+                            remoteName, remotePort, update.Load);
+                break;
+            case REGISTER_GAME:
+                System.out.println("Registering game...");
+                addServer(remoteName, remotePort, update.GameID);
+                updateTable(update);
+                System.out.printf("Registered game %s:%d - %d%n", 
+                        remoteName, remotePort, update.GameID);
+                break;
+            case UPDATE_TABLE:
+                updateTable(update);
+                break;
+            case UNREGISTER_GAME:
+                System.out.println("Unregistering game...");
+                removeServer(remoteName, remotePort, update.GameID);
+                System.out.printf("Unregistered game %s:%d - %d%n", 
+                        remoteName, remotePort, update.GameID);
+                break;
+        }
+        return update;
+    }
+    
+    /**
+     * Stores the players seated, the seats and the minimum bet of a table in 
+     * the registry.
+     * 
+     * @param update The {@link DirectoryUpdate} holding the table.
+     * @since 1.7
+     */
+    private void updateTable(DirectoryUpdate update)
+    {
+        ServerRegistry.Table t = update.Table;
+        registry.updateTable(update.Host, update.Port, update.GameID, t);
+        if (verbose)
+            System.out.printf("Table %s:%d - %d has %d of %d seats taken, "
+                    + "minimum bet %d%n", update.Host, update.Port, 
+                    update.GameID, t.Players, t.Seats, t.MinimumBet);
+    }
+    
+    /**
+     * Sends a client what it needs to catch up with the registry. The reply 
+     * is the request type, the epoch, the version, then either true and a 
+     * {@link HashSet} of every game, or false and a list of {@link 
+     * ServerRegistry.Change}s to apply in order.
+     * 
+     * @param output The stream to write to.
+     * @param type The type of request being answered.
+     * @param delta The {@link ServerRegistry.Delta} to send.
+     * @throws IOException Thrown if the reply could not be written.
+     * @since 1.6
+     */
+    static void writeDelta(ObjectOutputStream output, MessageType type, 
+            ServerRegistry.Delta delta) throws IOException
+    {
+        output.writeObject(type);
+        output.writeLong(delta.Epoch);
+        output.writeLong(delta.Version);
+        output.writeBoolean(delta.isFull());
+        if (delta.isFull())
+            output.writeObject(delta.Hosts);
+        else
+            output.writeObject(delta.Changes);
+        output.flush();
+    }
+    
+    /**
+     * Closes a connection, ignoring any failure.
+     * 
+     * @param socket The {@link Socket} to close.
+     * @since 1.3
+     */
+    private static void closeQuietly(Socket socket)
+    {
+        try {
+            socket.close();
+        } catch (IOException closeEx) {
+            // Nothing more can be done with the connection.
         }
     }
     
     public static void main(String[] args)
     {
         Integer port = null;
+        int workers = DEFAULT_WORKERS;
+        long leaseTime = LeaseMonitor.DEFAULT_LEASE;
+        boolean poll = false;
+        List<Pair<String, Integer>> peers = Collections.emptyList();
+        String snapshotName = null;
+        boolean keepRegistry = true;
+        long snapshotInterval = RegistrySnapshot.DEFAULT_INTERVAL;
         DirectoryService server;
         /* handle the command line parameters if any were passed. */
         for (int i = 0; i < args.length; i++) {
@@ -313,6 +917,49 @@ public class DirectoryService implements Runnable
                         System.err.println("Port value must be a number.");
                     }
                     break;
+                case "--workers":
+                    try {
+                        workers = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException nEx) {
+                        System.err.println("Workers must be a number.");
+                    }
+                    break;
+                case "--lease":
+                    try {
+                        leaseTime = Long.parseLong(args[++i]);
+                    } catch (NumberFormatException nEx) {
+                        System.err.println("Lease time must be a number.");
+                    }
+                    break;
+                case "--poll":
+                    poll = true;
+                    break;
+                case "--snapshot":
+                    snapshotName = args[++i];
+                    break;
+                case "--no-snapshot":
+                    keepRegistry = false;
+                    break;
+                case "--snapshot-interval":
+                    try {
+                        snapshotInterval = Long.parseLong(args[++i]);
+                    } catch (NumberFormatException nEx) {
+                        System.err.println("Snapshot interval must be a "
+                                + "number.");
+                    }
+                    break;
+                case "--peers":
+                    try {
+                        peers = DirectoryEndpoints.parse(args[++i])
+                                .getEndpoints();
+                    } catch (IllegalArgumentException argEx) {
+                        System.err.println(argEx.getMessage());
+                    }
+                    break;
+                case "-v":
+                case "--verbose":
+                    verbose = true;
+                    break;
                 case "-h":
                 case "--help":
                     // Show a help message.
@@ -334,6 +981,20 @@ public class DirectoryService implements Runnable
             server = DirectoryService.getInstance();
         }
         
+        try {
+            server.setWorkers(workers);
+            server.setLeaseTime(leaseTime);
+            if (keepRegistry) {
+                if (snapshotName == null)
+                    snapshotName = "directory-" + server.port;
+                server.setSnapshot(snapshotName, snapshotInterval);
+            }
+        } catch (IllegalArgumentException argEx) {
+            System.err.println(argEx.getMessage());
+            return;
+        }
+        server.setPolling(poll);
+        server.setPeers(peers);
         server.init(); // Start running the server.
         
         Scanner input = new Scanner(System.in);
@@ -367,6 +1028,21 @@ public class DirectoryService implements Runnable
         sb.append("Pontoon Directory Server Help:\n");
         sb.append("\tCommand [options] (Short) - Action\n");
         sb.append("\t--port [port] (-p) - Specifies the port to listen on.\n");
+        sb.append("\t--workers [count] - Sets the number of threads serving "
+                + "requests.\n");
+        sb.append("\t--lease [ms] - Sets how long servers are kept without a "
+                + "heartbeat.\n");
+        sb.append("\t--poll - Polls servers instead of expecting "
+                + "heartbeats.\n");
+        sb.append("\t--snapshot [name] - Sets the file the known servers are "
+                + "kept in between restarts. Defaults to directory-[port].\n");
+        sb.append("\t--no-snapshot - Does not keep the known servers between "
+                + "restarts.\n");
+        sb.append("\t--snapshot-interval [ms] - Sets how often the known "
+                + "servers are written.\n");
+        sb.append("\t--peers [host:port,...] - Keeps the listed directory "
+                + "replicas in step with this one.\n");
+        sb.append("\t--verbose (-v) - Prints every request.\n");
         sb.append("\t--help (-h) - Displays this help message.\n");
         
         return sb.toString();
@@ -0,0 +1,171 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * A single change a {@link Server} sends to a {@link DirectoryService}, such
+ * as registering a game or sending a heartbeat. Reading the change before
+ * applying it lets a directory pass the same change on to its replicas with
+ * {@link MessageType#REPLICATE}.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-15
+ */
+public class DirectoryUpdate implements Serializable
+{
+    /** Serialisation ID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The message the server sent. */
+    public final MessageType Type;
+    /** The host name of the server. */
+    public final String Host;
+    /** The port of the server. */
+    public final int Port;
+    /** The ID of the game, or 0 if the change is not about a single game. */
+    public final int GameID;
+    /** The details of the table, or null if none were sent. */
+    public final ServerRegistry.Table Table;
+    /** The load of the server, or null if none was sent. */
+    public final ServerRegistry.Load Load;
+    /** The node number the server asked for or is using, or null if the 
+     * change does not carry one. */
+    public final Integer Node;
+
+    /**
+     * Creates a new {@link DirectoryUpdate}.
+     *
+     * @param type The message the server sent.
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param gameID The ID of the game, or 0.
+     * @param table The details of the table, or null.
+     * @param load The load of the server, or null.
+     * @param node The node number of the server, or null.
+     * @since 1.0
+     */
+    public DirectoryUpdate(MessageType type, String host, int port, int gameID,
+            ServerRegistry.Table table, ServerRegistry.Load load, Integer node)
+    {
+        this.Type = type;
+        this.Host = host;
+        this.Port = port;
+        this.GameID = gameID;
+        this.Table = table;
+        this.Load = load;
+        this.Node = node;
+    }
+
+    /**
+     * Creates a copy of this {@link DirectoryUpdate} with another node 
+     * number, such as the one the directory leased to the server.
+     *
+     * @param node The node number.
+     * @return The new {@link DirectoryUpdate}.
+     * @since 1.1
+     */
+    public DirectoryUpdate withNode(int node)
+    {
+        return new DirectoryUpdate(Type, Host, Port, GameID, Table, Load, 
+                node);
+    }
+
+    /**
+     * Checks whether a message is a change sent by a server.
+     *
+     * @param type The {@link MessageType} to check.
+     * @return Returns true if the message can be read as a {@link
+     * DirectoryUpdate}.
+     * @since 1.0
+     */
+    public static boolean isUpdate(MessageType type)
+    {
+        switch (type) {
+            case REGISTER_SERVER:
+            case HEARTBEAT:
+            case REGISTER_GAME:
+            case UPDATE_TABLE:
+            case UNREGISTER_GAME:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the rest of a change sent by a server, once its message type has
+     * been read. Every field of the change must be sent, so servers and 
+     * directories must be from the same release.
+     *
+     * @param type The message the server sent.
+     * @param input The stream to read the change from.
+     * @return The {@link DirectoryUpdate} sent.
+     * @throws IOException Thrown if the change could not be read.
+     * @throws IllegalArgumentException Thrown if the message is not a change.
+     * @since 1.0
+     */
+    public static DirectoryUpdate read(MessageType type,
+            ObjectInputStream input) throws IOException,
+            IllegalArgumentException
+    {
+        String host = input.readUTF();
+        int port = input.readInt();
+        switch (type) {
+            case REGISTER_SERVER:
+                return new DirectoryUpdate(type, host, port, 0, null, null,
+                        input.readInt());
+            case HEARTBEAT:
+                int games = input.readInt();
+                int threads = input.readInt();
+                long headroom = input.readLong();
+                ServerRegistry.Load load =
+                        new ServerRegistry.Load(games, threads, headroom);
+                return new DirectoryUpdate(type, host, port, 0, null, load,
+                        input.readInt());
+            case REGISTER_GAME:
+                int gameID = input.readInt();
+                return new DirectoryUpdate(type, host, port, gameID,
+                        readTable(input), null, null);
+            case UPDATE_TABLE:
+                gameID = input.readInt();
+                return new DirectoryUpdate(type, host, port, gameID,
+                        readTable(input), null, null);
+            case UNREGISTER_GAME:
+                gameID = input.readInt();
+                return new DirectoryUpdate(type, host, port, gameID, null,
+                        null, null);
+            default:
+                throw new IllegalArgumentException(
+                        String.format("%s is not a server update.", type)
+                );
+        }
+    }
+
+    /**
+     * Reads the players seated, the seats and the minimum bet of a table.
+     *
+     * @param input The stream to read the details from.
+     * @return The {@link ServerRegistry.Table} sent.
+     * @throws IOException Thrown if the details could not be read.
+     * @since 1.0
+     */
+    private static ServerRegistry.Table readTable(ObjectInputStream input)
+            throws IOException
+    {
+        int players = input.readInt();
+        int seats = input.readInt();
+        int minimumBet = input.readInt();
+        return new ServerRegistry.Table(players, seats, minimumBet);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s %s:%d - %d", Type, Host, Port, GameID);
+    }
+}
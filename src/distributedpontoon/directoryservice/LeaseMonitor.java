@@ -0,0 +1,172 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs in the background of a {@link DirectoryService} process and removes
+ * {@link Server}s that have stopped sending {@link MessageType#HEARTBEAT}s.
+ * Each server holds a lease that every heartbeat renews, and a server is
+ * removed once its lease runs out, so the directory never has to contact the
+ * servers itself.
+ * <p>
+ * Leases wait in a {@link DelayQueue}, so the thread only wakes when the
+ * earliest lease is due. Renewing a lease does not touch the queue, the
+ * queued lease is checked against the latest one when it comes due instead.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class LeaseMonitor implements Runnable
+{
+    /** The default time a server is kept without a heartbeat in
+     * milliseconds. */
+    public static final long DEFAULT_LEASE = 10000;
+
+    /**
+     * The time a single {@link Server} is registered until.
+     *
+     * @since 1.0
+     */
+    private static final class Lease implements Delayed
+    {
+        /** The host name and port of the server. */
+        final Pair<String, Integer> Server;
+        /** The time the lease runs out, from {@link System#nanoTime()}. */
+        final long Deadline;
+
+        /**
+         * Creates a new {@link Lease}.
+         *
+         * @param server The host name and port of the server.
+         * @param deadline The time the lease runs out in nanoseconds.
+         * @since 1.0
+         */
+        Lease(Pair<String, Integer> server, long deadline)
+        {
+            this.Server = server;
+            this.Deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(Deadline - System.nanoTime(),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            long diff = Deadline - ((Lease)other).Deadline;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    /** The {@link DirectoryService} to remove servers from. */
+    private final DirectoryService directory;
+    /** The time a lease lasts in nanoseconds. */
+    private final long duration;
+    /** The latest lease of each server. */
+    private final ConcurrentHashMap<Pair<String, Integer>, Lease> leases;
+    /** One lease for each server, ordered by when they run out. */
+    private final DelayQueue<Lease> expiries;
+    /** Keeps this {@link LeaseMonitor} running in the background. */
+    private volatile boolean running;
+    /** The thread removing servers, or null if not started. */
+    private volatile Thread thread;
+
+    /**
+     * Creates a new {@link LeaseMonitor} for the specified {@link
+     * DirectoryService}.
+     *
+     * @param directory The {@link DirectoryService} to use.
+     * @param millis The time a lease lasts in milliseconds.
+     * @throws IllegalArgumentException Thrown if the time is not positive.
+     * @since 1.0
+     */
+    public LeaseMonitor(DirectoryService directory, long millis)
+            throws IllegalArgumentException
+    {
+        if (millis <= 0) {
+            throw new IllegalArgumentException(
+                    "Leases must last longer than zero."
+            );
+        }
+        this.directory = directory;
+        this.duration = TimeUnit.MILLISECONDS.toNanos(millis);
+        this.leases = new ConcurrentHashMap<>();
+        this.expiries = new DelayQueue<>();
+        this.running = true;
+        this.thread = null;
+    }
+
+    /**
+     * Gives a server a new lease, replacing any it already holds.
+     *
+     * @param hostName The host name of the server.
+     * @param port The port of the server.
+     * @return Returns true if the server did not hold a lease, false if an
+     * existing lease was renewed.
+     * @since 1.0
+     */
+    public boolean renew(String hostName, int port)
+    {
+        Pair<String, Integer> key = new Pair<>(hostName, port);
+        Lease lease = new Lease(key, System.nanoTime() + duration);
+        if (leases.put(key, lease) != null) return false;
+        expiries.add(lease);
+        return true;
+    }
+
+    /**
+     * Stops this {@link LeaseMonitor} instance from running.
+     *
+     * @since 1.0
+     */
+    public void kill()
+    {
+        running = false;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+    }
+
+    /**
+     * Waits for each lease to run out and removes its server, unless the
+     * lease has been renewed since.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        thread = Thread.currentThread();
+        while (running) {
+            Lease due;
+            try {
+                due = expiries.take();
+            } catch (InterruptedException intEx) {
+                continue; // Check whether to stop.
+            }
+            Lease latest = leases.get(due.Server);
+            if (latest == null) continue;
+            if (latest.Deadline - System.nanoTime() > 0) {
+                expiries.add(latest); // Renewed, wait for the new lease.
+            } else if (leases.remove(due.Server, latest)) {
+                System.out.printf("Lease of server %s:%d ran out, "
+                        + "removing.%n", due.Server.Left, due.Server.Right);
+                directory.removeServer(due.Server.Left, due.Server.Right, -1);
+            } else {
+                // Renewed just now, so wait for the new lease.
+                Lease renewed = leases.get(due.Server);
+                if (renewed != null) expiries.add(renewed);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
+import distributedpontoon.shared.Triple;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the {@link Server}s new games should be started on, so clients spread
+ * their games out by load rather than piling onto every server alike. Sent
+ * with {@link MessageType#QUERY_PLACEMENT}.
+ * <p>
+ * Each game goes to the less busy of two servers picked at random, which
+ * keeps the busiest server close to the average without every client rushing
+ * to the same least busy one. A server is as busy as the games it last
+ * reported, plus the games placed on it since, as the load only arrives with
+ * the next heartbeat. Servers whose bank cannot cover the bets asked for are
+ * never picked, while servers that have not reported a load yet count as
+ * idle.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class Placement
+{
+    /** The registry to pick servers from. */
+    private final ServerRegistry registry;
+    /** The games placed on each server since its last reported load. */
+    private final ConcurrentHashMap<Pair<String, Integer>, AtomicInteger>
+            placed;
+
+    /**
+     * Creates a new {@link Placement} for the specified {@link
+     * ServerRegistry}.
+     *
+     * @param registry The {@link ServerRegistry} to pick servers from.
+     * @since 1.0
+     */
+    public Placement(ServerRegistry registry)
+    {
+        this.registry = registry;
+        this.placed = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Forgets the games placed on a server, as the load it has just reported
+     * already counts them.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @since 1.0
+     */
+    public void loadReported(String host, int port)
+    {
+        placed.remove(new Pair<>(host, port));
+    }
+
+    /**
+     * Picks a server for each of a number of new single player games. The
+     * same server may be picked more than once.
+     *
+     * @param count The number of games to place.
+     * @param headroom The fewest free credits a server must have in its bank.
+     * @return A new {@link ArrayList} of host name, port and game ID {@link
+     * Triple}s, with a game ID of -1. Empty if no server can take a game.
+     * @since 1.0
+     */
+    public ArrayList<Triple<String, Integer, Integer>> place(int count,
+            long headroom)
+    {
+        ArrayList<ServerRegistry.Entry> candidates = new ArrayList<>();
+        for (ServerRegistry.Entry e : registry.getServers()) {
+            if (!e.Games.contains(-1)) continue;
+            if (e.Load != null && e.Load.Headroom < headroom) continue;
+            candidates.add(e);
+        }
+        ArrayList<Triple<String, Integer, Integer>> picks = new ArrayList<>();
+        if (candidates.isEmpty()) return picks;
+        Random random = ThreadLocalRandom.current();
+        int size = candidates.size();
+        for (int i = 0; i < count; i++) {
+            int first = random.nextInt(size);
+            ServerRegistry.Entry pick = candidates.get(first);
+            if (size > 1) {
+                // Pick a second, different server and keep the less busy.
+                int second = random.nextInt(size - 1);
+                if (second >= first) second++;
+                ServerRegistry.Entry other = candidates.get(second);
+                if (busyness(other) < busyness(pick)) pick = other;
+            }
+            counter(pick.Host, pick.Port).incrementAndGet();
+            picks.add(new Triple<>(pick.Host, pick.Port, -1));
+        }
+        return picks;
+    }
+
+    /**
+     * Gets how busy a server is, as the games it last reported plus the games
+     * placed on it since.
+     *
+     * @param e The {@link ServerRegistry.Entry} of the server.
+     * @return The number of games as an int.
+     * @since 1.0
+     */
+    private int busyness(ServerRegistry.Entry e)
+    {
+        AtomicInteger count = placed.get(new Pair<>(e.Host, e.Port));
+        int games = e.Load == null ? 0 : e.Load.Games;
+        return games + (count == null ? 0 : count.get());
+    }
+
+    /**
+     * Gets the count of games placed on a server, starting one if needed.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @return The {@link AtomicInteger} count.
+     * @since 1.0
+     */
+    private AtomicInteger counter(String host, int port)
+    {
+        Pair<String, Integer> key = new Pair<>(host, port);
+        AtomicInteger count = placed.get(key);
+        if (count != null) return count;
+        AtomicInteger created = new AtomicInteger();
+        count = placed.putIfAbsent(key, created);
+        return count == null ? created : count;
+    }
+}
@@ -0,0 +1,331 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.MultiPlayerGame;
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps the {@link ServerRegistry} of a {@link DirectoryService} across
+ * restarts, so clients can find servers straight away rather than waiting for
+ * every server to register again. The whole registry is written to a snapshot
+ * file every few seconds if it has changed, and once more when the directory
+ * stops. The snapshot replaces the old one in a single step, and ends with a
+ * checksum, so a crash leaves either the old or the new one.
+ * <p>
+ * A restored registry may be out of date, so every restored {@link Server} is
+ * checked in the background with {@link MessageType#POLL_SERVER}. Servers
+ * that do not answer are removed, and {@link MultiPlayerGame}s a server no
+ * longer lists are dropped. Table details only change the snapshot with the
+ * next registration, as they do not count as a change to the registry.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-15
+ */
+public class RegistrySnapshot implements Runnable
+{
+    /** The default time between snapshots in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 5000;
+    /** Marks the start of a snapshot file. */
+    private static final int MAGIC = 0x50445331;
+    /** The most servers checked at once after restoring. */
+    private static final int MAX_CHECKS = 16;
+    /** The time allowed to connect to and hear from a server in
+     * milliseconds. */
+    private static final int CHECK_TIMEOUT = 1000;
+
+    /** The directory being kept. */
+    private final DirectoryService directory;
+    /** The registry being kept. */
+    private final ServerRegistry registry;
+    /** The snapshot file. */
+    private final File file;
+    /** The time between snapshots in milliseconds. */
+    private final long interval;
+    /** The thread writing snapshots. */
+    private final ScheduledExecutorService executor;
+    /** The version of the registry last written, -1 if none has been. */
+    private long written;
+
+    /**
+     * Creates a new {@link RegistrySnapshot}. Nothing is written until {@link
+     * RegistrySnapshot#start()} is called.
+     *
+     * @param directory The {@link DirectoryService} being kept.
+     * @param name The name of the file, without an extension.
+     * @param interval The time between snapshots in milliseconds.
+     * @throws IllegalArgumentException Thrown if the interval is not positive.
+     * @since 1.0
+     */
+    public RegistrySnapshot(DirectoryService directory, String name,
+            long interval) throws IllegalArgumentException
+    {
+        if (interval <= 0) {
+            throw new IllegalArgumentException(
+                    "The snapshot interval must be greater than zero."
+            );
+        }
+        this.directory = directory;
+        this.registry = directory.getRegistry();
+        this.file = new File(name + ".snapshot");
+        this.interval = interval;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                daemon("Directory snapshot"));
+        this.written = -1;
+    }
+
+    /**
+     * Creates a {@link ThreadFactory} making daemon threads, so a snapshot
+     * never keeps the process running.
+     *
+     * @param name The name of the threads.
+     * @return A new {@link ThreadFactory}.
+     * @since 1.0
+     */
+    private static ThreadFactory daemon(final String name)
+    {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Reads the registry kept by an earlier run into the current registry.
+     *
+     * @return The {@link ServerRegistry.Entry}s restored, empty if nothing
+     * has been kept.
+     * @throws IOException Thrown if the file exists but cannot be read, or
+     * fails its checksum.
+     * @since 1.0
+     */
+    public List<ServerRegistry.Entry> restore() throws IOException
+    {
+        List<ServerRegistry.Entry> restored = new ArrayList<>();
+        if (!file.exists()) return restored;
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)),
+                new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a directory snapshot.");
+            // Read everything before changing the registry, in case the
+            // file turns out to be damaged.
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String host = in.readUTF();
+                int port = in.readInt();
+                int games = in.readInt();
+                if (games < 0)
+                    throw new IOException(file + " is damaged.");
+                List<Integer> ids = new ArrayList<>(games);
+                for (int g = 0; g < games; g++)
+                    ids.add(in.readInt());
+                int tables = in.readInt();
+                Map<Integer, ServerRegistry.Table> details =
+                        new HashMap<>();
+                for (int t = 0; t < tables; t++) {
+                    int gameID = in.readInt();
+                    details.put(gameID, new ServerRegistry.Table(in.readInt(),
+                            in.readInt(), in.readInt()));
+                }
+                restored.add(new ServerRegistry.Entry(host, port, ids,
+                        details, null));
+            }
+            long sum = checked.getChecksum().getValue();
+            if (in.readLong() != sum)
+                throw new IOException(file + " failed its checksum.");
+        } catch (EOFException eofEx) {
+            throw new IOException(file + " is cut short.", eofEx);
+        }
+        for (ServerRegistry.Entry e : restored) {
+            for (int game : e.Games)
+                registry.registerGame(e.Host, e.Port, game);
+            for (Map.Entry<Integer, ServerRegistry.Table> t
+                    : e.Tables.entrySet())
+                registry.updateTable(e.Host, e.Port, t.getKey(),
+                        t.getValue());
+        }
+        return restored;
+    }
+
+    /**
+     * Checks every restored server in the background, removing those that do
+     * not answer and any games they no longer list.
+     *
+     * @param restored The {@link ServerRegistry.Entry}s restored.
+     * @since 1.0
+     */
+    public void revalidate(Collection<ServerRegistry.Entry> restored)
+    {
+        if (restored.isEmpty()) return;
+        final ExecutorService checks = Executors.newFixedThreadPool(
+                Math.min(MAX_CHECKS, restored.size()),
+                daemon("Directory revalidation"));
+        for (final ServerRegistry.Entry e : restored) {
+            checks.execute(new Runnable() {
+                @Override
+                public void run() { check(e); }
+            });
+        }
+        checks.shutdown();
+    }
+
+    /**
+     * Checks a single restored server.
+     *
+     * @param e The {@link ServerRegistry.Entry} restored for the server.
+     * @since 1.0
+     */
+    private void check(ServerRegistry.Entry e)
+    {
+        List<Integer> listed;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(e.Host, e.Port),
+                    CHECK_TIMEOUT);
+            socket.setSoTimeout(CHECK_TIMEOUT);
+            ObjectOutputStream output =
+                    new ObjectOutputStream(socket.getOutputStream());
+            output.writeObject(MessageType.POLL_SERVER);
+            output.flush();
+            ObjectInputStream input =
+                    new ObjectInputStream(socket.getInputStream());
+            input.readBoolean();
+            listed = DirectoryReplicas.read(input);
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            System.out.printf("Restored server %s:%d did not answer, "
+                    + "removing.%n", e.Host, e.Port);
+            directory.removeServer(e.Host, e.Port, -1);
+            return;
+        }
+        directory.confirmServer(e.Host, e.Port);
+        for (int game : e.Games) {
+            if (game > 0 && !listed.contains(game))
+                directory.removeServer(e.Host, e.Port, game);
+        }
+    }
+
+    /**
+     * Starts writing snapshots in the background.
+     *
+     * @since 1.0
+     */
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops writing snapshots, writing a last one first if anything has
+     * changed.
+     *
+     * @since 1.0
+     */
+    public void close()
+    {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException intEx) {
+            System.err.println("Interrupted stopping directory snapshots.");
+        }
+        run();
+    }
+
+    /**
+     * Writes a snapshot if the registry has changed since the last one.
+     * Failures are only reported, as the next snapshot will try again.
+     *
+     * @since 1.0
+     */
+    @Override
+    public synchronized void run()
+    {
+        // Read the version first, so a change made while writing is written
+        // again next time rather than missed.
+        long version = registry.getVersion();
+        if (version == written) return;
+        try {
+            write();
+            written = version;
+        } catch (IOException ioEx) {
+            System.err.printf("Could not write directory snapshot. Reason:%n"
+                    + "\t%s%n", ioEx.getMessage());
+        }
+    }
+
+    /**
+     * Writes every server to a new file, then moves it over the old one.
+     *
+     * @throws IOException Thrown if the file cannot be written.
+     * @since 1.0
+     */
+    private void write() throws IOException
+    {
+        List<ServerRegistry.Entry> servers =
+                new ArrayList<>(registry.getServers());
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(out), new CRC32());
+            DataOutputStream data = new DataOutputStream(checked);
+            data.writeInt(MAGIC);
+            data.writeInt(servers.size());
+            for (ServerRegistry.Entry e : servers) {
+                data.writeUTF(e.Host);
+                data.writeInt(e.Port);
+                data.writeInt(e.Games.size());
+                for (int game : e.Games)
+                    data.writeInt(game);
+                data.writeInt(e.Tables.size());
+                for (Map.Entry<Integer, ServerRegistry.Table> t
+                        : e.Tables.entrySet()) {
+                    data.writeInt(t.getKey());
+                    data.writeInt(t.getValue().Players);
+                    data.writeInt(t.getValue().Seats);
+                    data.writeInt(t.getValue().MinimumBet);
+                }
+            }
+            data.writeLong(checked.getChecksum().getValue());
+            data.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
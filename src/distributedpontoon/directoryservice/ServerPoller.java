@@ -1,60 +1,109 @@
 package distributedpontoon.directoryservice;
 
 import distributedpontoon.shared.NetMessage.MessageType;
-import distributedpontoon.shared.Triple;
+import distributedpontoon.shared.Pair;
 import distributedpontoon.server.Server;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Runs in the background of a {@link DirectoryService} process and periodically
  *  polls all the known {@link Server}s to see if they are still responding.
- * 
+ * Each server is polled once, however many games it offers, with strict time
+ * limits. Up to {@link ServerPoller#MAX_PROBES} servers are polled at the
+ * same time, with a thread each, so a round takes about as long as the
+ * slowest single poll. Past that, servers are polled in batches of that size
+ * and a round takes up to one poll time limit per batch. A server is only
+ * removed once it has failed several rounds in a row.
+ *
  * @author 6266215
- * @version 1.0
+ * @version 1.3
  * @since 2015-02-12
  */
 public class ServerPoller implements Runnable
 {
     /** The amount of time in milliseconds to wait before polling again. */
     public static final long POLL_DELAY = 10000;
+    /** The most the delay is moved either way at random, so pollers started
+     * together do not stay in step, in milliseconds. */
+    public static final long POLL_JITTER = 2000;
+    /** The time allowed to connect to a server in milliseconds. */
+    public static final int CONNECT_TIMEOUT = 1000;
+    /** The time allowed for a server to reply in milliseconds. */
+    public static final int REPLY_TIMEOUT = 1000;
+    /** The number of polls in a row a server must fail to be removed. */
+    public static final int FAILURE_THRESHOLD = 3;
+    /** The most servers polled at once. */
+    public static final int MAX_PROBES = 256;
     /** Keeps this {@link ServerPoller} running in the background. */
-    private boolean running;
+    private volatile boolean running;
     /** The {@link DirectoryService} to get known servers from. */
     private final DirectoryService directory;
-    
+    /** The threads polling servers. */
+    private final ThreadPoolExecutor probes;
+    /** The number of polls in a row each server has failed. */
+    private final Map<Pair<String, Integer>, Integer> failures;
+
     /**
-     * Creates a new {@link ServerPoller} that uses the specified {@link 
+     * Creates a new {@link ServerPoller} that uses the specified {@link
      * DirectoryService} as its hosts list.
-     * 
+     *
      * @param directory The {@link DirectoryService} to use.
      * @since 1.0
      */
     public ServerPoller(DirectoryService directory)
     {
         this.directory = directory;
+        // Sized to the number of servers before each round.
+        this.probes = new ThreadPoolExecutor(1, 1,
+                POLL_DELAY, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "Server poll");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        // Idle threads are let go between rounds.
+        this.probes.allowCoreThreadTimeOut(true);
+        this.failures = new HashMap<>();
     }
-    
+
     /**
      * Stops this {@link ServerPoller} instance from running.
-     * 
+     *
      * @since 1.0
      */
     public void kill()
     {
         running = false;
+        probes.shutdownNow();
     }
-    
+
     /**
-     * Periodically sends out {@link MessageType#POLL_SERVER} messages to known 
+     * Periodically sends out {@link MessageType#POLL_SERVER} messages to known
      * {@link Server}s.
-     * 
+     *
      * @since 1.0
      */
     @Override
@@ -62,62 +111,130 @@ public class ServerPoller implements Runnable
     {
         running = true;
         while (running) {
+            long jitter = ThreadLocalRandom.current().nextLong(
+                    -POLL_JITTER, POLL_JITTER + 1);
             try {
-                Thread.sleep(POLL_DELAY);
+                Thread.sleep(POLL_DELAY + jitter);
             } catch (InterruptedException ex) {
                 System.err.printf("ServerPoller failed to sleep:%n%s%n",
                         ex.getMessage());
             }
-            Set<Triple<String, Integer, Integer>> hosts = 
-                    directory.getKnownHosts();
-            ArrayList<Triple> toRemove = new ArrayList<>();
-            /* Check each server that we are already aware of. */
-            for (final Triple host : hosts) {
-                String name = (String)host.One;
-                int port = (int)host.Two;
-                Socket tmpSocket = null;
-                ObjectOutputStream out = null;
-                ObjectInputStream input = null;
-                try {
-                    // Send a polling message to the running servers.
-                    InetAddress address = InetAddress.getByName(name);
-                    tmpSocket = new Socket(address, port);
-                    out = new ObjectOutputStream(tmpSocket.getOutputStream());
-                    out.writeObject(MessageType.POLL_SERVER);
-                    out.flush();
-                    // Read the response from the polled server.
-                    input = new ObjectInputStream(tmpSocket.getInputStream());
-                    input.readBoolean();
-                    // If any exceptions are thrown, remove the server.
-                } catch (UnknownHostException hostEx) {
-                    toRemove.add(host);
-                    System.out.printf("Host %s does not seem to exist, "
-                            + "removing.%n%s%n", name, hostEx.getMessage());
-                } catch (IOException ioEx) {
-                    toRemove.add(host);
-                    System.out.printf("Could not communicate with server %s, "
-                            + "removing.%n%s%n", 
-                            name, ioEx.getMessage());
-                } finally {
-                    // Safely close the polling connections.
-                    try {
-                        if (input != null)
-                            input.close();
-                        if (out != null)
-                            out.close();
-                        if (tmpSocket != null)
-                            tmpSocket.close();
-                    } catch (IOException ex) {
-                        System.err.printf("Could not close polling socket.%n%s",
-                                ex.getMessage());
-                    }
-                }
-            }
-            /* Remove any servers that were lost whilst polling. */
-            for (Triple host : toRemove) {
-                directory.removeServer((String)host.One, (int)host.Two, -1);
+            if (running) pollAll();
+        }
+    }
+
+    /**
+     * Polls every known server at once and waits for all of them to answer or
+     * time out, then removes any server that has failed too many times in a
+     * row.
+     *
+     * @since 1.2
+     */
+    private void pollAll()
+    {
+        List<ServerRegistry.Entry> hosts = new ArrayList<>(
+                directory.getRegistry().getServers());
+        List<Callable<Boolean>> tasks = new ArrayList<>(hosts.size());
+        for (final ServerRegistry.Entry host : hosts) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return poll(host.Host, host.Port); }
+            });
+        }
+
+        int threads = Math.max(1, Math.min(hosts.size(), MAX_PROBES));
+        // Grow the maximum first, so it is never below the core size.
+        if (threads > probes.getMaximumPoolSize()) {
+            probes.setMaximumPoolSize(threads);
+            probes.setCorePoolSize(threads);
+        } else {
+            probes.setCorePoolSize(threads);
+            probes.setMaximumPoolSize(threads);
+        }
+        int batches = (hosts.size() + threads - 1) / threads;
+
+        List<Future<Boolean>> results;
+        try {
+            // Each poll has its own time limits, this only guards the round.
+            results = probes.invokeAll(tasks,
+                    Math.max(1, batches) * 2L 
+                            * (CONNECT_TIMEOUT + REPLY_TIMEOUT),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | RejectedExecutionException ex) {
+            return; // Shutting down.
+        }
+
+        Map<Pair<String, Integer>, Integer> counted = new HashMap<>();
+        for (int i = 0; i < hosts.size(); i++) {
+            ServerRegistry.Entry host = hosts.get(i);
+            if (responded(results.get(i))) continue;
+
+            Pair<String, Integer> key = new Pair<>(host.Host, host.Port);
+            Integer previous = failures.get(key);
+            int count = (previous == null ? 0 : previous) + 1;
+            if (count < FAILURE_THRESHOLD) {
+                counted.put(key, count);
+                System.out.printf("Server %s:%d missed a poll (%d of %d).%n",
+                        host.Host, host.Port, count, FAILURE_THRESHOLD);
+            } else {
+                System.out.printf("Server %s:%d missed %d polls, removing.%n",
+                        host.Host, host.Port, count);
+                directory.removeServer(host.Host, host.Port, -1);
             }
         }
+        // Servers that answered, or are gone, start from zero again.
+        failures.clear();
+        failures.putAll(counted);
+    }
+
+    /**
+     * Checks whether a poll finished and the server answered.
+     *
+     * @param result The result of a poll.
+     * @return Returns true if the server answered, false otherwise.
+     * @since 1.2
+     */
+    private static boolean responded(Future<Boolean> result)
+    {
+        try {
+            return result.get();
+        } catch (CancellationException | ExecutionException ex) {
+            return false; // Took too long or failed unexpectedly.
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Sends a single {@link MessageType#POLL_SERVER} message to a server and
+     * waits for its reply.
+     *
+     * @param name The host name of the server.
+     * @param port The port of the server.
+     * @return Returns true if the server replied in time, false otherwise.
+     * @since 1.2
+     */
+    private static boolean poll(String name, int port)
+    {
+        try (Socket socket = new Socket()) {
+            // Send a polling message to the running server.
+            socket.connect(new InetSocketAddress(name, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(REPLY_TIMEOUT);
+            ObjectOutputStream out =
+                    new ObjectOutputStream(socket.getOutputStream());
+            out.writeObject(MessageType.POLL_SERVER);
+            out.flush();
+            // Read the response from the polled server.
+            ObjectInputStream input =
+                    new ObjectInputStream(socket.getInputStream());
+            input.readBoolean();
+            return true;
+        } catch (IOException ioEx) {
+            // Covers unknown hosts, refused connections and time outs.
+            System.out.printf("Could not communicate with server %s:%d.%n%s%n",
+                    name, port, ioEx.getMessage());
+            return false;
+        }
     }
-    
 }
@@ -0,0 +1,786 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.GameIdGenerator;
+import distributedpontoon.shared.Pair;
+import distributedpontoon.shared.Triple;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link Server}s known to a {@link DirectoryService}, indexed by host
+ * name and port. Each server has a single {@link Entry} holding the games it
+ * offers, and entries are never changed, only replaced, so looking up a
+ * server never waits and registering or unregistering one takes a single
+ * step no matter how many servers are known.
+ * <p>
+ * Changes, and readers catching up with {@link
+ * ServerRegistry#changesSince(long, long)}, hold the registry's lock, so the
+ * servers, version and log always agree. Writers therefore wait for each
+ * other and for catching up readers, but only for as long as it takes to
+ * replace one entry or copy the changes a reader missed. Lookups and
+ * up-to-date snapshots never take the lock.
+ * <p>
+ * Every change gets the next version number and is kept in a short log, so
+ * a reader that knows an earlier version can be sent only what changed since.
+ * Readers that need every server share one snapshot, which is only rebuilt
+ * after the registry changes. Snapshots must not be modified. Readers that 
+ * only need some games can ask with a {@link DirectoryQuery} instead. Each
+ * server also carries the {@link Load} it last reported, which {@link 
+ * Placement} uses to spread new games out.
+ * <p>
+ * The registry also leases out the node numbers servers put in their game
+ * IDs, so no two known servers make IDs with the same one. A server keeps
+ * its node until it is removed.
+ *
+ * @author 6266215
+ * @version 1.6
+ * @since 2015-03-15
+ */
+public class ServerRegistry
+{
+    /**
+     * The seats and bets of a single multi-player table waiting for players.
+     *
+     * @version 1.1
+     * @since 1.2
+     */
+    public static final class Table implements Serializable
+    {
+        /** Serialisation ID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The number of players seated. */
+        public final int Players;
+        /** The most players the table seats. */
+        public final int Seats;
+        /** The smallest bet the table accepts. */
+        public final int MinimumBet;
+
+        /**
+         * Creates a new {@link Table}.
+         *
+         * @param players The number of players seated.
+         * @param seats The most players the table seats.
+         * @param minimumBet The smallest bet the table accepts.
+         * @since 1.2
+         */
+        public Table(int players, int seats, int minimumBet)
+        {
+            this.Players = players;
+            this.Seats = seats;
+            this.MinimumBet = minimumBet;
+        }
+
+        /**
+         * Checks whether another player can sit at the table.
+         *
+         * @return Returns true if there is a free seat.
+         * @since 1.2
+         */
+        public boolean hasFreeSeat() { return Players < Seats; }
+    }
+
+    /**
+     * How busy a single {@link Server} was when it last sent a heartbeat.
+     *
+     * @version 1.1
+     * @since 1.3
+     */
+    public static final class Load implements Serializable
+    {
+        /** Serialisation ID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The number of games the server was running. */
+        public final int Games;
+        /** The number of threads the server was running. */
+        public final int Threads;
+        /** The credits in the bank not held back for open bets. */
+        public final long Headroom;
+
+        /**
+         * Creates a new {@link Load}.
+         *
+         * @param games The number of games the server was running.
+         * @param threads The number of threads the server was running.
+         * @param headroom The credits in the bank not held back for bets.
+         * @since 1.3
+         */
+        public Load(int games, int threads, long headroom)
+        {
+            this.Games = games;
+            this.Threads = threads;
+            this.Headroom = headroom;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d games, %d threads, %d credits free", 
+                    Games, Threads, Headroom);
+        }
+    }
+
+    /**
+     * A single {@link Server} and the games it offers. Immutable, changes
+     * create a new {@link Entry}.
+     *
+     * @version 1.2
+     * @since 1.0
+     */
+    public static final class Entry
+    {
+        /** The host name or IP address of the server. */
+        public final String Host;
+        /** The port of the server. */
+        public final int Port;
+        /** The IDs of the games offered, -1 for a new single player game and
+         * 0 for a new multi-player game. */
+        public final Set<Integer> Games;
+        /** The details of the tables that have reported them, by game ID. */
+        public final Map<Integer, Table> Tables;
+        /** The load the server last reported, or null if it has not. */
+        public final Load Load;
+
+        /**
+         * Creates a new {@link Entry}.
+         *
+         * @param host The host name of the server.
+         * @param port The port of the server.
+         * @param games The IDs of the games offered, which are copied.
+         * @param tables The details of the tables, which are copied.
+         * @param load The load the server last reported, or null.
+         * @since 1.0
+         */
+        Entry(String host, int port, Collection<Integer> games,
+                Map<Integer, Table> tables, Load load)
+        {
+            this.Host = host;
+            this.Port = port;
+            this.Games = Collections.unmodifiableSet(new HashSet<>(games));
+            this.Tables = Collections.unmodifiableMap(new HashMap<>(tables));
+            this.Load = load;
+        }
+
+        /**
+         * Creates a copy of this {@link Entry} that also offers a game.
+         *
+         * @param gameID The ID of the game to add.
+         * @return The new {@link Entry}, or this one if it already has it.
+         * @since 1.0
+         */
+        Entry withGame(int gameID)
+        {
+            if (Games.contains(gameID)) return this;
+            Set<Integer> games = new HashSet<>(Games);
+            games.add(gameID);
+            return new Entry(Host, Port, games, Tables, Load);
+        }
+
+        /**
+         * Creates a copy of this {@link Entry} without a game or its table.
+         *
+         * @param gameID The ID of the game to remove.
+         * @return The new {@link Entry}, or this one if it does not have it.
+         * @since 1.0
+         */
+        Entry withoutGame(int gameID)
+        {
+            if (!Games.contains(gameID)) return this;
+            Set<Integer> games = new HashSet<>(Games);
+            games.remove(gameID);
+            Map<Integer, Table> tables = new HashMap<>(Tables);
+            tables.remove(gameID);
+            return new Entry(Host, Port, games, tables, Load);
+        }
+
+        /**
+         * Creates a copy of this {@link Entry} with new details for a table.
+         *
+         * @param gameID The ID of the game.
+         * @param table The details of the table.
+         * @return The new {@link Entry}, or this one if it does not offer the 
+         * game.
+         * @since 1.1
+         */
+        Entry withTable(int gameID, Table table)
+        {
+            if (!Games.contains(gameID)) return this;
+            Map<Integer, Table> tables = new HashMap<>(Tables);
+            tables.put(gameID, table);
+            return new Entry(Host, Port, Games, tables, Load);
+        }
+
+        /**
+         * Creates a copy of this {@link Entry} with a new load.
+         *
+         * @param load The load the server reported.
+         * @return The new {@link Entry}.
+         * @since 1.2
+         */
+        Entry withLoad(Load load)
+        {
+            return new Entry(Host, Port, Games, Tables, load);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s:%d %s", Host, Port, Games);
+        }
+    }
+
+    /**
+     * A single game being added to or removed from the registry.
+     *
+     * @version 1.0
+     * @since 1.1
+     */
+    public static final class Change implements Serializable
+    {
+        /** Serialisation ID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The version of the registry the change made. */
+        public final long Version;
+        /** The host name of the server. */
+        public final String Host;
+        /** The port of the server. */
+        public final int Port;
+        /** The ID of the game. */
+        public final int GameID;
+        /** True if the game was added, false if it was removed. */
+        public final boolean Added;
+
+        /**
+         * Creates a new {@link Change}.
+         *
+         * @param version The version of the registry the change made.
+         * @param host The host name of the server.
+         * @param port The port of the server.
+         * @param gameID The ID of the game.
+         * @param added True if the game was added, false if removed.
+         * @since 1.1
+         */
+        Change(long version, String host, int port, int gameID, boolean added)
+        {
+            this.Version = version;
+            this.Host = host;
+            this.Port = port;
+            this.GameID = gameID;
+            this.Added = added;
+        }
+
+        /**
+         * Applies this change to a set of games.
+         *
+         * @param hosts A set of host name, port and game ID {@link Triple}s.
+         * @since 1.1
+         */
+        public void applyTo(Set<Triple<String, Integer, Integer>> hosts)
+        {
+            Triple<String, Integer, Integer> game =
+                    new Triple<>(Host, Port, GameID);
+            if (Added)
+                hosts.add(game);
+            else
+                hosts.remove(game);
+        }
+    }
+
+    /**
+     * What a reader needs to catch up with the registry, either every change
+     * since the version it knows or, if those are no longer kept, every game.
+     *
+     * @version 1.0
+     * @since 1.1
+     */
+    public static final class Delta
+    {
+        /** The epoch of the registry. */
+        public final long Epoch;
+        /** The version the reader will be at once it has caught up. */
+        public final long Version;
+        /** Every game offered, or null if only changes are needed. Shared and
+         * must not be modified. */
+        public final HashSet<Triple<String, Integer, Integer>> Hosts;
+        /** The changes to apply in order, or null if every game is given. */
+        public final ArrayList<Change> Changes;
+
+        /**
+         * Creates a new {@link Delta}.
+         *
+         * @param epoch The epoch of the registry.
+         * @param version The current version.
+         * @param hosts Every game offered, or null.
+         * @param changes The changes to apply, or null.
+         * @since 1.1
+         */
+        Delta(long epoch, long version,
+                HashSet<Triple<String, Integer, Integer>> hosts,
+                ArrayList<Change> changes)
+        {
+            this.Epoch = epoch;
+            this.Version = version;
+            this.Hosts = hosts;
+            this.Changes = changes;
+        }
+
+        /**
+         * Checks whether this {@link Delta} holds every game rather than a
+         * list of changes.
+         *
+         * @return Returns true if every game is given.
+         * @since 1.1
+         */
+        public boolean isFull() { return Hosts != null; }
+    }
+
+    /**
+     * Every server as it was at a single version of the registry.
+     *
+     * @since 1.0
+     */
+    private static final class Snapshot
+    {
+        /** The version of the registry the snapshot was built from. */
+        final long Version;
+        /** A host name, port and game ID for every game offered. */
+        final HashSet<Triple<String, Integer, Integer>> Hosts;
+        /** The host name and port of every server. */
+        final Set<Pair<String, Integer>> Members;
+
+        /**
+         * Creates a new {@link Snapshot}.
+         *
+         * @param version The version of the registry.
+         * @param hosts Every game offered.
+         * @param members Every server.
+         * @since 1.0
+         */
+        Snapshot(long version, HashSet<Triple<String, Integer, Integer>> hosts,
+                Set<Pair<String, Integer>> members)
+        {
+            this.Version = version;
+            this.Hosts = hosts;
+            this.Members = members;
+        }
+    }
+
+    /** The number of changes kept for readers catching up. */
+    public static final int LOG_SIZE = 4096;
+
+    /** A number picked at random when the registry is created, so versions
+     * from a registry that has since restarted are never trusted. */
+    private final long epoch;
+    /** Every known server, keyed by host name and port. */
+    private final ConcurrentHashMap<Pair<String, Integer>, Entry> servers;
+    /** The latest changes, oldest first. */
+    private final ArrayDeque<Change> log;
+    /** The latest version no longer covered by the log. */
+    private long logFloor;
+    /** Counts every change to the registry. */
+    private volatile long version;
+    /** The last snapshot built, or null if none has been. */
+    private volatile Snapshot snapshot;
+    /** Called after every change, or null. */
+    private volatile Runnable listener;
+    /** The server holding each node number leased out. */
+    private final Map<Integer, Pair<String, Integer>> nodes;
+    /** The node number leased to each server. */
+    private final Map<Pair<String, Integer>, Integer> nodeOwners;
+
+    /**
+     * Creates a new, empty {@link ServerRegistry}.
+     *
+     * @since 1.0
+     */
+    public ServerRegistry()
+    {
+        this.epoch = new Random().nextLong();
+        this.servers = new ConcurrentHashMap<>();
+        this.log = new ArrayDeque<>();
+        this.logFloor = 0;
+        this.version = 0;
+        this.snapshot = null;
+        this.listener = null;
+        this.nodes = new HashMap<>();
+        this.nodeOwners = new HashMap<>();
+    }
+
+    /**
+     * Sets something to be told whenever the registry changes. It is called on
+     * the thread making the change, so must return quickly.
+     *
+     * @param listener The {@link Runnable} to call, or null for none.
+     * @since 1.1
+     */
+    public void setListener(Runnable listener) { this.listener = listener; }
+
+    /**
+     * Adds a game to a server, adding the server first if it is not known.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param gameID The ID of the game.
+     * @since 1.0
+     */
+    public void registerGame(String host, int port, int gameID)
+    {
+        synchronized (this) {
+            Pair<String, Integer> key = new Pair<>(host, port);
+            Entry current = servers.get(key);
+            if (current == null) {
+                servers.put(key, new Entry(host, port,
+                        Collections.singleton(gameID),
+                        Collections.<Integer, Table>emptyMap(), null));
+            } else {
+                Entry updated = current.withGame(gameID);
+                if (updated == current) return;
+                servers.put(key, updated);
+            }
+            record(host, port, Collections.singleton(gameID), true);
+        }
+        notifyListener();
+    }
+
+    /**
+     * Adds a server offering new single and multi-player games.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @since 1.0
+     */
+    public void registerServer(String host, int port)
+    {
+        registerGame(host, port, -1);
+        registerGame(host, port, 0);
+    }
+
+    /**
+     * Removes a game from a server. The server stays known even once it has
+     * no games left.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param gameID The ID of the game.
+     * @since 1.0
+     */
+    public void unregisterGame(String host, int port, int gameID)
+    {
+        synchronized (this) {
+            Pair<String, Integer> key = new Pair<>(host, port);
+            Entry current = servers.get(key);
+            if (current == null) return;
+            Entry updated = current.withoutGame(gameID);
+            if (updated == current) return;
+            servers.put(key, updated);
+            record(host, port, Collections.singleton(gameID), false);
+        }
+        notifyListener();
+    }
+
+    /**
+     * Replaces the details of a table. Ignored unless the game is registered, 
+     * and does not count as a change to the registry, as the details are 
+     * only used by {@link DirectoryQuery}s.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param gameID The ID of the game.
+     * @param table The details of the table.
+     * @since 1.2
+     */
+    public synchronized void updateTable(String host, int port, int gameID,
+            Table table)
+    {
+        Pair<String, Integer> key = new Pair<>(host, port);
+        Entry current = servers.get(key);
+        if (current == null) return;
+        Entry updated = current.withTable(gameID, table);
+        if (updated != current) servers.put(key, updated);
+    }
+
+    /**
+     * Replaces the load a server last reported. Ignored unless the server is 
+     * known, and does not count as a change to the registry, as the load is 
+     * only used by {@link Placement}.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param load The load the server reported.
+     * @since 1.3
+     */
+    public synchronized void updateLoad(String host, int port, Load load)
+    {
+        Pair<String, Integer> key = new Pair<>(host, port);
+        Entry current = servers.get(key);
+        if (current != null) servers.put(key, current.withLoad(load));
+    }
+
+    /**
+     * Removes a server and all of its games.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @return Returns true if the server was known.
+     * @since 1.0
+     */
+    public boolean removeServer(String host, int port)
+    {
+        synchronized (this) {
+            Pair<String, Integer> key = new Pair<>(host, port);
+            Integer node = nodeOwners.remove(key);
+            if (node != null) nodes.remove(node);
+            Entry removed = servers.remove(key);
+            if (removed == null) return false;
+            record(host, port, removed.Games, false);
+        }
+        notifyListener();
+        return true;
+    }
+
+    /**
+     * Leases a node number to a server, the one it asked for if no other 
+     * server holds it, otherwise the next free one. A server that already 
+     * holds a node and asks for one that is taken keeps its own.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param preferred The node number the server asked for.
+     * @return The node number leased, or -1 if every node is taken.
+     * @since 1.6
+     */
+    public synchronized int assignNode(String host, int port, int preferred)
+    {
+        int first = preferred < 0 || preferred > GameIdGenerator.MAX_NODE 
+                ? 0 : preferred;
+        if (claimNode(host, port, first)) return first;
+        Integer held = nodeOwners.get(new Pair<>(host, port));
+        if (held != null) return held;
+        for (int i = 1; i <= GameIdGenerator.MAX_NODE; i++) {
+            int node = (first + i) % (GameIdGenerator.MAX_NODE + 1);
+            if (claimNode(host, port, node)) return node;
+        }
+        return -1;
+    }
+
+    /**
+     * Leases a server the node number it is already using, if no other 
+     * server holds it. Any other node the server held is released.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param node The node number the server is using.
+     * @return Returns true if the server now holds the node, false if 
+     * another server does.
+     * @since 1.6
+     */
+    public synchronized boolean claimNode(String host, int port, int node)
+    {
+        Pair<String, Integer> key = new Pair<>(host, port);
+        Pair<String, Integer> owner = nodes.get(node);
+        if (owner != null) return owner.equals(key);
+        Integer held = nodeOwners.put(key, node);
+        if (held != null) nodes.remove(held);
+        nodes.put(node, key);
+        return true;
+    }
+
+    /**
+     * Moves to the next version and logs the games that were added or
+     * removed. Must be called holding the lock.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @param games The IDs of the games.
+     * @param added True if the games were added, false if removed.
+     * @since 1.1
+     */
+    private void record(String host, int port, Collection<Integer> games,
+            boolean added)
+    {
+        long next = version + 1;
+        for (int game : games) {
+            if (log.size() == LOG_SIZE)
+                logFloor = log.removeFirst().Version;
+            log.addLast(new Change(next, host, port, game, added));
+        }
+        version = next;
+    }
+
+    /**
+     * Tells the listener, if any, that the registry has changed.
+     *
+     * @since 1.1
+     */
+    private void notifyListener()
+    {
+        Runnable l = listener;
+        if (l != null) l.run();
+    }
+
+    /**
+     * Looks up a single server.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @return The {@link Entry} for the server, or null if it is not known.
+     * @since 1.0
+     */
+    public Entry get(String host, int port)
+    {
+        return servers.get(new Pair<>(host, port));
+    }
+
+    /**
+     * Gets every known server. The collection is live, but every {@link
+     * Entry} in it is immutable.
+     *
+     * @return A {@link Collection} of {@link Entry}s.
+     * @since 1.0
+     */
+    public Collection<Entry> getServers() { return servers.values(); }
+
+    /**
+     * Gets a number that goes up whenever the registry changes.
+     *
+     * @return The version as a long.
+     * @since 1.0
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * Gets the number picked when this registry was created. Versions are
+     * only comparable between readers that saw the same epoch.
+     *
+     * @return The epoch as a long.
+     * @since 1.1
+     */
+    public long getEpoch() { return epoch; }
+
+    /**
+     * Gets every game offered by every server. The same set is shared by all
+     * callers until the registry changes, so it must not be modified.
+     *
+     * @return A {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @since 1.0
+     */
+    public HashSet<Triple<String, Integer, Integer>> getHosts()
+    {
+        return current().Hosts;
+    }
+
+    /**
+     * Gets the host name and port of every server. The same set is shared by
+     * all callers until the registry changes.
+     *
+     * @return An unmodifiable {@link Set} of host name and port pairs.
+     * @since 1.0
+     */
+    public Set<Pair<String, Integer>> getMembers()
+    {
+        return current().Members;
+    }
+
+    /**
+     * Finds the games that match a query. Reads the servers as they are, 
+     * without waiting for any change to finish.
+     *
+     * @param query The {@link DirectoryQuery} to match.
+     * @return A new {@link HashSet} of host name, port and game ID {@link
+     * Triple}s.
+     * @since 1.2
+     */
+    public HashSet<Triple<String, Integer, Integer>> find(DirectoryQuery query)
+    {
+        HashSet<Triple<String, Integer, Integer>> found = new HashSet<>();
+        for (Entry e : servers.values()) {
+            for (int game : e.Games) {
+                if (query.matches(game, e.Tables.get(game)))
+                    found.add(new Triple<>(e.Host, e.Port, game));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets what a reader needs to catch up from a version it knows.
+     *
+     * @param since The epoch the reader saw.
+     * @param known The version the reader is at.
+     * @return A {@link Delta} holding the changes since that version, or every
+     * game if the reader's version is from another epoch or too old.
+     * @since 1.1
+     */
+    public synchronized Delta changesSince(long since, long known)
+    {
+        if (since != epoch || known < logFloor || known > version) {
+            Snapshot s = current();
+            return new Delta(epoch, s.Version, s.Hosts, null);
+        }
+        ArrayList<Change> changes = new ArrayList<>();
+        // The newest changes are at the end, so walk back to the version known.
+        Iterator<Change> it = log.descendingIterator();
+        while (it.hasNext()) {
+            Change c = it.next();
+            if (c.Version <= known) break;
+            changes.add(c);
+        }
+        Collections.reverse(changes);
+        return new Delta(epoch, version, null, changes);
+    }
+
+    /**
+     * Gets a snapshot of the current version, building a new one if the
+     * registry has changed since the last was built.
+     *
+     * @return The current {@link Snapshot}.
+     * @since 1.0
+     */
+    private Snapshot current()
+    {
+        Snapshot last = snapshot;
+        if (last != null && last.Version == version) return last;
+        synchronized (this) {
+            // Nothing can change while building, so the snapshot is exact.
+            last = snapshot;
+            if (last == null || last.Version != version) {
+                last = build();
+                snapshot = last;
+            }
+            return last;
+        }
+    }
+
+    /**
+     * Builds a snapshot of every server. Must be called holding the lock.
+     *
+     * @return A new {@link Snapshot}.
+     * @since 1.0
+     */
+    private Snapshot build()
+    {
+        HashSet<Triple<String, Integer, Integer>> hosts = new HashSet<>();
+        Set<Pair<String, Integer>> members = new HashSet<>();
+        for (Entry e : servers.values()) {
+            members.add(new Pair<>(e.Host, e.Port));
+            for (int game : e.Games)
+                hosts.add(new Triple<>(e.Host, e.Port, game));
+        }
+        return new Snapshot(version, hosts,
+                Collections.unmodifiableSet(members));
+    }
+}
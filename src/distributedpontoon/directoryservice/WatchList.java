@@ -0,0 +1,230 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds {@link MessageType#WATCH_SERVERS} requests that are waiting for the
+ * {@link ServerRegistry} to change. Waiting requests only keep their
+ * connection, not a worker thread, and a single background thread answers
+ * them all once the registry changes or their time runs out.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class WatchList
+{
+    /** The longest a request is held in milliseconds. */
+    public static final long MAX_WAIT = 30000;
+    /** The most requests held at once, any more are answered straight away. */
+    public static final int MAX_WATCHERS = 1024;
+    /** The time between checks for requests that have waited long enough in
+     * milliseconds. */
+    private static final long SWEEP_DELAY = 1000;
+
+    /**
+     * A single request waiting for a change.
+     *
+     * @since 1.0
+     */
+    private static final class Watcher
+    {
+        /** The connection to answer on. */
+        final Socket Socket;
+        /** The stream to answer with. */
+        final ObjectOutputStream Output;
+        /** The epoch the client has seen. */
+        final long Epoch;
+        /** The version the client has seen. */
+        final long Known;
+        /** The time to answer by, from {@link System#currentTimeMillis()}. */
+        final long Deadline;
+
+        /**
+         * Creates a new {@link Watcher}.
+         *
+         * @param socket The connection to answer on.
+         * @param output The stream to answer with.
+         * @param epoch The epoch the client has seen.
+         * @param known The version the client has seen.
+         * @param deadline The time to answer by.
+         * @since 1.0
+         */
+        Watcher(Socket socket, ObjectOutputStream output, long epoch,
+                long known, long deadline)
+        {
+            this.Socket = socket;
+            this.Output = output;
+            this.Epoch = epoch;
+            this.Known = known;
+            this.Deadline = deadline;
+        }
+    }
+
+    /** The registry being watched. */
+    private final ServerRegistry registry;
+    /** The requests waiting. */
+    private final ConcurrentLinkedQueue<Watcher> waiting;
+    /** The number of requests waiting. */
+    private final AtomicInteger count;
+    /** Set while answering is already queued, so changes in quick succession
+     * are answered together. */
+    private final AtomicBoolean flushQueued;
+    /** The thread answering requests. */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a new {@link WatchList} and starts checking for requests that
+     * have waited long enough.
+     *
+     * @param registry The {@link ServerRegistry} to watch.
+     * @since 1.0
+     */
+    public WatchList(ServerRegistry registry)
+    {
+        this.registry = registry;
+        this.waiting = new ConcurrentLinkedQueue<>();
+        this.count = new AtomicInteger();
+        this.flushQueued = new AtomicBoolean();
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "Directory watchers");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() { flush(); }
+        }, SWEEP_DELAY, SWEEP_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Holds a request until the registry moves past the version the client
+     * has seen. The connection belongs to this {@link WatchList} if the
+     * request is held.
+     *
+     * @param socket The connection to answer on.
+     * @param output The stream to answer with.
+     * @param epoch The epoch the client has seen.
+     * @param known The version the client has seen.
+     * @param wait The longest the client will wait in milliseconds, which is
+     * limited to {@link WatchList#MAX_WAIT}.
+     * @return Returns true if the request is held, false if it should be
+     * answered straight away.
+     * @since 1.0
+     */
+    public boolean watch(Socket socket, ObjectOutputStream output, long epoch,
+            long known, long wait)
+    {
+        if (count.incrementAndGet() > MAX_WATCHERS) {
+            count.decrementAndGet();
+            return false;
+        }
+        long deadline = System.currentTimeMillis()
+                + Math.max(0, Math.min(wait, MAX_WAIT));
+        waiting.add(new Watcher(socket, output, epoch, known, deadline));
+        // The registry may have changed before the request was added.
+        if (registry.getVersion() != known) changed();
+        return true;
+    }
+
+    /**
+     * Answers every request waiting for a change in the background. Returns
+     * straight away, so it is safe to call as a {@link ServerRegistry}
+     * listener.
+     *
+     * @since 1.0
+     */
+    public void changed()
+    {
+        if (!flushQueued.compareAndSet(false, true)) return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() { flush(); }
+            });
+        } catch (RejectedExecutionException rejEx) {
+            flushQueued.set(false); // Shutting down.
+        }
+    }
+
+    /**
+     * Answers every request that has something new to see or has waited long
+     * enough.
+     *
+     * @since 1.0
+     */
+    private void flush()
+    {
+        flushQueued.set(false);
+        long version = registry.getVersion();
+        long epoch = registry.getEpoch();
+        long now = System.currentTimeMillis();
+        Iterator<Watcher> it = waiting.iterator();
+        while (it.hasNext()) {
+            Watcher w = it.next();
+            if (w.Known == version && w.Epoch == epoch && w.Deadline > now)
+                continue;
+            it.remove();
+            count.decrementAndGet();
+            answer(w);
+        }
+    }
+
+    /**
+     * Sends a request everything that changed since the version it has seen,
+     * then closes its connection.
+     *
+     * @param w The {@link Watcher} to answer.
+     * @since 1.0
+     */
+    private void answer(Watcher w)
+    {
+        try {
+            DirectoryService.writeDelta(w.Output, MessageType.WATCH_SERVERS,
+                    registry.changesSince(w.Epoch, w.Known));
+        } catch (IOException ioEx) {
+            // The client has gone, nothing more to do.
+        } finally {
+            try {
+                w.Socket.close();
+            } catch (IOException closeEx) {
+                // Nothing more can be done with the connection.
+            }
+        }
+    }
+
+    /**
+     * Stops answering requests and closes every waiting connection.
+     *
+     * @since 1.0
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+        Watcher w;
+        while ((w = waiting.poll()) != null) {
+            try {
+                w.Socket.close();
+            } catch (IOException closeEx) {
+                // Nothing more can be done with the connection.
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package distributedpontoon.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back credits from the shared bank to cover the worst outcome of open
+ * bets. Every {@link Server} reserves against the same {@link PNCounter}
+ * without asking the others, so each may only hold back its share of it: the
+ * value of the bank divided by the number of servers in its {@link
+ * ClusterView}. However many servers reserve at once, between them they can
+ * never promise more than the bank holds.
+ * <p>
+ * The share is worked out again on every reservation, so shares rebalance as
+ * soon as the bank or the view changes. A server left holding more than its
+ * new share after another joins takes no new bets until enough of its open
+ * bets are settled.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class BankEscrow
+{
+    /** The bank shared by every server. */
+    private final PNCounter bank;
+    /** The other servers in the cluster, null if this is the only one. */
+    private final ClusterView cluster;
+    /** The credits held back by this server. */
+    private final AtomicLong reserved;
+
+    /**
+     * Creates a new {@link BankEscrow} with nothing held back.
+     *
+     * @param bank The {@link PNCounter} holding the shared bank.
+     * @param cluster The {@link ClusterView} of the other servers, or null if
+     * this server does not share the bank.
+     * @since 1.0
+     */
+    public BankEscrow(PNCounter bank, ClusterView cluster)
+    {
+        this.bank = bank;
+        this.cluster = cluster;
+        this.reserved = new AtomicLong();
+    }
+
+    /**
+     * Gets the part of the bank this server may hold back, the value of the
+     * bank split evenly between every server in the cluster.
+     *
+     * @return The share as a long, negative if the bank is overdrawn.
+     * @since 1.0
+     */
+    public long share()
+    {
+        int servers = cluster == null ? 1 : cluster.getPeers().size() + 1;
+        return bank.value() / servers;
+    }
+
+    /**
+     * Gets the credits this server can still hold back.
+     *
+     * @return The credits as a long, negative if the share has fallen below
+     * what is already held back.
+     * @since 1.0
+     */
+    public long available() { return share() - reserved.get(); }
+
+    /**
+     * Gets the credits held back to cover open bets.
+     *
+     * @return The reserved credits as a long.
+     * @since 1.0
+     */
+    public long getReserved() { return reserved.get(); }
+
+    /**
+     * Holds back credits to cover the worst outcome of a bet, if enough of
+     * this servers share is not already held back. Never blocks.
+     *
+     * @param amount The credits to hold back.
+     * @return Returns true if the credits were reserved, false if the share
+     * cannot cover them.
+     * @throws IllegalArgumentException Thrown if the amount is negative.
+     * @since 1.0
+     */
+    public boolean reserve(int amount) throws IllegalArgumentException
+    {
+        if (amount < 0) {
+            throw new IllegalArgumentException(
+                    "Cannot reserve a negative amount."
+            );
+        }
+        while (true) {
+            long held = reserved.get();
+            if (share() - held < amount)
+                return false;
+            if (reserved.compareAndSet(held, held + amount))
+                return true;
+        }
+    }
+
+    /**
+     * Returns credits held back by {@link BankEscrow#reserve(int)}.
+     *
+     * @param amount The credits to return.
+     * @since 1.0
+     */
+    public void release(int amount) { reserved.addAndGet(-amount); }
+}
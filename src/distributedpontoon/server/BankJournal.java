@@ -0,0 +1,467 @@
+package distributedpontoon.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal that keeps a {@link Server}s bank across restarts.
+ * Every settlement is written to the journal before the player is told the
+ * result, but settlements arriving together share a single write and disk
+ * flush. The writing thread waits up to a short commit time for more
+ * settlements before each flush, trading a little latency for far fewer
+ * flushes under load.
+ * <p>
+ * Each flush ends with a commit record holding the running totals of the
+ * servers own {@link PNCounter} slot, so recovering only needs the last
+ * complete commit rather than adding up every settlement. Every so often the
+ * whole bank is written to a snapshot file and the journal is started again,
+ * so it never grows without limit. Recovering reads the snapshot and then
+ * the journal, and as both hold totals rather than changes, reading a commit
+ * that is already in the snapshot is harmless.
+ * <p>
+ * The name of the servers slot is kept beside the journal, so every run
+ * kept in the same files carries on with the same slot rather than adding a
+ * new one to every server in the cluster.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-14
+ */
+public class BankJournal implements Runnable
+{
+    /** The default time to wait for more settlements in milliseconds. */
+    public static final long DEFAULT_COMMIT_WAIT = 2;
+    /** The most settlements written by a single flush. */
+    private static final int MAX_BATCH = 4096;
+    /** The number of settlements between snapshots. */
+    private static final int SNAPSHOT_EVERY = 50000;
+    /** Marks the start of a journal file. */
+    private static final int JOURNAL_MAGIC = 0x50424A31;
+    /** Marks the start of a snapshot file. */
+    private static final int SNAPSHOT_MAGIC = 0x50425331;
+    /** A journal record holding a single settlement. */
+    private static final byte SETTLEMENT = 1;
+    /** A journal record holding the slot totals after a flush. */
+    private static final byte COMMIT = 2;
+
+    /** The journal file. */
+    private final File journalFile;
+    /** The snapshot file. */
+    private final File snapshotFile;
+    /** The bank being kept. */
+    private final PNCounter bank;
+    /** The time to wait for more settlements in milliseconds. */
+    private final long commitWait;
+    /** Guards everything below, waited on by the writer and settlements. */
+    private final Object lock;
+    /** Settlements waiting to be written, as game ID and change pairs. */
+    private List<int[]> pending;
+    /** The number of settlements ever added. */
+    private long appended;
+    /** The number of settlements known to be on disk. */
+    private long durable;
+    /** The time the oldest waiting settlement was added. */
+    private long oldest;
+    /** Set to false once the journal is closing. */
+    private boolean running;
+    /** Set to true if the journal can no longer be written. */
+    private boolean failed;
+    /** The stream to the journal file, only used by the writer thread. */
+    private FileOutputStream file;
+    /** Buffers records on top of the journal file. */
+    private DataOutputStream output;
+    /** The number of settlements since the last snapshot. */
+    private int sinceSnapshot;
+    /** The thread writing the journal. */
+    private Thread writer;
+
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new {@link BankJournal}. Nothing is written until {@link
+     * BankJournal#start()} is called.
+     *
+     * @param name The name of the files, without an extension.
+     * @param bank The {@link PNCounter} holding the bank.
+     * @param commitWait The longest time to wait for more settlements before
+     * flushing, in milliseconds.
+     * @throws IllegalArgumentException Thrown if the commit wait is negative.
+     * @since 1.0
+     */
+    public BankJournal(String name, PNCounter bank, long commitWait)
+            throws IllegalArgumentException
+    {
+        if (commitWait < 0) {
+            throw new IllegalArgumentException(
+                    "The commit wait cannot be negative."
+            );
+        }
+        this.journalFile = new File(name + ".journal");
+        this.snapshotFile = new File(name + ".snapshot");
+        this.bank = bank;
+        this.commitWait = commitWait;
+        this.lock = new Object();
+        this.pending = new ArrayList<>();
+        this.appended = 0;
+        this.durable = 0;
+        this.running = false;
+        this.failed = false;
+        this.sinceSnapshot = 0;
+    }
+
+    /**
+     * Gets the name of the {@link PNCounter} slot kept with the journal
+     * files, choosing a new random one the first time the files are used.
+     *
+     * @param name The name of the files, without an extension.
+     * @return The node name as a String.
+     * @throws IOException Thrown if the name cannot be read or kept.
+     * @since 1.1
+     */
+    public static String nodeID(String name) throws IOException
+    {
+        File nodeFile = new File(name + ".node");
+        if (nodeFile.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(nodeFile)))) {
+                return in.readUTF();
+            } catch (EOFException torn) {
+                throw new IOException(nodeFile + " is not a node name.");
+            }
+        }
+        String node = UUID.randomUUID().toString();
+        File temp = new File(nodeFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeUTF(node);
+            data.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), nodeFile.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        return node;
+    }
+
+    /**
+     * Reads the bank kept by an earlier run from the snapshot and journal.
+     * A record cut short by a crash ends the journal, as its settlement was
+     * never confirmed.
+     *
+     * @param name The name of the files, without an extension.
+     * @return A state that can be passed to {@link PNCounter#restore(Map)},
+     * empty if nothing has been kept.
+     * @throws IOException Thrown if the files exist but cannot be read.
+     * @since 1.0
+     */
+    public static Map<String, long[]> recover(String name) throws IOException
+    {
+        Map<String, long[]> state = new HashMap<>();
+        File snapshot = new File(name + ".snapshot");
+        if (snapshot.exists()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC)
+                    throw new IOException(snapshot + " is not a snapshot.");
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String node = in.readUTF();
+                    keep(state, node, in.readLong(), in.readLong());
+                }
+            }
+        }
+
+        File journal = new File(name + ".journal");
+        if (!journal.exists()) return state;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journal)))) {
+            if (in.readInt() != JOURNAL_MAGIC)
+                throw new IOException(journal + " is not a bank journal.");
+            String node = in.readUTF();
+            while (true) {
+                byte type = in.readByte();
+                if (type == SETTLEMENT) {
+                    in.readInt(); // Settlements are kept for auditing only.
+                    in.readInt();
+                } else if (type == COMMIT) {
+                    long added = in.readLong();
+                    long removed = in.readLong();
+                    if (in.readLong() != checksum(added, removed))
+                        break; // Torn write from a crash.
+                    keep(state, node, added, removed);
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException end) {
+            // The end of the journal, possibly part way through a record.
+        }
+        return state;
+    }
+
+    /**
+     * Keeps the larger of the totals already recovered for a slot and the
+     * totals read.
+     *
+     * @param state The state being recovered.
+     * @param node The name of the slot.
+     * @param added The total added.
+     * @param removed The total removed.
+     * @since 1.0
+     */
+    private static void keep(Map<String, long[]> state, String node,
+            long added, long removed)
+    {
+        long[] totals = state.get(node);
+        if (totals == null) {
+            state.put(node, new long[] {added, removed});
+        } else {
+            totals[0] = Math.max(totals[0], added);
+            totals[1] = Math.max(totals[1], removed);
+        }
+    }
+
+    /**
+     * Works out the checksum stored with a commit record.
+     *
+     * @param added The total added.
+     * @param removed The total removed.
+     * @return The checksum as a long.
+     * @since 1.0
+     */
+    private static long checksum(long added, long removed)
+    {
+        CRC32 crc = new CRC32();
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int)(added >>> i));
+            crc.update((int)(removed >>> i));
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot of the current bank and starts a new journal, then
+     * starts the thread that writes settlements.
+     *
+     * @throws IOException Thrown if the files cannot be written.
+     * @since 1.0
+     */
+    public void start() throws IOException
+    {
+        snapshot();
+        synchronized (lock) {
+            running = true;
+        }
+        writer = new Thread(this, "Bank journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes every waiting settlement, takes a final snapshot and closes the
+     * journal.
+     *
+     * @since 1.0
+     */
+    public void close()
+    {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            if (writer != null) writer.join();
+            if (!failed) snapshot();
+        } catch (InterruptedException intEx) {
+            logger.log(Level.WARNING, "Interrupted closing bank journal.");
+        } catch (IOException ioEx) {
+            logger.log(Level.SEVERE, "Could not snapshot the bank. Reason:\n"
+                    + "{0}", ioEx.getMessage());
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * Adds a settlement to the journal and waits until it is on disk. The
+     * change must already have been made to the bank.
+     *
+     * @param gameID The ID of the game being settled.
+     * @param delta The change made to the bank.
+     * @since 1.0
+     */
+    public void commit(int gameID, int delta)
+    {
+        synchronized (lock) {
+            if (!running || failed) return;
+            if (pending.isEmpty())
+                oldest = System.currentTimeMillis();
+            pending.add(new int[] {gameID, delta});
+            long seq = ++appended;
+            lock.notifyAll();
+            // The writer empties the queue even while closing.
+            while (durable < seq && !failed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes waiting settlements in batches until the journal is closed.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        while (true) {
+            List<int[]> batch;
+            long seq;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty() && running)
+                        lock.wait();
+                    // Give other settlements a chance to share the flush.
+                    long left;
+                    while (running && pending.size() < MAX_BATCH
+                            && (left = oldest + commitWait
+                                - System.currentTimeMillis()) > 0)
+                        lock.wait(left);
+                } catch (InterruptedException intEx) {
+                    running = false;
+                }
+                if (pending.isEmpty()) return; // Closed with nothing left.
+                batch = pending;
+                pending = new ArrayList<>();
+                seq = appended;
+            }
+
+            try {
+                write(batch);
+                if (sinceSnapshot >= SNAPSHOT_EVERY)
+                    snapshot();
+            } catch (IOException ioEx) {
+                logger.log(Level.SEVERE, "Bank journal failed, settlements "
+                        + "will no longer be kept. Reason:\n{0}",
+                        ioEx.getMessage());
+                closeFile();
+                synchronized (lock) {
+                    failed = true;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                durable = seq;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of settlements and a commit record, then flushes them to
+     * disk.
+     *
+     * @param batch The settlements to write.
+     * @throws IOException Thrown if the journal cannot be written.
+     * @since 1.0
+     */
+    private void write(List<int[]> batch) throws IOException
+    {
+        for (int[] settlement : batch) {
+            output.writeByte(SETTLEMENT);
+            output.writeInt(settlement[0]);
+            output.writeInt(settlement[1]);
+        }
+        // Every change in the batch was made before it was added, so these
+        // totals include all of them.
+        long[] totals = bank.ownTotals();
+        output.writeByte(COMMIT);
+        output.writeLong(totals[0]);
+        output.writeLong(totals[1]);
+        output.writeLong(checksum(totals[0], totals[1]));
+        output.flush();
+        file.getChannel().force(false);
+        sinceSnapshot += batch.size();
+    }
+
+    /**
+     * Writes the whole bank to the snapshot file and starts a new journal.
+     * The snapshot replaces the old one in a single step, so a crash leaves
+     * either the old or the new one.
+     *
+     * @throws IOException Thrown if either file cannot be written.
+     * @since 1.0
+     */
+    private void snapshot() throws IOException
+    {
+        Map<String, long[]> state = bank.snapshot();
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream data =
+                    new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeInt(state.size());
+            for (Map.Entry<String, long[]> e : state.entrySet()) {
+                data.writeUTF(e.getKey());
+                data.writeLong(e.getValue()[0]);
+                data.writeLong(e.getValue()[1]);
+            }
+            data.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // Everything in the old journal is now in the snapshot.
+        closeFile();
+        file = new FileOutputStream(journalFile, false);
+        output = new DataOutputStream(new BufferedOutputStream(file));
+        output.writeInt(JOURNAL_MAGIC);
+        output.writeUTF(bank.getNode());
+        output.flush();
+        file.getChannel().force(true);
+        sinceSnapshot = 0;
+    }
+
+    /**
+     * Closes the journal file if it is open.
+     *
+     * @since 1.0
+     */
+    private void closeFile()
+    {
+        try {
+            if (output != null) output.close();
+        } catch (IOException closeEx) {
+            logger.log(Level.FINEST, "Failed to close bank journal.");
+        } finally {
+            output = null;
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package distributedpontoon.server;
+
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link PNCounter} holding a {@link Server}s bank in step with the
+ * other servers. Games change the counter without waiting on the network, and
+ * a single background thread sends the whole state of the counter to every
+ * other {@link Server} in its {@link ClusterView} whenever it has changed.
+ * Connections to the other servers are kept open between sends, and the list
+ * of servers is read from the cached view rather than the directory.
+ * <p>
+ * As merging a state is safe to repeat, nothing has to be kept for a server
+ * that cannot be reached. The state is also sent to every server every few
+ * seconds even if nothing has changed, so a server that missed states or has
+ * restarted catches up without any other recovery.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-13
+ */
+public class BankReplicator implements Runnable
+{
+    /** The default time between batches in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 100;
+    /** The time between sending the state to servers that are up to date in
+     * milliseconds. */
+    private static final long PEER_REFRESH = 5000;
+    /** The longest the cluster can go without an update before it is fetched
+     * from the directory, in case pushed updates have been missed. */
+    private static final long VIEW_MAX_AGE = 60000;
+    /** The time allowed to connect to another server in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 1000;
+    /** The longest wait before retrying a failed server in milliseconds. */
+    private static final long MAX_BACKOFF = 30000;
+
+    /** The other servers in the cluster. */
+    private final ClusterView cluster;
+    /** The time between sends in milliseconds. */
+    private final long interval;
+    /** The bank shared with the other servers. */
+    private final PNCounter bank;
+    /** The connections to other servers, only used by the replicator
+     * thread. */
+    private final Map<Pair<String, Integer>, Peer> peers;
+    /** The list of servers the connections were last matched to. */
+    private Set<Pair<String, Integer>> connected;
+    /** The thread that sends each batch. */
+    private final ScheduledExecutorService executor;
+
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new {@link BankReplicator}. Nothing is sent until {@link
+     * BankReplicator#start()} is called.
+     *
+     * @param bank The {@link PNCounter} holding the bank.
+     * @param cluster The {@link ClusterView} listing the other servers.
+     * @param interval The time between sends in milliseconds.
+     * @throws IllegalArgumentException Thrown if the interval is not positive.
+     * @since 1.2
+     */
+    public BankReplicator(PNCounter bank, ClusterView cluster, long interval)
+            throws IllegalArgumentException
+    {
+        if (interval <= 0) {
+            throw new IllegalArgumentException(
+                    "The bank sync interval must be greater than zero."
+            );
+        }
+        this.cluster = cluster;
+        this.interval = interval;
+        this.bank = bank;
+        this.peers = new HashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.connected = null;
+    }
+
+    /**
+     * Starts sending the state in the background.
+     *
+     * @since 1.0
+     */
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending the state, sending any last changes first, and closes
+     * every connection.
+     *
+     * @since 1.0
+     */
+    public void stop()
+    {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException intEx) {
+            logger.log(Level.WARNING, "Interrupted stopping bank sync.");
+        }
+        run(); // Send the last changes.
+        for (Peer p : peers.values())
+            p.close();
+        peers.clear();
+    }
+
+    /**
+     * Sends the state of the bank to every other server that has not seen
+     * its latest version, or has not been sent it for a while.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        long now = System.currentTimeMillis();
+        cluster.refreshIfStale(VIEW_MAX_AGE);
+        matchPeers();
+        // Read the version first, so a change made while copying is sent
+        // again next time rather than missed.
+        long version = bank.getVersion();
+        Map<String, long[]> state = null;
+        for (Peer p : peers.values()) {
+            if (!p.due(version, now)) continue;
+            if (state == null) state = bank.snapshot();
+            p.send(state, version, now);
+        }
+    }
+
+    /**
+     * Connects to servers that have joined the {@link ClusterView} and drops
+     * those that have left. Does nothing if the view has not changed.
+     *
+     * @since 1.2
+     */
+    private void matchPeers()
+    {
+        Set<Pair<String, Integer>> found = cluster.getPeers();
+        if (found == connected) return; // The view is replaced on change.
+        connected = found;
+
+        Iterator<Map.Entry<Pair<String, Integer>, Peer>> it =
+                peers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Pair<String, Integer>, Peer> entry = it.next();
+            if (!found.contains(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+        for (Pair<String, Integer> svr : found) {
+            if (!peers.containsKey(svr))
+                peers.put(svr, new Peer(svr.Left, svr.Right));
+        }
+    }
+
+    /**
+     * Merges bank states sent by another server on a background thread until
+     * the connection closes. The first {@link MessageType#UPDATE_BANK} must
+     * already have been read from the stream.
+     *
+     * @param socket The {@link Socket} the states arrive on.
+     * @param input The stream the first message was read from.
+     * @since 1.0
+     */
+    public void receive(final Socket socket, final ObjectInputStream input)
+    {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    // The message type of the first state is already read.
+                    merge(input.readObject());
+                    while (true) {
+                        MessageType type = (MessageType)input.readObject();
+                        if (type != MessageType.UPDATE_BANK) {
+                            logger.log(Level.WARNING, "Unexpected message {0}"
+                                    + " on bank connection.", type);
+                            break;
+                        }
+                        merge(input.readObject());
+                    }
+                } catch (EOFException closed) {
+                    // The other server has closed the connection.
+                } catch (IOException | ClassNotFoundException
+                        | ClassCastException ex) {
+                    logger.log(Level.FINE, "Bank connection lost. Reason:\n"
+                            + "{0}", ex.getMessage());
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException closeEx) {
+                        logger.log(Level.FINEST, "Failed to close bank "
+                                + "connection.");
+                    }
+                }
+            }
+        }, "Bank receiver");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Merges a state received from another server into the bank.
+     *
+     * @param state The state as read from the stream.
+     * @throws ClassCastException Thrown if the state is not a bank state.
+     * @since 1.1
+     */
+    @SuppressWarnings("unchecked")
+    private void merge(Object state) throws ClassCastException
+    {
+        if (bank.merge((Map<String, long[]>)state))
+            logger.log(Level.FINEST, "Bank merged, now {0}.", bank);
+    }
+
+    /**
+     * A connection to another server and the last state sent to it.
+     *
+     * @version 1.1
+     * @since 1.0
+     */
+    private static class Peer
+    {
+        /** The host name of the server. */
+        private final String host;
+        /** The port of the server. */
+        private final int port;
+        /** The version of the last state sent, or -1 if none has been. */
+        private long sentVersion;
+        /** The time the last state was sent. */
+        private long sentAt;
+        /** The connection to the server, null if not connected. */
+        private Socket socket;
+        /** The stream changes are written to. */
+        private ObjectOutputStream output;
+        /** The time to wait after a failure before trying again. */
+        private long backoff;
+        /** The earliest time to try connecting again. */
+        private long retryAt;
+
+        /**
+         * Creates a new {@link Peer}.
+         *
+         * @param host The host name of the server.
+         * @param port The port of the server.
+         * @since 1.0
+         */
+        Peer(String host, int port)
+        {
+            this.host = host;
+            this.port = port;
+            this.sentVersion = -1;
+            this.sentAt = 0;
+            this.backoff = 0;
+            this.retryAt = 0;
+        }
+
+        /**
+         * Checks if the state should be sent to the server.
+         *
+         * @param version The current version of the bank.
+         * @param now The current time in milliseconds.
+         * @return Returns true if the server has not been sent this version,
+         * or has not been sent anything for a while, and is not waiting to
+         * retry after a failure.
+         * @since 1.1
+         */
+        boolean due(long version, long now)
+        {
+            if (now < retryAt) return false;
+            return version != sentVersion || now - sentAt >= PEER_REFRESH;
+        }
+
+        /**
+         * Sends the state of the bank to the server, connecting first if
+         * needed. If sending fails the server is retried after a delay.
+         *
+         * @param state The state from {@link PNCounter#snapshot()}.
+         * @param version The version the state was taken at.
+         * @param now The current time in milliseconds.
+         * @since 1.1
+         */
+        void send(Map<String, long[]> state, long version, long now)
+        {
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(new InetSocketAddress(host, port),
+                            CONNECT_TIMEOUT);
+                    socket.setTcpNoDelay(true);
+                    output = new ObjectOutputStream(socket.getOutputStream());
+                }
+                output.writeObject(MessageType.UPDATE_BANK);
+                output.writeObject(state);
+                output.flush();
+                // The stream would otherwise keep every state ever sent.
+                output.reset();
+                sentVersion = version;
+                sentAt = now;
+                backoff = 0;
+            } catch (IOException ioEx) {
+                logger.log(Level.FINE, "Could not send bank state to {0}:{1}."
+                        + " Reason:\n{2}", new Object[]{host, port,
+                        ioEx.getMessage()});
+                close();
+                backoff = Math.min(MAX_BACKOFF, Math.max(500, backoff * 2));
+                retryAt = now + backoff;
+            }
+        }
+
+        /**
+         * Closes the connection to the server. The state is sent in full once
+         * a new connection is made.
+         *
+         * @since 1.0
+         */
+        void close()
+        {
+            try {
+                if (output != null) output.close();
+                if (socket != null) socket.close();
+            } catch (IOException closeEx) {
+                logger.log(Level.FINEST, "Failed to close bank peer.");
+            } finally {
+                output = null;
+                socket = null;
+                sentVersion = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package distributedpontoon.server;
+
+import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.Pair;
+import distributedpontoon.shared.Triple;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Server}s cached copy of the other servers in the cluster. The
+ * {@link DirectoryService} pushes a new list with {@link
+ * MessageType#UPDATE_PEERS} whenever a server joins or leaves, so sending to
+ * every other server never has to ask the directory first. The list can also
+ * be fetched on demand, which covers starting up and any pushes that were
+ * missed. Every directory replica pushes its own list, and fetching uses
+ * whichever replica answers.
+ *
+ * @author 6266215
+ * @version 1.3
+ * @since 2015-03-15
+ */
+public class ClusterView
+{
+    /** The time allowed to connect to the directory in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 1000;
+    /** The time allowed for the directory to reply in milliseconds. */
+    private static final int REPLY_TIMEOUT = 2000;
+
+    /** The host name of the server this view belongs to. */
+    private final String hostName;
+    /** The port of the server this view belongs to. */
+    private final int port;
+    /** The replicas of the directory server. */
+    private final DirectoryEndpoints directories;
+    /** The other servers, replaced whole on every update. */
+    private volatile Set<Pair<String, Integer>> peers;
+    /** The time the list was last updated. */
+    private volatile long lastUpdate;
+
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new, empty {@link ClusterView}.
+     *
+     * @param hostName The host name of the owning server.
+     * @param port The port of the owning server.
+     * @param directories The replicas of the directory server.
+     * @since 1.0
+     */
+    public ClusterView(String hostName, int port,
+            DirectoryEndpoints directories)
+    {
+        this.hostName = hostName;
+        this.port = port;
+        this.directories = directories;
+        this.peers = Collections.emptySet();
+        this.lastUpdate = 0;
+    }
+
+    /**
+     * Gets the other servers in the cluster. Never waits on the network.
+     *
+     * @return An unmodifiable {@link Set} of host name and port pairs, which
+     * is replaced rather than changed by later updates.
+     * @since 1.0
+     */
+    public Set<Pair<String, Integer>> getPeers() { return peers; }
+
+    /**
+     * Gets the time the list of servers was last updated.
+     *
+     * @return The time in milliseconds, or zero if it never has been.
+     * @since 1.0
+     */
+    public long getLastUpdate() { return lastUpdate; }
+
+    /**
+     * Replaces the list of servers, leaving out the owning server.
+     *
+     * @param servers The host name and port of every server in the cluster.
+     * @since 1.0
+     */
+    public void update(Collection<Pair<String, Integer>> servers)
+    {
+        Set<Pair<String, Integer>> found = new HashSet<>();
+        for (Pair<String, Integer> svr : servers) {
+            if (svr.Left.equals(hostName) && svr.Right == port)
+                continue; // Avoid sending to yourself.
+            found.add(svr);
+        }
+        if (!found.equals(peers))
+            logger.log(Level.FINE, "Cluster now has {0} other server(s).",
+                    found.size());
+        peers = Collections.unmodifiableSet(found);
+        lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Fetches the list of servers from the directory server if it has not
+     * been updated for a while.
+     *
+     * @param maxAge The longest the list can go without an update in
+     * milliseconds.
+     * @since 1.0
+     */
+    public void refreshIfStale(long maxAge)
+    {
+        if (System.currentTimeMillis() - lastUpdate >= maxAge)
+            refresh();
+    }
+
+    /**
+     * Fetches the list of servers from the directory server. A replica that
+     * connects but does not reply in time is passed over for the next one.
+     * The current list is kept if no replica answers.
+     *
+     * @return Returns true if the list was fetched, false otherwise.
+     * @since 1.0
+     */
+    public boolean refresh()
+    {
+        for (int tries = 1; ; tries++) {
+            Set<Pair<String, Integer>> found = new HashSet<>();
+            Socket socket;
+            try {
+                // Connecting already tries every replica in turn.
+                socket = directories.connect(CONNECT_TIMEOUT);
+            } catch (IOException ioEx) {
+                logger.log(Level.FINE, "Could not reach the directory. "
+                        + "Reason:\n{0}", ioEx.getMessage());
+                return false;
+            }
+            try {
+                socket.setSoTimeout(REPLY_TIMEOUT);
+                ObjectOutputStream output =
+                        new ObjectOutputStream(socket.getOutputStream());
+                output.writeObject(MessageType.QUERY_SERVERS);
+                output.flush();
+                ObjectInputStream input =
+                        new ObjectInputStream(socket.getInputStream());
+                if ((MessageType)input.readObject() 
+                        != MessageType.QUERY_SERVERS)
+                    return false;
+                @SuppressWarnings("unchecked")
+                Set<Triple<String, Integer, Integer>> servers =
+                        (Set<Triple<String, Integer, Integer>>)
+                        input.readObject();
+                // Each server is listed once for every game it offers.
+                for (Triple<String, Integer, Integer> svr : servers)
+                    found.add(new Pair<>(svr.One, svr.Two));
+            } catch (IOException | ClassNotFoundException ex) {
+                // The replica connected but did not answer, so move on.
+                logger.log(Level.FINE, "Could not fetch the cluster. Reason:"
+                        + "\n{0}", ex.getMessage());
+                directories.failed();
+                if (tries >= directories.size()) return false;
+                continue;
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Nothing more can be done with this connection.
+                }
+            }
+            update(found);
+            return true;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package distributedpontoon.server;
 
 import distributedpontoon.shared.Card;
+import distributedpontoon.shared.CardSource;
 import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.Stack;
@@ -10,10 +11,10 @@ import java.util.Stack;
  * complete standard playing deck.
  *
  * @author 6266215
- * @version 1.0
+ * @version 1.1
  * @since 2015-02-03
  */
-public class Deck
+public class Deck implements CardSource
 {
     /** The {@link Card}s left in this {@link Deck}. */
     private final Stack<Card> cards;
@@ -67,6 +68,20 @@ public class Deck
         }
     }
 
+    /**
+     * Removes a {@link Card} from the top of this {@link Deck}, if any are 
+     * left.
+     *
+     * @return A {@link Card} popped off the {@link Deck}, or null if it is 
+     * empty.
+     * @since 1.1
+     */
+    @Override
+    public final Card draw()
+    {
+        return cards.isEmpty() ? null : cards.pop();
+    }
+
     /**
      * Gets the number of {@link Card}s left in this {@link Deck}.
      *
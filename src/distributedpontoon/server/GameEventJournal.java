@@ -0,0 +1,396 @@
+package distributedpontoon.server;
+
+import distributedpontoon.shared.Card;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only file of every event in the games a {@link Server} runs, kept
+ * for analysis rather than recovery. Each event is a fixed size binary
+ * record, so the history of millions of hands can be read back with a {@link
+ * GameEventReader} far faster than the text log can be parsed.
+ * <p>
+ * Games add events to an in-memory buffer, holding a lock only long enough to
+ * copy the record in. When the buffer fills, it is handed to a background
+ * thread and the next empty one is taken from a small pool. The thread
+ * writes full buffers as they arrive, and whatever has been added every
+ * flush interval. Only that thread writes to the file, so games never wait
+ * on the disk. If it falls so far behind that no empty buffer is left, new
+ * events are dropped and counted rather than held up. A crash loses at most
+ * the events not yet written, and a record cut short by a crash is dropped
+ * when the file is next opened.
+ * <p>
+ * Every record is laid out as follows, with the meaning of the three values
+ * depending on the {@link EventType}:
+ * <pre>
+ *  0  long  time, in milliseconds since the epoch
+ *  8  int   game ID
+ * 12  int   player ID, 0 if not about a single player
+ * 16  byte  event type
+ * 17  byte  flags
+ * 18  short unused
+ * 20  int   first value
+ * 24  int   second value
+ * 28  int   third value
+ * </pre>
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class GameEventJournal implements Runnable
+{
+    /** The default time between writes in milliseconds. */
+    public static final long DEFAULT_FLUSH_INTERVAL = 200;
+    /** The size of every record in bytes. */
+    public static final int RECORD_SIZE = 32;
+    /** The size of the file header in bytes. */
+    public static final int HEADER_SIZE = 16;
+    /** Marks the start of an event file. */
+    static final int MAGIC = 0x50474531;
+    /** The layout of the records written. */
+    static final short FORMAT = 1;
+    /** The most records held in a single buffer. */
+    private static final int BUFFER_RECORDS = 8192;
+    /** The number of buffers, so the number that can wait to be written is
+     * one less. */
+    private static final int BUFFERS = 4;
+
+    /**
+     * The kinds of event recorded. Each lists the flags and values its
+     * records hold.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    public static enum EventType
+    {
+        /** A player joined. Values: seats taken. */
+        JOIN,
+        /** A player placed a bet. Flags: 1 if rejected. Values: bet. */
+        BET,
+        /** A card was dealt. Flags: 1 if to the dealer. Values: card code,
+         * card points, cards held after or -1 if not known. */
+        DEAL,
+        /** A player took a turn. Values: action (0 twist, 1 stick, 2 bust),
+         * hand total or -1 if not sent. */
+        ACTION,
+        /** The dealer finished playing against a player. Values: dealer
+         * total, dealer cards, player total. */
+        DEALER_PLAY,
+        /** A players hand was settled. Flags: outcome. Values: bet, change to
+         * the bank, player total. */
+        SETTLEMENT,
+        /** The bank was changed. Values: change, bank after, capped to the
+         * range of an int. */
+        BANK_DELTA;
+
+        /** Every type, in order of their codes less one. */
+        private static final EventType[] TYPES = values();
+
+        /**
+         * Gets the code written for this type.
+         *
+         * @return The code as a byte, from 1.
+         * @since 1.0
+         */
+        public byte code() { return (byte)(ordinal() + 1); }
+
+        /**
+         * Gets the type written with a code.
+         *
+         * @param code The code read.
+         * @return The {@link EventType}, or null if the code is unknown.
+         * @since 1.0
+         */
+        public static EventType fromCode(int code)
+        {
+            return code >= 1 && code <= TYPES.length ? TYPES[code - 1] : null;
+        }
+    }
+
+    /** The event file. */
+    private final File file;
+    /** The time between writes in milliseconds. */
+    private final long flushInterval;
+    /** Guards the buffers and the count of dropped events, and is waited on 
+     * by the writer. */
+    private final Object lock;
+    /** The buffer events are added to. */
+    private ByteBuffer active;
+    /** Buffers waiting to be written, oldest first. */
+    private final ArrayDeque<ByteBuffer> full;
+    /** Empty buffers. */
+    private final ArrayDeque<ByteBuffer> free;
+    /** The number of events dropped because no buffer was free. */
+    private long dropped;
+    /** The channel to the event file, null until started. Only written to by
+     * the writer. */
+    private FileChannel channel;
+    /** Set to false once the journal is closing. Only changed holding the
+     * lock, so no event is added once it is false. */
+    private volatile boolean running;
+    /** Set to true once the file can no longer be written. */
+    private volatile boolean failed;
+    /** The thread writing events. */
+    private Thread writer;
+
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new {@link GameEventJournal}. Nothing is written until {@link
+     * GameEventJournal#start()} is called.
+     *
+     * @param name The name of the file, without an extension.
+     * @param flushInterval The time between writes in milliseconds.
+     * @throws IllegalArgumentException Thrown if the interval is not positive.
+     * @since 1.0
+     */
+    public GameEventJournal(String name, long flushInterval)
+            throws IllegalArgumentException
+    {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "The event flush interval must be greater than zero."
+            );
+        }
+        this.file = new File(name + ".events");
+        this.flushInterval = flushInterval;
+        this.lock = new Object();
+        this.active = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+        this.full = new ArrayDeque<>();
+        this.free = new ArrayDeque<>();
+        for (int i = 1; i < BUFFERS; i++)
+            free.add(ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE));
+        this.dropped = 0;
+        this.running = false;
+        this.failed = false;
+    }
+
+    /**
+     * Gets the event file.
+     *
+     * @return The {@link File} events are written to.
+     * @since 1.0
+     */
+    public File getFile() { return file; }
+
+    /**
+     * Gets the number of events dropped because they were added faster than 
+     * they could be written.
+     *
+     * @return The number of events as a long.
+     * @since 1.1
+     */
+    public long getDropped()
+    {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Gets a code for a card that fits in a record, from 0 to 51, as the suit
+     * times 13 plus the rank.
+     *
+     * @param c The {@link Card} to encode.
+     * @return The code as an int.
+     * @since 1.0
+     */
+    public static int cardCode(Card c)
+    {
+        return c.Suit.ordinal() * Card.CardRank.values().length
+                + c.Rank.ordinal();
+    }
+
+    /**
+     * Opens the event file, adding to any events already in it, and starts
+     * writing in the background.
+     *
+     * @throws IOException Thrown if the file cannot be opened, or holds
+     * something other than events.
+     * @since 1.0
+     */
+    public void start() throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(FORMAT).putShort((short)RECORD_SIZE)
+                    .putLong(System.currentTimeMillis()).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            size = HEADER_SIZE;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getShort() != FORMAT
+                    || header.getShort() != RECORD_SIZE) {
+                channel.close();
+                throw new IOException(file + " is not a game event file.");
+            }
+            // Drop a record cut short by a crash.
+            long whole = HEADER_SIZE
+                    + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            if (whole != size) channel.truncate(whole);
+            size = whole;
+        }
+        channel.position(size);
+        synchronized (lock) {
+            running = true;
+        }
+        writer = new Thread(this, "Game event journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes any events waiting and closes the file. Events added once this 
+     * has been called are ignored.
+     *
+     * @since 1.0
+     */
+    public void close()
+    {
+        synchronized (lock) {
+            if (!running) return;
+            running = false;
+            lock.notifyAll(); // Not an interrupt, which would close the channel.
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException intEx) {
+            logger.log(Level.WARNING, "Interrupted closing game events.");
+        }
+        try {
+            channel.close();
+        } catch (IOException ioEx) {
+            logger.log(Level.WARNING, "Could not close {0}.", file);
+        }
+        long lost = getDropped();
+        if (lost > 0)
+            logger.log(Level.WARNING, "{0} game event(s) were dropped as they "
+                    + "could not be written fast enough.", lost);
+    }
+
+    /**
+     * Adds an event. Returns straight away, the event is written in the
+     * background. Events added before {@link GameEventJournal#start()} or
+     * after {@link GameEventJournal#close()} are ignored, and events added 
+     * while every buffer is waiting to be written are dropped.
+     *
+     * @param type The {@link EventType} of event.
+     * @param gameID The ID of the game.
+     * @param playerID The ID of the player, or 0.
+     * @param flags The flags, as given by the type.
+     * @param first The first value.
+     * @param second The second value.
+     * @param third The third value.
+     * @since 1.0
+     */
+    public void append(EventType type, int gameID, int playerID, int flags,
+            int first, int second, int third)
+    {
+        if (!running || failed) return;
+        long time = System.currentTimeMillis();
+        synchronized (lock) {
+            // Checked again, as the journal may have closed since.
+            if (!running) return;
+            if (active.remaining() < RECORD_SIZE) {
+                ByteBuffer next = free.poll();
+                if (next == null) {
+                    // The writer has fallen behind, so drop the event.
+                    if (dropped++ == 0)
+                        logger.log(Level.WARNING, "Game events are being "
+                                + "added faster than they can be written, "
+                                + "some will be dropped.");
+                    return;
+                }
+                full.add(active);
+                active = next;
+                lock.notifyAll();
+            }
+            active.putLong(time).putInt(gameID).putInt(playerID)
+                    .put(type.code()).put((byte)flags)
+                    .putShort((short)0).putInt(first).putInt(second)
+                    .putInt(third);
+        }
+    }
+
+    /**
+     * Writes every buffer waiting to the file, returning each to the pool 
+     * once written. Only called by the writer.
+     *
+     * @since 1.1
+     */
+    private void write()
+    {
+        while (true) {
+            ByteBuffer buffer;
+            synchronized (lock) {
+                buffer = full.poll();
+            }
+            if (buffer == null) return;
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining() && !failed)
+                    channel.write(buffer);
+            } catch (IOException ioEx) {
+                failed = true;
+                logger.log(Level.WARNING, "Could not write game events, no "
+                        + "more will be kept. Reason:\n\t{0}",
+                        ioEx.getMessage());
+            }
+            buffer.clear();
+            synchronized (lock) {
+                free.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Writes full buffers as they are handed over, and any other events 
+     * every flush interval, until closed. Once closed, writes every event 
+     * left.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        while (!failed) {
+            boolean closing;
+            synchronized (lock) {
+                try {
+                    if (running && full.isEmpty()) lock.wait(flushInterval);
+                } catch (InterruptedException intEx) {
+                    return;
+                }
+                closing = !running;
+                if (active.position() > 0) {
+                    // Take the events added since the last write as well.
+                    ByteBuffer next = free.poll();
+                    if (next != null) {
+                        full.add(active);
+                        active = next;
+                    } else if (closing) {
+                        // Nothing more can be added, so it can go as it is.
+                        full.add(active);
+                    }
+                }
+            }
+            write();
+            if (closing) return;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package distributedpontoon.server;
+
+import distributedpontoon.server.GameEventJournal.EventType;
+import distributedpontoon.shared.PontoonRules.Outcome;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back the events written by a {@link GameEventJournal}. The file is
+ * memory-mapped a large window at a time and read in place, and a single
+ * reader is moved from record to record rather than making an object for
+ * each, so millions of events can be read a second.
+ * <p>
+ * Move to each event with {@link GameEventReader#next()}, then read its
+ * fields with the getters, which describe the current event until the next
+ * call:
+ * <pre>
+ * try (GameEventReader events = new GameEventReader(file)) {
+ *     while (events.next()) {
+ *         if (events.getType() == EventType.SETTLEMENT) ...
+ *     }
+ * }
+ * </pre>
+ * Run on its own, it prints a summary of an event file.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class GameEventReader implements AutoCloseable
+{
+    /** The number of records mapped at once. */
+    private static final int WINDOW_RECORDS = 1 << 21;
+    /** Every {@link Outcome}, indexed by the flags of a settlement. */
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    /** The event file. */
+    private final File file;
+    /** The channel to the event file. */
+    private final FileChannel channel;
+    /** The number of whole records in the file when it was opened. */
+    private final long count;
+    /** The time the file was started, in milliseconds since the epoch. */
+    private final long created;
+    /** The mapped window of records, null until the first is read. */
+    private MappedByteBuffer window;
+    /** The index of the first record in the window. */
+    private long windowStart;
+    /** The number of records in the window. */
+    private int windowCount;
+    /** The index of the current record, -1 before the first. */
+    private long index;
+    /** The offset of the current record within the window. */
+    private int offset;
+
+    /**
+     * Opens an event file for reading. Events written after it is opened are
+     * not read.
+     *
+     * @param file The file written by a {@link GameEventJournal}.
+     * @throws IOException Thrown if the file cannot be read, or holds
+     * something other than events.
+     * @since 1.0
+     */
+    public GameEventReader(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < GameEventJournal.HEADER_SIZE) {
+            channel.close();
+            throw new IOException(file + " is not a game event file.");
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                0, GameEventJournal.HEADER_SIZE);
+        if (header.getInt() != GameEventJournal.MAGIC
+                || header.getShort() != GameEventJournal.FORMAT
+                || header.getShort() != GameEventJournal.RECORD_SIZE) {
+            channel.close();
+            throw new IOException(file + " is not a game event file.");
+        }
+        this.created = header.getLong();
+        // A record still being written is left out.
+        this.count = (size - GameEventJournal.HEADER_SIZE)
+                / GameEventJournal.RECORD_SIZE;
+        this.window = null;
+        this.windowStart = 0;
+        this.windowCount = 0;
+        this.index = -1;
+        this.offset = 0;
+    }
+
+    /**
+     * Gets the number of events in the file.
+     *
+     * @return The number of events as a long.
+     * @since 1.0
+     */
+    public long count() { return count; }
+
+    /**
+     * Gets the time the file was started.
+     *
+     * @return The time in milliseconds since the epoch.
+     * @since 1.0
+     */
+    public long getCreated() { return created; }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return Returns true if there was another event, false at the end of
+     * the file.
+     * @throws IOException Thrown if the next part of the file could not be
+     * mapped.
+     * @since 1.0
+     */
+    public boolean next() throws IOException
+    {
+        if (index + 1 >= count) return false;
+        seek(index + 1);
+        return true;
+    }
+
+    /**
+     * Moves to an event by its position in the file.
+     *
+     * @param event The index of the event, from 0.
+     * @throws IOException Thrown if that part of the file could not be
+     * mapped.
+     * @throws IndexOutOfBoundsException Thrown if there is no such event.
+     * @since 1.0
+     */
+    public void seek(long event) throws IOException, IndexOutOfBoundsException
+    {
+        if (event < 0 || event >= count) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "No event %d, %s holds %d.", event, file, count)
+            );
+        }
+        if (window == null || event < windowStart
+                || event >= windowStart + windowCount) {
+            windowStart = event;
+            windowCount = (int)Math.min(WINDOW_RECORDS, count - event);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    GameEventJournal.HEADER_SIZE
+                            + event * GameEventJournal.RECORD_SIZE,
+                    (long)windowCount * GameEventJournal.RECORD_SIZE);
+        }
+        index = event;
+        offset = (int)(event - windowStart) * GameEventJournal.RECORD_SIZE;
+    }
+
+    /**
+     * Gets the time of the current event.
+     *
+     * @return The time in milliseconds since the epoch.
+     * @since 1.0
+     */
+    public long getTime() { return window.getLong(offset); }
+
+    /**
+     * Gets the ID of the game the current event happened in.
+     *
+     * @return The game ID as an int.
+     * @since 1.0
+     */
+    public int getGameID() { return window.getInt(offset + 8); }
+
+    /**
+     * Gets the ID of the player the current event is about.
+     *
+     * @return The player ID as an int, 0 if not about a single player.
+     * @since 1.0
+     */
+    public int getPlayerID() { return window.getInt(offset + 12); }
+
+    /**
+     * Gets the kind of the current event.
+     *
+     * @return The {@link EventType}, or null if written by a newer server.
+     * @since 1.0
+     */
+    public EventType getType()
+    {
+        return EventType.fromCode(window.get(offset + 16));
+    }
+
+    /**
+     * Gets the flags of the current event, as described by its {@link
+     * EventType}.
+     *
+     * @return The flags as an int.
+     * @since 1.0
+     */
+    public int getFlags() { return window.get(offset + 17) & 0xff; }
+
+    /**
+     * Gets one of the values of the current event, as described by its
+     * {@link EventType}.
+     *
+     * @param value The value to get, from 0 to 2.
+     * @return The value as an int.
+     * @throws IndexOutOfBoundsException Thrown if there is no such value.
+     * @since 1.0
+     */
+    public int getValue(int value) throws IndexOutOfBoundsException
+    {
+        if (value < 0 || value > 2) {
+            throw new IndexOutOfBoundsException(
+                    "Events hold three values, from 0 to 2."
+            );
+        }
+        return window.getInt(offset + 20 + value * 4);
+    }
+
+    /**
+     * Closes the event file.
+     *
+     * @throws IOException Thrown if the file could not be closed.
+     * @since 1.0
+     */
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Reads every event of a file into a {@link Summary}.
+     *
+     * @param file The file written by a {@link GameEventJournal}.
+     * @return The {@link Summary} of the file.
+     * @throws IOException Thrown if the file cannot be read.
+     * @since 1.1
+     */
+    public static Summary summarise(File file) throws IOException
+    {
+        Summary summary = new Summary();
+        try (GameEventReader events = new GameEventReader(file)) {
+            while (events.next())
+                summary.add(events);
+        }
+        return summary;
+    }
+
+    /**
+     * Prints a summary of an event file: the number of each kind of event,
+     * the hands settled and what they made for the bank.
+     *
+     * @param args The name of the event file.
+     * @since 1.0
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1) {
+            System.out.println("Usage: GameEventReader [file.events]");
+            return;
+        }
+        long start = System.nanoTime();
+        Summary summary;
+        try {
+            summary = summarise(new File(args[0]));
+        } catch (IOException ioEx) {
+            System.err.printf("Could not read %s. Reason:%n\t%s%n", args[0],
+                    ioEx.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = summary.Unknown;
+        for (EventType type : EventType.values()) {
+            long count = summary.ByType[type.ordinal()];
+            System.out.printf("%-12s %d%n", type, count);
+            total += count;
+        }
+        if (summary.Unknown > 0)
+            System.out.printf("%-12s %d%n", "UNKNOWN", summary.Unknown);
+        System.out.printf("Hands settled: %d, won by players: %d, bank "
+                + "change: %d%n", summary.Hands, summary.Wins,
+                summary.HouseTotal);
+        System.out.printf("Read %d event(s) in %.3f s (%.0f per second).%n",
+                total, seconds, total / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Totals of the events read from a file. A settlement counts as won by
+     * the player when its flags name an {@link Outcome} the player wins,
+     * which includes pushes.
+     *
+     * @version 1.0
+     * @since 1.1
+     */
+    public static final class Summary
+    {
+        /** The number of events of each {@link EventType}, by ordinal. */
+        public final long[] ByType = new long[EventType.values().length];
+        /** The number of events of no known type. */
+        public long Unknown;
+        /** The number of hands settled. */
+        public long Hands;
+        /** The number of hands settled that the player won or pushed. */
+        public long Wins;
+        /** The sum of what the settled hands made for the bank. */
+        public long HouseTotal;
+
+        /**
+         * Adds the current event of a reader to the totals.
+         *
+         * @param events The {@link GameEventReader} at the event to add.
+         * @since 1.1
+         */
+        public void add(GameEventReader events)
+        {
+            EventType type = events.getType();
+            if (type == null) {
+                Unknown++;
+                return;
+            }
+            ByType[type.ordinal()]++;
+            if (type == EventType.SETTLEMENT) {
+                Hands++;
+                HouseTotal += events.getValue(1);
+                int outcome = events.getFlags();
+                if (outcome < OUTCOMES.length
+                        && OUTCOMES[outcome].isPlayerWin())
+                    Wins++;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package distributedpontoon.server;
+
+import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.shared.NetMessage.MessageType;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends a {@link MessageType#HEARTBEAT} from a {@link Server} to the {@link
+ * DirectoryService} every few seconds, so the directory keeps the server
+ * listed without having to poll it. Each heartbeat carries the number of
+ * games and threads the server is running and the credits free in its bank,
+ * which the directory uses to place new games, and the node number in its
+ * game IDs, so a directory that has restarted knows the node is in use. If the directory has dropped 
+ * the server, the next heartbeat lists it again. Heartbeats go to whichever
+ * directory replica answers, which passes them on to the others.
+ *
+ * @author 6266215
+ * @version 1.3
+ * @since 2015-03-15
+ */
+public class Heartbeat implements Runnable
+{
+    /** The default time between heartbeats in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 3000;
+    /** The time allowed to connect to the directory in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /** The server sending heartbeats. */
+    private final Server server;
+    /** The host name of the server. */
+    private final String hostName;
+    /** The port of the server. */
+    private final int port;
+    /** The replicas of the directory server. */
+    private final DirectoryEndpoints directories;
+    /** The time between heartbeats in milliseconds. */
+    private final long interval;
+    /** The thread sending heartbeats. */
+    private final ScheduledExecutorService executor;
+    /** Set once a heartbeat has failed, so repeated failures are only
+     * logged once. */
+    private boolean failing;
+
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * Creates a new {@link Heartbeat}. Nothing is sent until {@link
+     * Heartbeat#start()} is called.
+     *
+     * @param server The {@link Server} sending heartbeats.
+     * @param hostName The host name of the server.
+     * @param port The port of the server.
+     * @param directories The replicas of the directory server.
+     * @param interval The time between heartbeats in milliseconds.
+     * @throws IllegalArgumentException Thrown if the interval is not positive.
+     * @since 1.0
+     */
+    public Heartbeat(Server server, String hostName, int port,
+            DirectoryEndpoints directories, long interval)
+            throws IllegalArgumentException
+    {
+        if (interval <= 0) {
+            throw new IllegalArgumentException(
+                    "Heartbeat interval must be greater than zero."
+            );
+        }
+        this.server = server;
+        this.hostName = hostName;
+        this.port = port;
+        this.directories = directories;
+        this.interval = interval;
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.failing = false;
+    }
+
+    /**
+     * Starts sending heartbeats in the background.
+     *
+     * @since 1.0
+     */
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending heartbeats. The directory drops the server once its last
+     * heartbeat runs out.
+     *
+     * @since 1.0
+     */
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends a single heartbeat. Failures are only logged, as the next
+     * heartbeat will try again.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void run()
+    {
+        try (Socket socket = directories.connect(CONNECT_TIMEOUT)) {
+            ObjectOutputStream output =
+                    new ObjectOutputStream(socket.getOutputStream());
+            output.writeObject(MessageType.HEARTBEAT);
+            output.writeUTF(hostName);
+            output.writeInt(port);
+            output.writeInt(server.getGameCount());
+            output.writeInt(Thread.activeCount());
+            output.writeLong(server.getAvailableBank());
+            output.writeInt(server.getNode());
+            output.flush();
+            if (failing)
+                logger.log(Level.INFO, "Directory server reachable again.");
+            failing = false;
+        } catch (IOException ioEx) {
+            if (!failing)
+                logger.log(Level.WARNING, "Could not send heartbeat to "
+                        + "directory server. Reason:\n{0}", ioEx.getMessage());
+            failing = true;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package distributedpontoon.server;
 
 import distributedpontoon.client.IPlayer;
+import distributedpontoon.server.GameEventJournal.EventType;
 import distributedpontoon.shared.Card;
 import distributedpontoon.shared.Hand;
 import distributedpontoon.shared.IServerGame;
+import distributedpontoon.shared.MessageOutputStream;
 import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -17,20 +21,26 @@ import java.util.logging.Level;
 
 /**
  * An implementation of {@link IServerGame} that can handle multiple players 
- * taking part in a game at the same time.
+ * taking part in a game at the same time. Each game seats a limited number of 
+ * players and has a minimum bet, which the {@link Server} reports to the 
+ * directory while the game is waiting for players.
  * 
  * @author 6266215
- * @version 1.2
+ * @version 1.8
  * @since 2015-02-19
  */
 public class MultiPlayerGame extends IServerGame
 {
     /** A timeout value to prevent players from doing nothing for too long. */
     public static final int PLAYER_TIMEOUT = 20000;
+    /** The most players that can sit at a single game. */
+    public static final int MAX_SEATS = 6;
     /** A mapping of player IDs to their connecting {@link Socket}s. */
     private final ConcurrentHashMap<Integer, Socket> sockets;
     /** Tracks all the bets of individual players. */
     private final ConcurrentHashMap<Integer, Integer> bets;
+    /** The credits the bank is holding back for each players bet. */
+    private final ConcurrentHashMap<Integer, Integer> reserved;
     /** A mapping if player IDs to their {@link Hand}s. */
     private final ConcurrentHashMap<Integer, Hand> hands;
     /** A mapping of player IDs to their ready state for playing the game. */
@@ -41,6 +51,11 @@ public class MultiPlayerGame extends IServerGame
     private final ConcurrentHashMap<Integer, ObjectInputStream> inputs;
     /** The current number of players in this game. */
     private int playerCount;
+    /** The smallest bet this game accepts. */
+    private final int minimumBet;
+    /** Set while this game is listed on the directory, waiting for players. 
+     */
+    private volatile boolean listed;
     
     /**
      * Sets up a new {@link MultiPlayerGame}.
@@ -52,12 +67,37 @@ public class MultiPlayerGame extends IServerGame
         super();
         this.sockets = new ConcurrentHashMap<>();
         this.bets = new ConcurrentHashMap<>();
+        this.reserved = new ConcurrentHashMap<>();
         this.hands = new ConcurrentHashMap<>();
         this.playerReady = new ConcurrentHashMap<>();
         this.outputs = new ConcurrentHashMap<>();
         this.inputs = new ConcurrentHashMap<>();
+        this.minimumBet = Server.getInstance().getTableMinimumBet();
+        this.listed = true;
         
-        Server.getInstance().registerGame(gameID);
+        Server.getInstance().registerGame(gameID, 0, MAX_SEATS, minimumBet);
+    }
+    
+    /**
+     * Checks whether this game is listed on the directory, waiting for 
+     * players.
+     * 
+     * @return Returns true if players can still join.
+     * @since 1.6
+     */
+    public boolean isListed() { return listed; }
+    
+    /**
+     * Tells the directory how many seats are taken, if this game is still 
+     * waiting for players.
+     * 
+     * @since 1.5
+     */
+    private void reportSeats()
+    {
+        if (listed)
+            Server.getInstance().updateTable(gameID, sockets.size(), 
+                    MAX_SEATS, minimumBet);
     }
     
     /**
@@ -76,6 +116,15 @@ public class MultiPlayerGame extends IServerGame
             gameMessage("Game is already running.");
             return;
         }
+        if (sockets.size() >= MAX_SEATS) {
+            gameMessage("Game is full.");
+            try {
+                socket.close();
+            } catch (IOException ioEx) {
+                System.err.println(ioEx.getMessage());
+            }
+            return;
+        }
         
         int playerID = ++playerCount;
         sockets.put(playerID, socket);
@@ -84,16 +133,18 @@ public class MultiPlayerGame extends IServerGame
         try {
             outputs.put(
                     playerID, 
-                    new ObjectOutputStream(socket.getOutputStream())
+                    new MessageOutputStream(socket.getOutputStream())
             );
             ObjectOutputStream output = outputs.get(playerID);
             output.writeObject(MessageType.JOIN_ACKNOWLEDGE);
             output.writeInt(playerID);
             output.writeInt(gameID);
             output.flush();
+            event(EventType.JOIN, playerID, 0, sockets.size(), 0, 0);
         } catch (IOException ioEx) {
             System.err.println(ioEx.getMessage());
         }
+        reportSeats();
     }
     
     /**
@@ -115,6 +166,7 @@ public class MultiPlayerGame extends IServerGame
             output.writeObject(MessageType.CARD_TRANSFER);
             output.writeObject(c);
             output.flush();
+            dealt(playerID, c, -1);
         } catch (Deck.DeckException deckEx) {
             logger.log(Level.FINE, "Deck emptied!");
         }
@@ -154,67 +206,61 @@ public class MultiPlayerGame extends IServerGame
     @Override
     public void checkHand(int playerID, Hand h) throws IOException 
     {
-        int plyTotal = h.total();        
-        boolean plyHas21 = (plyTotal == 21);
-        boolean plyHas5Card = (plyHas21 && h.size() == 5);
-        boolean plyHas2Card = (plyHas21 && h.size() == 2);
-        
-        boolean dealerBust = !dealerPlay(plyTotal);
+        int plyTotal = h.total();
+        int before = dealer.size();
+        dealerPlay(plyTotal);
+        dealerPlayed(playerID, before, plyTotal);
         int dlrTotal = dealer.total();
         
         gameMessage("Player %d hand:%n%s", playerID, h);
         gameMessage("Dealer hand:%n%s", dealer);
         
-        boolean dlrHas21 = (dlrTotal == 21);
-        boolean dlrHas5Card = (dlrHas21 && dealer.size() == 5);
-        boolean dlrHas2Card = (dlrHas21 && dealer.size() == 2);
-        
-        if (plyHas2Card) {
-            // Player has a Pontoon.
-            if (dlrHas2Card) {
+        Outcome outcome = PontoonRules.settle(h, dealer);
+        switch (outcome) {
+            case PONTOON_PUSH:
                 // Player and deal have the same hand, so a push occurs.
                 gameMessage("Player %d and Dealer have a Pontoon! Push.",
                         playerID);
-                playerWin(playerID, false);
-            } else {
+                break;
+            case PLAYER_PONTOON:
                 gameMessage("Player %d wins with a Pontoon!", playerID);
-                playerWin(playerID, true);
-            }
-        } else if (plyHas5Card) {
-            // Player has a 5-card trick.
-            if (dlrHas2Card) {
+                break;
+            case DEALER_PONTOON:
                 // Dealer Pontoon has a higher precedence.
                 gameMessage("Dealer wins with a 5-card trick!");
-                dealerWin(playerID);
-            } else if (dlrHas5Card) {
+                break;
+            case TRICK_PUSH:
                 // Player and deal have the same hand, so a push occurs.
                 gameMessage("Player %d and Dealer have a 5-card trick! Push.",
                         playerID);
-                playerWin(playerID, false);
-            }else {
+                break;
+            case PLAYER_TRICK:
                 gameMessage("Player %d wins with a 5-card trick!", playerID);
-                playerWin(playerID, false);
-            }
-        } else {
-            if (plyTotal > 21) {
+                break;
+            case PLAYER_BUST:
                 gameMessage("Player %d has bust with a score of %d!", 
                         playerID, plyTotal);
-                dealerWin(playerID);
-            } else if (dealerBust) {
+                break;
+            case DEALER_BUST:
                 gameMessage("Dealer has bust with a score of %d!", dlrTotal);
-                playerWin(playerID, plyHas2Card);
-            }
-            // Any other possible hands.
-            else if (plyTotal >= dlrTotal) {
+                break;
+            case PLAYER_HIGHER:
                 gameMessage("Player %d wins hand! Player %d: %d\tDealer: %d", 
                     playerID, playerID, plyTotal, dlrTotal);
-                playerWin(playerID, false);
-            } else {
+                break;
+            default:
                 gameMessage("Dealer wins hand! Player %d: %d\tDealer: %d", 
                     playerID, plyTotal, dlrTotal);
-                dealerWin(playerID);
-            }
         }
+        
+        int bet = bets.get(playerID);
+        event(EventType.SETTLEMENT, playerID, outcome.ordinal(), bet, 
+                PontoonRules.houseDelta(outcome.isPlayerWin(), 
+                        outcome.isPontoon(), bet), plyTotal);
+        if (outcome.isPlayerWin())
+            playerWin(playerID, outcome.isPontoon());
+        else
+            dealerWin(playerID);
     }
     
     /**
@@ -231,26 +277,7 @@ public class MultiPlayerGame extends IServerGame
     @Override
     public boolean dealerPlay(int plyScore)
     {
-        while (dealer.total() <= plyScore) {
-            int dlrTotal = dealer.total();
-            for (Card c : dealer.getCards()) {
-                if (c.Rank == Card.CardRank.ACE) {
-                    if (!c.isAceHigh() && (dlrTotal + 10) < plyScore) {
-                        c.setAceHigh(true);
-                    } else if ((dlrTotal - 10) <= 21) {
-                        c.setAceHigh(false);
-                    }
-                }
-            }
-            
-            try {
-                dealer.addCard(deck.pullCard());
-            } catch (Deck.DeckException ex) {
-                logger.log(Level.FINE, "Deck emptied.");
-                break;
-            }
-        }
-        return (dealer.total() <= 21);
+        return PontoonRules.dealerPlay(dealer, deck, plyScore);
     }
     
     /**
@@ -269,8 +296,11 @@ public class MultiPlayerGame extends IServerGame
     @Override
     public void playerWin(int playerID, boolean twentyOne) throws IOException
     {
-        if (twentyOne)
-            Server.getInstance().adjustBank(-(bets.get(playerID)/2));
+        int delta = PontoonRules.houseDelta(PLAYER_WIN, twentyOne, 
+                bets.get(playerID));
+        if (delta != 0)
+            Server.getInstance().adjustBank(delta, gameID);
+        releaseBet(playerID);
         gameMessage("Player %d won the hand.", playerID);
         ObjectOutputStream output = outputs.get(playerID);
         output.writeObject(MessageType.GAME_RESULT);
@@ -294,7 +324,10 @@ public class MultiPlayerGame extends IServerGame
     public void dealerWin(int playerID) throws IOException
     {
         gameMessage("The dealer won the hand against player %s.", playerID);
-        Server.getInstance().adjustBank(bets.get(playerID));
+        Server.getInstance().adjustBank(
+                PontoonRules.houseDelta(DEALER_WIN, false, bets.get(playerID)), 
+                gameID);
+        releaseBet(playerID);
         ObjectOutputStream output = outputs.get(playerID);
         output.writeObject(MessageType.GAME_RESULT);
         output.writeBoolean(DEALER_WIN);
@@ -355,6 +388,7 @@ public class MultiPlayerGame extends IServerGame
         } catch (IOException ioEx) {
             System.err.println(ioEx.getMessage());
         } finally {
+            releaseBet(playerID); // Left before the hand was settled.
             sockets.remove(playerID);
             hands.remove(playerID);
             playerReady.remove(playerID);
@@ -362,6 +396,40 @@ public class MultiPlayerGame extends IServerGame
             outputs.remove(playerID);
             playerCount--;
         }
+        reportSeats();
+    }
+    
+    /**
+     * Holds back enough of the bank to pay out the worst outcome of a players 
+     * bet. Bets that are not positive are never covered.
+     * 
+     * @param playerID The unique ID for the {@link IPlayer} betting.
+     * @param bet The bet placed by the player.
+     * @return Returns true if the bank covers the bet, false otherwise.
+     * @since 1.4
+     */
+    private boolean reserveBet(int playerID, int bet)
+    {
+        releaseBet(playerID);
+        int cover = PontoonRules.maxPayout(bet);
+        if (bet <= 0 || !Server.getInstance().reserveBank(cover))
+            return false;
+        reserved.put(playerID, cover);
+        return true;
+    }
+    
+    /**
+     * Returns the credits held back for a players bet to the bank, if any 
+     * are.
+     * 
+     * @param playerID The unique ID for the {@link IPlayer}.
+     * @since 1.4
+     */
+    private void releaseBet(int playerID)
+    {
+        Integer cover = reserved.remove(playerID);
+        if (cover != null)
+            Server.getInstance().releaseBank(cover);
     }
     
     /**
@@ -400,16 +468,35 @@ public class MultiPlayerGame extends IServerGame
                     in = inputs.get(plyID);
                     reply = (MessageType)in.readObject();
                     if (reply == MessageType.CLIENT_READY) {
+                        int bet = in.readInt();
+                        if (bet < minimumBet || !reserveBet(plyID, bet)) {
+                            // Too small for the table, or the bank cannot 
+                            // pay out if the player wins.
+                            gameMessage("Rejected bet of %d from player %d.", 
+                                    bet, plyID);
+                            event(EventType.BET, plyID, 1, bet, 0, 0);
+                            out = outputs.get(plyID);
+                            out.writeObject(MessageType.BET_REJECTED);
+                            out.writeInt(PontoonRules.largestBet(
+                                Server.getInstance().getAvailableBank()));
+                            out.flush();
+                            removePlayer(plyID);
+                            continue;
+                        }
                         playerReady.put(plyID, true);
-                        bets.put(plyID, in.readInt());
+                        bets.put(plyID, bet);
+                        event(EventType.BET, plyID, 0, bet, 0, 0);
                         gameMessage(Level.FINER, "Player %d set bet to %d.", 
                                 plyID, bets.get(plyID));
                         // Initialise the game for a connecting client.
                         out = outputs.get(plyID);
                         out.writeObject(MessageType.GAME_INITIALISE);
                         try {
-                            out.writeObject(deck.pullCard());
-                            out.writeObject(deck.pullCard());
+                            for (int held = 1; held <= 2; held++) {
+                                Card c = deck.pullCard();
+                                out.writeObject(c);
+                                dealt(plyID, c, held);
+                            }
                         } catch (Deck.DeckException deckEx) {
                             gameError(deckEx.getMessage());
                         }
@@ -434,11 +521,15 @@ public class MultiPlayerGame extends IServerGame
             }
         }
         // Once everybody is ready, remove this from the server browser.
+        listed = false;
         Server.getInstance().unregisterGame(gameID);
         
         try {
-            dealer.addCard(deck.pullCard());
-            dealer.addCard(deck.pullCard());
+            for (int held = 1; held <= 2; held++) {
+                Card c = deck.pullCard();
+                dealer.addCard(c);
+                dealt(0, c, held);
+            }
         } catch (Deck.DeckException deckEx) {
             gameError(deckEx.getMessage());
         }
@@ -484,6 +575,8 @@ public class MultiPlayerGame extends IServerGame
                                     gameMessage(Level.FINE, 
                                             "Player %d has stuck.", plyID);
                                     h = (Hand)in.readObject();
+                                    event(EventType.ACTION, plyID, 0, 
+                                            action.ordinal(), h.total(), 0);
                                     hands.put(plyID, h);
                                     playerReady.put(plyID, true);
                                     break;
@@ -491,12 +584,16 @@ public class MultiPlayerGame extends IServerGame
                                     gameMessage(Level.FINE, 
                                             "Player %d twists.", 
                                             plyID);
+                                    event(EventType.ACTION, plyID, 0, 
+                                            action.ordinal(), -1, 0);
                                     dealCard(plyID);
                                     break;
                                 case PLAYER_BUST:
                                     gameMessage(Level.FINE, 
                                             "Player %d has bust.", plyID);
                                     h = (Hand)in.readObject();
+                                    event(EventType.ACTION, plyID, 0, 
+                                            action.ordinal(), h.total(), 0);
                                     hands.put(plyID, h);
                                     playerReady.put(plyID, true);
                                     break;
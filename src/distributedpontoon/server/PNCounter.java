@@ -0,0 +1,229 @@
+package distributedpontoon.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter shared between {@link Server}s that can be changed on any of them
+ * without coordination. Each server keeps a slot of its own holding the total
+ * it has added and the total it has removed, and only ever changes that slot.
+ * The value is the starting value plus every added total minus every removed
+ * total.
+ * <p>
+ * Servers exchange their slots with {@link PNCounter#snapshot()} and {@link
+ * PNCounter#merge(Map)}. Merging keeps the larger of each total, so states can
+ * be merged in any order, more than once and from any server, and every server
+ * that has seen the same slots has the same value.
+ * <p>
+ * A node name must never be reused by a different run of a server unless that
+ * run first restores its slot with {@link PNCounter#restore(Map)}, as a new
+ * run would otherwise start its slot from zero below what the others
+ * remember. A server that keeps no state gives each run a random name, and a
+ * new slot, instead.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-14
+ */
+public class PNCounter
+{
+    /** The name of the slot owned by this counter. */
+    private final String node;
+    /** The value before any changes, the same for every server. */
+    private final long initial;
+    /** The total added and removed by each server, keyed by node name. */
+    private final ConcurrentHashMap<String, Slot> slots;
+    /** The slot owned by this counter. */
+    private final Slot own;
+    /** Counts the changes to any slot, used to tell if a state has changed. */
+    private final AtomicLong version;
+
+    /**
+     * Creates a new {@link PNCounter}.
+     *
+     * @param node The name of the slot this counter owns, unique to this run
+     * of this server.
+     * @param initial The value before any changes. Must match on every server.
+     * @since 1.0
+     */
+    public PNCounter(String node, long initial)
+    {
+        this.node = node;
+        this.initial = initial;
+        this.slots = new ConcurrentHashMap<>();
+        this.own = new Slot();
+        this.slots.put(node, own);
+        this.version = new AtomicLong();
+    }
+
+    /**
+     * Gets the name of the slot owned by this counter.
+     *
+     * @return The node name as a String.
+     * @since 1.0
+     */
+    public String getNode() { return node; }
+
+    /**
+     * Adds to or removes from this counters own slot. Never blocks.
+     *
+     * @param delta The change to make, negative to remove.
+     * @return The value of the counter after the change.
+     * @since 1.0
+     */
+    public long add(long delta)
+    {
+        if (delta > 0)
+            own.added.addAndGet(delta);
+        else if (delta < 0)
+            own.removed.addAndGet(-delta);
+        version.incrementAndGet();
+        return value();
+    }
+
+    /**
+     * Gets the current value, the starting value plus every change seen from
+     * every server.
+     *
+     * @return The value as a long.
+     * @since 1.0
+     */
+    public long value()
+    {
+        long total = initial;
+        for (Slot s : slots.values())
+            total += s.added.get() - s.removed.get();
+        return total;
+    }
+
+    /**
+     * Gets the totals of this counters own slot.
+     *
+     * @return An array holding the total added and the total removed.
+     * @since 1.1
+     */
+    public long[] ownTotals()
+    {
+        return new long[] {own.added.get(), own.removed.get()};
+    }
+
+    /**
+     * Gets a number that changes whenever any slot changes.
+     *
+     * @return The version as a long.
+     * @since 1.0
+     */
+    public long getVersion() { return version.get(); }
+
+    /**
+     * Copies every slot into a map that can be sent to another server.
+     *
+     * @return A map of node names to their added and removed totals.
+     * @since 1.0
+     */
+    public HashMap<String, long[]> snapshot()
+    {
+        HashMap<String, long[]> state = new HashMap<>();
+        for (Map.Entry<String, Slot> e : slots.entrySet()) {
+            Slot s = e.getValue();
+            state.put(e.getKey(), new long[] {s.added.get(), s.removed.get()});
+        }
+        return state;
+    }
+
+    /**
+     * Merges the state of another counter into this one, keeping the larger
+     * of each total. This counters own slot is never changed, as no other
+     * server can have seen more of it than this one.
+     *
+     * @param state A map from {@link PNCounter#snapshot()}.
+     * @return Returns true if any slot grew.
+     * @since 1.0
+     */
+    public boolean merge(Map<String, long[]> state)
+    {
+        boolean grew = false;
+        for (Map.Entry<String, long[]> e : state.entrySet()) {
+            long[] totals = e.getValue();
+            if (e.getKey().equals(node) || totals == null || totals.length < 2)
+                continue;
+            Slot s = slots.get(e.getKey());
+            if (s == null) {
+                Slot created = new Slot();
+                s = slots.putIfAbsent(e.getKey(), created);
+                if (s == null) s = created;
+            }
+            grew |= raise(s.added, totals[0]);
+            grew |= raise(s.removed, totals[1]);
+        }
+        if (grew)
+            version.incrementAndGet();
+        return grew;
+    }
+
+    /**
+     * Merges a state this counters own node kept on disk, including its own
+     * slot, so a server can carry on with the same slot after a restart.
+     * Must be called before any change is made.
+     *
+     * @param state A map read back from a {@link PNCounter#snapshot()}.
+     * @since 1.2
+     */
+    public void restore(Map<String, long[]> state)
+    {
+        merge(state);
+        long[] totals = state.get(node);
+        if (totals != null && totals.length >= 2) {
+            raise(own.added, totals[0]);
+            raise(own.removed, totals[1]);
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Raises a total to the specified value if it is lower.
+     *
+     * @param total The total to raise.
+     * @param seen The value seen by another server.
+     * @return Returns true if the total was raised.
+     * @since 1.0
+     */
+    private static boolean raise(AtomicLong total, long seen)
+    {
+        long current;
+        while ((current = total.get()) < seen) {
+            if (total.compareAndSet(current, seen))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets some details about this {@link PNCounter}.
+     *
+     * @return A String containing the value and the number of slots.
+     * @since 1.0
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%d (%d servers)", value(), slots.size());
+    }
+
+    /**
+     * The totals added and removed by a single server.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    private static class Slot
+    {
+        /** The total added, only ever grows. */
+        final AtomicLong added = new AtomicLong();
+        /** The total removed, only ever grows. */
+        final AtomicLong removed = new AtomicLong();
+    }
+}
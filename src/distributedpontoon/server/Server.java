@@ -1,11 +1,14 @@
 package distributedpontoon.server;
 
 import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.server.GameEventJournal.EventType;
+import distributedpontoon.shared.GameIdGenerator;
 import distributedpontoon.shared.IServerGame;
 import distributedpontoon.shared.NetMessage.MessageType;
 import distributedpontoon.shared.Pair;
 import distributedpontoon.shared.PontoonLogger;
-import distributedpontoon.shared.Triple;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -13,9 +16,10 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,10 +27,11 @@ import java.util.logging.Logger;
 /**
  * A TCP server that listens for connections on a specified port. When a client 
  * connects a new {@link IServerGame} instance will be launched for that client 
- * to play a game against.
+ * to play a game against. The directory server may be run as several 
+ * replicas, in which case each message to it goes to whichever answers.
  * 
  * @author 6266215
- * @version 1.4
+ * @version 1.21
  * @since 2015-02-21
  */
 public class Server implements Runnable
@@ -44,14 +49,52 @@ public class Server implements Runnable
     private ServerSocket server;
     /** A thread to allow this {@link Server} to run in the background. */
     private Thread serverThread;
-    /** The host name of the directory server. */
-    private String dirServer;
-    /** The port of the directory server. */
-    private int dirPort;
+    /** The replicas of the directory server. */
+    private DirectoryEndpoints directories;
     /** A mapping of {@link IServerGame} instances to their executing thread. */
     private final ConcurrentHashMap<IServerGame, Thread> games;
-    /** The credits the {@link IServerGame}s can use for paying out. */
-    private int bank;
+    /** The credits the {@link IServerGame}s can use for paying out, shared 
+     * with every other {@link Server}. Replaced by the slot kept with the 
+     * journal when {@link Server#init()} recovers the bank. */
+    private PNCounter bank;
+    /** The credits held back to cover the worst outcome of open bets, 
+     * limited to this servers share of the bank once the cluster is known. */
+    private volatile BankEscrow escrow;
+    /** The other servers in the cluster, pushed by the directory. */
+    private volatile ClusterView cluster;
+    /** Keeps the bank in step with the other servers. */
+    private volatile BankReplicator replicator;
+    /** The time between sending bank changes in milliseconds. */
+    private long bankSyncInterval;
+    /** Keeps the bank across restarts, null if not kept. */
+    private volatile BankJournal journal;
+    /** The name of the bank journal files, null to not keep the bank. */
+    private String journalName;
+    /** The directory the bank journal files are kept in, null for the 
+     * working directory. */
+    private String journalDir;
+    /** The longest time to wait for settlements to share a disk flush. */
+    private long commitWait;
+    /** Records the events of every game, null if not kept. */
+    private volatile GameEventJournal events;
+    /** The name of the game event file, null to not record events. */
+    private String eventsName;
+    /** Keeps this server listed on the directory, null until running. */
+    private volatile Heartbeat heartbeat;
+    /** The time between heartbeats in milliseconds. */
+    private long heartbeatInterval;
+    /** The default smallest bet accepted at multi-player tables. */
+    public static final int DEFAULT_MINIMUM_BET = 1;
+    /** The credits in the bank before any game, the same on every server. */
+    public static final long INITIAL_BANK = 50000;
+    /** The time allowed to connect to each directory replica in 
+     * milliseconds. */
+    private static final int DIRECTORY_TIMEOUT = 1000;
+    /** The smallest bet accepted at multi-player tables. */
+    private int tableMinimumBet;
+    /** The node number held in the IDs of games made here, or null to work 
+     * one out from the host name and port. */
+    private Integer nodeID;
     
     static final Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     
@@ -66,10 +109,20 @@ public class Server implements Runnable
         this.hostName = "UNKNOWN";
         this.server = null;
         this.serverThread = null;
-        this.dirServer = "localhost";
-        this.dirPort = 55552;
+        this.directories = new DirectoryEndpoints("localhost", 
+                DirectoryEndpoints.DEFAULT_PORT);
         this.games = new ConcurrentHashMap<>();
-        this.bank = 50000;
+        this.heartbeatInterval = Heartbeat.DEFAULT_INTERVAL;
+        this.tableMinimumBet = DEFAULT_MINIMUM_BET;
+        this.nodeID = null;
+        this.eventsName = null;
+        this.bank = new PNCounter(UUID.randomUUID().toString(), 
+                INITIAL_BANK);
+        this.escrow = new BankEscrow(bank, null);
+        this.bankSyncInterval = BankReplicator.DEFAULT_INTERVAL;
+        this.journalName = "bank-" + this.port;
+        this.journalDir = null;
+        this.commitWait = BankJournal.DEFAULT_COMMIT_WAIT;
     }
     
     /**
@@ -93,10 +146,20 @@ public class Server implements Runnable
         this.hostName = "UNKNOWN";
         this.server = null;
         this.serverThread = null;
-        this.dirServer = "localhost";
-        this.dirPort = 55552;
+        this.directories = new DirectoryEndpoints("localhost", 
+                DirectoryEndpoints.DEFAULT_PORT);
         this.games = new ConcurrentHashMap<>();
-        this.bank = 50000;
+        this.heartbeatInterval = Heartbeat.DEFAULT_INTERVAL;
+        this.tableMinimumBet = DEFAULT_MINIMUM_BET;
+        this.nodeID = null;
+        this.eventsName = null;
+        this.bank = new PNCounter(UUID.randomUUID().toString(), 
+                INITIAL_BANK);
+        this.escrow = new BankEscrow(bank, null);
+        this.bankSyncInterval = BankReplicator.DEFAULT_INTERVAL;
+        this.journalName = "bank-" + this.port;
+        this.journalDir = null;
+        this.commitWait = BankJournal.DEFAULT_COMMIT_WAIT;
     }
     
     /**
@@ -150,10 +213,135 @@ public class Server implements Runnable
      */
     public void setDirectoryServer(String dirName, int dirPortNum)
     {
-        this.dirServer = dirName;
-        this.dirPort = dirPortNum;
+        this.directories = new DirectoryEndpoints(dirName, dirPortNum);
     }
     
+    /**
+     * Sets every replica of the {@link DirectoryService} to connect to. The 
+     * replica that answered last is used, moving on to the next when it 
+     * cannot be reached. Must be called before {@link Server#init()}.
+     * 
+     * @param endpoints The {@link DirectoryEndpoints} of every replica.
+     * @since 1.13
+     */
+    public void setDirectoryServers(DirectoryEndpoints endpoints)
+    {
+        this.directories = endpoints;
+    }
+    
+    /**
+     * Sets how often the state of the bank is sent to the other servers once 
+     * it has changed. Must be called before {@link Server#init()}.
+     * 
+     * @param millis The time between sending the state in milliseconds.
+     * @since 1.6
+     */
+    public void setBankSyncInterval(long millis)
+    {
+        this.bankSyncInterval = millis;
+    }
+    
+    /**
+     * Sets where the bank is kept between restarts. Must be called before 
+     * {@link Server#init()}.
+     * 
+     * @param name The name of the journal files without an extension, or null 
+     * to keep the bank in memory only.
+     * @param millis The longest time a settlement waits for others to share 
+     * its disk flush, in milliseconds.
+     * @since 1.8
+     */
+    public void setJournal(String name, long millis)
+    {
+        this.journalName = name;
+        this.commitWait = millis;
+    }
+    
+    /**
+     * Sets the directory the bank journal files are kept in, which is made if 
+     * it does not exist. Must be called before {@link Server#init()}.
+     * 
+     * @param dir The directory, or null to use the working directory.
+     * @since 1.18
+     */
+    public void setJournalDirectory(String dir)
+    {
+        this.journalDir = dir;
+    }
+    
+    /**
+     * Sets where the events of every game are recorded for analysis. Must be 
+     * called before {@link Server#init()}.
+     * 
+     * @param name The name of the event file without an extension, or null 
+     * to not record events.
+     * @since 1.17
+     */
+    public void setEventJournal(String name)
+    {
+        this.eventsName = name;
+    }
+    
+    /**
+     * Sets how often this server tells the directory it is still running. 
+     * Must be called before {@link Server#init()}.
+     * 
+     * @param millis The time between heartbeats in milliseconds.
+     * @since 1.11
+     */
+    public void setHeartbeatInterval(long millis)
+    {
+        this.heartbeatInterval = millis;
+    }
+    
+    /**
+     * Sets the smallest bet accepted at new {@link MultiPlayerGame}s.
+     * 
+     * @param minimum The smallest bet as an int.
+     * @throws IllegalArgumentException Thrown if the bet is not positive.
+     * @since 1.12
+     */
+    public void setTableMinimumBet(int minimum) throws IllegalArgumentException
+    {
+        if (minimum <= 0) {
+            throw new IllegalArgumentException(
+                    "The minimum bet must be greater than zero."
+            );
+        }
+        this.tableMinimumBet = minimum;
+    }
+    
+    /**
+     * Sets the node number held in the IDs of games made by this server, 
+     * which must differ from that of every other server. If another server 
+     * already holds it, the directory leases this server a free one when it 
+     * registers. Must be called before {@link Server#init()}.
+     * 
+     * @param node The node number, or null to work one out from the host 
+     * name and port.
+     * @throws IllegalArgumentException Thrown if the node number is out of 
+     * range.
+     * @since 1.15
+     */
+    public void setNodeID(Integer node) throws IllegalArgumentException
+    {
+        if (node != null && (node < 0 || node > GameIdGenerator.MAX_NODE)) {
+            throw new IllegalArgumentException(String.format(
+                    "Node number must be between 0 and %d.", 
+                    GameIdGenerator.MAX_NODE)
+            );
+        }
+        this.nodeID = node;
+    }
+    
+    /**
+     * Gets the smallest bet accepted at new {@link MultiPlayerGame}s.
+     * 
+     * @return The smallest bet as an int.
+     * @since 1.12
+     */
+    public int getTableMinimumBet() { return tableMinimumBet; }
+    
     /**
      * Starts running this {@link Server} instance. Begins the server thread to 
      * allow it to listen for connections in the background.
@@ -170,8 +358,42 @@ public class Server implements Runnable
         }
         serverMessage("Starting server...");
         try {
+            if (journalName != null) {
+                String path = journalName;
+                if (journalDir != null) {
+                    File dir = new File(journalDir);
+                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                        throw new IOException("Could not make the journal "
+                                + "directory " + dir + ".");
+                    }
+                    path = new File(dir, journalName).getPath();
+                }
+                // Carry on with the slot kept by earlier runs.
+                bank = new PNCounter(BankJournal.nodeID(path), INITIAL_BANK);
+                bank.restore(BankJournal.recover(path));
+                serverMessage("Bank recovered from %s (%d credits).", 
+                        path, getBank());
+                journal = new BankJournal(path, bank, commitWait);
+                journal.start();
+            }
+            if (eventsName != null) {
+                events = new GameEventJournal(eventsName, 
+                        GameEventJournal.DEFAULT_FLUSH_INTERVAL);
+                events.start();
+                IServerGame.setEventJournal(events);
+                serverMessage("Recording game events in %s.", 
+                        events.getFile());
+            }
             server = new ServerSocket(port);
             hostName = InetAddress.getLocalHost().getHostName();
+            int node = nodeID != null ? nodeID 
+                    : GameIdGenerator.nodeFor(hostName, port);
+            IServerGame.setIdGenerator(new GameIdGenerator(node));
+            serverMessage("Game IDs use node %d.", node);
+            cluster = new ClusterView(hostName, port, directories);
+            escrow = new BankEscrow(bank, cluster);
+            replicator = new BankReplicator(bank, cluster, bankSyncInterval);
+            replicator.start();
             
             serverThread = new Thread(this);
             serverThread.start();
@@ -205,6 +427,17 @@ public class Server implements Runnable
             }
         }
         
+        if (heartbeat != null)
+            heartbeat.stop();
+        if (replicator != null)
+            replicator.stop(); // Send the last state of the bank.
+        if (journal != null)
+            journal.close(); // Keep the final bank in a snapshot.
+        if (events != null) {
+            IServerGame.setEventJournal(null);
+            events.close();
+        }
+        
         try {
             server.close();
             serverThread.join();
@@ -235,11 +468,10 @@ public class Server implements Runnable
      * @since 1.4
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    private synchronized void serverMessage(Level level, String msg, 
-            Object...args)
+    private void serverMessage(Level level, String msg, Object...args)
     {
-        msg = String.format(msg, args);
-        logger.log(Level.INFO, "{0}", new Object[] {msg});
+        if (!logger.isLoggable(level)) return; // Not wanted, so skip it all.
+        logger.log(level, args.length == 0 ? msg : String.format(msg, args));
     }
     
     /**
@@ -255,7 +487,7 @@ public class Server implements Runnable
      * @since 1.0
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    private synchronized void serverMessage(String msg, Object...args)
+    private void serverMessage(String msg, Object...args)
     {
         serverMessage(Level.INFO, msg, args);
     }
@@ -272,10 +504,9 @@ public class Server implements Runnable
      * @since 1.0
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    private synchronized void serverError(String msg, Object...args)
+    private void serverError(String msg, Object...args)
     {
-        msg = String.format(msg, args);
-        logger.log(Level.WARNING, "{0}", new Object[] {msg});
+        serverMessage(Level.WARNING, msg, args);
     }
     
     /**
@@ -287,21 +518,45 @@ public class Server implements Runnable
      */
     private void registerServer()
     {
-        Socket directorySocket;
-        try {
-            InetAddress address = InetAddress.getByName(dirServer);
-            directorySocket = new Socket(address, dirPort);
+        try (Socket directorySocket = 
+                directories.connect(DIRECTORY_TIMEOUT)) {
             ObjectOutputStream output = 
                     new ObjectOutputStream(directorySocket.getOutputStream());
             
             serverMessage("Registering with directory server...");
+            int node = getNode();
             output.writeObject(MessageType.REGISTER_SERVER);
             output.writeUTF(hostName);
             output.writeInt(port);
+            output.writeInt(node);
             output.flush();
+            
+            int leased;
+            try {
+                directorySocket.setSoTimeout(DIRECTORY_TIMEOUT);
+                ObjectInputStream input = 
+                        new ObjectInputStream(directorySocket.getInputStream());
+                if ((MessageType)input.readObject() 
+                        != MessageType.REGISTER_SERVER)
+                    return;
+                leased = input.readInt();
+            } catch (IOException | ClassNotFoundException 
+                    | ClassCastException ex) {
+                // No node was leased, so keep this one.
+                return;
+            }
+            if (leased < 0) {
+                serverError("Every node number is taken, game IDs may not be "
+                        + "unique.");
+            } else if (leased != node) {
+                // No games have been made yet, so this is the only node used.
+                IServerGame.setIdGenerator(new GameIdGenerator(leased));
+                serverMessage("Node %d is used by another server, game IDs "
+                        + "use node %d.", node, leased);
+            }
         } catch (UnknownHostException hostEx) {
             serverError("Directory server host '%s' may not exist.", 
-                    dirServer);
+                    directories);
         } catch (IOException ioEx) {
             serverError("Could not register with directory server.");
         }
@@ -313,14 +568,15 @@ public class Server implements Runnable
      * to other players.
      * 
      * @param id The game ID for the {@link MultiPlayerGame} being registered.
+     * @param players The number of players seated.
+     * @param seats The most players the game seats.
+     * @param minimumBet The smallest bet the game accepts.
      * @since 1.1
      */
-    public void registerGame(int id)
+    public void registerGame(int id, int players, int seats, int minimumBet)
     {
-        Socket directorySocket;
-        try {
-            InetAddress address = InetAddress.getByName(dirServer);
-            directorySocket = new Socket(address, dirPort);
+        try (Socket directorySocket = 
+                directories.connect(DIRECTORY_TIMEOUT)) {
             ObjectOutputStream output = 
                     new ObjectOutputStream(directorySocket.getOutputStream());
             
@@ -329,15 +585,48 @@ public class Server implements Runnable
             output.writeUTF(hostName);
             output.writeInt(port);
             output.writeInt(id);
+            output.writeInt(players);
+            output.writeInt(seats);
+            output.writeInt(minimumBet);
             output.flush();
         } catch (UnknownHostException hostEx) {
             serverError("Directory server host '%s' may not exist.", 
-                    dirServer);
+                    directories);
         } catch (IOException ioEx) {
             serverError("Could not register game with directory server.");
         }
     }
     
+    /**
+     * Tells the {@link DirectoryService} how many seats are taken at a {@link 
+     * MultiPlayerGame} waiting for players, so clients looking for a free 
+     * seat can find it. Failures are only logged.
+     * 
+     * @param id The game ID for the {@link MultiPlayerGame}.
+     * @param players The number of players seated.
+     * @param seats The most players the game seats.
+     * @param minimumBet The smallest bet the game accepts.
+     * @since 1.12
+     */
+    public void updateTable(int id, int players, int seats, int minimumBet)
+    {
+        try (Socket directorySocket = 
+                directories.connect(DIRECTORY_TIMEOUT)) {
+            ObjectOutputStream output = 
+                    new ObjectOutputStream(directorySocket.getOutputStream());
+            output.writeObject(MessageType.UPDATE_TABLE);
+            output.writeUTF(hostName);
+            output.writeInt(port);
+            output.writeInt(id);
+            output.writeInt(players);
+            output.writeInt(seats);
+            output.writeInt(minimumBet);
+            output.flush();
+        } catch (IOException ioEx) {
+            serverError("Could not update game %d on directory server.", id);
+        }
+    }
+    
     /**
      * Removes a game from the {@link DirectoryService} this {@link Server} is 
      * connected to.
@@ -347,11 +636,8 @@ public class Server implements Runnable
      */
     public void unregisterGame(int id)
     {
-        Socket directorySocket;
-        
-        try {
-            InetAddress address = InetAddress.getByName(dirServer);
-            directorySocket = new Socket(address, dirPort);
+        try (Socket directorySocket = 
+                directories.connect(DIRECTORY_TIMEOUT)) {
             ObjectOutputStream output = 
                     new ObjectOutputStream(directorySocket.getOutputStream());
             
@@ -363,7 +649,7 @@ public class Server implements Runnable
             output.flush();
         } catch (UnknownHostException hostEx) {
             serverError("Directory server host '%s' may not exist.", 
-                    dirServer);
+                    directories);
         } catch (IOException ioEx) {
             serverError("Could not unregister game with directory server.");
         }
@@ -398,117 +684,140 @@ public class Server implements Runnable
     }
     
     /**
-     * Gets the free credits this {@link Server} has in its bank.
+     * Gets the free credits this {@link Server} has in its bank, including 
+     * every change from other servers that has reached this one.
      * 
      * @return Returns the amount of credits available as an int.
      * @since 1.4
      */
-    public synchronized int getBank() { return this.bank; }
+    public int getBank() { return (int)bank.value(); }
+    
+    /**
+     * Gets the number of games running on this server.
+     * 
+     * @return The number of games as an int.
+     * @since 1.11
+     */
+    public int getGameCount() { return games.size(); }
+    
+    /**
+     * Gets the IDs of the {@link MultiPlayerGame}s on this server that are 
+     * listed on the directory, waiting for players.
+     * 
+     * @return A new {@link ArrayList} of game IDs.
+     * @since 1.14
+     */
+    public ArrayList<Integer> getListedGames()
+    {
+        ArrayList<Integer> listed = new ArrayList<>();
+        for (IServerGame game : games.keySet()) {
+            if (game instanceof MultiPlayerGame 
+                    && ((MultiPlayerGame)game).isListed())
+                listed.add(game.getGameID());
+        }
+        return listed;
+    }
+    
+    /**
+     * Gets the credits in this servers share of the bank that are not held 
+     * back for open bets.
+     * 
+     * @return The available credits as a long, negative if the share has 
+     * fallen below what it has reserved.
+     * @since 1.9
+     */
+    public long getAvailableBank() { return escrow.available(); }
+    
+    /**
+     * Gets the node number held in the IDs of games made by this server.
+     * 
+     * @return The node number as an int.
+     * @since 1.21
+     */
+    public int getNode() { return IServerGame.getIdGenerator().getNode(); }
+    
+    /**
+     * Gets the credits held back to cover open bets.
+     * 
+     * @return The reserved credits as a long.
+     * @since 1.9
+     */
+    public long getReservedBank() { return escrow.getReserved(); }
+    
+    /**
+     * Holds back credits to cover the worst outcome of a bet, if this servers 
+     * share of the bank has enough that are not already held back. Never 
+     * blocks, so placing bets stays cheap with any number of games running.
+     * 
+     * @param amount The credits to hold back, from {@link 
+     * distributedpontoon.shared.PontoonRules#maxPayout(int)}.
+     * @return Returns true if the credits were reserved, false if the share 
+     * cannot cover them.
+     * @throws IllegalArgumentException Thrown if the amount is negative.
+     * @since 1.9
+     * @see BankEscrow
+     */
+    public boolean reserveBank(int amount) throws IllegalArgumentException
+    {
+        return escrow.reserve(amount);
+    }
+    
+    /**
+     * Returns credits held back by {@link Server#reserveBank(int)} once the 
+     * bet has been settled or abandoned. Settlements must adjust the bank 
+     * before releasing, so the credits are never counted as free too soon.
+     * 
+     * @param amount The credits to return.
+     * @since 1.9
+     */
+    public void releaseBank(int amount) { escrow.release(amount); }
     
     /**
      * Adjusts the amount of credits this {@link Server} has stored in its bank.
-     *  To remove credits, simply provide a negative value. Synchronises the 
-     * changes in this servers bank with the other servers.
+     *  To remove credits, simply provide a negative value. The change is made 
+     * to this servers slot of the shared bank and reaches the other servers in 
+     * the background, so this never waits on the network.
      * 
      * @param delta The number of credits to adjust the bank balance by as an 
      * int.
      * @return Returns true if this {@link Server} has more money in the bank.
      * @since 1.5
      */
-    public synchronized boolean adjustBank(int delta)
+    public boolean adjustBank(int delta)
     {   
-        return adjustBank(delta, true);
+        return adjustBank(delta, -1);
     }
     
     /**
-     * Adjusts the amount of credits this {@link Server} has stored in its bank.
-     *  To remove credits, simply provide a negative value.
+     * Adjusts the amount of credits this {@link Server} has stored in its bank
+     *  to settle a game. When the bank is kept on disk this waits until the 
+     * settlement has been written, sharing the write with any other 
+     * settlements made at the same time.
      * 
      * @param delta The number of credits to adjust the bank balance by as an 
      * int.
-     * @param sync Set to true to propagate this change to other {@link Server} 
-     * instances the {@link DirectoryService} is aware of.
+     * @param gameID The ID of the game being settled.
      * @return Returns true if this {@link Server} has more money in the bank.
-     * @since 1.4
+     * @since 1.8
      */
-    public synchronized boolean adjustBank(int delta, boolean sync)
+    public boolean adjustBank(int delta, int gameID)
     {   
-        // Synchronise this change to other servers if needed.
-        if (sync)
-            synchroniseBank(delta);
-        
-        bank += delta;        
-        if (bank <= 0) {
+        long value = bank.add(delta);
+        BankJournal j = journal;
+        if (j != null)
+            j.commit(gameID, delta);
+        GameEventJournal e = events;
+        if (e != null)
+            e.append(EventType.BANK_DELTA, gameID, 0, 0, delta, 
+                    (int)Math.max(Integer.MIN_VALUE, 
+                            Math.min(Integer.MAX_VALUE, value)), 0);
+        if (value <= 0) {
             serverMessage("The bank has run out of credits!");
             return false;
         }
         return true;
     }
     
-    /**
-     * Attempts to synchronise the changes in the bank balance between all the 
-     * currently known {@link Server}s, this is only called when a game attempts
-     *  to run {@link Server#adjustBank(int, boolean)}.
-     * 
-     * @param delta The number of credits to add or remove on the remote server.
-     * @since 1.5
-     */
-    public synchronized void synchroniseBank(int delta)
-    {
-        InetAddress address;
-        Socket socket = null;
-        ObjectOutputStream output = null;
-        ObjectInputStream input = null;
-        Set<Triple<String, Integer, Integer>> servers;
-        Set<Pair<String, Integer>> updated = new HashSet<>();
-        
-        try {
-            address = InetAddress.getByName(dirServer);
-            socket = new Socket(address, dirPort);
-            output = new ObjectOutputStream(socket.getOutputStream());
-            input = new ObjectInputStream(socket.getInputStream());
-            
-            output.writeObject(MessageType.QUERY_SERVERS);
-            output.flush();
-            
-            if ((MessageType)input.readObject() != MessageType.QUERY_SERVERS)
-                return;
-            servers = (Set)input.readObject();
-            for (Triple<String, Integer, Integer> svr : servers) {
-                if (svr.One.equals(this.hostName) && svr.Two == this.port)
-                    continue; // Avoid sending this to yourself.
-                Pair<String, Integer> svrInfo = new Pair<>(svr.One, svr.Two);
-                if (!updated.contains(svrInfo)) {
-                    updated.add(svrInfo); // Keep track of all unique servers.
-                    address = InetAddress.getByName(svrInfo.Left);
-                    socket = new Socket(address, svrInfo.Right);
-                    output = new ObjectOutputStream(socket.getOutputStream());
-                    // Tell the server how much to adjust its bank by.
-                    output.writeObject(MessageType.UPDATE_BANK);
-                    output.writeInt(delta);
-                    output.flush();
-                }
-            }
-        } catch (UnknownHostException hostEx) {
-            serverError("Directory server host '%s' may not exist.", 
-                    dirServer);
-        } catch (IOException | ClassNotFoundException ioEx) {
-            serverError("Could not update other server banks. Reason:%n%s", 
-                    ioEx.getMessage());
-        } finally {
-            try {
-                if (output != null)
-                    output.close();
-                if (input != null)
-                    input.close();
-                if (socket != null)
-                    socket.close();
-            } catch (IOException closeEx) {
-                serverError("Failed to close socket when syncing banks.");
-            }
-        }
-    }
-    
     /**
      * Listens for connections in the background and launches new games when 
      * a connection is attempted.
@@ -519,6 +828,10 @@ public class Server implements Runnable
     public void run()
     {
         registerServer();
+        heartbeat = new Heartbeat(this, hostName, port, directories, 
+                heartbeatInterval);
+        heartbeat.start();
+        cluster.refresh(); // In case the directory cannot push to this server.
         serverMessage("Server listening (%s:%d).", hostName, 
                 server.getLocalPort());
         while (!server.isClosed())
@@ -540,16 +853,30 @@ public class Server implements Runnable
                 Thread t;
                 switch (query) {
                     case POLL_SERVER:
-                        // Respond to polling from DirectoryServices.
+                        // Respond to polling from DirectoryServices, with 
+                        // the tables a restarted directory should still list.
                         ObjectOutputStream reply = 
                             new ObjectOutputStream(socket.getOutputStream());
                         reply.writeBoolean(true);
+                        reply.writeObject(getListedGames());
                         reply.flush();
                         break;
+                    case UPDATE_PEERS:
+                        // The directory has a new list of servers.
+                        @SuppressWarnings("unchecked")
+                        Set<Pair<String, Integer>> peers =
+                                (Set<Pair<String, Integer>>)
+                                input.readObject();
+                        cluster.update(peers);
+                        socket.close();
+                        break;
                     case UPDATE_BANK:
-                        int delta = input.readInt();
-                        serverMessage("Remote bank change of %d", delta);
-                        adjustBank(delta, false);
+                        // Other servers keep this connection open.
+                        BankReplicator r = replicator;
+                        if (r != null)
+                            r.receive(socket, input);
+                        else
+                            socket.close();
                         break;
                     case CLIENT_JOIN_SP:
                         // Set up single-player games.
@@ -591,8 +918,15 @@ public class Server implements Runnable
                             }
                             if (!gFound) {
                                 game = null;
-                                serverError("No MP game with the ID %d "
-                                        + "found.", gameID);
+                                int owner = GameIdGenerator.nodeOf(gameID);
+                                if (owner != IServerGame.getIdGenerator()
+                                        .getNode())
+                                    serverError("MP game %d belongs to node "
+                                            + "%d, not this server.", gameID,
+                                            owner);
+                                else
+                                    serverError("No MP game with the ID %d "
+                                            + "found.", gameID);
                             }
                         }
                         if (game != null) {
@@ -622,8 +956,17 @@ public class Server implements Runnable
     public static void main(String[] args)
     {        
         Integer port = null;
-        String dirServerName = "localhost";
-        int dirServerPort = 55552;
+        DirectoryEndpoints directories = new DirectoryEndpoints("localhost", 
+                DirectoryEndpoints.DEFAULT_PORT);
+        long bankSync = BankReplicator.DEFAULT_INTERVAL;
+        String journalName = null;
+        String journalDir = null;
+        boolean keepBank = true;
+        long commitWait = BankJournal.DEFAULT_COMMIT_WAIT;
+        long heartbeatInterval = Heartbeat.DEFAULT_INTERVAL;
+        int tableMinimumBet = DEFAULT_MINIMUM_BET;
+        Integer nodeID = null;
+        String eventsName = null;
         /* handle the command line parameters if any were passed. */
         for (int i = 0; i < args.length; i++) {
             switch(args[i]) {
@@ -638,18 +981,74 @@ public class Server implements Runnable
                     }
                     break;
                 case "--dir-server":
-                    String[] parts = args[++i].split(":");
-                    if (parts.length == 1) {
-                        dirServerName = parts[0];
-                    } else {
-                        try {
-                            dirServerName = parts[0];
-                            dirServerPort = Integer.parseInt(parts[1]);
-                        } catch (NumberFormatException nfEx) {
-                            System.err.println("Port value must be a number.");
-                        }
+                    try {
+                        directories = DirectoryEndpoints.parse(args[++i]);
+                    } catch (IllegalArgumentException argEx) {
+                        System.err.println(argEx.getMessage());
                     }
                     break;
+                case "--bank-sync":
+                    try {
+                        long sync = Long.parseLong(args[++i]);
+                        if (sync > 0)
+                            bankSync = sync;
+                        else
+                            System.err.println("Bank sync must be greater "
+                                    + "than zero.");
+                    } catch (NumberFormatException nfEx) {
+                        System.err.println("Bank sync must be a number.");
+                    }
+                    break;
+                case "--journal":
+                    journalName = args[++i];
+                    break;
+                case "--journal-dir":
+                    journalDir = args[++i];
+                    break;
+                case "--no-journal":
+                    keepBank = false;
+                    break;
+                case "--commit-wait":
+                    try {
+                        long wait = Long.parseLong(args[++i]);
+                        if (wait >= 0)
+                            commitWait = wait;
+                        else
+                            System.err.println("Commit wait cannot be "
+                                    + "negative.");
+                    } catch (NumberFormatException nfEx) {
+                        System.err.println("Commit wait must be a number.");
+                    }
+                    break;
+                case "--heartbeat":
+                    try {
+                        long beat = Long.parseLong(args[++i]);
+                        if (beat > 0)
+                            heartbeatInterval = beat;
+                        else
+                            System.err.println("Heartbeat must be greater "
+                                    + "than zero.");
+                    } catch (NumberFormatException nfEx) {
+                        System.err.println("Heartbeat must be a number.");
+                    }
+                    break;
+                case "--table-min-bet":
+                    try {
+                        tableMinimumBet = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException nfEx) {
+                        System.err.println("Minimum bet must be a number.");
+                    }
+                    break;
+                case "--node-id":
+                    try {
+                        nodeID = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException nfEx) {
+                        System.err.println("Node ID must be a number.");
+                    }
+                    break;
+                case "--events":
+                    eventsName = args[++i];
+                    break;
                 case "--no-file":
                     System.out.println("Disabling logging to file...");
                     PontoonLogger.fileLog = false;
@@ -682,7 +1081,25 @@ public class Server implements Runnable
             server = Server.getInstance();
         }
         
-        server.setDirectoryServer(dirServerName, dirServerPort);
+        server.setDirectoryServers(directories);
+        server.setBankSyncInterval(bankSync);
+        server.setHeartbeatInterval(heartbeatInterval);
+        try {
+            server.setTableMinimumBet(tableMinimumBet);
+            server.setNodeID(nodeID);
+            server.setEventJournal(eventsName);
+        } catch (IllegalArgumentException argEx) {
+            System.err.println(argEx.getMessage());
+            return;
+        }
+        if (!keepBank)
+            server.setJournal(null, commitWait);
+        else if (journalName != null)
+            server.setJournal(journalName, commitWait);
+        else
+            server.setJournal(String.format("bank-%d", server.port), 
+                    commitWait);
+        server.setJournalDirectory(journalDir);
         server.init(); // Start running the server.
         
         Scanner input = new Scanner(System.in);
@@ -694,6 +1111,8 @@ public class Server implements Runnable
             switch (line) {
                 case "bal":
                     System.out.printf("Current Bank: %d%n", server.getBank());
+                    System.out.printf("Reserved: %d%n", 
+                            server.getReservedBank());
                     break;
                 case "q":
                 case "quit":
@@ -718,9 +1137,28 @@ public class Server implements Runnable
         sb.append("Distributed Pontoon Server Help:\n");
         sb.append("\tCommand [options] (Short) - Action\n");
         sb.append("\t--port [port] (-p) - Specifies the port to listen on.\n");
-        sb.append("\t--dir-server [hostname:port] - Sets the directory server "
-                + "to connect to. If no port is specific, port 55552 is used.");
-        sb.append("\n\t--no-file - Prevents logging to a file.\n");
+        sb.append("\t--dir-server [hostname:port,...] - Sets the directory "
+                + "server to connect to, or a comma separated list of its "
+                + "replicas. If no port is specific, port 55552 is used.");
+        sb.append("\n\t--bank-sync [ms] - Sets how often bank changes are "
+                + "sent to other servers.\n");
+        sb.append("\t--journal [name] - Sets the files the bank is kept in "
+                + "between restarts. Defaults to bank-[port].\n");
+        sb.append("\t--journal-dir [dir] - Sets the directory the bank "
+                + "files are kept in. Defaults to the working directory.\n");
+        sb.append("\t--no-journal - Keeps the bank in memory only.\n");
+        sb.append("\t--commit-wait [ms] - Sets how long settlements wait to "
+                + "share a disk flush.\n");
+        sb.append("\t--heartbeat [ms] - Sets how often the directory server "
+                + "is told this server is running.\n");
+        sb.append("\t--table-min-bet [bet] - Sets the smallest bet accepted at "
+                + "multi-player tables.\n");
+        sb.append("\t--node-id [0-1023] - Sets the number held in the IDs of "
+                + "games made here, unique to each server. Worked out from "
+                + "the host name and port if not given.\n");
+        sb.append("\t--events [name] - Records every game event in a binary "
+                + "file for analysis, read with GameEventReader.\n");
+        sb.append("\t--no-file - Prevents logging to a file.\n");
         sb.append("\t--verbose (-v) - Prints extra detail to the console.");
         sb.append("\t--help (-h) - Displays this help message.\n");
         
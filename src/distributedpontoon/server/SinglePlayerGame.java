@@ -2,11 +2,14 @@ package distributedpontoon.server;
 
 import distributedpontoon.client.IPlayer;
 import distributedpontoon.shared.Card;
-import distributedpontoon.shared.Card.CardRank;
 import distributedpontoon.server.Deck.DeckException;
+import distributedpontoon.server.GameEventJournal.EventType;
 import distributedpontoon.shared.Hand;
 import distributedpontoon.shared.IServerGame;
+import distributedpontoon.shared.MessageOutputStream;
 import distributedpontoon.shared.NetMessage.MessageType;
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -18,7 +21,7 @@ import java.util.logging.Level;
  * playing against a dealer.
  * 
  * @author 6266215
- * @version 1.1
+ * @version 1.5
  * @since 2015-02-07
  */
 public class SinglePlayerGame extends IServerGame
@@ -31,6 +34,8 @@ public class SinglePlayerGame extends IServerGame
     private ObjectOutputStream output;
     /** The bet for the client playing. */
     private int bet;
+    /** The credits the bank is holding back for the bet. */
+    private int reserved;
     
     /**
      * Creates a new {@link SinglePlayerGame} with no connected socket. To use 
@@ -46,6 +51,7 @@ public class SinglePlayerGame extends IServerGame
         this.input = null;
         this.output = null;
         this.bet = 0;
+        this.reserved = 0;
     }
     
     /**
@@ -62,7 +68,7 @@ public class SinglePlayerGame extends IServerGame
         this.socket = socket;
         
         try {
-            output = new ObjectOutputStream(this.socket.getOutputStream());
+            output = new MessageOutputStream(this.socket.getOutputStream());
         } catch (IOException ioEx) {
             gameError("Could not get socket streams. Reason:%n\t%s", 
                     ioEx.getMessage());
@@ -75,6 +81,7 @@ public class SinglePlayerGame extends IServerGame
             output.writeInt(gameID);
             output.flush();
             gameMessage("Registered player.");
+            event(EventType.JOIN, 1, 0, 1, 0, 0);
         } catch (IOException ioEx) {
             gameError("Failed to register player. Reason:%n\t%s", 
                     ioEx.getMessage());
@@ -98,6 +105,7 @@ public class SinglePlayerGame extends IServerGame
             output.writeObject(MessageType.CARD_TRANSFER);
             output.writeObject(c);
             output.flush();
+            dealt(playerID, c, -1);
         } catch (DeckException deckEx) {
             logger.log(Level.FINE, "Deck emptied!");
         }
@@ -118,65 +126,57 @@ public class SinglePlayerGame extends IServerGame
     public void checkHand(int playerID, Hand h) 
             throws IOException
     {
-        int plyTotal = h.total();        
-        boolean plyHas21 = (plyTotal == 21);
-        boolean plyHas5Card = (plyHas21 && h.size() == 5);
-        boolean plyHas2Card = (plyHas21 && h.size() == 2);
-        
-        boolean dealerBust = !dealerPlay(plyTotal);
+        int plyTotal = h.total();
+        int before = dealer.size();
+        dealerPlay(plyTotal);
+        dealerPlayed(playerID, before, plyTotal);
         int dlrTotal = dealer.total();
         
         gameMessage("Player hand:%n%s", h);
         gameMessage("Dealer hand:%n%s", dealer);
         
-        boolean dlrHas21 = (dlrTotal == 21);
-        boolean dlrHas5Card = (dlrHas21 && dealer.size() == 5);
-        boolean dlrHas2Card = (dlrHas21 && dealer.size() == 2);
-        
-        if (plyHas2Card) {
-            // Player has a Pontoon.
-            if (dlrHas2Card) {
+        Outcome outcome = PontoonRules.settle(h, dealer);
+        switch (outcome) {
+            case PONTOON_PUSH:
                 // Player and deal have the same hand, so a push occurs.
                 gameMessage("Player and Dealer have a Pontoon! Push.");
-                playerWin(playerID, false);
-            } else {
+                break;
+            case PLAYER_PONTOON:
                 gameMessage("Player wins with a Pontoon!");
-                playerWin(playerID, true);
-            }
-        } else if (plyHas5Card) {
-            // Player has a 5-card trick.
-            if (dlrHas2Card) {
+                break;
+            case DEALER_PONTOON:
                 // Dealer Pontoon has a higher precedence.
                 gameMessage("Dealer wins with a 5-card trick!");
-                dealerWin(playerID);
-            } else if (dlrHas5Card) {
+                break;
+            case TRICK_PUSH:
                 // Player and deal have the same hand, so a push occurs.
                 gameMessage("Player and Dealer have a 5-card trick! Push.");
-                playerWin(playerID, false);
-            }else {
+                break;
+            case PLAYER_TRICK:
                 gameMessage("Player wins with a 5-card trick!");
-                playerWin(playerID, false);
-            }
-        } else {
-            // Check to see if either the player or dealer is bust.
-            if (plyTotal > 21) {
+                break;
+            case PLAYER_BUST:
                 gameMessage("Player has bust with a score of %d!", plyTotal);
-                dealerWin(playerID);
-            } else if (dealerBust) {
+                break;
+            case DEALER_BUST:
                 gameMessage("Dealer has bust with a score of %d!", dlrTotal);
-                playerWin(playerID, plyHas2Card);
-            }
-            // Any other possible hands.
-            else if (plyTotal >= dlrTotal) {
+                break;
+            case PLAYER_HIGHER:
                 gameMessage("Player wins hand! Player: %d\tDealer: %d", 
                     plyTotal, dlrTotal);
-                playerWin(playerID, false);
-            } else {
+                break;
+            default:
                 gameMessage("Dealer wins hand! Player: %d\tDealer: %d", 
                     plyTotal, dlrTotal);
-                dealerWin(playerID);
-            }
         }
+        
+        event(EventType.SETTLEMENT, playerID, outcome.ordinal(), bet, 
+                PontoonRules.houseDelta(outcome.isPlayerWin(), 
+                        outcome.isPontoon(), bet), plyTotal);
+        if (outcome.isPlayerWin())
+            playerWin(playerID, outcome.isPontoon());
+        else
+            dealerWin(playerID);
     }
     
     /**
@@ -193,26 +193,7 @@ public class SinglePlayerGame extends IServerGame
     @Override
     public boolean dealerPlay(int plyScore)
     {
-        while (dealer.total() <= plyScore) {
-            int dlrTotal = dealer.total();
-            for (Card c : dealer.getCards()) {
-                if (c.Rank == CardRank.ACE) {
-                    if (!c.isAceHigh() && (dlrTotal + 10) < plyScore) {
-                        c.setAceHigh(true);
-                    } else if ((dlrTotal - 10) <= 21) {
-                        c.setAceHigh(false);
-                    }
-                }
-            }
-            
-            try {
-                dealer.addCard(deck.pullCard());
-            } catch (DeckException ex) {
-                logger.log(Level.FINE, "Deck emptied.");
-                break;
-            }
-        }
-        return (dealer.total() <= 21);
+        return PontoonRules.dealerPlay(dealer, deck, plyScore);
     }
     
     /**
@@ -229,8 +210,10 @@ public class SinglePlayerGame extends IServerGame
     @Override
     public void playerWin(int playerID, boolean twentyOne) throws IOException
     {
-        if (twentyOne)
-            Server.getInstance().adjustBank(-(bet/2));
+        int delta = PontoonRules.houseDelta(PLAYER_WIN, twentyOne, bet);
+        if (delta != 0)
+            Server.getInstance().adjustBank(delta, gameID);
+        releaseBet();
         output.writeObject(MessageType.GAME_RESULT);
         output.writeBoolean(PLAYER_WIN);
         output.writeObject(dealer);
@@ -249,7 +232,9 @@ public class SinglePlayerGame extends IServerGame
     @Override
     public void dealerWin(int playerID) throws IOException
     {
-        Server.getInstance().adjustBank(bet);
+        Server.getInstance().adjustBank(
+                PontoonRules.houseDelta(DEALER_WIN, false, bet), gameID);
+        releaseBet();
         output.writeObject(MessageType.GAME_RESULT);
         output.writeBoolean(DEALER_WIN);
         output.writeObject(dealer);
@@ -276,10 +261,41 @@ public class SinglePlayerGame extends IServerGame
         } catch (IOException ioEx) {
             gameError(ioEx.getMessage());
         }
+        releaseBet(); // The player left before the hand was settled.
         // Remove this game from the server.
         Server.getInstance().removeGame(gameID);
     }
     
+    /**
+     * Holds back enough of the bank to pay out the worst outcome of the bet, 
+     * replacing any earlier bet. Bets that are not positive are never 
+     * covered.
+     * 
+     * @return Returns true if the bank covers the bet, false otherwise.
+     * @since 1.3
+     */
+    private synchronized boolean reserveBet()
+    {
+        releaseBet();
+        int cover = PontoonRules.maxPayout(bet);
+        if (bet <= 0 || !Server.getInstance().reserveBank(cover))
+            return false;
+        reserved = cover;
+        return true;
+    }
+    
+    /**
+     * Returns the credits held back for the bet to the bank, if any are.
+     * 
+     * @since 1.3
+     */
+    private synchronized void releaseBet()
+    {
+        if (reserved == 0) return;
+        Server.getInstance().releaseBank(reserved);
+        reserved = 0;
+    }
+    
     /**
      * Listens for messages from the {@link IPlayer} taking part in this game in
      *  the background and responds to them as needed.
@@ -322,13 +338,28 @@ public class SinglePlayerGame extends IServerGame
                     case CLIENT_READY:
                         this.bet = input.readInt();
                         gameMessage(Level.FINER, "Player set bet to %d", bet);
+                        if (!reserveBet()) {
+                            // The bank cannot pay out if the player wins.
+                            gameMessage("Rejected bet of %d.", bet);
+                            event(EventType.BET, 1, 1, bet, 0, 0);
+                            output.writeObject(MessageType.BET_REJECTED);
+                            output.writeInt(PontoonRules.largestBet(
+                                Server.getInstance().getAvailableBank()));
+                            output.flush();
+                            break;
+                        }
+                        event(EventType.BET, 1, 0, bet, 0, 0);
                         // Initialise the game for a connecting client.
                         output.writeObject(MessageType.GAME_INITIALISE);
                         try {
-                            output.writeObject(deck.pullCard());
-                            dealer.addCard(deck.pullCard());
-                            output.writeObject(deck.pullCard());
-                            dealer.addCard(deck.pullCard());
+                            for (int held = 1; held <= 2; held++) {
+                                Card c = deck.pullCard();
+                                output.writeObject(c);
+                                dealt(1, c, held);
+                                c = deck.pullCard();
+                                dealer.addCard(c);
+                                dealt(0, c, dealer.size());
+                            }
                         } catch (Deck.DeckException deckEx) {
                             System.err.println(deckEx.getMessage());
                         } finally {
@@ -347,14 +378,20 @@ public class SinglePlayerGame extends IServerGame
                             case PLAYER_STICK:
                                 gameMessage(Level.FINE, "Player has stuck.");
                                 h = (Hand)input.readObject();
+                                event(EventType.ACTION, 1, 0, 
+                                        action.ordinal(), h.total(), 0);
                                 checkHand(1, h);
                                 break;
                             case PLAYER_TWIST:
                                 gameMessage(Level.FINE, "Player has twisted.");
+                                event(EventType.ACTION, 1, 0, 
+                                        action.ordinal(), -1, 0);
                                 dealCard(1);
                                 break;
                             case PLAYER_BUST:
                                 h = (Hand)input.readObject();
+                                event(EventType.ACTION, 1, 0, 
+                                        action.ordinal(), h.total(), 0);
                                 checkHand(1, h);
                                 break;
                             default:
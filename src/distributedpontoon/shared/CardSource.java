@@ -0,0 +1,21 @@
+package distributedpontoon.shared;
+
+/**
+ * Somewhere the dealer can draw {@link Card}s from, such as a shuffled deck,
+ * so the {@link PontoonRules} can play the dealers hand without knowing where
+ * the cards come from.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public interface CardSource
+{
+    /**
+     * Takes the next {@link Card}.
+     *
+     * @return The next {@link Card}, or null if there are none left.
+     * @since 1.0
+     */
+    public Card draw();
+}
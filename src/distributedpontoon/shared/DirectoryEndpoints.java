@@ -0,0 +1,177 @@
+package distributedpontoon.shared;
+
+import distributedpontoon.directoryservice.DirectoryService;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The host names and ports of every replica of the {@link DirectoryService}.
+ * Connections go to the replica that last answered, and move on to the next
+ * in the list when it cannot be reached, so a replica going down only costs
+ * the time taken to find it is not there.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class DirectoryEndpoints
+{
+    /** The port a {@link DirectoryService} listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 55552;
+
+    /** The host name and port of every replica, in the order to try them. */
+    private final List<Pair<String, Integer>> endpoints;
+    /** The index of the replica to try first. */
+    private volatile int preferred;
+
+    /**
+     * Creates a new {@link DirectoryEndpoints} for a single directory.
+     *
+     * @param hostName The host name of the directory server.
+     * @param port The port of the directory server.
+     * @since 1.0
+     */
+    public DirectoryEndpoints(String hostName, int port)
+    {
+        this(Collections.singletonList(new Pair<>(hostName, port)));
+    }
+
+    /**
+     * Creates a new {@link DirectoryEndpoints} for a list of replicas.
+     *
+     * @param endpoints The host name and port of every replica, which are
+     * copied.
+     * @throws IllegalArgumentException Thrown if the list is empty.
+     * @since 1.0
+     */
+    public DirectoryEndpoints(List<Pair<String, Integer>> endpoints)
+            throws IllegalArgumentException
+    {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "At least one directory server is needed."
+            );
+        }
+        this.endpoints = Collections.unmodifiableList(
+                new ArrayList<>(endpoints));
+        this.preferred = 0;
+    }
+
+    /**
+     * Reads a comma separated list of replicas, each given as a host name
+     * with an optional port, such as "dir1:55552,dir2".
+     *
+     * @param list The list to read.
+     * @return A new {@link DirectoryEndpoints}.
+     * @throws IllegalArgumentException Thrown if the list is empty or a port
+     * is not a number.
+     * @since 1.0
+     */
+    public static DirectoryEndpoints parse(String list)
+            throws IllegalArgumentException
+    {
+        List<Pair<String, Integer>> found = new ArrayList<>();
+        for (String item : list.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) continue;
+            String[] parts = item.split(":");
+            int port = DEFAULT_PORT;
+            if (parts.length > 1) {
+                try {
+                    port = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException nfEx) {
+                    throw new IllegalArgumentException(
+                            "Port value must be a number.", nfEx
+                    );
+                }
+            }
+            found.add(new Pair<>(parts[0], port));
+        }
+        return new DirectoryEndpoints(found);
+    }
+
+    /**
+     * Gets every replica.
+     *
+     * @return An unmodifiable {@link List} of host name and port pairs.
+     * @since 1.0
+     */
+    public List<Pair<String, Integer>> getEndpoints() { return endpoints; }
+
+    /**
+     * Gets the replica that will be tried first.
+     *
+     * @return The host name and port as a {@link Pair}.
+     * @since 1.0
+     */
+    public Pair<String, Integer> getPreferred()
+    {
+        return endpoints.get(preferred);
+    }
+
+    /**
+     * Gets the number of replicas.
+     *
+     * @return The number of replicas as an int.
+     * @since 1.0
+     */
+    public int size() { return endpoints.size(); }
+
+    /**
+     * Connects to the first replica that answers, starting with the one that
+     * answered last.
+     *
+     * @param timeout The time allowed to connect to each replica in
+     * milliseconds.
+     * @return A connected {@link Socket}.
+     * @throws IOException Thrown if no replica could be reached, holding the
+     * reason the last one failed.
+     * @since 1.0
+     */
+    public Socket connect(int timeout) throws IOException
+    {
+        int start = preferred;
+        IOException last = null;
+        for (int i = 0; i < endpoints.size(); i++) {
+            int index = (start + i) % endpoints.size();
+            Pair<String, Integer> target = endpoints.get(index);
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(target.Left,
+                        target.Right), timeout);
+                preferred = index;
+                return socket;
+            } catch (IOException ioEx) {
+                socket.close();
+                last = ioEx;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * Moves on from the replica that answered last, for when it connected
+     * but then failed to reply.
+     *
+     * @since 1.0
+     */
+    public void failed()
+    {
+        preferred = (preferred + 1) % endpoints.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Pair<String, Integer> e : endpoints) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.Left).append(':').append(e.Right);
+        }
+        return sb.toString();
+    }
+}
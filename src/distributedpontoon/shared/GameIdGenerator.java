@@ -0,0 +1,117 @@
+package distributedpontoon.shared;
+
+import distributedpontoon.directoryservice.DirectoryService;
+import distributedpontoon.server.Server;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out game IDs that are unique across every {@link Server} in the
+ * cluster, without taking a lock. Each ID holds the node number of the server
+ * that made it in its upper bits and a count of the games it has made in its
+ * lower bits, so the server a game runs on can be read from its ID alone with
+ * {@link GameIdGenerator#nodeOf(int)}.
+ * <p>
+ * IDs are always greater than zero, as the {@link DirectoryService} uses -1
+ * and 0 for new single and multi-player games. Once a server has made over
+ * two million games its count starts again from one, by which time the games
+ * first given those IDs are long over.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class GameIdGenerator
+{
+    /** The number of bits holding the node number. */
+    public static final int NODE_BITS = 10;
+    /** The number of bits holding the count of games. */
+    public static final int SEQUENCE_BITS = 31 - NODE_BITS;
+    /** The largest node number. */
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    /** The largest count of games before starting again. */
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+    /** The node number of the server making IDs. */
+    private final int node;
+    /** The count of the last game given an ID. */
+    private final AtomicInteger sequence;
+
+    /**
+     * Creates a new {@link GameIdGenerator} for a single node.
+     *
+     * @param node The node number, unique to the server, from 0 to {@link
+     * GameIdGenerator#MAX_NODE}.
+     * @throws IllegalArgumentException Thrown if the node number is out of
+     * range.
+     * @since 1.0
+     */
+    public GameIdGenerator(int node) throws IllegalArgumentException
+    {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException(String.format(
+                    "Node number must be between 0 and %d.", MAX_NODE)
+            );
+        }
+        this.node = node;
+        this.sequence = new AtomicInteger();
+    }
+
+    /**
+     * Works out a node number for a server from its host name and port, for
+     * when none has been given. Two servers may end up with the same number,
+     * in which case the directory leases the second to register another.
+     *
+     * @param host The host name of the server.
+     * @param port The port of the server.
+     * @return A node number from 0 to {@link GameIdGenerator#MAX_NODE}.
+     * @since 1.0
+     */
+    public static int nodeFor(String host, int port)
+    {
+        int hash = 31 * host.hashCode() + port;
+        hash ^= hash >>> 16;
+        return (hash & 0x7fffffff) % (MAX_NODE + 1);
+    }
+
+    /**
+     * Gets the node number held in a game ID.
+     *
+     * @param gameID A game ID made by a {@link GameIdGenerator}.
+     * @return The node number of the server that made it.
+     * @since 1.0
+     */
+    public static int nodeOf(int gameID) { return gameID >>> SEQUENCE_BITS; }
+
+    /**
+     * Gets the count of games held in a game ID.
+     *
+     * @param gameID A game ID made by a {@link GameIdGenerator}.
+     * @return The count, from 1.
+     * @since 1.0
+     */
+    public static int sequenceOf(int gameID) { return gameID & MAX_SEQUENCE; }
+
+    /**
+     * Gets the node number IDs are made for.
+     *
+     * @return The node number as an int.
+     * @since 1.0
+     */
+    public int getNode() { return node; }
+
+    /**
+     * Makes the next game ID. Safe to call from any number of threads.
+     *
+     * @return A new game ID, greater than zero.
+     * @since 1.0
+     */
+    public int next()
+    {
+        while (true) {
+            int last = sequence.get();
+            int count = last >= MAX_SEQUENCE ? 1 : last + 1;
+            if (sequence.compareAndSet(last, count))
+                return (node << SEQUENCE_BITS) | count;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package distributedpontoon.shared;
 
 import distributedpontoon.client.IPlayer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -9,7 +10,7 @@ import java.util.logging.Logger;
  * number of games that have run.
  * 
  * @author 6266215
- * @version 1.5
+ * @version 1.7
  * @since 2015-02-21
  */
 public abstract class IGame implements Runnable {
@@ -47,7 +48,7 @@ public abstract class IGame implements Runnable {
     }
     
     /** The total number of games that have run. */
-    protected static volatile int GameCount;
+    protected static final AtomicInteger GameCount = new AtomicInteger();
     /** A unique ID for this {@link IGame} instance. */
     protected int gameID;
     
@@ -65,7 +66,7 @@ public abstract class IGame implements Runnable {
      * @return The total number of games as an int.
      * @since 1.3
      */
-    public static int TotalGames() { return GameCount; }
+    public static int TotalGames() { return GameCount.get(); }
     
     /**
      * Prints information messages to the current {@link System#out} output 
@@ -82,12 +83,10 @@ public abstract class IGame implements Runnable {
      * @since 1.5
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    public final synchronized void gameMessage(Level level, String msg, 
-            Object...args)
+    public final void gameMessage(Level level, String msg, Object...args)
     {
-        String gameIDStr = gameID <= 0 ? "?" : String.valueOf(gameID);
-        msg = String.format(msg, args);
-        logger.log(level, "GAME {0} : {1}", new Object[] {gameIDStr, msg});
+        if (!logger.isLoggable(level)) return; // Not wanted, so skip it all.
+        logger.log(level, prefixed(msg, args));
     }
     
     /**
@@ -104,7 +103,7 @@ public abstract class IGame implements Runnable {
      * @since 1.1
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    public final synchronized void gameMessage(String msg, Object...args)
+    public final void gameMessage(String msg, Object...args)
     {
         gameMessage(Level.INFO, msg, args);
     }
@@ -123,11 +122,27 @@ public abstract class IGame implements Runnable {
      * @since 1.1
      * @see String#format(java.lang.String, java.lang.Object...)
      */
-    public final synchronized void gameError(String msg, Object...args)
+    public final void gameError(String msg, Object...args)
     {
-        String gameIDStr = gameID <= 0 ? "?" : String.valueOf(gameID);
-        msg = String.format(msg, args);
-        logger.log(Level.WARNING, "GAME {0} : {1}", 
-                new Object[] {gameIDStr, msg});
+        if (!logger.isLoggable(Level.WARNING)) return;
+        logger.log(Level.WARNING, prefixed(msg, args));
+    }
+    
+    /**
+     * Formats a message and prepends {@link IGame#gameID} to it. Messages 
+     * without arguments are used as they are. Only called once the message 
+     * is known to be wanted, and needs no lock, as the arguments are 
+     * formatted by the thread logging them.
+     * 
+     * @param msg The message as a String, with any formatting parameters.
+     * @param args Any number of objects to print in the message.
+     * @return The message to log.
+     * @since 1.7
+     */
+    private String prefixed(String msg, Object...args)
+    {
+        String text = args.length == 0 ? msg : String.format(msg, args);
+        int id = gameID;
+        return (id <= 0 ? "GAME ? : " : "GAME " + id + " : ") + text;
     }
 }
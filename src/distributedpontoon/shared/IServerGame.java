@@ -2,6 +2,8 @@ package distributedpontoon.shared;
 
 import distributedpontoon.client.IPlayer;
 import distributedpontoon.server.Deck;
+import distributedpontoon.server.GameEventJournal;
+import distributedpontoon.server.GameEventJournal.EventType;
 import distributedpontoon.shared.Hand;
 import distributedpontoon.shared.Card;
 import java.io.IOException;
@@ -14,11 +16,16 @@ import java.net.Socket;
  * single dealer, or a single player against a single dealer for example.
  * 
  * @author 6266215
- * @version 1.2
+ * @version 1.4
  * @since 2015-02-18
  */
 public abstract class IServerGame extends IGame
 {
+    /** Makes the IDs of new games, shared by every game in this process. */
+    private static volatile GameIdGenerator IDs = new GameIdGenerator(0);
+    /** Records the events of every game in this process, null if not kept. 
+     */
+    private static volatile GameEventJournal events;
     /** The {@link Deck} a dealer will draw from for this game. */
     protected Deck deck;
     /** The {@link Hand} for this dealer. */
@@ -32,13 +39,94 @@ public abstract class IServerGame extends IGame
      */
     public IServerGame()
     {
-        synchronized(this) { 
-            this.gameID = ++IGame.GameCount;
-        }
+        this.gameID = IDs.next();
+        IGame.GameCount.incrementAndGet();
         deck = new Deck();
         dealer = new Hand();
     }
     
+    /**
+     * Sets what makes the IDs of new games, so they hold the node number of 
+     * the server running them. Should be set before any game is created.
+     * 
+     * @param ids The {@link GameIdGenerator} to use.
+     * @since 1.3
+     */
+    public static void setIdGenerator(GameIdGenerator ids) { IDs = ids; }
+    
+    /**
+     * Gets what makes the IDs of new games.
+     * 
+     * @return The {@link GameIdGenerator} in use.
+     * @since 1.3
+     */
+    public static GameIdGenerator getIdGenerator() { return IDs; }
+    
+    /**
+     * Sets where the events of every game are recorded.
+     * 
+     * @param journal The {@link GameEventJournal} to use, or null to not 
+     * record events.
+     * @since 1.4
+     */
+    public static void setEventJournal(GameEventJournal journal)
+    {
+        events = journal;
+    }
+    
+    /**
+     * Records an event in this game, if events are being kept.
+     * 
+     * @param type The {@link EventType} of event.
+     * @param playerID The ID of the player, or 0.
+     * @param flags The flags, as given by the type.
+     * @param first The first value.
+     * @param second The second value.
+     * @param third The third value.
+     * @since 1.4
+     */
+    protected final void event(EventType type, int playerID, int flags, 
+            int first, int second, int third)
+    {
+        GameEventJournal journal = events;
+        if (journal != null)
+            journal.append(type, gameID, playerID, flags, first, second, 
+                    third);
+    }
+    
+    /**
+     * Records a {@link Card} being dealt, if events are being kept.
+     * 
+     * @param playerID The ID of the player dealt to, or 0 for the dealer.
+     * @param c The {@link Card} dealt.
+     * @param held The number of cards held after.
+     * @since 1.4
+     */
+    protected final void dealt(int playerID, Card c, int held)
+    {
+        if (events == null) return;
+        event(EventType.DEAL, playerID, playerID == 0 ? 1 : 0, 
+                GameEventJournal.cardCode(c), c.getValue(), held);
+    }
+    
+    /**
+     * Records the dealer finishing their turn against a player, with every 
+     * card they drew, if events are being kept.
+     * 
+     * @param playerID The ID of the player played against.
+     * @param before The number of cards the dealer held before playing.
+     * @param plyTotal The total of the players {@link Hand}.
+     * @since 1.4
+     */
+    protected final void dealerPlayed(int playerID, int before, int plyTotal)
+    {
+        if (events == null) return;
+        for (int i = before; i < dealer.size(); i++)
+            dealt(0, dealer.getCards().get(i), i + 1);
+        event(EventType.DEALER_PLAY, playerID, 0, dealer.total(), 
+                dealer.size(), plyTotal);
+    }
+    
     /**
      * Registers a new {@link IPlayer} to this {@link IServerGame} using the 
      * {@link Socket} the player connects with. Implementations of this class 
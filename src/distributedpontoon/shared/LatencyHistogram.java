@@ -0,0 +1,206 @@
+package distributedpontoon.shared;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies into logarithmic buckets in the style of an HDR histogram.
+ * Values below 128 microseconds are stored exactly, above that each power of
+ * two is split into 64 buckets, keeping every recorded value within 1.6% of
+ * its true value. Recording is a single atomic increment so many threads can
+ * share one {@link LatencyHistogram} without locking.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-10
+ */
+public class LatencyHistogram
+{
+    /** The number of bits used to split each power of two. */
+    private static final int SUB_BITS = 6;
+    /** The number of buckets each power of two is split into. */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** The largest power of two tracked, around 19 hours in microseconds. */
+    private static final int MAX_SHIFT = 30;
+    /** The largest value that can be recorded, larger values are clamped. */
+    public static final long MAX_VALUE =
+            ((long)(SUB_COUNT * 2) << MAX_SHIFT) - 1;
+
+    /** The name of the latency being recorded. */
+    private final String name;
+    /** The number of values recorded in each bucket. */
+    private final AtomicLongArray counts;
+    /** The total number of values recorded. */
+    private final AtomicLong total;
+    /** The sum of all recorded values, used for the mean. */
+    private final AtomicLong sum;
+    /** The smallest value recorded. */
+    private final AtomicLong min;
+    /** The largest value recorded. */
+    private final AtomicLong max;
+
+    /**
+     * Creates a new empty {@link LatencyHistogram}.
+     *
+     * @param name The name of the latency being recorded, used in reports.
+     * @since 1.0
+     */
+    public LatencyHistogram(String name)
+    {
+        this.name = name;
+        this.counts = new AtomicLongArray(SUB_COUNT * 2 + MAX_SHIFT * SUB_COUNT);
+        this.total = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong(0);
+    }
+
+    /**
+     * Works out which bucket a value belongs in.
+     *
+     * @param value The value in microseconds, must be between zero and {@link
+     * LatencyHistogram#MAX_VALUE}.
+     * @return The index of the bucket as an int.
+     * @since 1.0
+     */
+    private static int bucketOf(long value)
+    {
+        if (value < SUB_COUNT * 2) return (int)value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        int top = (int)(value >>> shift) - SUB_COUNT;
+        return SUB_COUNT * 2 + (shift - 1) * SUB_COUNT + top;
+    }
+
+    /**
+     * Gets the highest value that would be stored in the specified bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The highest value in the bucket in microseconds as a long.
+     * @since 1.0
+     */
+    private static long highestIn(int bucket)
+    {
+        if (bucket < SUB_COUNT * 2) return bucket;
+        int shift = (bucket - SUB_COUNT * 2) / SUB_COUNT + 1;
+        long top = (bucket - SUB_COUNT * 2) % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds, as given by differences in
+     * {@link System#nanoTime()}.
+     * @since 1.0
+     */
+    public void recordNanos(long nanos)
+    {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records a latency. Negative values are recorded as zero and values too
+     * large to track are recorded as {@link LatencyHistogram#MAX_VALUE}.
+     *
+     * @param micros The latency in microseconds.
+     * @since 1.0
+     */
+    public void record(long micros)
+    {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts.incrementAndGet(bucketOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long seen;
+        while (value < (seen = min.get()) && !min.compareAndSet(seen, value)) {}
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {}
+    }
+
+    /**
+     * Gets the name of the latency recorded.
+     *
+     * @return The name as a String.
+     * @since 1.0
+     */
+    public String getName() { return name; }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The number of values as a long.
+     * @since 1.0
+     */
+    public long getCount() { return total.get(); }
+
+    /**
+     * Gets the smallest value recorded.
+     *
+     * @return The smallest value in microseconds, or zero if empty.
+     * @since 1.0
+     */
+    public long getMin() { return getCount() == 0 ? 0 : min.get(); }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The largest value in microseconds, or zero if empty.
+     * @since 1.0
+     */
+    public long getMax() { return max.get(); }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean in microseconds as a double, or zero if empty.
+     * @since 1.0
+     */
+    public double getMean()
+    {
+        long n = getCount();
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * Gets the value at the specified percentile. The value returned is the
+     * highest value that shares a bucket with the true percentile, so it is
+     * never an underestimate.
+     *
+     * @param percentile The percentile to find, from 0 to 100.
+     * @return The value at the percentile in microseconds as a long, or zero
+     * if empty.
+     * @since 1.0
+     */
+    public long getPercentile(double percentile)
+    {
+        long n = getCount();
+        if (n == 0) return 0;
+        long rank = (long)Math.ceil(Math.min(100, percentile) / 100.0 * n);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestIn(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Gets a one line summary of this {@link LatencyHistogram} in
+     * milliseconds.
+     *
+     * @return A String containing the count and main percentiles.
+     * @since 1.0
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%-12s n=%-9d min=%8.2f mean=%8.2f p50=%8.2f "
+                + "p90=%8.2f p99=%8.2f p99.9=%8.2f max=%8.2f (ms)", name,
+                getCount(), getMin() / 1e3, getMean() / 1e3,
+                getPercentile(50) / 1e3, getPercentile(90) / 1e3,
+                getPercentile(99) / 1e3, getPercentile(99.9) / 1e3,
+                getMax() / 1e3);
+    }
+}
@@ -0,0 +1,48 @@
+package distributedpontoon.shared;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link ObjectOutputStream} that ends every message it flushes with a
+ * reset, so no later message refers back to an object sent in an earlier one.
+ * Readers using a single {@link java.io.ObjectInputStream} see no difference,
+ * but a non-blocking client, which decodes the stream again as data
+ * arrives, can then drop each message once it has been handled.
+ * <p>
+ * Messages must be flushed as a whole, as servers already do, and never from
+ * inside the writing of an object.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class MessageOutputStream extends ObjectOutputStream
+{
+    /**
+     * Creates a new {@link MessageOutputStream}, writing the stream header
+     * straight away.
+     *
+     * @param out The stream to write to.
+     * @throws IOException Thrown if the header could not be written.
+     * @since 1.0
+     */
+    public MessageOutputStream(OutputStream out) throws IOException
+    {
+        super(out);
+    }
+
+    /**
+     * Resets the stream and sends everything written so far.
+     *
+     * @throws IOException Thrown if the stream could not be written to.
+     * @since 1.0
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        reset();
+        super.flush();
+    }
+}
@@ -21,7 +21,7 @@ public class NetMessage<T> implements Serializable {
     /**
      * Various types of {@link NetMessage}.
      * 
-     * @version 1.2
+     * @version 1.10
      * @since 2015-02-06
      */
     public static enum MessageType
@@ -34,7 +34,9 @@ public class NetMessage<T> implements Serializable {
         UNREGISTER_GAME,
         /** Sent to a {@link DirectoryService} to request a list of servers. */
         QUERY_SERVERS,
-        /** Sent from a {@link DirectoryService} to see if servers are up. */
+        /** Sent from a {@link DirectoryService} to see if servers are up. 
+         * Servers answer true, then the IDs of their {@link MultiPlayerGame}s
+         * waiting for players. */
         POLL_SERVER,
         /** Sent by a client when it requests to play a new
          * {@link SinglePlayerGame} */
@@ -61,7 +63,40 @@ public class NetMessage<T> implements Serializable {
         GAME_RESULT,
         /** Tells the server that the client wishes to disconnect. */
         CLIENT_DISCONNECT,
-        UPDATE_BANK;
+        UPDATE_BANK,
+        /** Sent to clients instead of {@link MessageType#GAME_INITIALISE} if 
+         * the bank cannot cover their bet, or it is below the table minimum, 
+         * with the largest bet the bank can cover. */
+        BET_REJECTED,
+        /** Sent to servers by a {@link DirectoryService} with the host name 
+         * and port of every server, whenever a server joins or leaves. */
+        UPDATE_PEERS,
+        /** Sent to a {@link DirectoryService} by servers every few seconds to 
+         * keep their registration, with their host name, port, the number 
+         * of games and threads they are running and their free credits. */
+        HEARTBEAT,
+        /** Sent to a {@link DirectoryService} with the epoch and version of 
+         * the registry last seen, to get only the changes since then. */
+        QUERY_CHANGES,
+        /** As {@link MessageType#QUERY_CHANGES}, but the {@link 
+         * DirectoryService} holds the request until something changes or the 
+         * requested time passes. */
+        WATCH_SERVERS,
+        /** Sent to a {@link DirectoryService} with a {@link 
+         * distributedpontoon.directoryservice.DirectoryQuery} to get only the 
+         * games that match it. */
+        QUERY_FILTERED,
+        /** Sent to a {@link DirectoryService} by servers when the seats taken 
+         * at a {@link MultiPlayerGame} waiting for players change. */
+        UPDATE_TABLE,
+        /** Sent to a {@link DirectoryService} with a number of single player 
+         * games and the free credits each needs, to get a server to start 
+         * each game on, picked by load. */
+        QUERY_PLACEMENT,
+        /** Sent between replicas of a {@link DirectoryService} with a list 
+         * of changes servers sent to one of them, to apply without passing 
+         * on again. */
+        REPLICATE;
     }
     
     /** The type of message being sent as an {@link MessageType} */
@@ -3,6 +3,11 @@ package distributedpontoon.shared;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
@@ -13,10 +18,14 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
- * Handles the logging of system events to both files and consoles.
+ * Handles the logging of system events to both files and consoles. Records 
+ * are handed to a background thread through a fixed size ring buffer, so 
+ * threads logging never wait for the disk or console, or for each other. If 
+ * the buffer fills, records are dropped rather than holding up the game, and 
+ * a count of those dropped is logged once there is room again.
  * 
  * @author 6266215
- * @version 1.3
+ * @version 1.4
  * @since 2015-02-21
  */
 public class PontoonLogger 
@@ -25,6 +34,11 @@ public class PontoonLogger
     private static Handler file;
     /** The {@link Handler} to write to the console with. */
     private static Handler con;
+    /** The {@link Handler} passing records to the file and console in the 
+     * background. */
+    private static AsyncHandler async;
+    /** The most records waiting to be written. */
+    public static final int BUFFER_SIZE = 8192;
     /** Basic log formatter for the file output. */
     private static Formatter fileFmt;
     /** A {@link Formatter} for the console output. */
@@ -60,28 +74,28 @@ public class PontoonLogger
                 prefix, fmt.format(cal.getTime()));
         
         logger.setUseParentHandlers(false); // Disable built in formatters.
-        logger.setLevel(Level.FINEST); // Logging granularity.
+        // Match the handlers, so messages no handler wants are dropped before
+        // anything is done with them.
+        Level level = verbose ? Level.FINER : Level.INFO;
+        logger.setLevel(level); // Logging granularity.
         
         fileFmt = new FileFormatter();
         conFmt = new ConsoleFormatter();
         
         if (fileLog) {
             file = new FileHandler(fileName, true);
-            if (!verbose)
-                file.setLevel(Level.INFO);
-            else 
-                file.setLevel(Level.FINER);
+            file.setLevel(level);
             file.setFormatter(fileFmt);
-            logger.addHandler(file);
         }
         
         con = new ConsoleHandler();
-        if (!verbose)
-            con.setLevel(Level.INFO);
-        else 
-            con.setLevel(Level.FINER);
+        con.setLevel(level);
         con.setFormatter(conFmt);
-        logger.addHandler(con);
+        
+        async = fileLog ? new AsyncHandler(BUFFER_SIZE, file, con) 
+                : new AsyncHandler(BUFFER_SIZE, con);
+        async.setLevel(level);
+        logger.addHandler(async);
         
         configured = true;
     }
@@ -98,9 +112,7 @@ public class PontoonLogger
     {
         if (!configured) return;
         
-        if (fileLog)
-            file.close();
-        con.close();
+        async.close(); // Writes anything waiting, then closes the outputs.
         
         LogManager.getLogManager().reset();
     }
@@ -121,11 +133,17 @@ public class PontoonLogger
         }
         
         
+        /** Formats the time of each record. Only used by the thread writing 
+         * the file. */
+        private final SimpleDateFormat dates = 
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        
         @Override
         public String format(LogRecord record) 
         {            
-            return String.format("%s : %s - %s%n", 
-                    record.getLevel(), getDateString(), formatMessage(record));
+            return String.format("%s : %s - %s%n", record.getLevel(), 
+                    dates.format(new Date(record.getMillis())), 
+                    formatMessage(record));
         }
 
         @Override
@@ -162,4 +180,173 @@ public class PontoonLogger
             return String.format("%s%n", formatMessage(record));
         }
     }
+    
+    /**
+     * Passes records to other {@link Handler}s on a background thread. Records 
+     * are put in a ring buffer without taking a lock, and the background 
+     * thread takes them out in order. A thread logging only waits for another 
+     * thread logging at the same moment to claim its slot.
+     * 
+     * @version 1.0
+     * @since 1.4
+     */
+    private static final class AsyncHandler extends Handler implements Runnable
+    {
+        /** The longest time to wait for the buffer to empty, in 
+         * milliseconds. */
+        private static final long FLUSH_WAIT = 5000;
+        
+        /** The {@link Handler}s records are passed to. */
+        private final Handler[] targets;
+        /** The records waiting to be written, by sequence modulo the size. */
+        private final AtomicReferenceArray<LogRecord> ring;
+        /** The sequence of the next record to be put in the buffer. */
+        private final AtomicLong head;
+        /** The sequence of the next record to be written. Only changed by the 
+         * background thread. */
+        private volatile long tail;
+        /** The number of records dropped since the last were reported. */
+        private final AtomicLong dropped;
+        /** The thread writing records. */
+        private final Thread writer;
+        /** Set while the background thread is waiting for records. */
+        private volatile boolean idle;
+        /** Keeps the background thread writing. */
+        private volatile boolean running;
+        
+        /**
+         * Creates a new {@link AsyncHandler} and starts its background thread.
+         * 
+         * @param size The most records waiting to be written.
+         * @param targets The {@link Handler}s to pass records to.
+         * @since 1.0
+         */
+        AsyncHandler(int size, Handler...targets)
+        {
+            this.targets = targets;
+            this.ring = new AtomicReferenceArray<>(size);
+            this.head = new AtomicLong();
+            this.tail = 0;
+            this.dropped = new AtomicLong();
+            this.idle = false;
+            this.running = true;
+            this.writer = new Thread(this, "Log writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+        
+        @Override
+        public void publish(LogRecord record)
+        {
+            if (!running || !isLoggable(record)) return;
+            long seq;
+            do {
+                seq = head.get();
+                if (seq - tail >= ring.length()) {
+                    dropped.incrementAndGet();
+                    return; // Full, so drop it rather than wait.
+                }
+            } while (!head.compareAndSet(seq, seq + 1));
+            ring.set((int)(seq % ring.length()), record);
+            if (idle) LockSupport.unpark(writer);
+        }
+        
+        /**
+         * Writes records as they arrive until closed, then writes whatever is 
+         * left.
+         * 
+         * @since 1.0
+         */
+        @Override
+        public void run()
+        {
+            while (running || tail != head.get()) {
+                if (tail == head.get()) {
+                    idle = true;
+                    // Check again, in case a record arrived before idle was 
+                    // seen.
+                    if (running && tail == head.get())
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(
+                                100));
+                    idle = false;
+                    continue;
+                }
+                int slot = (int)(tail % ring.length());
+                LogRecord record = ring.get(slot);
+                if (record == null) {
+                    // Claimed but not yet put in place.
+                    Thread.yield();
+                    continue;
+                }
+                ring.set(slot, null);
+                tail++;
+                write(record);
+                long lost = dropped.get();
+                if (lost > 0 && dropped.compareAndSet(lost, 0)) {
+                    write(new LogRecord(Level.WARNING, String.format(
+                            "%d log record(s) dropped, logging fell behind.", 
+                            lost)));
+                }
+            }
+            for (Handler h : targets)
+                h.flush();
+        }
+        
+        /**
+         * Passes a single record to every target.
+         * 
+         * @param record The {@link LogRecord} to write.
+         * @since 1.0
+         */
+        private void write(LogRecord record)
+        {
+            for (Handler h : targets) {
+                try {
+                    h.publish(record);
+                } catch (RuntimeException rEx) {
+                    reportError(null, rEx, 0);
+                }
+            }
+        }
+        
+        /**
+         * Waits for every record put in the buffer so far to be written, then 
+         * flushes the targets.
+         * 
+         * @since 1.0
+         */
+        @Override
+        public void flush()
+        {
+            long end = head.get();
+            long deadline = System.currentTimeMillis() + FLUSH_WAIT;
+            while (tail < end && writer.isAlive() 
+                    && System.currentTimeMillis() < deadline) {
+                LockSupport.unpark(writer);
+                Thread.yield();
+            }
+            for (Handler h : targets)
+                h.flush();
+        }
+        
+        /**
+         * Writes every record waiting, then closes the targets.
+         * 
+         * @since 1.0
+         */
+        @Override
+        public void close()
+        {
+            if (!running) return;
+            running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(FLUSH_WAIT);
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+            }
+            for (Handler h : targets)
+                h.close();
+        }
+    }
 }
@@ -0,0 +1,327 @@
+package distributedpontoon.shared;
+
+import distributedpontoon.shared.Card.CardRank;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The rules of Pontoon, separated from any networking code. The {@link
+ * IServerGame} implementations use these rules to play the dealers hand and
+ * settle bets, and the simulation tools use them to play hands in-process
+ * without any sockets.
+ *
+ * @author 6266215
+ * @version 1.3
+ * @since 2015-03-02
+ */
+public final class PontoonRules
+{
+    /** The best possible score for a {@link Hand}. */
+    public static final int TWENTY_ONE = 21;
+    /** The number of cards needed for a 5-card trick. */
+    public static final int TRICK_SIZE = 5;
+    /** The number of extra points an Ace is worth when played high. */
+    public static final int ACE_BONUS = 10;
+
+    /** Provides logging for the rules. */
+    private static final Logger logger =
+            Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+    /**
+     * The possible results of comparing a players {@link Hand} against the
+     * dealers. Each result knows whether the player is paid and whether the
+     * win counts as a Pontoon.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    public static enum Outcome
+    {
+        /** The player and dealer both hold a Pontoon. */
+        PONTOON_PUSH(true, false),
+        /** The player holds a Pontoon and the dealer does not. */
+        PLAYER_PONTOON(true, true),
+        /** The player holds a 5-card trick, beaten by a dealer Pontoon. */
+        DEALER_PONTOON(false, false),
+        /** The player and dealer both hold a 5-card trick. */
+        TRICK_PUSH(true, false),
+        /** The player holds a 5-card trick. */
+        PLAYER_TRICK(true, false),
+        /** The player has a score over 21. */
+        PLAYER_BUST(false, false),
+        /** The dealer has a score over 21. */
+        DEALER_BUST(true, false),
+        /** The player has a score equal to or higher than the dealer. */
+        PLAYER_HIGHER(true, false),
+        /** The dealer has a higher score than the player. */
+        DEALER_HIGHER(false, false);
+
+        /** Set to true if the player wins the hand. */
+        private final boolean playerWin;
+        /** Set to true if the player wins with a Pontoon. */
+        private final boolean pontoon;
+
+        Outcome(boolean playerWin, boolean pontoon)
+        {
+            this.playerWin = playerWin;
+            this.pontoon = pontoon;
+        }
+
+        /**
+         * Checks if this {@link Outcome} is a win for the player.
+         *
+         * @return Returns true if the player wins, false if the dealer wins.
+         * @since 1.0
+         */
+        public boolean isPlayerWin() { return playerWin; }
+
+        /**
+         * Checks if this {@link Outcome} pays out for a Pontoon.
+         *
+         * @return Returns true if the player won with a Pontoon.
+         * @since 1.0
+         */
+        public boolean isPontoon() { return pontoon; }
+    }
+
+    /**
+     * Prevents construction of the rules, all the members are static.
+     *
+     * @since 1.0
+     */
+    private PontoonRules() { }
+
+    /**
+     * Compares the score and size of a players {@link Hand} against the
+     * dealers {@link Hand} once the dealer has played.
+     *
+     * @param plyTotal The total score of the players hand.
+     * @param plyCards The number of {@link Card}s in the players hand.
+     * @param dlrTotal The total score of the dealers hand.
+     * @param dlrCards The number of {@link Card}s in the dealers hand.
+     * @return The {@link Outcome} of the hand.
+     * @since 1.0
+     */
+    public static Outcome settle(int plyTotal, int plyCards, int dlrTotal,
+            int dlrCards)
+    {
+        boolean plyHas21 = (plyTotal == TWENTY_ONE);
+        boolean plyHas5Card = (plyHas21 && plyCards == TRICK_SIZE);
+        boolean plyHas2Card = (plyHas21 && plyCards == 2);
+
+        boolean dlrHas21 = (dlrTotal == TWENTY_ONE);
+        boolean dlrHas5Card = (dlrHas21 && dlrCards == TRICK_SIZE);
+        boolean dlrHas2Card = (dlrHas21 && dlrCards == 2);
+
+        if (plyHas2Card) {
+            // Player has a Pontoon.
+            return dlrHas2Card ? Outcome.PONTOON_PUSH : Outcome.PLAYER_PONTOON;
+        } else if (plyHas5Card) {
+            // Player has a 5-card trick, only a dealer Pontoon beats it.
+            if (dlrHas2Card)
+                return Outcome.DEALER_PONTOON;
+            return dlrHas5Card ? Outcome.TRICK_PUSH : Outcome.PLAYER_TRICK;
+        } else if (plyTotal > TWENTY_ONE) {
+            return Outcome.PLAYER_BUST;
+        } else if (dlrTotal > TWENTY_ONE) {
+            return Outcome.DEALER_BUST;
+        } else if (plyTotal >= dlrTotal) {
+            return Outcome.PLAYER_HIGHER;
+        }
+        return Outcome.DEALER_HIGHER;
+    }
+
+    /**
+     * Compares a players {@link Hand} against the dealers {@link Hand} once
+     * the dealer has played.
+     *
+     * @param player The {@link Hand} of the player.
+     * @param dealer The {@link Hand} of the dealer.
+     * @return The {@link Outcome} of the hand.
+     * @since 1.0
+     */
+    public static Outcome settle(Hand player, Hand dealer)
+    {
+        return settle(player.total(), player.size(),
+                dealer.total(), dealer.size());
+    }
+
+    /**
+     * Works out how many credits the dealers bank gains from a settled hand.
+     * Negative values are paid out of the bank.
+     *
+     * @param outcome The {@link Outcome} of the hand.
+     * @param bet The bet the player placed as an int.
+     * @return The change in the bank balance as an int.
+     * @since 1.0
+     */
+    public static int houseDelta(Outcome outcome, int bet)
+    {
+        return houseDelta(outcome.isPlayerWin(), outcome.isPontoon(), bet);
+    }
+
+    /**
+     * Works out how many credits the dealers bank gains from a settled hand.
+     * Negative values are paid out of the bank.
+     *
+     * @param playerWin Set to true if the player won the hand.
+     * @param pontoon Set to true if the player won with a Pontoon.
+     * @param bet The bet the player placed as an int.
+     * @return The change in the bank balance as an int.
+     * @since 1.0
+     */
+    public static int houseDelta(boolean playerWin, boolean pontoon, int bet)
+    {
+        if (!playerWin)
+            return bet;
+        return pontoon ? -(bet/2) : 0;
+    }
+
+    /**
+     * Works out the most a bet can cost the dealers bank, which is what the
+     * bank reserves when the bet is placed.
+     *
+     * @param bet The bet the player placed as an int.
+     * @return The largest payout from the bank as an int.
+     * @since 1.1
+     */
+    public static int maxPayout(int bet)
+    {
+        return -houseDelta(true, true, bet);
+    }
+
+    /**
+     * Works out the largest bet a bank can cover.
+     *
+     * @param available The credits the bank has not reserved.
+     * @return The largest bet whose {@link PontoonRules#maxPayout(int)} fits
+     * in the available credits, or zero if none does.
+     * @since 1.1
+     */
+    public static int largestBet(long available)
+    {
+        if (available < 0) return 0;
+        return (int)Math.min(Integer.MAX_VALUE, available * 2 + 1);
+    }
+
+    /**
+     * Works out how many credits a client game returns to a player
+     * once a hand is settled. The bet is taken from the player when the game
+     * starts, so a loss returns nothing.
+     *
+     * @param playerWin Set to true if the player won the hand.
+     * @param pontoon Set to true if the player won with a Pontoon.
+     * @param bet The bet the player placed as an int.
+     * @return The credits to add back to the player balance as an int.
+     * @since 1.0
+     */
+    public static int playerReturn(boolean playerWin, boolean pontoon,
+            int bet)
+    {
+        if (!playerWin)
+            return 0;
+        return pontoon ? (int)(bet*1.5f) : bet;
+    }
+
+    /**
+     * Works out the best score for a set of {@link Card}s, counting one Ace
+     * high if doing so does not go over 21.
+     *
+     * @param hardTotal The score of the cards with every Ace counted as one.
+     * @param aces The number of Aces in the cards.
+     * @return The best score as an int.
+     * @since 1.0
+     */
+    public static int bestTotal(int hardTotal, int aces)
+    {
+        if (aces > 0 && hardTotal + ACE_BONUS <= TWENTY_ONE)
+            return hardTotal + ACE_BONUS;
+        return hardTotal;
+    }
+
+    /**
+     * Decides whether a player playing to a threshold, as the robot player 
+     * does, takes another card. The 
+     * total is the hand as its Aces are currently counted, which is not 
+     * always the best score: Aces are dealt low and only raised straight 
+     * after a twist.
+     *
+     * @param total The score of the hand with its Aces as currently played.
+     * @param threshold The score the player sticks at.
+     * @return Returns true to twist, false to stick.
+     * @since 1.2
+     */
+    public static boolean thresholdTwist(int total, int threshold)
+    {
+        return total < threshold;
+    }
+
+    /**
+     * Decides whether a player playing to a threshold raises a low Ace to 11 
+     * points after a twist, before the new card arrives.
+     *
+     * @param total The score of the hand with its Aces as currently played.
+     * @return Returns true if the Ace should count as 11 points.
+     * @since 1.2
+     */
+    public static boolean raiseAce(int total)
+    {
+        return total + ACE_BONUS <= TWENTY_ONE;
+    }
+
+    /**
+     * Decides whether the dealer plays an Ace high or low before drawing
+     * another card. The dealer plays Aces high when that still leaves them
+     * short of the players score, otherwise the Aces are dropped low again.
+     *
+     * @param high The current state of the Ace.
+     * @param dlrTotal The dealers score before drawing.
+     * @param plyScore The score of the player the dealer is playing against.
+     * @return Returns true if the Ace should count as 11 points.
+     * @since 1.0
+     */
+    public static boolean dealerAceHigh(boolean high, int dlrTotal,
+            int plyScore)
+    {
+        if (!high && (dlrTotal + ACE_BONUS) < plyScore) {
+            return true;
+        } else if ((dlrTotal - ACE_BONUS) <= TWENTY_ONE) {
+            return false;
+        }
+        return high;
+    }
+
+    /**
+     * Lets the dealer take their turn. The dealer will keep drawing from the
+     * {@link CardSource} until their score beats the players score, or until
+     * it runs out of cards.
+     *
+     * @param dealer The {@link Hand} of the dealer.
+     * @param deck The {@link CardSource} to draw cards from.
+     * @param plyScore The score of the player to compare against.
+     * @return Returns true if the dealer has a score of 21 or lower, false
+     * otherwise.
+     * @since 1.0
+     */
+    public static boolean dealerPlay(Hand dealer, CardSource deck, 
+            int plyScore)
+    {
+        while (dealer.total() <= plyScore) {
+            int dlrTotal = dealer.total();
+            for (Card c : dealer.getCards()) {
+                if (c.Rank == CardRank.ACE) {
+                    c.setAceHigh(
+                            dealerAceHigh(c.isAceHigh(), dlrTotal, plyScore));
+                }
+            }
+
+            Card next = deck.draw();
+            if (next == null) {
+                logger.log(Level.FINE, "Deck emptied.");
+                break;
+            }
+            dealer.addCard(next);
+        }
+        return (dealer.total() <= TWENTY_ONE);
+    }
+}
@@ -0,0 +1,423 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.client.RoboPlayer;
+import distributedpontoon.server.Server;
+import distributedpontoon.shared.PontoonRules;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A Monte-Carlo tool for sizing the {@link Server} bank and bet limits. For
+ * each bet size a number of independent trials are played, each trial running
+ * a bank through a fixed number of hands against {@link RoboPlayer}s using
+ * their random threshold tactic. The house edge and its variance are measured
+ * over every hand, and the ruin probability is the share of trials where the
+ * bank ran out of credits.
+ * <p>
+ * Trials are spread across every core with a {@link ForkJoinPool}. Each trial
+ * is seeded from the run seed, the bet size and the trial number, so a run is
+ * repeatable regardless of the number of threads used.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-04
+ */
+public class BankRiskCalculator
+{
+    /** The z-score for a two sided 95% confidence interval. */
+    public static final double Z_95 = 1.959964;
+    /** The number of trials played by a single task before it is split. */
+    private static final int TRIAL_BATCH = 8;
+    /** The number of random thresholds a {@link RoboPlayer} picks from. */
+    private static final int ROBO_THRESHOLDS = 21;
+
+    /** The pool the trials run on. */
+    private final ForkJoinPool pool;
+    /** The strategies to play with, one is picked at random per hand. */
+    private final PlayerStrategy[] strategies;
+
+    /**
+     * Creates a new {@link BankRiskCalculator} that plays against players
+     * with a random threshold, in the same way as a {@link RoboPlayer}.
+     *
+     * @param threads The number of threads to use as an int.
+     * @since 1.0
+     */
+    public BankRiskCalculator(int threads)
+    {
+        this.pool = new ForkJoinPool(threads);
+        this.strategies = new PlayerStrategy[ROBO_THRESHOLDS];
+        for (int i = 0; i < ROBO_THRESHOLDS; i++)
+            strategies[i] = new ThresholdStrategy(i);
+    }
+
+    /**
+     * Creates a new {@link BankRiskCalculator} that plays against players
+     * all using the specified {@link PlayerStrategy}.
+     *
+     * @param threads The number of threads to use as an int.
+     * @param strategy The {@link PlayerStrategy} for every player.
+     * @since 1.0
+     */
+    public BankRiskCalculator(int threads, PlayerStrategy strategy)
+    {
+        this.pool = new ForkJoinPool(threads);
+        this.strategies = new PlayerStrategy[] { strategy };
+    }
+
+    /**
+     * Runs the trials for a single bet size.
+     *
+     * @param bet The bet placed on every hand as an int.
+     * @param bank The starting bank balance as an int.
+     * @param hands The number of hands played in each trial as an int.
+     * @param trials The number of trials to play as an int.
+     * @param seed The seed for the run as a long.
+     * @return The {@link RiskResult} for the bet size.
+     * @since 1.0
+     */
+    public RiskResult run(int bet, int bank, int hands, int trials,
+            long seed)
+    {
+        // Give every bet size its own streams of random numbers.
+        long betSeed = PontoonEngine.mixSeed(seed, bet);
+        return pool.invoke(new RiskTask(strategies, bet, bank, hands,
+                betSeed, 0, trials));
+    }
+
+    /**
+     * Stops the threads used by this {@link BankRiskCalculator}.
+     *
+     * @since 1.0
+     */
+    public void shutdown() { pool.shutdown(); }
+
+    /**
+     * The results of the trials for a single bet size.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    public static final class RiskResult
+    {
+        /** The bet placed on each hand. */
+        private final int bet;
+        /** Totals for every hand played. */
+        private final SimulationResult hands;
+        /** The number of trials played. */
+        private long trials;
+        /** The number of trials where the bank ran out of credits. */
+        private long ruined;
+
+        /**
+         * Creates a new empty {@link RiskResult}.
+         *
+         * @param bet The bet placed on each hand as an int.
+         * @since 1.0
+         */
+        private RiskResult(int bet)
+        {
+            this.bet = bet;
+            this.hands = new SimulationResult();
+            this.trials = 0;
+            this.ruined = 0;
+        }
+
+        /**
+         * Adds the totals from another {@link RiskResult} to this one.
+         *
+         * @param other The {@link RiskResult} to add.
+         * @return This {@link RiskResult} for chaining.
+         * @since 1.0
+         */
+        private RiskResult merge(RiskResult other)
+        {
+            hands.merge(other.hands);
+            trials += other.trials;
+            ruined += other.ruined;
+            return this;
+        }
+
+        /**
+         * Gets the bet size these results are for.
+         *
+         * @return The bet as an int.
+         * @since 1.0
+         */
+        public int getBet() { return bet; }
+
+        /**
+         * Gets the totals for every hand played.
+         *
+         * @return A {@link SimulationResult} for every hand.
+         * @since 1.0
+         */
+        public SimulationResult getHands() { return hands; }
+
+        /**
+         * Gets the share of each bet the bank keeps on average.
+         *
+         * @return The house edge as a fraction of the bet.
+         * @since 1.0
+         */
+        public double getHouseEdge() { return hands.getMean() / bet; }
+
+        /**
+         * Gets the half width of the 95% confidence interval for the house
+         * edge.
+         *
+         * @return The margin of error as a fraction of the bet.
+         * @since 1.0
+         */
+        public double getHouseEdgeMargin()
+        {
+            if (hands.getHands() == 0) return 0;
+            return Z_95 * Math.sqrt(hands.getVariance() / hands.getHands())
+                    / bet;
+        }
+
+        /**
+         * Gets the share of trials where the bank ran out of credits.
+         *
+         * @return The ruin probability as a double.
+         * @since 1.0
+         */
+        public double getRuinProbability()
+        {
+            return trials == 0 ? 0 : (double)ruined / trials;
+        }
+
+        /**
+         * Gets the 95% Wilson score interval for the ruin probability. Unlike
+         * the normal approximation this stays within zero and one when ruin
+         * is rare.
+         *
+         * @return A two element array of the lower and upper bounds.
+         * @since 1.0
+         */
+        public double[] getRuinInterval()
+        {
+            if (trials == 0) return new double[] { 0, 1 };
+            double n = trials;
+            double p = getRuinProbability();
+            double z2 = Z_95 * Z_95;
+            double centre = (p + z2 / (2 * n)) / (1 + z2 / n);
+            double margin = (Z_95 / (1 + z2 / n))
+                    * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+            return new double[] {
+                Math.max(0, centre - margin), Math.min(1, centre + margin)
+            };
+        }
+
+        /**
+         * Gives a single line summary of these results.
+         *
+         * @return A String containing the details of this {@link
+         * RiskResult}.
+         * @since 1.0
+         * @see Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            double[] ruin = getRuinInterval();
+            return String.format("%8d | %8.3f%% +/- %6.3f%% | %10.2f | "
+                    + "%8.5f [%.5f, %.5f]",
+                    bet, 100 * getHouseEdge(), 100 * getHouseEdgeMargin(),
+                    Math.sqrt(hands.getVariance()),
+                    getRuinProbability(), ruin[0], ruin[1]);
+        }
+    }
+
+    /**
+     * Plays a range of trials, splitting the range in half until only a small
+     * batch is left.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    private static final class RiskTask extends RecursiveTask<RiskResult>
+    {
+        /** Serialisation ID. */
+        private static final long serialVersionUID = -5021786424712046833L;
+        /** The strategies to pick from for each hand. */
+        private final PlayerStrategy[] strategies;
+        /** The bet placed on each hand. */
+        private final int bet;
+        /** The starting bank for each trial. */
+        private final int bank;
+        /** The number of hands in each trial. */
+        private final int hands;
+        /** The seed for this bet size. */
+        private final long seed;
+        /** The first trial to play. */
+        private final int from;
+        /** The trial after the last one to play. */
+        private final int to;
+
+        RiskTask(PlayerStrategy[] strategies, int bet, int bank, int hands,
+                long seed, int from, int to)
+        {
+            this.strategies = strategies;
+            this.bet = bet;
+            this.bank = bank;
+            this.hands = hands;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected RiskResult compute()
+        {
+            if (to - from > TRIAL_BATCH) {
+                int mid = (from + to) >>> 1;
+                RiskTask left = new RiskTask(strategies, bet, bank, hands,
+                        seed, from, mid);
+                RiskTask right = new RiskTask(strategies, bet, bank, hands,
+                        seed, mid, to);
+                left.fork();
+                RiskResult result = right.compute();
+                return result.merge(left.join());
+            }
+
+            RiskResult result = new RiskResult(bet);
+            for (int trial = from; trial < to; trial++) {
+                PontoonEngine engine =
+                        new PontoonEngine(PontoonEngine.mixSeed(seed, trial));
+                long balance = bank;
+                boolean ruined = false;
+                for (int i = 0; i < hands; i++) {
+                    PlayerStrategy strategy = strategies.length == 1
+                            ? strategies[0]
+                            : strategies[engine.nextInt(strategies.length)];
+                    PontoonRules.Outcome outcome = engine.playHand(strategy);
+                    result.hands.record(outcome, bet);
+                    balance += PontoonRules.houseDelta(outcome, bet);
+                    // The server treats an empty bank as run out.
+                    if (balance <= 0)
+                        ruined = true;
+                }
+                result.trials++;
+                if (ruined)
+                    result.ruined++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Runs the calculator from the command line and prints a table of the
+     * results for each bet size.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args)
+    {
+        int bank = 50000;
+        int hands = 10000;
+        int trials = 2000;
+        Integer threshold = null;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<Integer> bets = new ArrayList<>();
+        /* handle the command line parameters if any were passed. */
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--bank":
+                        bank = Integer.parseInt(args[++i]);
+                        break;
+                    case "--bets":
+                        for (String b : args[++i].split(","))
+                            bets.add(Integer.parseInt(b.trim()));
+                        break;
+                    case "--hands":
+                        hands = Integer.parseInt(args[++i]);
+                        break;
+                    case "--trials":
+                        trials = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threshold":
+                        threshold = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(helpMessage());
+                        return;
+                    default:
+                        System.err.printf("Unknown argument '%s'%n", args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println("Argument values must be numbers.");
+            return;
+        }
+        if (threads <= 0 || hands <= 0 || trials <= 0) {
+            System.err.println("Threads, hands and trials must be greater "
+                    + "than zero.");
+            return;
+        }
+        if (bets.isEmpty()) {
+            bets.add(10);
+            bets.add(50);
+            bets.add(100);
+            bets.add(500);
+            bets.add(5000);
+        }
+
+        BankRiskCalculator calc = threshold == null
+                ? new BankRiskCalculator(threads)
+                : new BankRiskCalculator(threads,
+                        new ThresholdStrategy(threshold));
+        System.out.printf("Bank %d, %d trials of %d hands per bet, "
+                + "seed %d, %d threads.%n", bank, trials, hands, seed,
+                threads);
+        System.out.printf("%8s | %23s | %10s | %s%n",
+                "Bet", "House edge (95% CI)", "Std dev", "Ruin (95% CI)");
+
+        long start = System.nanoTime();
+        for (int bet : bets) {
+            if (bet <= 0) {
+                System.err.printf("Skipping invalid bet %d.%n", bet);
+                continue;
+            }
+            System.out.println(calc.run(bet, bank, hands, trials, seed));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        calc.shutdown();
+        System.out.printf("Finished in %.2fs.%n", seconds);
+    }
+
+    /**
+     * Creates a help message for the {@link BankRiskCalculator} command line
+     * arguments.
+     *
+     * @return A String containing the help message.
+     * @since 1.0
+     */
+    private static String helpMessage()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Pontoon Bank Risk Calculator Help:\n");
+        sb.append("\tCommand [options] - Action\n");
+        sb.append("\t--bank [credits] - The starting bank balance.\n");
+        sb.append("\t--bets [bet,bet,...] - The bet sizes to test.\n");
+        sb.append("\t--hands [hands] - The number of hands in each trial.\n");
+        sb.append("\t--trials [trials] - The number of trials per bet.\n");
+        sb.append("\t--threshold [score] - Use a fixed threshold instead of "
+                + "random robot thresholds.\n");
+        sb.append("\t--seed [seed] - Seeds the run to make it repeatable.\n");
+        sb.append("\t--threads [threads] - The number of threads to use.\n");
+        sb.append("\t--help (-h) - Displays this help message.\n");
+
+        return sb.toString();
+    }
+}
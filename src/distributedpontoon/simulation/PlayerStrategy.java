@@ -0,0 +1,44 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.client.IPlayer;
+
+/**
+ * A decision rule for a player in a simulated game of Pontoon. Strategies are 
+ * asked for a move each time the player could take a card, in the same way 
+ * an {@link IPlayer} is asked to play when its game receives a turn notify 
+ * message. Implementations are shared between the simulation threads, so they 
+ * must not keep any per-hand state.
+ * 
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-02
+ */
+public interface PlayerStrategy
+{
+    /**
+     * Decides whether the player should take another card.
+     * 
+     * @param total The best score of the players hand, counting one Ace high 
+     * if that does not go over 21.
+     * @param cards The number of cards in the players hand.
+     * @param soft Set to true if the total counts an Ace as 11 points.
+     * @return Returns true to twist, false to stick.
+     * @since 1.0
+     */
+    public boolean twist(int total, int cards, boolean soft);
+    
+    /**
+     * Checks whether the player counts its Aces as a {@link 
+     * distributedpontoon.client.RoboPlayer} playing to a threshold does: 
+     * every Ace low as dealt, one raised to 11 points straight after a twist 
+     * if that does not go over 21, and lowered again if the next card would 
+     * bust the hand. The total passed to {@link PlayerStrategy#twist(int, 
+     * int, boolean)} is then the hand as counted this way, rather than its 
+     * best score.
+     * 
+     * @return Returns true to count Aces as played, false to be given the 
+     * best score.
+     * @since 1.1
+     */
+    public boolean countsAcesAsPlayed();
+}
@@ -0,0 +1,209 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.server.Deck;
+import distributedpontoon.server.SinglePlayerGame;
+import distributedpontoon.shared.Card;
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
+
+/**
+ * Plays single player hands of Pontoon in-process, without any sockets or
+ * threads. The engine follows the same rules as a {@link SinglePlayerGame};
+ * a fresh {@link Deck} is shuffled for each hand, the player and dealer are
+ * dealt two cards each and the dealer plays against the players score using
+ * {@link PontoonRules}.
+ * <p>
+ * Cards are stored as their point values (Aces as one) and the deck is only
+ * shuffled as far as the cards drawn, so a hand costs a handful of random
+ * numbers and no allocation. An engine is not thread safe, each simulation
+ * thread should own one.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-02
+ */
+public class PontoonEngine
+{
+    /** The number of cards in a full deck. */
+    public static final int DECK_SIZE = 52;
+    /** The point values of every card in a full deck. */
+    private static final int[] FULL_DECK;
+
+    static {
+        FULL_DECK = new int[DECK_SIZE];
+        int i = 0;
+        for (Card.CardSuit suit : Card.CardSuit.values()) {
+            for (Card.CardRank rank : Card.CardRank.values()) {
+                FULL_DECK[i++] = new Card(suit, rank).getValue();
+            }
+        }
+    }
+
+    /** The point values of the cards in the deck, drawn cards at the end. */
+    private final int[] cards;
+    /** The number of cards left to draw. */
+    private int remaining;
+    /** The state of the random number generator. */
+    private long state;
+
+    /**
+     * Creates a new {@link PontoonEngine} that shuffles using the specified
+     * seed. Two engines with the same seed and strategies play identical
+     * hands.
+     *
+     * @param seed The seed for the random number generator as a long.
+     * @since 1.0
+     */
+    public PontoonEngine(long seed)
+    {
+        this.cards = FULL_DECK.clone();
+        this.remaining = DECK_SIZE;
+        // Xorshift generators cannot leave the zero state.
+        this.state = mixSeed(seed, 0) | 1L;
+    }
+
+    /**
+     * Derives an independent seed for a numbered stream of hands from a base
+     * seed. Uses the SplitMix64 finaliser so neighbouring stream numbers give
+     * unrelated seeds.
+     *
+     * @param seed The base seed as a long.
+     * @param stream The number of the stream as a long.
+     * @return A new seed as a long.
+     * @since 1.0
+     */
+    public static long mixSeed(long seed, long stream)
+    {
+        long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets a random number between zero (inclusive) and the specified bound
+     * (exclusive) from this engines generator.
+     *
+     * @param bound The upper bound as a positive int.
+     * @return A random int.
+     * @since 1.0
+     */
+    public int nextInt(int bound)
+    {
+        // Xorshift64* step, scaled into range with a multiply.
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        long r = (state * 0x2545F4914F6CDD1DL) >>> 32;
+        return (int)((r * bound) >>> 32);
+    }
+
+    /**
+     * Returns every card to the deck. The cards do not need to be put back in
+     * order as each draw picks a random card from those remaining.
+     *
+     * @since 1.0
+     */
+    private void reset() { remaining = DECK_SIZE; }
+
+    /**
+     * Draws a random card from the deck.
+     *
+     * @return The point value of the card drawn, Aces are worth one.
+     * @since 1.0
+     */
+    private int draw()
+    {
+        int i = nextInt(remaining);
+        int last = --remaining;
+        int value = cards[i];
+        cards[i] = cards[last];
+        cards[last] = value;
+        return value;
+    }
+
+    /**
+     * Plays a single hand of Pontoon with the player making their moves with
+     * the specified {@link PlayerStrategy}.
+     *
+     * @param strategy The {@link PlayerStrategy} to play the hand with.
+     * @return The {@link Outcome} of the hand.
+     * @since 1.0
+     */
+    public Outcome playHand(PlayerStrategy strategy)
+    {
+        reset();
+        // Deal in the same order as a single player game.
+        int p1 = draw();
+        int d1 = draw();
+        int p2 = draw();
+        int d2 = draw();
+
+        int plyHard = p1 + p2;
+        int plyAces = (p1 == 1 ? 1 : 0) + (p2 == 1 ? 1 : 0);
+        int plyCards = 2;
+        int plyTotal;
+        if (strategy.countsAcesAsPlayed()) {
+            // Follow the Aces as a RoboPlayer plays them: dealt low, raised 
+            // straight after a twist, and lowered if the next card busts.
+            int plyHigh = 0;
+            plyTotal = plyHard;
+            while (plyTotal <= PontoonRules.TWENTY_ONE && remaining > 0
+                    && strategy.twist(plyTotal, plyCards, plyHigh > 0)) {
+                while (plyHigh < plyAces && PontoonRules.raiseAce(plyTotal)) {
+                    plyHigh++;
+                    plyTotal += PontoonRules.ACE_BONUS;
+                }
+                int c = draw();
+                plyHard += c;
+                if (c == 1) plyAces++;
+                plyCards++;
+                while (plyHigh > 0 && plyHard 
+                        + (plyHigh * PontoonRules.ACE_BONUS) 
+                        > PontoonRules.TWENTY_ONE)
+                    plyHigh--;
+                plyTotal = plyHard + (plyHigh * PontoonRules.ACE_BONUS);
+            }
+        } else {
+            plyTotal = PontoonRules.bestTotal(plyHard, plyAces);
+            while (plyHard <= PontoonRules.TWENTY_ONE && remaining > 0
+                    && strategy.twist(plyTotal, plyCards, 
+                            plyTotal != plyHard)) {
+                int c = draw();
+                plyHard += c;
+                if (c == 1) plyAces++;
+                plyCards++;
+                plyTotal = PontoonRules.bestTotal(plyHard, plyAces);
+            }
+        }
+
+        if (plyTotal > PontoonRules.TWENTY_ONE) {
+            // The dealer cannot change the result against a bust player.
+            return Outcome.PLAYER_BUST;
+        }
+
+        int dlrHard = d1 + d2;
+        int dlrLow = (d1 == 1 ? 1 : 0) + (d2 == 1 ? 1 : 0);
+        int dlrHigh = 0;
+        int dlrCards = 2;
+        int dlrTotal = dlrHard;
+        while (dlrTotal <= plyTotal && remaining > 0) {
+            // Every low Ace and every high Ace is treated the same way.
+            int high = 0;
+            if (PontoonRules.dealerAceHigh(false, dlrTotal, plyTotal))
+                high += dlrLow;
+            if (PontoonRules.dealerAceHigh(true, dlrTotal, plyTotal))
+                high += dlrHigh;
+            dlrLow = (dlrLow + dlrHigh) - high;
+            dlrHigh = high;
+
+            int c = draw();
+            dlrHard += c;
+            if (c == 1) dlrLow++;
+            dlrCards++;
+            dlrTotal = dlrHard + (dlrHigh * PontoonRules.ACE_BONUS);
+        }
+
+        return PontoonRules.settle(plyTotal, plyCards, dlrTotal, dlrCards);
+    }
+}
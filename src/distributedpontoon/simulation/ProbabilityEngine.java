@@ -0,0 +1,530 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.server.Deck;
+import distributedpontoon.shared.Card;
+import distributedpontoon.shared.Hand;
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Calculates exact odds for a hand of Pontoon by enumerating every card the
+ * remaining {@link Deck} could produce. The dealer plays with the same rules
+ * as {@link PontoonRules#dealerPlay(Hand, Deck, int)}, drawing their two
+ * hidden cards and then drawing until they beat the players score.
+ * <p>
+ * The remaining deck is described by how many cards of each point value are
+ * left, packed into a single long, so decks holding the same values in any
+ * order are one position. Every dealer and player position that has been
+ * worked out is cached against that key, so repeated decisions from similar
+ * decks are answered from the cache. The dealer is only followed as far as
+ * the expected value of the players hand, not the full spread of dealer
+ * scores, and each cache is a fixed table where a new position replaces the
+ * one it collides with, so the memory an engine uses never grows. An engine
+ * is not thread safe, each thread should own one.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-06
+ */
+public class ProbabilityEngine
+{
+    /** The highest point value of a card, all picture cards are worth 10. */
+    public static final int MAX_VALUE = 10;
+    /** The highest score a dealer can finish on. */
+    public static final int MAX_TOTAL = 31;
+    /** The number of positions each cache holds, a power of two. */
+    public static final int MAX_CACHE = 1 << 19;
+
+    /** The bit offset of each card value in a packed deck key. */
+    private static final int[] SHIFT = {
+        0, 0, 3, 6, 9, 12, 15, 18, 21, 24, 27
+    };
+    /** Dealer finishing positions that are not a 2 or 5 card 21. */
+    private static final int PLAIN = 0;
+    /** A dealer finishing on a 2 card 21. */
+    private static final int TWO_CARD = 1;
+    /** A dealer finishing on a 5 card 21. */
+    private static final int FIVE_CARD = 2;
+    /** The number of kinds of dealer finishing position. */
+    private static final int KINDS = 3;
+    /** Shared distributions for a dealer that has stopped drawing. */
+    private static final double[][] FINISHED;
+
+    static {
+        FINISHED = new double[(MAX_TOTAL + 1) * KINDS][];
+        for (int i = 0; i < FINISHED.length; i++) {
+            FINISHED[i] = new double[(MAX_TOTAL + 1) * KINDS];
+            FINISHED[i][i] = 1;
+        }
+    }
+
+    /**
+     * A fixed size cache of expected values keyed by position. Each key has
+     * a single slot, and a new position simply replaces whatever was there,
+     * so a lookup costs one probe and nothing is ever allocated.
+     *
+     * @version 1.1
+     * @since 1.1
+     */
+    private static final class Memo
+    {
+        /** Marks an empty slot, no position packs to every bit set. */
+        private static final long EMPTY = -1L;
+        /** The number of bits used to pick a slot. */
+        private final int bits;
+        /** The key held in each slot. */
+        private final long[] keys;
+        /** The value held in each slot. */
+        private final double[] values;
+
+        /**
+         * Creates a new, empty {@link Memo}.
+         *
+         * @param size The number of slots, a power of two.
+         * @since 1.1
+         */
+        Memo(int size)
+        {
+            this.bits = Integer.numberOfTrailingZeros(size);
+            this.keys = new long[size];
+            this.values = new double[size];
+            clear();
+        }
+
+        /**
+         * Picks the slot for a key, mixing the bits so similar decks spread
+         * across the table.
+         *
+         * @since 1.1
+         */
+        private int slot(long key)
+        {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+        }
+
+        /**
+         * Gets the value cached for a position.
+         *
+         * @param key The packed position.
+         * @return The value, or NaN if it is not cached.
+         * @since 1.1
+         */
+        double get(long key)
+        {
+            int i = slot(key);
+            return keys[i] == key ? values[i] : Double.NaN;
+        }
+
+        /**
+         * Caches the value for a position, replacing the one in its slot.
+         *
+         * @param key The packed position.
+         * @param value The value to cache.
+         * @since 1.1
+         */
+        void put(long key, double value)
+        {
+            int i = slot(key);
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * Empties every slot.
+         *
+         * @since 1.1
+         */
+        void clear() { Arrays.fill(keys, EMPTY); }
+    }
+
+    /** Cached expected values of a dealer playing out, keyed by position. */
+    private final Memo dealerCache;
+    /** Cached player expected values keyed by position. */
+    private final Memo playerCache;
+
+    /**
+     * Creates a new {@link ProbabilityEngine} with empty caches.
+     *
+     * @since 1.0
+     */
+    public ProbabilityEngine()
+    {
+        this.dealerCache = new Memo(MAX_CACHE);
+        this.playerCache = new Memo(MAX_CACHE);
+    }
+
+    /**
+     * The expected value of each move the player can make, measured in bets.
+     * A value of -1 loses the whole bet and 0.5 wins a Pontoon.
+     *
+     * @version 1.0
+     * @since 1.0
+     */
+    public static final class Odds
+    {
+        /** The expected value of sticking. */
+        public final double Stand;
+        /** The expected value of twisting and then playing on perfectly. */
+        public final double Twist;
+
+        /**
+         * Creates a new set of {@link Odds}.
+         *
+         * @param stand The expected value of sticking.
+         * @param twist The expected value of twisting.
+         * @since 1.0
+         */
+        public Odds(double stand, double twist)
+        {
+            this.Stand = stand;
+            this.Twist = twist;
+        }
+
+        /**
+         * Checks which move is better.
+         *
+         * @return Returns true if twisting has the higher expected value.
+         * @since 1.0
+         */
+        public boolean shouldTwist() { return Twist > Stand; }
+
+        /**
+         * Gives the expected values of both moves.
+         *
+         * @return A String containing the details of these {@link Odds}.
+         * @since 1.0
+         * @see Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("Stand: %.5f - Twist: %.5f", Stand, Twist);
+        }
+    }
+
+    /**
+     * Creates the card counts for a full {@link Deck}.
+     *
+     * @return An array of card counts indexed by point value (1 to 10).
+     * @since 1.0
+     */
+    public static int[] fullDeck()
+    {
+        int[] deck = new int[MAX_VALUE + 1];
+        for (Card c : Card.ALL_CARDS)
+            deck[valueOf(c)]++;
+        return deck;
+    }
+
+    /**
+     * Gets the point value of a {@link Card}, counting Aces as one.
+     *
+     * @param c The {@link Card} to value.
+     * @return The point value as an int.
+     * @since 1.0
+     */
+    public static int valueOf(Card c)
+    {
+        return c.Rank == Card.CardRank.ACE ? 1 : c.getValue();
+    }
+
+    /**
+     * Packs a set of card counts into a key. Values one to nine take three
+     * bits each and ten takes five bits, using 32 bits in all.
+     *
+     * @param deck The card counts indexed by point value.
+     * @return The packed deck as a long.
+     * @since 1.0
+     */
+    public static long pack(int[] deck)
+    {
+        long key = 0;
+        for (int v = 1; v <= MAX_VALUE; v++)
+            key |= ((long)deck[v]) << SHIFT[v];
+        return key;
+    }
+
+    /**
+     * Clears the cached positions.
+     *
+     * @since 1.0
+     */
+    public void clearCache()
+    {
+        dealerCache.clear();
+        playerCache.clear();
+    }
+
+    /**
+     * Works out how likely the dealer is to finish on each score when
+     * playing against the specified player score.
+     *
+     * @param deck The card counts left in the deck, indexed by point value.
+     * The array is used while working but is left unchanged.
+     * @param plyScore The score the player is sticking on.
+     * @return An array of probabilities indexed by the dealers final score.
+     * @since 1.0
+     */
+    public double[] dealerDistribution(int[] deck, int plyScore)
+    {
+        double[] dist = dealer(deck, pack(deck), count(deck), 0, 0, 0, 0,
+                plyScore, new HashMap<Long, double[]>());
+        double[] totals = new double[MAX_TOTAL + 1];
+        for (int i = 0; i < dist.length; i++)
+            totals[i / KINDS] += dist[i];
+        return totals;
+    }
+
+    /**
+     * Works out the expected value of sticking and twisting for a players
+     * {@link Hand}. The dealers cards are unknown, so the deck is every card
+     * not held by the player.
+     *
+     * @param hand The players {@link Hand}.
+     * @return The {@link Odds} for the hand.
+     * @since 1.0
+     */
+    public Odds evaluate(Hand hand)
+    {
+        int[] deck = fullDeck();
+        int hard = 0;
+        int aces = 0;
+        for (Card c : hand.getCards()) {
+            int v = valueOf(c);
+            deck[v]--;
+            hard += v;
+            if (v == 1) aces++;
+        }
+        return evaluate(deck, hard, aces, hand.size());
+    }
+
+    /**
+     * Works out the expected value of sticking and twisting for a player
+     * position.
+     *
+     * @param deck The card counts left in the deck, indexed by point value.
+     * The array is used while working but is left unchanged.
+     * @param hard The players score counting every Ace as one.
+     * @param aces The number of Aces the player holds.
+     * @param cards The number of cards the player holds.
+     * @return The {@link Odds} for the position.
+     * @since 1.0
+     */
+    public Odds evaluate(int[] deck, int hard, int aces, int cards)
+    {
+        long key = pack(deck);
+        int remaining = count(deck);
+        return new Odds(stand(deck, key, remaining, hard, aces, cards),
+                twist(deck, key, remaining, hard, aces, cards));
+    }
+
+    /**
+     * Counts the cards left in a deck.
+     *
+     * @param deck The card counts indexed by point value.
+     * @return The number of cards as an int.
+     * @since 1.0
+     */
+    private static int count(int[] deck)
+    {
+        int n = 0;
+        for (int v = 1; v <= MAX_VALUE; v++)
+            n += deck[v];
+        return n;
+    }
+
+    /**
+     * Gets the players return in bets for a settled hand.
+     *
+     * @param outcome The {@link Outcome} of the hand.
+     * @return The net change for the player in bets.
+     * @since 1.0
+     */
+    private static double net(Outcome outcome)
+    {
+        // A bet of two avoids rounding the half bet paid on a Pontoon.
+        return -PontoonRules.houseDelta(outcome, 2) / 2.0;
+    }
+
+    /**
+     * Works out the expected value of sticking.
+     *
+     * @since 1.0
+     */
+    private double stand(int[] deck, long deckKey, int remaining, int hard,
+            int aces, int cards)
+    {
+        if (hard > PontoonRules.TWENTY_ONE) return -1;
+        int total = PontoonRules.bestTotal(hard, aces);
+        long key = deckKey | ((long)hard << 32) | ((long)aces << 38)
+                | ((long)Math.min(cards, 15) << 41);
+        double cached = playerCache.get(key);
+        if (!Double.isNaN(cached)) return cached;
+
+        double ev = dealerPlay(deck, deckKey, remaining, 0, 0, 0, 0, total,
+                cards);
+        playerCache.put(key, ev);
+        return ev;
+    }
+
+    /**
+     * Works out the expected value of twisting, then playing each following
+     * position with the better move.
+     *
+     * @since 1.0
+     */
+    private double twist(int[] deck, long deckKey, int remaining, int hard,
+            int aces, int cards)
+    {
+        if (hard > PontoonRules.TWENTY_ONE) return -1;
+        if (remaining == 0)
+            return stand(deck, deckKey, remaining, hard, aces, cards);
+        long key = deckKey | ((long)hard << 32) | ((long)aces << 38)
+                | ((long)Math.min(cards, 15) << 41) | (1L << 45);
+        double cached = playerCache.get(key);
+        if (!Double.isNaN(cached)) return cached;
+
+        double ev = 0;
+        for (int v = 1; v <= MAX_VALUE; v++) {
+            int n = deck[v];
+            if (n == 0) continue;
+            double p = (double)n / remaining;
+            int nextHard = hard + v;
+            if (nextHard > PontoonRules.TWENTY_ONE) {
+                ev -= p;
+                continue;
+            }
+            int nextAces = aces + (v == 1 ? 1 : 0);
+            long nextKey = deckKey - (1L << SHIFT[v]);
+            deck[v]--;
+            double best = Math.max(
+                    stand(deck, nextKey, remaining - 1, nextHard, nextAces,
+                            cards + 1),
+                    twist(deck, nextKey, remaining - 1, nextHard, nextAces,
+                            cards + 1));
+            deck[v]++;
+            ev += p * best;
+        }
+        playerCache.put(key, ev);
+        return ev;
+    }
+
+    /**
+     * Works out the players expected value against a dealer playing out from
+     * the specified position. Only whether the player holds two, five or
+     * some other number of cards changes how a hand settles, so positions
+     * that differ in nothing else share a cache slot.
+     *
+     * @since 1.1
+     */
+    private double dealerPlay(int[] deck, long deckKey, int remaining,
+            int hard, int low, int high, int cards, int plyScore,
+            int plyCards)
+    {
+        int total = hard + high * PontoonRules.ACE_BONUS;
+        if (remaining == 0 || (cards >= 2 && total > plyScore))
+            return net(PontoonRules.settle(plyScore, plyCards, total, cards));
+
+        int plyKind = plyCards == 2 ? TWO_CARD
+                : plyCards == PontoonRules.TRICK_SIZE ? FIVE_CARD : PLAIN;
+        long key = deckKey | ((long)hard << 32) | ((long)low << 37)
+                | ((long)high << 40) | ((long)cards << 43)
+                | ((long)plyScore << 47) | ((long)plyKind << 52);
+        double cached = dealerCache.get(key);
+        if (!Double.isNaN(cached)) return cached;
+
+        if (cards >= 2) {
+            // The dealer reconsiders every Ace before drawing.
+            int nextHigh = 0;
+            if (PontoonRules.dealerAceHigh(false, total, plyScore))
+                nextHigh += low;
+            if (PontoonRules.dealerAceHigh(true, total, plyScore))
+                nextHigh += high;
+            low = (low + high) - nextHigh;
+            high = nextHigh;
+        }
+
+        double ev = 0;
+        for (int v = 1; v <= MAX_VALUE; v++) {
+            int n = deck[v];
+            if (n == 0) continue;
+            double p = (double)n / remaining;
+            deck[v]--;
+            ev += p * dealerPlay(deck, deckKey - (1L << SHIFT[v]),
+                    remaining - 1, hard + v, low + (v == 1 ? 1 : 0), high,
+                    cards + 1, plyScore, plyCards);
+            deck[v]++;
+        }
+        dealerCache.put(key, ev);
+        return ev;
+    }
+
+    /**
+     * Works out how likely the dealer is to finish in each position, starting
+     * from the specified position. The result is indexed by the final score
+     * multiplied by the number of kinds, plus the kind of finish.
+     *
+     * @since 1.0
+     */
+    private double[] dealer(int[] deck, long deckKey, int remaining, int hard,
+            int low, int high, int cards, int plyScore,
+            HashMap<Long, double[]> cache)
+    {
+        int total = hard + high * PontoonRules.ACE_BONUS;
+        if (remaining == 0 || (cards >= 2 && total > plyScore))
+            return finish(total, cards);
+
+        long key = deckKey | ((long)hard << 32) | ((long)low << 38)
+                | ((long)high << 41) | ((long)cards << 44)
+                | ((long)plyScore << 48);
+        double[] cached = cache.get(key);
+        if (cached != null) return cached;
+
+        if (cards >= 2) {
+            // The dealer reconsiders every Ace before drawing.
+            int nextHigh = 0;
+            if (PontoonRules.dealerAceHigh(false, total, plyScore))
+                nextHigh += low;
+            if (PontoonRules.dealerAceHigh(true, total, plyScore))
+                nextHigh += high;
+            low = (low + high) - nextHigh;
+            high = nextHigh;
+        }
+
+        double[] dist = new double[(MAX_TOTAL + 1) * KINDS];
+        for (int v = 1; v <= MAX_VALUE; v++) {
+            int n = deck[v];
+            if (n == 0) continue;
+            double p = (double)n / remaining;
+            deck[v]--;
+            double[] next = dealer(deck, deckKey - (1L << SHIFT[v]),
+                    remaining - 1, hard + v, low + (v == 1 ? 1 : 0), high,
+                    cards + 1, plyScore, cache);
+            deck[v]++;
+            for (int i = 0; i < dist.length; i++)
+                dist[i] += p * next[i];
+        }
+        cache.put(key, dist);
+        return dist;
+    }
+
+    /**
+     * Gets the distribution for a dealer that has stopped drawing. The
+     * returned array is shared and must not be changed.
+     *
+     * @since 1.0
+     */
+    private static double[] finish(int total, int cards)
+    {
+        int kind = PLAIN;
+        if (total == PontoonRules.TWENTY_ONE) {
+            if (cards == 2)
+                kind = TWO_CARD;
+            else if (cards == PontoonRules.TRICK_SIZE)
+                kind = FIVE_CARD;
+        }
+        return FINISHED[Math.min(total, MAX_TOTAL) * KINDS + kind];
+    }
+}
@@ -0,0 +1,143 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
+
+/**
+ * Totals collected from a run of simulated hands. Results from separate 
+ * threads are combined with {@link SimulationResult#merge(SimulationResult)}.
+ * 
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-02
+ */
+public class SimulationResult
+{
+    /** The number of hands played. */
+    private long hands;
+    /** The number of hands that finished with each {@link Outcome}. */
+    private final long[] outcomes;
+    /** The total credits the dealers bank won, negative if it lost. */
+    private long houseNet;
+    /** The sum of the squared bank changes, used for the variance. */
+    private double houseNetSquares;
+    
+    /**
+     * Creates a new empty {@link SimulationResult}.
+     * 
+     * @since 1.0
+     */
+    public SimulationResult()
+    {
+        this.hands = 0;
+        this.outcomes = new long[Outcome.values().length];
+        this.houseNet = 0;
+        this.houseNetSquares = 0;
+    }
+    
+    /**
+     * Records the result of a single hand.
+     * 
+     * @param outcome The {@link Outcome} of the hand.
+     * @param bet The bet placed on the hand as an int.
+     * @since 1.0
+     */
+    public void record(Outcome outcome, int bet)
+    {
+        int delta = PontoonRules.houseDelta(outcome, bet);
+        hands++;
+        outcomes[outcome.ordinal()]++;
+        houseNet += delta;
+        houseNetSquares += (double)delta * delta;
+    }
+    
+    /**
+     * Adds the totals from another {@link SimulationResult} to this one.
+     * 
+     * @param other The {@link SimulationResult} to add.
+     * @return This {@link SimulationResult} for chaining.
+     * @since 1.0
+     */
+    public SimulationResult merge(SimulationResult other)
+    {
+        hands += other.hands;
+        for (int i = 0; i < outcomes.length; i++)
+            outcomes[i] += other.outcomes[i];
+        houseNet += other.houseNet;
+        houseNetSquares += other.houseNetSquares;
+        return this;
+    }
+    
+    /**
+     * Gets the number of hands played.
+     * 
+     * @return The number of hands as a long.
+     * @since 1.0
+     */
+    public long getHands() { return hands; }
+    
+    /**
+     * Gets the number of hands that finished with the specified {@link 
+     * Outcome}.
+     * 
+     * @param outcome The {@link Outcome} to count.
+     * @return The number of hands as a long.
+     * @since 1.0
+     */
+    public long getCount(Outcome outcome) { return outcomes[outcome.ordinal()]; }
+    
+    /**
+     * Gets the total credits won by the dealers bank over every hand.
+     * 
+     * @return The net bank change as a long.
+     * @since 1.0
+     */
+    public long getHouseNet() { return houseNet; }
+    
+    /**
+     * Gets the average credits the bank wins per hand.
+     * 
+     * @return The mean bank change per hand as a double.
+     * @since 1.0
+     */
+    public double getMean()
+    {
+        return hands == 0 ? 0 : (double)houseNet / hands;
+    }
+    
+    /**
+     * Gets the sample variance of the bank change per hand.
+     * 
+     * @return The variance as a double.
+     * @since 1.0
+     */
+    public double getVariance()
+    {
+        if (hands < 2) return 0;
+        double mean = getMean();
+        return (houseNetSquares - hands * mean * mean) / (hands - 1);
+    }
+    
+    /**
+     * Gives a summary of the outcomes and the bank result.
+     * 
+     * @return A String containing the details of this {@link 
+     * SimulationResult}.
+     * @since 1.0
+     * @see Object#toString() 
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Hands played: %d%n", hands));
+        for (Outcome o : Outcome.values()) {
+            long count = getCount(o);
+            sb.append(String.format("\t%-15s %12d (%6.3f%%)%n", o, count, 
+                    hands == 0 ? 0 : 100.0 * count / hands));
+        }
+        sb.append(String.format("Bank net: %d%n", houseNet));
+        sb.append(String.format("Bank mean per hand: %.5f", getMean()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package distributedpontoon.simulation;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays a range of batches of simulated hands on a fork/join pool. The range 
+ * is split in half until a single batch is left, which is then played on one 
+ * {@link PontoonEngine}. Each batch seeds its engine from the batch number, so
+ *  the results do not depend on how the work was spread across threads.
+ * 
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-02
+ */
+public class SimulationTask extends RecursiveTask<SimulationResult>
+{
+    /** Serialisation ID. */
+    private static final long serialVersionUID = 4180951620519931762L;
+    /** The strategy for the simulated player. */
+    private final PlayerStrategy strategy;
+    /** The bet placed on every hand. */
+    private final int bet;
+    /** The base seed for every batch. */
+    private final long seed;
+    /** The number of hands in each batch. */
+    private final long batchSize;
+    /** The total number of hands, the last batch may be short. */
+    private final long hands;
+    /** The first batch this task plays. */
+    private final long from;
+    /** The batch after the last one this task plays. */
+    private final long to;
+    
+    /**
+     * Creates a new {@link SimulationTask} covering the specified batches.
+     * 
+     * @param strategy The {@link PlayerStrategy} to play with.
+     * @param bet The bet for each hand as an int.
+     * @param seed The base seed as a long.
+     * @param batchSize The number of hands in a batch as a long.
+     * @param hands The total number of hands in the run as a long.
+     * @param from The first batch to play.
+     * @param to The batch to stop before.
+     * @since 1.0
+     */
+    public SimulationTask(PlayerStrategy strategy, int bet, long seed, 
+            long batchSize, long hands, long from, long to)
+    {
+        this.strategy = strategy;
+        this.bet = bet;
+        this.seed = seed;
+        this.batchSize = batchSize;
+        this.hands = hands;
+        this.from = from;
+        this.to = to;
+    }
+    
+    /**
+     * Plays the batches assigned to this task, splitting them between new 
+     * tasks if there is more than one.
+     * 
+     * @return The combined {@link SimulationResult} for every batch.
+     * @since 1.0
+     */
+    @Override
+    protected SimulationResult compute()
+    {
+        if (to - from > 1) {
+            long mid = (from + to) >>> 1;
+            SimulationTask left = new SimulationTask(strategy, bet, seed, 
+                    batchSize, hands, from, mid);
+            SimulationTask right = new SimulationTask(strategy, bet, seed, 
+                    batchSize, hands, mid, to);
+            left.fork();
+            SimulationResult result = right.compute();
+            return result.merge(left.join());
+        }
+        
+        SimulationResult result = new SimulationResult();
+        PontoonEngine engine = 
+                new PontoonEngine(PontoonEngine.mixSeed(seed, from));
+        long count = Math.min(batchSize, hands - from * batchSize);
+        for (long i = 0; i < count; i++)
+            result.record(engine.playHand(strategy), bet);
+        return result;
+    }
+}
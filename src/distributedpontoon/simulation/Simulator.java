@@ -0,0 +1,192 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.shared.PontoonRules;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs large numbers of simulated hands of Pontoon across every processor
+ * core using a {@link ForkJoinPool}. Hands are played by {@link
+ * PontoonEngine}s following {@link PontoonRules}, so rule and strategy changes
+ * can be measured without starting any servers or clients.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-02
+ */
+public class Simulator
+{
+    /** The default number of hands in a batch played by one engine. */
+    public static final long DEFAULT_BATCH = 250000;
+
+    /** The pool the simulation tasks run on. */
+    private final ForkJoinPool pool;
+    /** The number of hands in a batch. */
+    private final long batchSize;
+
+    /**
+     * Creates a new {@link Simulator} using one thread per processor core.
+     *
+     * @since 1.0
+     */
+    public Simulator()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH);
+    }
+
+    /**
+     * Creates a new {@link Simulator} using the specified number of threads.
+     *
+     * @param threads The number of threads to simulate with as an int.
+     * @param batchSize The number of hands each engine plays in a batch.
+     * @throws IllegalArgumentException Thrown if either value is not
+     * positive.
+     * @since 1.0
+     */
+    public Simulator(int threads, long batchSize)
+            throws IllegalArgumentException
+    {
+        if (threads <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Threads and batch size must be greater than zero."
+            );
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Plays the specified number of hands and collects the results.
+     *
+     * @param strategy The {@link PlayerStrategy} the player uses.
+     * @param hands The number of hands to play as a long.
+     * @param bet The bet placed on each hand as an int.
+     * @param seed The seed for the run, the same seed always gives the same
+     * result.
+     * @return A {@link SimulationResult} for every hand played.
+     * @since 1.0
+     */
+    public SimulationResult run(PlayerStrategy strategy, long hands, int bet,
+            long seed)
+    {
+        long batches = (hands + batchSize - 1) / batchSize;
+        if (batches == 0) return new SimulationResult();
+        return pool.invoke(new SimulationTask(strategy, bet, seed, batchSize,
+                hands, 0, batches));
+    }
+
+    /**
+     * Stops the threads used by this {@link Simulator}.
+     *
+     * @since 1.0
+     */
+    public void shutdown() { pool.shutdown(); }
+
+    /**
+     * Runs a simulation from the command line and prints the results.
+     *
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args)
+    {
+        long hands = 10000000;
+        int threshold = 15;
+        int bet = 50;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long batch = DEFAULT_BATCH;
+        boolean useTable = false;
+        /* handle the command line parameters if any were passed. */
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--hands":
+                        hands = Long.parseLong(args[++i]);
+                        break;
+                    case "--threshold":
+                        threshold = Integer.parseInt(args[++i]);
+                        break;
+                    case "--table":
+                        useTable = true;
+                        break;
+                    case "--bet":
+                        bet = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--batch":
+                        batch = Long.parseLong(args[++i]);
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(helpMessage());
+                        return;
+                    default:
+                        System.err.printf("Unknown argument '%s'%n", args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println("Argument values must be numbers.");
+            return;
+        }
+
+        Simulator simulator;
+        try {
+            simulator = new Simulator(threads, batch);
+        } catch (IllegalArgumentException argEx) {
+            System.err.println(argEx.getMessage());
+            return;
+        }
+        PlayerStrategy strategy = new ThresholdStrategy(threshold);
+        if (useTable) {
+            try {
+                strategy = StrategyTable.getDefault();
+            } catch (IOException ioEx) {
+                System.err.printf("Could not load strategy table. Reason:%n"
+                        + "%s%n", ioEx.getMessage());
+                return;
+            }
+        }
+        System.out.printf("Simulating %d hands (%s, bet %d, seed %d) on %d "
+                + "threads...%n", hands, strategy, bet, seed, threads);
+
+        long start = System.nanoTime();
+        SimulationResult result = simulator.run(strategy, hands, bet, seed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        simulator.shutdown();
+
+        System.out.println(result);
+        System.out.printf("House edge: %.4f%% of each bet%n",
+                100.0 * result.getMean() / bet);
+        System.out.printf("Finished in %.2fs (%.0f hands per minute).%n",
+                seconds, result.getHands() / seconds * 60);
+    }
+
+    /**
+     * Creates a help message for the {@link Simulator} command line
+     * arguments.
+     *
+     * @return A String containing the help message.
+     * @since 1.0
+     */
+    private static String helpMessage()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Pontoon Simulator Help:\n");
+        sb.append("\tCommand [options] - Action\n");
+        sb.append("\t--hands [hands] - The number of hands to play.\n");
+        sb.append("\t--threshold [score] - The score the player sticks at.\n");
+        sb.append("\t--table - Plays with the precomputed strategy table.\n");
+        sb.append("\t--bet [credits] - The bet placed on each hand.\n");
+        sb.append("\t--seed [seed] - Seeds the run to make it repeatable.\n");
+        sb.append("\t--threads [threads] - The number of threads to use.\n");
+        sb.append("\t--batch [hands] - The number of hands per task.\n");
+        sb.append("\t--help (-h) - Displays this help message.\n");
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.client.RoboPlayer;
+import distributedpontoon.shared.Card;
+import distributedpontoon.shared.Hand;
+import distributedpontoon.shared.PontoonRules;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A precomputed table of the best move for every player position, generated
+ * offline by the {@link StrategyTableGenerator}. A position is the players
+ * best score, whether that score counts an Ace high, and the number of cards
+ * held. The dealers cards are hidden until the hand is settled, so there is
+ * no dealer information to index by.
+ * <p>
+ * The table is loaded once and each decision is a single array lookup, which
+ * makes it cheap enough for every {@link RoboPlayer} move.
+ *
+ * @author 6266215
+ * @version 1.2
+ * @since 2015-03-09
+ */
+public class StrategyTable implements PlayerStrategy
+{
+    /** The classpath location of the default table. */
+    public static final String DEFAULT_TABLE =
+            "/distributedpontoon/client/assets/strategy.tbl";
+    /** The number of card counts in the table, the last is six or more. */
+    public static final int CARD_ROWS = 5;
+    /** The number of scores in each row of the table. */
+    public static final int TOTALS = PontoonRules.TWENTY_ONE + 1;
+    /** The character used for a twist in the table file. */
+    private static final char TWIST = 'T';
+    /** The character used for a stick in the table file. */
+    private static final char STICK = 'S';
+
+    /** The lazily loaded default table. */
+    private static StrategyTable DEFAULT;
+
+    /** The moves in the table, true to twist. */
+    private final boolean[] moves;
+
+    /**
+     * Creates a new {@link StrategyTable} from a list of moves.
+     *
+     * @param moves The moves indexed by {@link StrategyTable#index(int,
+     * int, boolean)}, true to twist.
+     * @throws IllegalArgumentException Thrown if the list is the wrong size.
+     * @since 1.0
+     */
+    public StrategyTable(boolean[] moves) throws IllegalArgumentException
+    {
+        if (moves.length != CARD_ROWS * 2 * TOTALS) {
+            throw new IllegalArgumentException(
+                    "Strategy tables must have an entry for every position."
+            );
+        }
+        this.moves = moves.clone();
+    }
+
+    /**
+     * Gets the default {@link StrategyTable} shipped with the client. The
+     * table is only read the first time this is called.
+     *
+     * @return The default {@link StrategyTable}.
+     * @throws IOException Thrown if the table cannot be found or read.
+     * @since 1.0
+     */
+    public static synchronized StrategyTable getDefault() throws IOException
+    {
+        if (DEFAULT == null) {
+            InputStream in = StrategyTable.class.getResourceAsStream(
+                    DEFAULT_TABLE);
+            if (in == null)
+                throw new IOException("No strategy table at " + DEFAULT_TABLE);
+            try {
+                DEFAULT = read(in);
+            } finally {
+                in.close();
+            }
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * Works out where a position is stored in the table.
+     *
+     * @param total The best score of the hand.
+     * @param cards The number of cards in the hand.
+     * @param soft Set to true if the score counts an Ace high.
+     * @return The index of the position as an int.
+     * @since 1.0
+     */
+    public static int index(int total, int cards, boolean soft)
+    {
+        int row = Math.max(0, Math.min(cards, CARD_ROWS + 1) - 2);
+        return ((row * 2) + (soft ? 1 : 0)) * TOTALS + total;
+    }
+
+    /**
+     * Looks up the move for a position. Bust hands always stick.
+     *
+     * @param total The best score of the hand.
+     * @param cards The number of cards in the hand.
+     * @param soft Set to true if the score counts an Ace high.
+     * @return Returns true to twist, false to stick.
+     * @since 1.0
+     */
+    @Override
+    public boolean twist(int total, int cards, boolean soft)
+    {
+        if (total < 0 || total >= TOTALS) return false;
+        return moves[index(total, cards, soft)];
+    }
+
+    /**
+     * Tables are built from the best score of each hand, which is also how a 
+     * {@link distributedpontoon.client.RoboPlayer} using one plays its Aces 
+     * before sticking.
+     *
+     * @return Always false.
+     * @since 1.1
+     */
+    @Override
+    public boolean countsAcesAsPlayed() { return false; }
+
+    /**
+     * Looks up the move for a {@link Hand}, ignoring how the Aces in the hand
+     * are currently being played.
+     *
+     * @param hand The {@link Hand} to find a move for.
+     * @return Returns true to twist, false to stick.
+     * @since 1.0
+     */
+    public boolean twist(Hand hand)
+    {
+        int hard = 0;
+        int aces = 0;
+        for (Card c : hand.getCards()) {
+            int v = ProbabilityEngine.valueOf(c);
+            hard += v;
+            if (v == 1) aces++;
+        }
+        int total = PontoonRules.bestTotal(hard, aces);
+        return twist(total, hand.size(), total != hard);
+    }
+
+    /**
+     * Reads a {@link StrategyTable} from a stream. Each row holds a card
+     * count from 2 to {@link StrategyTable#CARD_ROWS} + 1, "hard" or "soft" 
+     * and a character per score from zero to 21. Lines starting with '#' are
+     * ignored.
+     *
+     * @param in The {@link InputStream} to read.
+     * @return The {@link StrategyTable} read.
+     * @throws IOException Thrown if the stream cannot be read or is not a
+     * valid table.
+     * @since 1.0
+     */
+    public static StrategyTable read(InputStream in) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+        boolean[] moves = new boolean[CARD_ROWS * 2 * TOTALS];
+        boolean[] seen = new boolean[CARD_ROWS * 2];
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            if (parts.length != 3 || parts[2].length() != TOTALS)
+                throw new IOException("Malformed strategy row: " + line);
+            int cards;
+            try {
+                cards = Integer.parseInt(parts[0]);
+            } catch (NumberFormatException nfEx) {
+                throw new IOException("Malformed strategy row: " + line);
+            }
+            // Lookups clamp the card count, but a row must name its own.
+            if (cards < 2 || cards > CARD_ROWS + 1
+                    || !(parts[1].equals("hard") || parts[1].equals("soft")))
+                throw new IOException("Malformed strategy row: " + line);
+            boolean soft = parts[1].equals("soft");
+            int start = index(0, cards, soft);
+            for (int t = 0; t < TOTALS; t++) {
+                char move = parts[2].charAt(t);
+                if (move != TWIST && move != STICK)
+                    throw new IOException("Malformed strategy row: " + line);
+                moves[start + t] = move == TWIST;
+            }
+            seen[start / TOTALS] = true;
+        }
+        for (boolean row : seen) {
+            if (!row) throw new IOException("Strategy table is incomplete.");
+        }
+        return new StrategyTable(moves);
+    }
+
+    /**
+     * Writes this {@link StrategyTable} in the format read by {@link
+     * StrategyTable#read(InputStream)}.
+     *
+     * @param out The {@link PrintWriter} to write to.
+     * @since 1.0
+     */
+    public void write(PrintWriter out)
+    {
+        out.println("# cards hard/soft moves for scores 0-21 (T twist, "
+                + "S stick)");
+        for (int row = 0; row < CARD_ROWS; row++) {
+            for (int soft = 0; soft < 2; soft++) {
+                int start = index(0, row + 2, soft == 1);
+                StringBuilder sb = new StringBuilder();
+                for (int t = 0; t < TOTALS; t++)
+                    sb.append(moves[start + t] ? TWIST : STICK);
+                out.printf("%d %s %s%n", row + 2, soft == 1 ? "soft" : "hard",
+                        sb);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Gets the name of this {@link StrategyTable}.
+     *
+     * @return A String describing the strategy.
+     * @since 1.0
+     * @see Object#toString()
+     */
+    @Override
+    public String toString() { return "Strategy table"; }
+}
@@ -0,0 +1,149 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.shared.PontoonRules;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds a {@link StrategyTable} offline using the exact odds from a {@link
+ * ProbabilityEngine}. Every combination of cards a player could hold is
+ * evaluated against the deck left without those cards. The results for each
+ * table position are weighted by how likely the cards are to be dealt, and
+ * the position is marked as a twist if twisting has the better expected value
+ * overall.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-09
+ */
+public class StrategyTableGenerator
+{
+    /** The engine used to work out the odds of each hand. */
+    private final ProbabilityEngine engine;
+    /** The card counts in a full deck. */
+    private final int[] full;
+    /** The card counts left in the deck while enumerating hands. */
+    private final int[] deck;
+    /** The weighted gain from twisting over sticking for each position. */
+    private final double[] gain;
+    /** The number of hands evaluated. */
+    private long evaluated;
+
+    /**
+     * Creates a new {@link StrategyTableGenerator}.
+     *
+     * @since 1.0
+     */
+    public StrategyTableGenerator()
+    {
+        this.engine = new ProbabilityEngine();
+        this.full = ProbabilityEngine.fullDeck();
+        this.deck = ProbabilityEngine.fullDeck();
+        this.gain = new double[StrategyTable.CARD_ROWS * 2
+                * StrategyTable.TOTALS];
+        this.evaluated = 0;
+    }
+
+    /**
+     * Evaluates every hand a player could hold and builds the table.
+     *
+     * @return The generated {@link StrategyTable}.
+     * @since 1.0
+     */
+    public StrategyTable generate()
+    {
+        enumerate(1, 0, 0, 0, 1.0);
+        boolean[] moves = new boolean[gain.length];
+        for (int i = 0; i < gain.length; i++)
+            moves[i] = gain[i] > 0;
+        return new StrategyTable(moves);
+    }
+
+    /**
+     * Gets the number of hands evaluated so far.
+     *
+     * @return The number of hands as a long.
+     * @since 1.0
+     */
+    public long getEvaluated() { return evaluated; }
+
+    /**
+     * Enumerates every set of cards that does not go bust, taking card values
+     * in increasing order so each set is only visited once.
+     *
+     * @param from The lowest card value that may be added.
+     * @param hard The score of the cards counting Aces as one.
+     * @param aces The number of Aces held.
+     * @param cards The number of cards held.
+     * @param weight The chance of being dealt these cards, ignoring order.
+     * @since 1.0
+     */
+    private void enumerate(int from, int hard, int aces, int cards,
+            double weight)
+    {
+        if (cards >= 2) {
+            ProbabilityEngine.Odds odds =
+                    engine.evaluate(deck, hard, aces, cards);
+            int total = PontoonRules.bestTotal(hard, aces);
+            int i = StrategyTable.index(total, cards, total != hard);
+            gain[i] += weight * (odds.Twist - odds.Stand);
+            evaluated++;
+        }
+
+        int left = PontoonEngine.DECK_SIZE - cards;
+        for (int v = from; v <= ProbabilityEngine.MAX_VALUE; v++) {
+            if (deck[v] == 0 || hard + v > PontoonRules.TWENTY_ONE) continue;
+            // Multiply in the chance of one more card of this value.
+            int held = full[v] - deck[v];
+            double next = weight * deck[v] / left * (cards + 1) / (held + 1);
+            deck[v]--;
+            enumerate(v, hard + v, aces + (v == 1 ? 1 : 0), cards + 1, next);
+            deck[v]++;
+        }
+    }
+
+    /**
+     * Generates the table and writes it to a file.
+     *
+     * @param args The command line arguments, the file to write to can be
+     * given as the only argument.
+     */
+    public static void main(String[] args)
+    {
+        String path = "src" + StrategyTable.DEFAULT_TABLE;
+        if (args.length > 0) {
+            if (args[0].equals("-h") || args[0].equals("--help")) {
+                System.out.println("Usage: StrategyTableGenerator [file]");
+                return;
+            }
+            path = args[0];
+        }
+
+        System.out.println("Generating strategy table...");
+        long start = System.nanoTime();
+        StrategyTableGenerator generator = new StrategyTableGenerator();
+        StrategyTable table = generator.generate();
+        System.out.printf("Evaluated %d hands in %.1fs.%n",
+                generator.getEvaluated(),
+                (System.nanoTime() - start) / 1e9);
+
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(path), StandardCharsets.UTF_8));
+            out.println("# Pontoon strategy table, generated by "
+                    + "StrategyTableGenerator.");
+            table.write(out);
+            System.out.printf("Table written to %s.%n", path);
+        } catch (IOException ioEx) {
+            System.err.printf("Could not write table. Reason:%n%s%n",
+                    ioEx.getMessage());
+        } finally {
+            if (out != null)
+                out.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package distributedpontoon.simulation;
+
+import distributedpontoon.client.RoboPlayer;
+import distributedpontoon.shared.PontoonRules;
+
+/**
+ * The same tactic a {@link RoboPlayer} uses, twisting as long as the value of 
+ * the hand is below a fixed threshold. Both make the decision with {@link 
+ * PontoonRules#thresholdTwist(int, int)}, and count Aces the way the robot 
+ * plays them rather than at their best.
+ * 
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-02
+ */
+public class ThresholdStrategy implements PlayerStrategy
+{
+    /** The score the player must reach before it will stick. */
+    private final int threshold;
+    
+    /**
+     * Creates a new {@link ThresholdStrategy} that twists below the specified 
+     * score.
+     * 
+     * @param threshold The score to stick at as an int.
+     * @since 1.0
+     */
+    public ThresholdStrategy(int threshold)
+    {
+        this.threshold = threshold;
+    }
+    
+    /**
+     * Gets the score this {@link ThresholdStrategy} sticks at.
+     * 
+     * @return The threshold as an int.
+     * @since 1.0
+     */
+    public int getThreshold() { return threshold; }
+    
+    /**
+     * Twists while the players score is below the threshold.
+     * 
+     * @param total The score of the players hand with its Aces as played.
+     * @param cards The number of cards in the players hand.
+     * @param soft Set to true if the total counts an Ace as 11 points.
+     * @return Returns true to twist, false to stick.
+     * @since 1.0
+     */
+    @Override
+    public boolean twist(int total, int cards, boolean soft)
+    {
+        return PontoonRules.thresholdTwist(total, threshold);
+    }
+    
+    /**
+     * Counts Aces as a {@link RoboPlayer} plays them.
+     * 
+     * @return Always true.
+     * @since 1.1
+     */
+    @Override
+    public boolean countsAcesAsPlayed() { return true; }
+    
+    /**
+     * Gets the name of this {@link ThresholdStrategy}.
+     * 
+     * @return A String describing the strategy.
+     * @since 1.0
+     * @see Object#toString() 
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("Threshold %d", threshold);
+    }
+}
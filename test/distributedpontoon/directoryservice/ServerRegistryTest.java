@@ -0,0 +1,258 @@
+package distributedpontoon.directoryservice;
+
+import distributedpontoon.shared.GameIdGenerator;
+import distributedpontoon.shared.Triple;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that readers of a {@link ServerRegistry} are sent only the changes
+ * they missed while those are still logged, and every game otherwise, and
+ * that no two servers are leased the same node number.
+ *
+ * @author 6266215
+ * @version 1.1
+ * @since 2015-03-15
+ */
+public class ServerRegistryTest
+{
+    /** The host name of every server. */
+    private static final String HOST = "host";
+
+    /** The registry under test. */
+    private ServerRegistry registry;
+
+    /**
+     * Starts with an empty registry.
+     *
+     * @since 1.0
+     */
+    @Before
+    public void setUp()
+    {
+        registry = new ServerRegistry();
+    }
+
+    /**
+     * A reader at the current version is sent the changes made since, in
+     * order, and applying them brings its copy up to date.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void readerIsSentOnlyNewChanges()
+    {
+        registry.registerServer(HOST, 1);
+        long known = registry.getVersion();
+        Set<Triple<String, Integer, Integer>> copy = registry.getHosts();
+
+        registry.registerGame(HOST, 1, 5);
+        registry.registerGame(HOST, 2, 6);
+        ServerRegistry.Delta delta =
+                registry.changesSince(registry.getEpoch(), known);
+
+        assertFalse(delta.isFull());
+        assertEquals(registry.getVersion(), delta.Version);
+        assertEquals(2, delta.Changes.size());
+        assertEquals(5, delta.Changes.get(0).GameID);
+        assertEquals(6, delta.Changes.get(1).GameID);
+        assertTrue(delta.Changes.get(0).Added);
+        assertEquals(registry.getHosts(), apply(copy, delta));
+    }
+
+    /**
+     * Removing a game or a whole server is sent as a change for each game
+     * removed.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void removalsAreSentAsChanges()
+    {
+        registry.registerServer(HOST, 1);
+        registry.registerGame(HOST, 1, 5);
+        registry.registerServer(HOST, 2);
+        long known = registry.getVersion();
+        Set<Triple<String, Integer, Integer>> copy = registry.getHosts();
+
+        registry.unregisterGame(HOST, 1, 5);
+        assertTrue(registry.removeServer(HOST, 2));
+        ServerRegistry.Delta delta =
+                registry.changesSince(registry.getEpoch(), known);
+
+        assertFalse(delta.isFull());
+        assertEquals(3, delta.Changes.size());
+        for (ServerRegistry.Change c : delta.Changes)
+            assertFalse(c.Added);
+        assertEquals(registry.getHosts(), apply(copy, delta));
+        assertEquals(1, registry.getMembers().size());
+    }
+
+    /**
+     * Nothing is logged for a change that changes nothing.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void noChangeIsNotLogged()
+    {
+        registry.registerServer(HOST, 1);
+        long known = registry.getVersion();
+        registry.registerGame(HOST, 1, 0);
+        registry.unregisterGame(HOST, 1, 7);
+        assertFalse(registry.removeServer(HOST, 2));
+
+        assertEquals(known, registry.getVersion());
+        assertTrue(registry.changesSince(registry.getEpoch(), known)
+                .Changes.isEmpty());
+    }
+
+    /**
+     * A reader whose version comes from another epoch, such as a registry
+     * that has since restarted, is sent every game.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void unknownEpochIsSentEveryGame()
+    {
+        registry.registerServer(HOST, 1);
+        ServerRegistry.Delta delta = registry.changesSince(
+                registry.getEpoch() + 1, registry.getVersion());
+
+        assertTrue(delta.isFull());
+        assertNull(delta.Changes);
+        assertEquals(registry.getHosts(), delta.Hosts);
+        assertEquals(registry.getEpoch(), delta.Epoch);
+    }
+
+    /**
+     * A reader claiming a version the registry has not reached is sent every
+     * game.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void futureVersionIsSentEveryGame()
+    {
+        registry.registerServer(HOST, 1);
+        assertTrue(registry.changesSince(registry.getEpoch(),
+                registry.getVersion() + 1).isFull());
+    }
+
+    /**
+     * Once the log has wrapped, a reader at the oldest version it still
+     * covers is sent the whole log, and a reader one version further behind
+     * is sent every game.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void readerBehindTheLogIsSentEveryGame()
+    {
+        int extra = 100;
+        for (int game = 1; game <= ServerRegistry.LOG_SIZE + extra; game++)
+            registry.registerGame(HOST, 1, game);
+        long floor = registry.getVersion() - ServerRegistry.LOG_SIZE;
+        assertEquals(extra, floor);
+
+        ServerRegistry.Delta delta =
+                registry.changesSince(registry.getEpoch(), floor);
+        assertFalse(delta.isFull());
+        assertEquals(ServerRegistry.LOG_SIZE, delta.Changes.size());
+        assertEquals(floor + 1, delta.Changes.get(0).Version);
+
+        delta = registry.changesSince(registry.getEpoch(), floor - 1);
+        assertTrue(delta.isFull());
+        assertEquals(ServerRegistry.LOG_SIZE + extra, delta.Hosts.size());
+    }
+
+    /**
+     * Two servers asking for the same node get different ones, and the one
+     * that asked first keeps it.
+     *
+     * @since 1.1
+     */
+    @Test
+    public void secondServerAskingForANodeGetsAnother()
+    {
+        assertEquals(5, registry.assignNode(HOST, 1, 5));
+        assertEquals(6, registry.assignNode(HOST, 2, 5));
+        // Registering again keeps the node already held.
+        assertEquals(5, registry.assignNode(HOST, 1, 5));
+        assertEquals(6, registry.assignNode(HOST, 2, 5));
+    }
+
+    /**
+     * A server cannot claim a node leased to another, but can once that
+     * server is removed.
+     *
+     * @since 1.1
+     */
+    @Test
+    public void nodeIsFreedWhenItsServerIsRemoved()
+    {
+        registry.registerServer(HOST, 1);
+        assertEquals(5, registry.assignNode(HOST, 1, 5));
+        assertFalse(registry.claimNode(HOST, 2, 5));
+        assertTrue(registry.claimNode(HOST, 1, 5));
+
+        registry.removeServer(HOST, 1);
+        assertTrue(registry.claimNode(HOST, 2, 5));
+    }
+
+    /**
+     * A server moving to another node gives up the one it held.
+     *
+     * @since 1.1
+     */
+    @Test
+    public void claimingAnotherNodeFreesTheOld()
+    {
+        assertTrue(registry.claimNode(HOST, 1, 5));
+        assertTrue(registry.claimNode(HOST, 1, 9));
+        assertTrue(registry.claimNode(HOST, 2, 5));
+    }
+
+    /**
+     * The search for a free node wraps around past the largest, and once
+     * every node is leased no more are given out.
+     *
+     * @since 1.1
+     */
+    @Test
+    public void nodesWrapAroundUntilNoneAreLeft()
+    {
+        assertEquals(GameIdGenerator.MAX_NODE,
+                registry.assignNode(HOST, 0, GameIdGenerator.MAX_NODE));
+        assertEquals(0,
+                registry.assignNode(HOST, 1, GameIdGenerator.MAX_NODE));
+        for (int port = 2; port <= GameIdGenerator.MAX_NODE; port++)
+            assertTrue(registry.assignNode(HOST, port, 0) >= 0);
+        assertEquals(-1, registry.assignNode(HOST, -1, 0));
+    }
+
+    /**
+     * Applies a {@link ServerRegistry.Delta} to a copy of a readers games.
+     *
+     * @param games The games the reader knew.
+     * @param delta The {@link ServerRegistry.Delta} sent.
+     * @return The games once the changes are applied.
+     * @since 1.0
+     */
+    private static Set<Triple<String, Integer, Integer>> apply(
+            Set<Triple<String, Integer, Integer>> games,
+            ServerRegistry.Delta delta)
+    {
+        Set<Triple<String, Integer, Integer>> copy = new HashSet<>(games);
+        for (ServerRegistry.Change c : delta.Changes)
+            c.applyTo(copy);
+        return copy;
+    }
+}
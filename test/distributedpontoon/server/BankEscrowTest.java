@@ -0,0 +1,151 @@
+package distributedpontoon.server;
+
+import distributedpontoon.shared.DirectoryEndpoints;
+import distributedpontoon.shared.Pair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link Server}s sharing a bank through {@link BankEscrow}s can
+ * never hold back more than the bank holds between them.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class BankEscrowTest
+{
+    /** The bank every server starts with. */
+    private static final long BANK = 50000;
+
+    /** The first server in the cluster. */
+    private static final Pair<String, Integer> ONE = new Pair<>("one", 1);
+    /** The second server in the cluster. */
+    private static final Pair<String, Integer> TWO = new Pair<>("two", 2);
+
+    /** The view of the first server. */
+    private ClusterView viewOne;
+    /** The escrow of the first server. */
+    private BankEscrow first;
+    /** The escrow of the second server. */
+    private BankEscrow second;
+
+    /**
+     * Sets up two servers that know of each other and have seen the same
+     * bank.
+     *
+     * @since 1.0
+     */
+    @Before
+    public void setUp()
+    {
+        PNCounter bankOne = new PNCounter("one", BANK);
+        PNCounter bankTwo = new PNCounter("two", BANK);
+        bankOne.merge(bankTwo.snapshot());
+        bankTwo.merge(bankOne.snapshot());
+
+        DirectoryEndpoints dirs = new DirectoryEndpoints("localhost",
+                DirectoryEndpoints.DEFAULT_PORT);
+        viewOne = new ClusterView(ONE.Left, ONE.Right, dirs);
+        ClusterView viewTwo = new ClusterView(TWO.Left, TWO.Right, dirs);
+        viewOne.update(Arrays.asList(ONE, TWO));
+        viewTwo.update(Arrays.asList(ONE, TWO));
+
+        first = new BankEscrow(bankOne, viewOne);
+        second = new BankEscrow(bankTwo, viewTwo);
+    }
+
+    /**
+     * Neither of two servers can hold back the whole bank, and once each has
+     * taken its half neither can take any more.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void twoServersCannotBothReserveTheWholeBank()
+    {
+        assertFalse(first.reserve((int)BANK));
+        assertFalse(second.reserve((int)BANK));
+
+        assertTrue(first.reserve((int)BANK / 2));
+        assertTrue(second.reserve((int)BANK / 2));
+        assertFalse(first.reserve(1));
+        assertFalse(second.reserve(1));
+        assertEquals(BANK, first.getReserved() + second.getReserved());
+    }
+
+    /**
+     * Servers reserving from many threads at once never hold back more than
+     * the bank between them.
+     *
+     * @throws InterruptedException Thrown if the test is interrupted.
+     * @since 1.0
+     */
+    @Test
+    public void racingReservationsNeverOvercommit() throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong granted = new AtomicLong();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final BankEscrow escrow = (i % 2 == 0) ? first : second;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException intEx) {
+                        return;
+                    }
+                    for (int n = 0; n < 10000; n++) {
+                        if (escrow.reserve(7))
+                            granted.addAndGet(7);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertTrue(granted.get() <= BANK);
+        assertEquals(granted.get(), first.getReserved()
+                + second.getReserved());
+    }
+
+    /**
+     * A server on its own can hold back the whole bank.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void loneServerCanReserveTheWholeBank()
+    {
+        BankEscrow alone = new BankEscrow(new PNCounter("alone", BANK), null);
+        assertTrue(alone.reserve((int)BANK));
+        assertFalse(alone.reserve(1));
+    }
+
+    /**
+     * A servers share grows when the other server leaves the cluster.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void shareFollowsTheClusterView()
+    {
+        assertEquals(BANK / 2, first.share());
+        viewOne.update(Collections.singletonList(ONE));
+        assertEquals(BANK, first.share());
+        assertTrue(first.reserve((int)BANK));
+    }
+}
@@ -0,0 +1,182 @@
+package distributedpontoon.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a {@link BankJournal} gives back the bank it kept, from its
+ * snapshot and journal, including after a crash tore the last record.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class BankJournalTest
+{
+    /** The bank every server starts with. */
+    private static final long BANK = 50000;
+    /** The size of a settlement and its commit written on their own. */
+    private static final int COMMIT_BYTES = 9 + 25;
+
+    /** Holds the journal files, removed after each test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The name of the journal files, without an extension. */
+    private String name;
+    /** The bank being kept. */
+    private PNCounter bank;
+    /** The journal keeping the bank. */
+    private BankJournal journal;
+
+    /**
+     * Starts a journal for a bank that has already seen another server.
+     *
+     * @throws IOException Thrown if the journal cannot be started.
+     * @since 1.0
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        name = new File(folder.getRoot(), "bank").getPath();
+        bank = new PNCounter("own", BANK);
+        bank.merge(Collections.singletonMap("other", new long[] {70, 30}));
+        journal = new BankJournal(name, bank, 0);
+        journal.start();
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @since 1.0
+     */
+    @After
+    public void tearDown()
+    {
+        journal.close();
+    }
+
+    /**
+     * Settlements made after the snapshot are replayed from the journal on
+     * top of it, without the journal being closed.
+     *
+     * @throws IOException Thrown if the files cannot be read.
+     * @since 1.0
+     */
+    @Test
+    public void journalIsReplayedAfterSnapshot() throws IOException
+    {
+        settle(100, -40, 25);
+
+        Map<String, long[]> state = BankJournal.recover(name);
+        assertArrayEquals(new long[] {125, 40}, state.get("own"));
+        assertArrayEquals(new long[] {70, 30}, state.get("other"));
+
+        PNCounter restored = new PNCounter("own", BANK);
+        restored.restore(state);
+        assertEquals(bank.value(), restored.value());
+    }
+
+    /**
+     * A last commit whose checksum does not match is ignored, leaving the
+     * commit before it.
+     *
+     * @throws IOException Thrown if the files cannot be read or changed.
+     * @since 1.0
+     */
+    @Test
+    public void commitWithBadChecksumIsIgnored() throws IOException
+    {
+        settle(100, -40);
+        try (RandomAccessFile f = new RandomAccessFile(name + ".journal",
+                "rw")) {
+            f.seek(f.length() - 1);
+            int last = f.read();
+            f.seek(f.length() - 1);
+            f.write(last ^ 0xff);
+        }
+
+        assertArrayEquals(new long[] {100, 0},
+                BankJournal.recover(name).get("own"));
+    }
+
+    /**
+     * A last record cut short by a crash ends the journal, leaving the
+     * commit before it.
+     *
+     * @throws IOException Thrown if the files cannot be read or changed.
+     * @since 1.0
+     */
+    @Test
+    public void tornLastRecordIsIgnored() throws IOException
+    {
+        settle(100, -40);
+        try (RandomAccessFile f = new RandomAccessFile(name + ".journal",
+                "rw")) {
+            f.setLength(f.length() - 3);
+        }
+        assertArrayEquals(new long[] {100, 0},
+                BankJournal.recover(name).get("own"));
+
+        // Leaving only part of the settlement before it changes nothing.
+        try (RandomAccessFile f = new RandomAccessFile(name + ".journal",
+                "rw")) {
+            f.setLength(f.length() - (COMMIT_BYTES - 3) + 4);
+        }
+        assertArrayEquals(new long[] {100, 0},
+                BankJournal.recover(name).get("own"));
+    }
+
+    /**
+     * Each slot recovers the larger totals of the snapshot and the journal,
+     * so an old journal left beside a newer snapshot cannot undo it.
+     *
+     * @throws IOException Thrown if the files cannot be read or copied.
+     * @since 1.0
+     */
+    @Test
+    public void largestTotalsOfEachSlotAreKept() throws IOException
+    {
+        settle(100, -40);
+        File journalFile = new File(name + ".journal");
+        File old = new File(name + ".old");
+        Files.copy(journalFile.toPath(), old.toPath());
+        settle(60, -10);
+
+        // Closing snapshots the final totals and starts an empty journal.
+        journal.close();
+        Files.copy(old.toPath(), journalFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        Map<String, long[]> state = BankJournal.recover(name);
+        assertArrayEquals(new long[] {160, 50}, state.get("own"));
+        assertArrayEquals(new long[] {70, 30}, state.get("other"));
+    }
+
+    /**
+     * Settles one game for each change, each flushed on its own.
+     *
+     * @param deltas The changes to the bank.
+     * @since 1.0
+     */
+    private void settle(int... deltas)
+    {
+        int game = 1;
+        for (int delta : deltas) {
+            bank.add(delta);
+            journal.commit(game++, delta);
+        }
+    }
+}
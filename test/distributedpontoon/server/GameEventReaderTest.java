@@ -0,0 +1,65 @@
+package distributedpontoon.server;
+
+import distributedpontoon.server.GameEventJournal.EventType;
+import distributedpontoon.shared.PontoonRules;
+import distributedpontoon.shared.PontoonRules.Outcome;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the hands summarised by a {@link GameEventReader} are the ones
+ * a {@link GameEventJournal} wrote.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class GameEventReaderTest
+{
+    /** The bet placed on every hand. */
+    private static final int BET = 10;
+
+    /** Holds the event file, removed after each test. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Every hand the player won or pushed counts as won, whatever it made for
+     * the bank, and every other hand does not.
+     *
+     * @throws IOException Thrown if the file cannot be written or read.
+     * @since 1.0
+     */
+    @Test
+    public void handsWonAreCountedByOutcome() throws IOException
+    {
+        String name = new File(folder.getRoot(), "games").getPath();
+        GameEventJournal journal = new GameEventJournal(name, 10);
+        journal.start();
+        long wins = 0, houseTotal = 0;
+        int game = 1;
+        for (Outcome outcome : Outcome.values()) {
+            int delta = PontoonRules.houseDelta(outcome, BET);
+            journal.append(EventType.SETTLEMENT, game++, 1, outcome.ordinal(),
+                    BET, delta, 21);
+            if (outcome.isPlayerWin()) wins++;
+            houseTotal += delta;
+        }
+        journal.append(EventType.BET, game, 1, 0, BET, 0, 0);
+        journal.close();
+        assertEquals(0, journal.getDropped());
+
+        GameEventReader.Summary summary =
+                GameEventReader.summarise(new File(name + ".events"));
+        assertEquals(Outcome.values().length, summary.Hands);
+        assertEquals(6, wins);
+        assertEquals(wins, summary.Wins);
+        assertEquals(houseTotal, summary.HouseTotal);
+        assertEquals(1, summary.ByType[EventType.BET.ordinal()]);
+        assertEquals(0, summary.Unknown);
+    }
+}
@@ -0,0 +1,107 @@
+package distributedpontoon.shared;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link GameIdGenerator} packs its node number and count into
+ * IDs that are always positive and can be unpacked again.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class GameIdGeneratorTest
+{
+    /** The largest count held in an ID. */
+    private static final int MAX_SEQUENCE =
+            (1 << GameIdGenerator.SEQUENCE_BITS) - 1;
+
+    /**
+     * The node number and count read back from an ID are the ones packed
+     * into it, for the smallest and largest nodes.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void nodeAndCountAreReadBack()
+    {
+        for (int node : new int[] {0, 1, GameIdGenerator.MAX_NODE}) {
+            GameIdGenerator ids = new GameIdGenerator(node);
+            for (int count = 1; count <= 3; count++) {
+                int id = ids.next();
+                assertEquals(node, GameIdGenerator.nodeOf(id));
+                assertEquals(count, GameIdGenerator.sequenceOf(id));
+            }
+        }
+    }
+
+    /**
+     * Once the count is used up it starts again from one, and no ID along
+     * the way is zero or negative, even on the largest node.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void countWrapsToOneAndIdsStayPositive()
+    {
+        GameIdGenerator ids = new GameIdGenerator(GameIdGenerator.MAX_NODE);
+        int last = 0;
+        for (int i = 0; i < MAX_SEQUENCE; i++) {
+            last = ids.next();
+            assertTrue(last > 0);
+        }
+        assertEquals(MAX_SEQUENCE, GameIdGenerator.sequenceOf(last));
+        assertEquals(Integer.MAX_VALUE, last);
+
+        int wrapped = ids.next();
+        assertEquals(1, GameIdGenerator.sequenceOf(wrapped));
+        assertEquals(GameIdGenerator.MAX_NODE,
+                GameIdGenerator.nodeOf(wrapped));
+    }
+
+    /**
+     * IDs made by two nodes never match.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void nodesNeverShareIds()
+    {
+        GameIdGenerator first = new GameIdGenerator(3);
+        GameIdGenerator second = new GameIdGenerator(4);
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(seen.add(first.next()));
+            assertTrue(seen.add(second.next()));
+        }
+    }
+
+    /**
+     * Node numbers outside the range an ID can hold are refused.
+     *
+     * @since 1.0
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeOutOfRangeIsRefused()
+    {
+        new GameIdGenerator(GameIdGenerator.MAX_NODE + 1);
+    }
+
+    /**
+     * Node numbers worked out from a host name and port are in range.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void derivedNodesAreInRange()
+    {
+        for (int port = 0; port < 2000; port++) {
+            int node = GameIdGenerator.nodeFor("host-" + port, port);
+            assertTrue(node >= 0 && node <= GameIdGenerator.MAX_NODE);
+        }
+    }
+}
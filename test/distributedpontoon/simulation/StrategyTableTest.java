@@ -0,0 +1,135 @@
+package distributedpontoon.simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link StrategyTable} survives being written and read back,
+ * and that rows which would silently fill the wrong part of a table are
+ * rejected.
+ *
+ * @author 6266215
+ * @version 1.0
+ * @since 2015-03-15
+ */
+public class StrategyTableTest
+{
+    /** A table written out, one row per line. */
+    private String written;
+
+    /**
+     * Writes a table with a different move in every position of a row.
+     *
+     * @since 1.0
+     */
+    @Before
+    public void setUp()
+    {
+        boolean[] moves = new boolean[StrategyTable.CARD_ROWS * 2
+                * StrategyTable.TOTALS];
+        for (int i = 0; i < moves.length; i++)
+            moves[i] = (i % 3 == 0) ^ (i / StrategyTable.TOTALS % 2 == 1);
+        StringWriter out = new StringWriter();
+        new StrategyTable(moves).write(new PrintWriter(out));
+        written = out.toString();
+    }
+
+    /**
+     * Every move of a table read back is the move written.
+     *
+     * @throws IOException Thrown if the table cannot be read.
+     * @since 1.0
+     */
+    @Test
+    public void tableReadsBackAsWritten() throws IOException
+    {
+        StrategyTable table = read(written);
+        for (int cards = 2; cards <= StrategyTable.CARD_ROWS + 1; cards++) {
+            for (int soft = 0; soft < 2; soft++) {
+                for (int t = 0; t < StrategyTable.TOTALS; t++) {
+                    int i = StrategyTable.index(t, cards, soft == 1);
+                    assertEquals((i % 3 == 0)
+                            ^ (i / StrategyTable.TOTALS % 2 == 1),
+                            table.twist(t, cards, soft == 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * A row that is neither hard nor soft is rejected.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void misspeltKindIsRejected()
+    {
+        assertMalformed(written.replaceFirst("2 soft", "2 sfot"));
+    }
+
+    /**
+     * Rows for fewer than two cards or more than the last row are rejected,
+     * rather than overwriting the nearest row.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void cardCountOutOfRangeIsRejected()
+    {
+        String row = written.substring(written.indexOf("\n2 hard") + 1);
+        row = row.substring(0, row.indexOf('\n'));
+        assertMalformed(written + row.replaceFirst("2", "1") + "\n");
+        assertMalformed(written + row.replaceFirst("2",
+                Integer.toString(StrategyTable.CARD_ROWS + 2)) + "\n");
+    }
+
+    /**
+     * A move other than a twist or a stick is rejected.
+     *
+     * @since 1.0
+     */
+    @Test
+    public void unknownMoveIsRejected()
+    {
+        assertMalformed(written.replaceFirst("\n3 hard ([TS]*)[TS]\n",
+                "\n3 hard $1X\n"));
+    }
+
+    /**
+     * Reads a table from a String.
+     *
+     * @param text The table as written.
+     * @return The {@link StrategyTable} read.
+     * @throws IOException Thrown if the table is not valid.
+     * @since 1.0
+     */
+    private static StrategyTable read(String text) throws IOException
+    {
+        return StrategyTable.read(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Checks that a table is rejected as holding a malformed row.
+     *
+     * @param text The table as written.
+     * @since 1.0
+     */
+    private static void assertMalformed(String text)
+    {
+        try {
+            read(text);
+            fail("Table was read.");
+        } catch (IOException ioEx) {
+            assertTrue(ioEx.getMessage().startsWith("Malformed strategy row"));
+        }
+    }
+}